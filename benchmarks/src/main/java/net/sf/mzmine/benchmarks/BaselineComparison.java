@@ -0,0 +1,213 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares benchmark results with a baseline. Both are JMH result files in
+ * CSV format, written with the options -rf csv -rff <file>. For each
+ * benchmark and combination of parameters, the report shows the baseline and
+ * current scores and the relative change, and marks changes beyond the
+ * threshold as regressions or improvements. Lower scores are better, except
+ * in throughput mode.
+ *
+ * Usage: BaselineComparison baseline.csv current.csv [threshold]
+ *
+ * The threshold is a fraction of the baseline score, 0.1 by default. The exit
+ * code is 1 if any benchmark regressed, so the comparison can fail a build.
+ */
+public class BaselineComparison {
+
+    private static final double DEFAULT_THRESHOLD = 0.1;
+
+    private static final String THROUGHPUT_MODE = "thrpt";
+
+    // Package prefix left out of the benchmark names
+    private static final String PACKAGE_PREFIX = "net.sf.mzmine.";
+
+    /**
+     * Score of one benchmark with one combination of parameters
+     */
+    private static class Result {
+	String mode, unit;
+	double score;
+    }
+
+    public static void main(String args[]) throws IOException {
+
+	if ((args.length < 2) || (args.length > 3)) {
+	    System.err.println("Usage: " + BaselineComparison.class.getName()
+		    + " baseline.csv current.csv [threshold]");
+	    System.exit(2);
+	}
+
+	final double threshold = args.length > 2 ? Double
+		.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+	Map<String, Result> baseline = readResults(new File(args[0]));
+	Map<String, Result> current = readResults(new File(args[1]));
+
+	int width = "Benchmark".length();
+	for (String name : current.keySet())
+	    width = Math.max(width, name.length());
+	for (String name : baseline.keySet())
+	    width = Math.max(width, name.length());
+	final String nameFormat = "%-" + width + "s";
+
+	int regressions = 0;
+	System.out.println(String.format(Locale.US, nameFormat
+		+ " %14s %14s %-8s %9s  %s", "Benchmark", "Baseline",
+		"Current", "Unit", "Change", "Status"));
+
+	for (Map.Entry<String, Result> entry : current.entrySet()) {
+	    final String name = entry.getKey();
+	    final Result result = entry.getValue();
+	    final Result base = baseline.get(name);
+	    if (base == null) {
+		System.out.println(String.format(Locale.US, nameFormat
+			+ " %14s %14.3f %-8s %9s  %s", name, "-",
+			result.score, result.unit, "-", "new"));
+		continue;
+	    }
+
+	    final double change = (result.score - base.score) / base.score;
+	    final double loss = result.mode.equals(THROUGHPUT_MODE) ? -change
+		    : change;
+	    String status = "ok";
+	    if (!result.unit.equals(base.unit))
+		status = "unit changed";
+	    else if (loss > threshold) {
+		status = "REGRESSION";
+		regressions++;
+	    } else if (loss < -threshold)
+		status = "improved";
+
+	    System.out.println(String.format(Locale.US, nameFormat
+		    + " %14.3f %14.3f %-8s %+8.1f%%  %s", name, base.score,
+		    result.score, result.unit, change * 100, status));
+	}
+
+	for (String name : baseline.keySet()) {
+	    if (!current.containsKey(name))
+		System.out.println(String.format(Locale.US, nameFormat
+			+ " %14.3f %14s %-8s %9s  %s", name,
+			baseline.get(name).score, "-",
+			baseline.get(name).unit, "-", "missing"));
+	}
+
+	System.out.println(regressions + " regression(s) beyond "
+		+ Math.round(threshold * 100) + "%");
+	System.exit(regressions > 0 ? 1 : 0);
+
+    }
+
+    /**
+     * Reads a JMH CSV result file. The results are keyed by the benchmark
+     * name followed by its parameter values.
+     */
+    static Map<String, Result> readResults(File file) throws IOException {
+
+	Map<String, Result> results = new LinkedHashMap<String, Result>();
+	BufferedReader reader = new BufferedReader(new FileReader(file));
+	try {
+	    String line = reader.readLine();
+	    if (line == null)
+		throw new IOException("Empty result file " + file);
+	    List<String> header = splitLine(line);
+	    final int benchmarkColumn = header.indexOf("Benchmark");
+	    final int modeColumn = header.indexOf("Mode");
+	    final int scoreColumn = header.indexOf("Score");
+	    final int unitColumn = header.indexOf("Unit");
+	    if ((benchmarkColumn < 0) || (modeColumn < 0)
+		    || (scoreColumn < 0) || (unitColumn < 0))
+		throw new IOException(file + " is not a JMH CSV result file");
+
+	    while ((line = reader.readLine()) != null) {
+		if (line.trim().isEmpty())
+		    continue;
+		List<String> values = splitLine(line);
+
+		String benchmark = values.get(benchmarkColumn);
+		if (benchmark.startsWith(PACKAGE_PREFIX))
+		    benchmark = benchmark.substring(PACKAGE_PREFIX.length());
+		StringBuilder name = new StringBuilder(benchmark);
+		for (int i = 0; i < header.size(); i++) {
+		    if (header.get(i).startsWith("Param: ")
+			    && (i < values.size())
+			    && (!values.get(i).isEmpty())) {
+			name.append(' ').append(header.get(i).substring(7))
+				.append('=').append(values.get(i));
+		    }
+		}
+
+		Result result = new Result();
+		result.mode = values.get(modeColumn);
+		result.unit = values.get(unitColumn);
+		result.score = parseNumber(values.get(scoreColumn));
+		results.put(name.toString(), result);
+	    }
+	} finally {
+	    reader.close();
+	}
+	return results;
+
+    }
+
+    private static double parseNumber(String value) {
+	if (value.isEmpty() || value.equals("NaN"))
+	    return Double.NaN;
+	return Double.parseDouble(value);
+    }
+
+    /**
+     * Splits a line of comma separated values, which may be quoted
+     */
+    private static List<String> splitLine(String line) {
+	List<String> values = new ArrayList<String>();
+	StringBuilder value = new StringBuilder();
+	boolean quoted = false;
+	for (int i = 0; i < line.length(); i++) {
+	    final char c = line.charAt(i);
+	    if (c == '"') {
+		if (quoted && (i + 1 < line.length())
+			&& (line.charAt(i + 1) == '"')) {
+		    value.append('"');
+		    i++;
+		} else
+		    quoted = !quoted;
+	    } else if ((c == ',') && (!quoted)) {
+		values.add(value.toString());
+		value.setLength(0);
+	    } else
+		value.append(c);
+	}
+	values.add(value.toString());
+	return values;
+    }
+
+}
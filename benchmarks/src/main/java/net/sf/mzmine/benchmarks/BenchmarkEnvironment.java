@@ -0,0 +1,68 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.benchmarks;
+
+import java.lang.reflect.Field;
+
+import net.sf.mzmine.desktop.impl.HeadLessDesktop;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.main.impl.MZmineConfigurationImpl;
+import net.sf.mzmine.project.impl.ProjectManagerImpl;
+
+/**
+ * Sets up the core of MZmine without a GUI, with the default configuration
+ * and an empty project, as far as the benchmarked methods need it. Parameter
+ * classes use the number formats of the configuration, and tasks may log
+ * peaks and rows, which formats them.
+ */
+public class BenchmarkEnvironment {
+
+    private static boolean initialized = false;
+
+    public static synchronized void initialize() {
+
+	if (initialized)
+	    return;
+
+	try {
+	    setCoreField("configuration", new MZmineConfigurationImpl());
+	    setCoreField("desktop", new HeadLessDesktop());
+	    ProjectManagerImpl projectManager = new ProjectManagerImpl();
+	    projectManager.initModule();
+	    setCoreField("projectManager", projectManager);
+	} catch (ReflectiveOperationException e) {
+	    throw new IllegalStateException(
+		    "Could not set up the MZmine core", e);
+	}
+
+	initialized = true;
+
+    }
+
+    // MZmineCore is set up by its main method only, so its fields are set
+    // directly here
+    private static void setCoreField(String name, Object value)
+	    throws ReflectiveOperationException {
+	Field field = MZmineCore.class.getDeclaredField(name);
+	field.setAccessible(true);
+	field.set(null, value);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats.MzMLReadTask;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Loads the centroided mzML files of the unit tests, which are packaged with
+ * the benchmarks as resources
+ */
+public class Fixtures {
+
+    private static final String FIXTURE_PREFIX = "centroided";
+    private static final String FIXTURE_SUFFIX = ".mzML";
+
+    // Fixture files are numbered, with gaps, up to this number
+    private static final int MAX_FIXTURE_NUMBER = 20;
+
+    /**
+     * Imports all centroided fixture files
+     */
+    public static RawDataFile[] loadCentroidedFiles() throws IOException {
+	List<RawDataFile> dataFiles = new ArrayList<RawDataFile>();
+	for (int i = 1; i <= MAX_FIXTURE_NUMBER; i++) {
+	    final String name = FIXTURE_PREFIX + i + FIXTURE_SUFFIX;
+	    if (Fixtures.class.getResource("/" + name) != null)
+		dataFiles.add(loadFile(name));
+	}
+	if (dataFiles.isEmpty())
+	    throw new IOException("No " + FIXTURE_PREFIX + "*"
+		    + FIXTURE_SUFFIX + " fixtures on the class path");
+	return dataFiles.toArray(new RawDataFile[0]);
+    }
+
+    /**
+     * Returns the data points of all MS1 scans of the given files
+     */
+    public static DataPoint[][] getDataPoints(RawDataFile dataFiles[]) {
+	List<DataPoint[]> dataPoints = new ArrayList<DataPoint[]>();
+	for (RawDataFile dataFile : dataFiles) {
+	    for (int scanNumber : dataFile.getScanNumbers(1)) {
+		Scan scan = dataFile.getScan(scanNumber);
+		dataPoints.add(scan.getDataPoints());
+	    }
+	}
+	return dataPoints.toArray(new DataPoint[0][]);
+    }
+
+    /**
+     * Imports one fixture file, after copying it from the class path to a
+     * temporary file
+     */
+    public static RawDataFile loadFile(String name) throws IOException {
+
+	File tmpFile = File.createTempFile("mzmine-benchmark",
+		FIXTURE_SUFFIX);
+	tmpFile.deleteOnExit();
+	InputStream in = Fixtures.class.getResourceAsStream("/" + name);
+	if (in == null)
+	    throw new IOException("Fixture " + name + " not found");
+	try {
+	    Files.copy(in, tmpFile.toPath(),
+		    StandardCopyOption.REPLACE_EXISTING);
+	} finally {
+	    in.close();
+	}
+
+	RawDataFileImpl dataFile = new RawDataFileImpl(name);
+	MzMLReadTask readTask = new MzMLReadTask(new MZmineProjectImpl(),
+		tmpFile, dataFile);
+	readTask.run();
+	if (readTask.getStatus() != TaskStatus.FINISHED)
+	    throw new IOException("Could not import fixture " + name + ": "
+		    + readTask.getErrorMessage());
+	return dataFile;
+
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+import com.google.common.collect.Range;
+
+/**
+ * Generators of synthetic LC-MS data for the benchmarks. All data are derived
+ * from a seeded random generator, so each benchmark run processes the same
+ * input.
+ */
+public class SyntheticData {
+
+    // Mass difference between 13C and 12C isotopes
+    private static final double ISOTOPE_DISTANCE = 1.0033;
+
+    // Retention time range of the generated runs, in minutes
+    private static final double RUN_LENGTH = 30;
+
+    // Chromatographic peak width (standard deviation), in minutes
+    private static final double PEAK_WIDTH = 0.05;
+
+    /**
+     * A compound eluting as a Gaussian chromatographic peak
+     */
+    public static class Compound {
+
+	public final double mz, rt, height;
+
+	public Compound(double mz, double rt, double height) {
+	    this.mz = mz;
+	    this.rt = rt;
+	    this.height = height;
+	}
+
+	double getIntensity(double retentionTime) {
+	    final double x = (retentionTime - rt) / PEAK_WIDTH;
+	    return height * Math.exp(-x * x / 2);
+	}
+
+    }
+
+    /**
+     * Creates compounds with random m/z, retention time and height. If
+     * isotopes is true, each compound is followed by its isotope peaks of a
+     * random charge of 1 or 2, with decreasing heights.
+     */
+    public static Compound[] createCompounds(Random random,
+	    int numOfCompounds, boolean isotopes) {
+	List<Compound> compounds = new ArrayList<Compound>();
+	for (int i = 0; i < numOfCompounds; i++) {
+	    final double mz = 100 + random.nextDouble() * 900;
+	    final double rt = 1 + random.nextDouble() * (RUN_LENGTH - 2);
+	    final double height = 1e3 * Math.exp(random.nextDouble() * 8);
+	    compounds.add(new Compound(mz, rt, height));
+	    if (isotopes) {
+		final int charge = 1 + random.nextInt(2);
+		final int numOfIsotopes = 1 + random.nextInt(3);
+		for (int k = 1; k <= numOfIsotopes; k++) {
+		    compounds.add(new Compound(mz + k * ISOTOPE_DISTANCE
+			    / charge, rt, height * Math.pow(0.5, k)));
+		}
+	    }
+	}
+	return compounds.toArray(new Compound[0]);
+    }
+
+    /**
+     * Returns the compounds shifted by a random retention time deviation and
+     * m/z error, as measured in another sample
+     */
+    public static Compound[] shiftCompounds(Random random,
+	    Compound compounds[]) {
+	final double rtShift = (random.nextDouble() - 0.5) * 0.1;
+	Compound shifted[] = new Compound[compounds.length];
+	for (int i = 0; i < compounds.length; i++) {
+	    final Compound c = compounds[i];
+	    shifted[i] = new Compound(c.mz * (1 + random.nextGaussian() * 2e-6),
+		    c.rt + rtShift, c.height
+			    * (0.5 + random.nextDouble()));
+	}
+	return shifted;
+    }
+
+    /**
+     * Creates a raw data file with centroided MS1 scans containing the given
+     * compounds and random noise data points
+     */
+    public static RawDataFileImpl createRawDataFile(String name,
+	    Random random, Compound compounds[], int numOfScans,
+	    int noisePointsPerScan) throws IOException {
+
+	RawDataFileImpl dataFile = new RawDataFileImpl(name);
+
+	// Compounds sorted by m/z, so the data points of each scan are too
+	Compound sorted[] = compounds.clone();
+	Arrays.sort(sorted, new Comparator<Compound>() {
+	    public int compare(Compound a, Compound b) {
+		return Double.compare(a.mz, b.mz);
+	    }
+	});
+
+	for (int scanNumber = 1; scanNumber <= numOfScans; scanNumber++) {
+	    final double rt = getRetentionTime(scanNumber, numOfScans);
+	    List<DataPoint> dataPoints = new ArrayList<DataPoint>();
+	    for (Compound c : sorted) {
+		final double intensity = c.getIntensity(rt);
+		if (intensity >= 1)
+		    dataPoints.add(new SimpleDataPoint(c.mz, intensity));
+	    }
+	    for (int i = 0; i < noisePointsPerScan; i++) {
+		dataPoints.add(new SimpleDataPoint(100 + random.nextDouble()
+			* 900, random.nextDouble() * 100));
+	    }
+	    DataPoint sortedPoints[] = dataPoints.toArray(new DataPoint[0]);
+	    Arrays.sort(sortedPoints, new Comparator<DataPoint>() {
+		public int compare(DataPoint a, DataPoint b) {
+		    return Double.compare(a.getMZ(), b.getMZ());
+		}
+	    });
+	    dataFile.addScan(new SimpleScan(dataFile, scanNumber, 1, rt, 0,
+		    0, null, sortedPoints, MassSpectrumType.CENTROIDED,
+		    PolarityType.POSITIVE, "", Range.closed(100.0, 1000.0)));
+	}
+
+	dataFile.finishWriting();
+	return dataFile;
+
+    }
+
+    /**
+     * Creates a profile scan with Gaussian m/z peaks on a noisy baseline,
+     * sampled every 0.005 m/z
+     */
+    public static Scan createProfileScan(Random random, int numOfDataPoints,
+	    int numOfPeaks) {
+
+	double intensities[] = new double[numOfDataPoints];
+	for (int i = 0; i < numOfDataPoints; i++)
+	    intensities[i] = random.nextDouble() * 50;
+	for (int peak = 0; peak < numOfPeaks; peak++) {
+	    final int center = random.nextInt(numOfDataPoints);
+	    final double height = 200 + random.nextDouble() * 1e5;
+	    for (int i = Math.max(0, center - 20); i < Math.min(
+		    numOfDataPoints, center + 20); i++) {
+		final double x = (i - center) / 4.0;
+		intensities[i] += height * Math.exp(-x * x / 2);
+	    }
+	}
+
+	DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+	for (int i = 0; i < numOfDataPoints; i++)
+	    dataPoints[i] = new SimpleDataPoint(100 + i * 0.005,
+		    intensities[i]);
+
+	return new SimpleScan(null, 1, 1, 1, 0, 0, null, dataPoints,
+		MassSpectrumType.PROFILE, PolarityType.POSITIVE, "",
+		Range.closed(100.0, 100.0 + numOfDataPoints * 0.005));
+
+    }
+
+    /**
+     * Creates a peak list of the given data file with one detected peak per
+     * compound
+     */
+    public static PeakList createPeakList(String name, RawDataFile dataFile,
+	    Compound compounds[]) {
+	SimplePeakList peakList = new SimplePeakList(name, dataFile);
+	for (int i = 0; i < compounds.length; i++) {
+	    SimplePeakListRow row = new SimplePeakListRow(i + 1);
+	    row.addPeak(dataFile, createPeak(dataFile, compounds[i]));
+	    peakList.addRow(row);
+	}
+	return peakList;
+    }
+
+    /**
+     * Creates an aligned peak list of the given data files, with one row per
+     * compound and a detected peak of each compound in each file with the
+     * given probability. The remaining peaks are gaps to be filled.
+     */
+    public static PeakList createAlignedPeakList(String name, Random random,
+	    RawDataFile dataFiles[], Compound compoundsPerFile[][],
+	    double detectedFraction) {
+	SimplePeakList peakList = new SimplePeakList(name, dataFiles);
+	final int numOfCompounds = compoundsPerFile[0].length;
+	for (int i = 0; i < numOfCompounds; i++) {
+	    SimplePeakListRow row = new SimplePeakListRow(i + 1);
+	    for (int f = 0; f < dataFiles.length; f++) {
+		if ((f == 0) || (random.nextDouble() < detectedFraction))
+		    row.addPeak(dataFiles[f],
+			    createPeak(dataFiles[f], compoundsPerFile[f][i]));
+	    }
+	    peakList.addRow(row);
+	}
+	return peakList;
+    }
+
+    /**
+     * Creates the peak of the given compound in the given data file, from
+     * its data points in the scans of the file
+     */
+    static Feature createPeak(RawDataFile dataFile, Compound compound) {
+
+	final int allScanNumbers[] = dataFile.getScanNumbers(1);
+	List<Integer> scanNumbers = new ArrayList<Integer>();
+	List<DataPoint> dataPoints = new ArrayList<DataPoint>();
+	double area = 0, height = 0, minIntensity = Double.MAX_VALUE;
+	int representativeScan = allScanNumbers[0];
+	for (int scanNumber : allScanNumbers) {
+	    final double rt = dataFile.getScan(scanNumber).getRetentionTime();
+	    if (Math.abs(rt - compound.rt) > 3 * PEAK_WIDTH)
+		continue;
+	    final double intensity = compound.getIntensity(rt);
+	    scanNumbers.add(scanNumber);
+	    dataPoints.add(new SimpleDataPoint(compound.mz, intensity));
+	    area += intensity;
+	    minIntensity = Math.min(minIntensity, intensity);
+	    if (intensity > height) {
+		height = intensity;
+		representativeScan = scanNumber;
+	    }
+	}
+	if (dataPoints.isEmpty()) {
+	    scanNumbers.add(representativeScan);
+	    dataPoints.add(new SimpleDataPoint(compound.mz, 1));
+	    height = area = minIntensity = 1;
+	}
+
+	int scanNumbersArray[] = new int[scanNumbers.size()];
+	for (int i = 0; i < scanNumbersArray.length; i++)
+	    scanNumbersArray[i] = scanNumbers.get(i);
+	final double rtStart = dataFile.getScan(scanNumbersArray[0])
+		.getRetentionTime();
+	final double rtEnd = dataFile.getScan(
+		scanNumbersArray[scanNumbersArray.length - 1])
+		.getRetentionTime();
+
+	return new SimpleFeature(dataFile, compound.mz, compound.rt, height,
+		area, scanNumbersArray, dataPoints.toArray(new DataPoint[0]),
+		Feature.FeatureStatus.DETECTED, representativeScan, -1,
+		Range.closed(rtStart, rtEnd), Range.singleton(compound.mz),
+		Range.closed(minIntensity, height));
+
+    }
+
+    private static double getRetentionTime(int scanNumber, int numOfScans) {
+	return RUN_LENGTH * (scanNumber - 1) / numOfScans;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.Fixtures;
+import net.sf.mzmine.benchmarks.SyntheticData;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Builds the chromatograms of a raw data file from the data points of its
+ * centroided scans, which serve as mass lists. The data file is either the
+ * largest centroided fixture or a synthetic LC-MS run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HighestDataPointConnectorBenchmark {
+
+    private static final String FIXTURE = "centroided5.mzML";
+
+    private static final int SYNTHETIC_COMPOUNDS = 300;
+    private static final int SYNTHETIC_SCANS = 500;
+    private static final int SYNTHETIC_NOISE = 50;
+
+    private static final double MIN_TIME_SPAN = 0.05;
+    private static final double MIN_HEIGHT = 1000;
+    private static final MZTolerance MZ_TOLERANCE = new MZTolerance(0.001, 5);
+
+    @Param({ "fixtures", "synthetic" })
+    public String data;
+
+    private RawDataFile dataFile;
+    private int scanNumbers[];
+    private DataPoint massLists[][];
+
+    @Setup
+    public void setup() throws IOException {
+
+	BenchmarkEnvironment.initialize();
+
+	if (data.equals("fixtures")) {
+	    dataFile = Fixtures.loadFile(FIXTURE);
+	} else {
+	    Random random = new Random(42);
+	    dataFile = SyntheticData.createRawDataFile("synthetic", random,
+		    SyntheticData.createCompounds(random, SYNTHETIC_COMPOUNDS,
+			    true), SYNTHETIC_SCANS, SYNTHETIC_NOISE);
+	}
+
+	scanNumbers = dataFile.getScanNumbers(1);
+	massLists = new DataPoint[scanNumbers.length][];
+	for (int i = 0; i < scanNumbers.length; i++)
+	    massLists[i] = dataFile.getScan(scanNumbers[i]).getDataPoints();
+
+    }
+
+    @Benchmark
+    public Chromatogram[] buildChromatograms() {
+	HighestDataPointConnector connector = new HighestDataPointConnector(
+		MIN_TIME_SPAN, MIN_HEIGHT, MZ_TOLERANCE);
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    // The connector sorts the mass list in place
+	    connector.addScan(dataFile, scanNumbers[i], massLists[i].clone());
+	}
+	return connector.finishChromatograms();
+    }
+
+    public static void main(String args[]) throws RunnerException {
+	new Runner(new OptionsBuilder().include(
+		HighestDataPointConnectorBenchmark.class.getSimpleName())
+		.build()).run();
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticData;
+import net.sf.mzmine.benchmarks.SyntheticData.Compound;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Fills the gaps of an aligned peak list of synthetic samples, in which a
+ * part of the peaks was not detected
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PeakFinderBenchmark {
+
+    private static final int NUM_OF_SCANS = 1000;
+    private static final int NOISE_POINTS = 100;
+    private static final double DETECTED_FRACTION = 0.7;
+
+    @Param({ "5" })
+    public int numOfFiles;
+
+    @Param({ "1000", "5000" })
+    public int numOfCompounds;
+
+    private PeakList peakList;
+    private ParameterSet parameters;
+
+    @Setup
+    public void setup() throws IOException {
+
+	BenchmarkEnvironment.initialize();
+
+	Random random = new Random(42);
+	Compound compounds[] = SyntheticData.createCompounds(random,
+		numOfCompounds, false);
+	RawDataFile dataFiles[] = new RawDataFile[numOfFiles];
+	Compound compoundsPerFile[][] = new Compound[numOfFiles][];
+	for (int i = 0; i < numOfFiles; i++) {
+	    compoundsPerFile[i] = SyntheticData.shiftCompounds(random,
+		    compounds);
+	    dataFiles[i] = SyntheticData.createRawDataFile("sample" + i,
+		    random, compoundsPerFile[i], NUM_OF_SCANS, NOISE_POINTS);
+	}
+	peakList = SyntheticData.createAlignedPeakList("Aligned peak list",
+		random, dataFiles, compoundsPerFile, DETECTED_FRACTION);
+
+	parameters = new PeakFinderParameters().cloneParameterSet();
+	parameters.getParameter(PeakFinderParameters.suffix).setValue(
+		"gap-filled");
+	parameters.getParameter(PeakFinderParameters.intTolerance).setValue(
+		0.2);
+	parameters.getParameter(PeakFinderParameters.MZTolerance).setValue(
+		new MZTolerance(0.001, 5));
+	parameters.getParameter(PeakFinderParameters.RTTolerance).setValue(
+		new RTTolerance(true, 0.1));
+	parameters.getParameter(PeakFinderParameters.RTCorrection).setValue(
+		false);
+	parameters.getParameter(PeakFinderParameters.autoRemove).setValue(
+		false);
+
+    }
+
+    @Benchmark
+    public PeakList fillGaps() {
+	MZmineProjectImpl project = new MZmineProjectImpl();
+	PeakFinderTask task = new PeakFinderTask(project, peakList, parameters);
+	task.run();
+	if (task.getStatus() != TaskStatus.FINISHED)
+	    throw new IllegalStateException(task.getErrorMessage());
+	return project.getPeakLists()[0];
+    }
+
+    public static void main(String args[]) throws RunnerException {
+	new Runner(new OptionsBuilder().include(
+		PeakFinderBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticData;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.centroid.CentroidMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.centroid.CentroidMassDetectorParameters;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.exactmass.ExactMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.exactmass.ExactMassDetectorParameters;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.localmaxima.LocalMaxMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.localmaxima.LocalMaxMassDetectorParameters;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.recursive.RecursiveMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.recursive.RecursiveMassDetectorParameters;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet.WaveletMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet.WaveletMassDetectorParameters;
+import net.sf.mzmine.parameters.ParameterSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs each mass detector on a set of synthetic profile scans. The
+ * PeakInvestigator detector is not included, because it sends the scans to a
+ * remote service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MassDetectorBenchmark {
+
+    private static final int NUM_OF_SCANS = 20;
+    private static final double NOISE_LEVEL = 100;
+
+    @Param({ "centroid", "exactmass", "localmaxima", "recursive", "wavelet" })
+    public String detectorName;
+
+    @Param({ "5000", "50000" })
+    public int numOfDataPoints;
+
+    private Scan scans[];
+    private MassDetector detector;
+    private ParameterSet parameters;
+
+    @Setup
+    public void setup() {
+
+	BenchmarkEnvironment.initialize();
+
+	Random random = new Random(42);
+	scans = new Scan[NUM_OF_SCANS];
+	for (int i = 0; i < NUM_OF_SCANS; i++)
+	    scans[i] = SyntheticData.createProfileScan(random,
+		    numOfDataPoints, numOfDataPoints / 100);
+
+	switch (detectorName) {
+	case "centroid":
+	    detector = new CentroidMassDetector();
+	    parameters = new CentroidMassDetectorParameters()
+		    .cloneParameterSet();
+	    parameters.getParameter(CentroidMassDetectorParameters.noiseLevel)
+		    .setValue(NOISE_LEVEL);
+	    break;
+	case "exactmass":
+	    detector = new ExactMassDetector();
+	    parameters = new ExactMassDetectorParameters().cloneParameterSet();
+	    parameters.getParameter(ExactMassDetectorParameters.noiseLevel)
+		    .setValue(NOISE_LEVEL);
+	    break;
+	case "localmaxima":
+	    detector = new LocalMaxMassDetector();
+	    parameters = new LocalMaxMassDetectorParameters()
+		    .cloneParameterSet();
+	    parameters.getParameter(LocalMaxMassDetectorParameters.noiseLevel)
+		    .setValue(NOISE_LEVEL);
+	    break;
+	case "recursive":
+	    detector = new RecursiveMassDetector();
+	    parameters = new RecursiveMassDetectorParameters()
+		    .cloneParameterSet();
+	    parameters
+		    .getParameter(RecursiveMassDetectorParameters.noiseLevel)
+		    .setValue(NOISE_LEVEL);
+	    parameters.getParameter(
+		    RecursiveMassDetectorParameters.minimumMZPeakWidth)
+		    .setValue(0.001);
+	    parameters.getParameter(
+		    RecursiveMassDetectorParameters.maximumMZPeakWidth)
+		    .setValue(0.1);
+	    break;
+	case "wavelet":
+	    detector = new WaveletMassDetector();
+	    parameters = new WaveletMassDetectorParameters()
+		    .cloneParameterSet();
+	    parameters.getParameter(WaveletMassDetectorParameters.noiseLevel)
+		    .setValue(NOISE_LEVEL);
+	    parameters.getParameter(WaveletMassDetectorParameters.scaleLevel)
+		    .setValue(3);
+	    parameters.getParameter(
+		    WaveletMassDetectorParameters.waveletWindow).setValue(0.3);
+	    break;
+	default:
+	    throw new IllegalArgumentException("Unknown mass detector "
+		    + detectorName);
+	}
+
+    }
+
+    @Benchmark
+    public void getMassValues(Blackhole blackhole) {
+	String job = detector.startMassValuesJob(null, "", parameters,
+		scans.length);
+	for (Scan scan : scans)
+	    blackhole.consume(detector.getMassValues(scan, job, parameters));
+	detector.finishMassValuesJob(job);
+    }
+
+    public static void main(String args[]) throws RunnerException {
+	new Runner(new OptionsBuilder().include(
+		MassDetectorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the wavelet mass detector with its previous implementation, which
+ * computed the wavelet for each scan and convolved over DataPoint objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WaveletMassDetectorBenchmark {
+
+    private static final double NOISE_LEVEL = 100;
+    private static final double WAVELET_WINDOW = 0.3;
+
+    @Param({ "5000", "50000" })
+    public int numOfDataPoints;
+
+    @Param({ "3", "30" })
+    public int scaleLevel;
+
+    private DataPoint dataPoints[];
+    private WaveletMassDetector detector;
+
+    @Setup
+    public void setup() {
+
+	// Profile spectrum with Gaussian peaks on a noisy baseline
+	Random random = new Random(42);
+	double intensities[] = new double[numOfDataPoints];
+	for (int i = 0; i < numOfDataPoints; i++)
+	    intensities[i] = random.nextDouble() * 50;
+	for (int peak = 0; peak < numOfDataPoints / 100; peak++) {
+	    int center = random.nextInt(numOfDataPoints);
+	    double height = 200 + random.nextDouble() * 1e5;
+	    for (int i = Math.max(0, center - 20); i < Math.min(
+		    numOfDataPoints, center + 20); i++) {
+		double x = (i - center) / 4.0;
+		intensities[i] += height * Math.exp(-x * x / 2);
+	    }
+	}
+
+	dataPoints = new DataPoint[numOfDataPoints];
+	for (int i = 0; i < numOfDataPoints; i++)
+	    dataPoints[i] = new SimpleDataPoint(100 + i * 0.01,
+		    (float) intensities[i]);
+
+	detector = new WaveletMassDetector();
+
+	DataPoint expected[] = LegacyWaveletMassDetector.getMassValues(
+		dataPoints, NOISE_LEVEL, scaleLevel, WAVELET_WINDOW);
+	DataPoint actual[] = detector.getMassValues(dataPoints, NOISE_LEVEL,
+		scaleLevel, WAVELET_WINDOW);
+	if (!Arrays.equals(toArray(expected), toArray(actual)))
+	    throw new IllegalStateException(
+		    "Wavelet detector results differ from previous implementation");
+    }
+
+    @Benchmark
+    public DataPoint[] current() {
+	return detector.getMassValues(dataPoints, NOISE_LEVEL, scaleLevel,
+		WAVELET_WINDOW);
+    }
+
+    @Benchmark
+    public DataPoint[] previous() {
+	return LegacyWaveletMassDetector.getMassValues(dataPoints, NOISE_LEVEL,
+		scaleLevel, WAVELET_WINDOW);
+    }
+
+    private static double[] toArray(DataPoint dataPoints[]) {
+	double values[] = new double[dataPoints.length * 2];
+	for (int i = 0; i < dataPoints.length; i++) {
+	    values[2 * i] = dataPoints[i].getMZ();
+	    values[2 * i + 1] = dataPoints[i].getIntensity();
+	}
+	return values;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+	new Runner(new OptionsBuilder().include(
+		WaveletMassDetectorBenchmark.class.getSimpleName()).build())
+		.run();
+    }
+
+    /**
+     * The wavelet mass detector as it was before caching the kernels
+     */
+    private static class LegacyWaveletMassDetector {
+
+	private static final double NPOINTS = 60000;
+	private static final int WAVELET_ESL = -5;
+	private static final int WAVELET_ESR = 5;
+
+	static DataPoint[] getMassValues(DataPoint originalDataPoints[],
+		double noiseLevel, int scaleLevel, double waveletWindow) {
+	    DataPoint waveletDataPoints[] = performCWT(originalDataPoints,
+		    waveletWindow, scaleLevel);
+	    return getMzPeaks(noiseLevel, originalDataPoints,
+		    waveletDataPoints);
+	}
+
+	private static SimpleDataPoint[] performCWT(DataPoint[] dataPoints,
+		double waveletWindow, int scaleLevel) {
+	    int length = dataPoints.length;
+	    SimpleDataPoint[] cwtDataPoints = new SimpleDataPoint[length];
+	    double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
+	    double[] W = new double[(int) NPOINTS];
+
+	    double waveletIndex = WAVELET_ESL;
+	    for (int j = 0; j < NPOINTS; j++) {
+		W[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
+		waveletIndex += wstep;
+	    }
+
+	    int d = (int) NPOINTS / (WAVELET_ESR - WAVELET_ESL);
+	    int a_esl = scaleLevel * WAVELET_ESL;
+	    int a_esr = scaleLevel * WAVELET_ESR;
+	    double sqrtScaleLevel = Math.sqrt(scaleLevel);
+	    for (int dx = 0; dx < length; dx++) {
+
+		int t1 = a_esl + dx;
+		if (t1 < 0)
+		    t1 = 0;
+		int t2 = a_esr + dx;
+		if (t2 >= length)
+		    t2 = (length - 1);
+
+		double intensity = 0.0;
+		for (int i = t1; i <= t2; i++) {
+		    int ind = (int) (NPOINTS / 2)
+			    - (((int) d * (i - dx) / scaleLevel) * (-1));
+		    if (ind < 0)
+			ind = 0;
+		    if (ind >= NPOINTS)
+			ind = (int) NPOINTS - 1;
+		    intensity += dataPoints[i].getIntensity() * W[ind];
+		}
+		intensity /= sqrtScaleLevel;
+		if (intensity < 0)
+		    intensity = 0;
+		cwtDataPoints[dx] = new SimpleDataPoint(dataPoints[dx].getMZ(),
+			(double) intensity);
+	    }
+
+	    return cwtDataPoints;
+	}
+
+	private static double cwtMEXHATreal(double x, double a, double b) {
+	    double c = 0.8673250705840776;
+	    double TINY = 1E-200;
+	    double x2;
+
+	    if (a == 0.0)
+		a = TINY;
+	    x = (x - b) / a;
+	    x2 = x * x;
+	    return c * (1.0 - x2) * Math.exp(-x2 / 2);
+	}
+
+	private static DataPoint[] getMzPeaks(double noiseLevel,
+		DataPoint[] originalDataPoints, DataPoint[] waveletDataPoints) {
+
+	    TreeSet<DataPoint> mzPeaks = new TreeSet<DataPoint>(
+		    new DataPointSorter(SortingProperty.MZ,
+			    SortingDirection.Ascending));
+
+	    Vector<DataPoint> rawDataPoints = new Vector<DataPoint>();
+	    int peakMaxInd = 0;
+	    int stopInd = waveletDataPoints.length - 1;
+
+	    for (int ind = 0; ind <= stopInd; ind++) {
+
+		while ((ind <= stopInd)
+			&& (waveletDataPoints[ind].getIntensity() == 0)) {
+		    ind++;
+		}
+		peakMaxInd = ind;
+		if (ind >= stopInd) {
+		    break;
+		}
+
+		while ((ind <= stopInd)
+			&& (waveletDataPoints[ind].getIntensity() > 0)) {
+		    if (waveletDataPoints[ind].getIntensity() > waveletDataPoints[peakMaxInd]
+			    .getIntensity()) {
+			peakMaxInd = ind;
+		    }
+		    rawDataPoints.add(originalDataPoints[ind]);
+		    ind++;
+		}
+
+		if (ind >= stopInd) {
+		    break;
+		}
+
+		rawDataPoints.add(originalDataPoints[ind]);
+
+		if (originalDataPoints[peakMaxInd].getIntensity() > noiseLevel) {
+		    double aproxIntensity = 0;
+		    for (DataPoint d : rawDataPoints) {
+			if (d.getIntensity() > aproxIntensity)
+			    aproxIntensity = d.getIntensity();
+		    }
+		    mzPeaks.add(new SimpleDataPoint(originalDataPoints[peakMaxInd]
+			    .getMZ(), aproxIntensity));
+		}
+		rawDataPoints.clear();
+	    }
+
+	    return mzPeaks.toArray(new DataPoint[0]);
+	}
+
+    }
+
+}
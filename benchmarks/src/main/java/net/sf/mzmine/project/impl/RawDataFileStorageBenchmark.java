@@ -0,0 +1,133 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.mzmine.benchmarks.Fixtures;
+import net.sf.mzmine.benchmarks.SyntheticData;
+import net.sf.mzmine.datamodel.DataPoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Stores and reads the data points of a set of spectra in the scan storage
+ * of a raw data file. The spectra are either the scans of the centroided
+ * fixtures or synthetic profile scans.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RawDataFileStorageBenchmark {
+
+    private static final int SYNTHETIC_SCANS = 100;
+    private static final int SYNTHETIC_DATA_POINTS = 5000;
+
+    @Param({ "fixtures", "synthetic" })
+    public String data;
+
+    private DataPoint spectra[][];
+
+    // File with all spectra stored, for reading
+    private RawDataFileImpl readFile;
+    private int storageIDs[];
+
+    // File to store into, replaced in each iteration so it does not grow
+    // indefinitely
+    private RawDataFileImpl storeFile;
+
+    @Setup
+    public void setup() throws IOException {
+
+	if (data.equals("fixtures")) {
+	    spectra = Fixtures.getDataPoints(Fixtures.loadCentroidedFiles());
+	} else {
+	    Random random = new Random(42);
+	    spectra = new DataPoint[SYNTHETIC_SCANS][];
+	    for (int i = 0; i < SYNTHETIC_SCANS; i++)
+		spectra[i] = SyntheticData.createProfileScan(random,
+			SYNTHETIC_DATA_POINTS, SYNTHETIC_DATA_POINTS / 100)
+			.getDataPoints();
+	}
+
+	readFile = new RawDataFileImpl("read");
+	storageIDs = new int[spectra.length];
+	for (int i = 0; i < spectra.length; i++)
+	    storageIDs[i] = readFile.storeDataPoints(spectra[i]);
+
+    }
+
+    @Setup(Level.Iteration)
+    public void createStoreFile() throws IOException {
+	storeFile = new RawDataFileImpl("store");
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStoreFile() {
+	storeFile.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+	readFile.close();
+    }
+
+    @Benchmark
+    public int storeDataPoints() throws IOException {
+	int lastID = 0;
+	for (DataPoint dataPoints[] : spectra)
+	    lastID = storeFile.storeDataPoints(dataPoints);
+	return lastID;
+    }
+
+    @Benchmark
+    public void readDataPoints(Blackhole blackhole) throws IOException {
+	for (int storageID : storageIDs)
+	    blackhole.consume(readFile.readDataPoints(storageID));
+    }
+
+    public static void main(String args[]) throws RunnerException {
+	new Runner(new OptionsBuilder().include(
+		RawDataFileStorageBenchmark.class.getSimpleName()).build())
+		.run();
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.mzmine.benchmarks.Fixtures;
+import net.sf.mzmine.benchmarks.SyntheticData;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Range;
+
+/**
+ * Applies the ScanUtils helpers to all scans of the centroided fixtures or of
+ * a set of synthetic profile scans
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScanUtilsBenchmark {
+
+    private static final int SYNTHETIC_SCANS = 100;
+    private static final int SYNTHETIC_DATA_POINTS = 5000;
+
+    private static final Range<Double> MZ_RANGE = Range.closed(300.0, 400.0);
+
+    @Param({ "fixtures", "synthetic" })
+    public String data;
+
+    private Scan scans[];
+    private double mzValues[][];
+    private char encodedDataPoints[][];
+
+    @Setup
+    public void setup() throws IOException {
+
+	List<Scan> scanList = new ArrayList<Scan>();
+	if (data.equals("fixtures")) {
+	    for (RawDataFile dataFile : Fixtures.loadCentroidedFiles()) {
+		for (int scanNumber : dataFile.getScanNumbers(1))
+		    scanList.add(dataFile.getScan(scanNumber));
+	    }
+	} else {
+	    Random random = new Random(42);
+	    for (int i = 0; i < SYNTHETIC_SCANS; i++)
+		scanList.add(SyntheticData.createProfileScan(random,
+			SYNTHETIC_DATA_POINTS, SYNTHETIC_DATA_POINTS / 100));
+	}
+	scans = scanList.toArray(new Scan[0]);
+
+	mzValues = new double[scans.length][];
+	encodedDataPoints = new char[scans.length][];
+	for (int i = 0; i < scans.length; i++) {
+	    DataPoint dataPoints[] = scans[i].getDataPoints();
+	    mzValues[i] = new double[dataPoints.length];
+	    for (int j = 0; j < dataPoints.length; j++)
+		mzValues[i][j] = dataPoints[j].getMZ();
+	    encodedDataPoints[i] = ScanUtils
+		    .encodeDataPointsBase64(dataPoints);
+	}
+
+    }
+
+    @Benchmark
+    public void detectSpectrumType(Blackhole blackhole) {
+	for (Scan scan : scans)
+	    blackhole.consume(ScanUtils.detectSpectrumType(scan
+		    .getDataPoints()));
+    }
+
+    @Benchmark
+    public void findBasePeak(Blackhole blackhole) {
+	for (Scan scan : scans)
+	    blackhole.consume(ScanUtils.findBasePeak(scan, MZ_RANGE));
+    }
+
+    @Benchmark
+    public double calculateTIC() {
+	double tic = 0;
+	for (Scan scan : scans)
+	    tic += ScanUtils.calculateTIC(scan, MZ_RANGE);
+	return tic;
+    }
+
+    @Benchmark
+    public void selectDataPointsByMass(Blackhole blackhole) {
+	for (Scan scan : scans)
+	    blackhole.consume(ScanUtils.selectDataPointsByMass(
+		    scan.getDataPoints(), MZ_RANGE));
+    }
+
+    @Benchmark
+    public int findClosestDatapoint() {
+	int found = 0;
+	for (double values[] : mzValues) {
+	    for (double mz = 100; mz < 1000; mz += 0.5) {
+		if (ScanUtils.findClosestDatapoint(mz, values, 0.01) >= 0)
+		    found++;
+	    }
+	}
+	return found;
+    }
+
+    @Benchmark
+    public void encodeDataPointsBase64(Blackhole blackhole) {
+	for (Scan scan : scans)
+	    blackhole.consume(ScanUtils.encodeDataPointsBase64(scan
+		    .getDataPoints()));
+    }
+
+    @Benchmark
+    public void decodeDataPointsBase64(Blackhole blackhole) {
+	for (char encoded[] : encodedDataPoints)
+	    blackhole.consume(ScanUtils.decodeDataPointsBase64(encoded));
+    }
+
+    public static void main(String args[]) throws RunnerException {
+	new Runner(new OptionsBuilder().include(
+		ScanUtilsBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
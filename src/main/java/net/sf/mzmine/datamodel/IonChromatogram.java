@@ -0,0 +1,55 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Range;
+
+/**
+ * Extracted ion chromatogram (XIC) of one m/z and retention time range, see
+ * RawDataFile.getIonChromatograms(). There is one data point for each scan
+ * within the retention time range: the most intense data point of the scan
+ * within the m/z range, or intensity 0 at the center of the m/z range if the
+ * scan has no data point in that range.
+ */
+public interface IonChromatogram {
+
+    @Nonnull
+    public Range<Double> getMZRange();
+
+    @Nonnull
+    public Range<Double> getRTRange();
+
+    public int getNumberOfDataPoints();
+
+    @Nonnull
+    public int[] getScanNumbers();
+
+    @Nonnull
+    public double[] getRetentionTimes();
+
+    @Nonnull
+    public double[] getMZValues();
+
+    @Nonnull
+    public double[] getIntensities();
+
+}
@@ -19,6 +19,7 @@
 
 package net.sf.mzmine.datamodel;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import javax.annotation.Nonnull;
 
@@ -105,6 +106,27 @@ public interface RawDataFile {
     public double getDataMaxBasePeakIntensity(int msLevel);
 
     public double getDataMaxTotalIonCurrent(int msLevel);
+
+    /**
+     * Extracts the ion chromatograms of many targets in one pass over the
+     * scans of given MS level. Target i is defined by mzRanges[i] and
+     * rtRanges[i]. This is much faster than reading the scans separately for
+     * each target.
+     * 
+     * @param msLevel
+     *            MS level
+     * @param mzRanges
+     *            m/z range of each target
+     * @param rtRanges
+     *            Retention time range of each target
+     * @return Ion chromatograms in the order of the targets
+     * @throws IOException
+     *             if the data points of a scan cannot be read
+     */
+    @Nonnull
+    public IonChromatogram[] getIonChromatograms(int msLevel,
+            @Nonnull Range<Double> mzRanges[], @Nonnull Range<Double> rtRanges[])
+            throws IOException;
     
     public void addJob(String name, RawDataFile raw, String targetName, PeakInvestigatorSaaS vtmx);
     public void removeJob(String name);
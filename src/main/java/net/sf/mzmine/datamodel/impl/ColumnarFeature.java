@@ -0,0 +1,167 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.util.PeakUtils;
+
+import com.google.common.collect.Range;
+
+/**
+ * Peak of a ColumnarPeakList. The peak holds no data itself, all values are
+ * read from and written to the columns of the peak list. The peak refers to
+ * its row and raw data file, so it stays valid when the row is removed from
+ * the peak list.
+ */
+class ColumnarFeature implements Feature {
+
+    private final ColumnarPeakListRow row;
+    private final int file;
+
+    ColumnarFeature(ColumnarPeakListRow row, int file) {
+	this.row = row;
+	this.file = file;
+    }
+
+    ColumnarPeakList getPeakList() {
+	return row.getPeakList();
+    }
+
+    int getCell() {
+	return row.getSlot() * row.getPeakList().getNumberOfRawDataFiles()
+		+ file;
+    }
+
+    public @Nonnull FeatureStatus getFeatureStatus() {
+	return getPeakList().getFeatureStatus(getCell());
+    }
+
+    public double getMZ() {
+	return getPeakList().getMZ(getCell());
+    }
+
+    public double getRT() {
+	return getPeakList().getRT(getCell());
+    }
+
+    public double getHeight() {
+	return getPeakList().getHeight(getCell());
+    }
+
+    public double getArea() {
+	return getPeakList().getArea(getCell());
+    }
+
+    public @Nonnull RawDataFile getDataFile() {
+	return getPeakList().getDataFile(getCell());
+    }
+
+    public @Nonnull int[] getScanNumbers() {
+	return getPeakList().getScanNumbers(getCell());
+    }
+
+    public int getRepresentativeScanNumber() {
+	return getPeakList().getRepresentativeScanNumber(getCell());
+    }
+
+    public DataPoint getDataPoint(int scanNumber) {
+	return getPeakList().getDataPoint(getCell(), scanNumber);
+    }
+
+    public @Nonnull Range<Double> getRawDataPointsRTRange() {
+	return getPeakList().getRawDataPointsRTRange(getCell());
+    }
+
+    public @Nonnull Range<Double> getRawDataPointsMZRange() {
+	return getPeakList().getRawDataPointsMZRange(getCell());
+    }
+
+    public @Nonnull Range<Double> getRawDataPointsIntensityRange() {
+	return getPeakList().getRawDataPointsIntensityRange(getCell());
+    }
+
+    public int getMostIntenseFragmentScanNumber() {
+	return getPeakList().getMostIntenseFragmentScanNumber(getCell());
+    }
+
+    public IsotopePattern getIsotopePattern() {
+	return getPeakList().getIsotopePattern(getCell());
+    }
+
+    public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
+	getPeakList().setIsotopePattern(getCell(), isotopePattern);
+    }
+
+    public int getCharge() {
+	return getPeakList().getCharge(getCell());
+    }
+
+    public void setCharge(int charge) {
+	getPeakList().setCharge(getCell(), charge);
+    }
+
+    public Double getFWHM() {
+	return getPeakList().getFWHM(getCell());
+    }
+
+    public Double getTailingFactor() {
+	return getPeakList().getTailingFactor(getCell());
+    }
+
+    public Double getAsymmetryFactor() {
+	return getPeakList().getAsymmetryFactor(getCell());
+    }
+
+    public void setFWHM(Double fwhm) {
+	getPeakList().setFWHM(getCell(), fwhm);
+    }
+
+    public void setTailingFactor(Double tf) {
+	getPeakList().setTailingFactor(getCell(), tf);
+    }
+
+    public void setAsymmetryFactor(Double af) {
+	getPeakList().setAsymmetryFactor(getCell(), af);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+	if (!(object instanceof ColumnarFeature))
+	    return false;
+	ColumnarFeature other = (ColumnarFeature) object;
+	return (other.row == row) && (other.file == file);
+    }
+
+    @Override
+    public int hashCode() {
+	return System.identityHashCode(row) * 31 + file;
+    }
+
+    @Override
+    public String toString() {
+	return PeakUtils.peakToString(this);
+    }
+
+}
@@ -0,0 +1,1305 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.PeakIdentity;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.desktop.impl.projecttree.PeakListTreeModel;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+
+import com.google.common.collect.Range;
+
+/**
+ * Implementation of the PeakList interface for aligned peak lists with many
+ * raw data files. Instead of one object per row and per peak, the summary
+ * values of the peaks (m/z, RT, height, area, status, ...) are stored in
+ * primitive arrays indexed by row and raw data file, and the per-scan data
+ * points of the peaks in a FeatureTraceStore. The rows and peaks returned by
+ * this peak list are lightweight views of these arrays, and changes made
+ * through them are written to the arrays.
+ *
+ * Peaks added to this peak list are copied, so a row or peak list does not
+ * contain the added Feature instance itself, but a view with the same
+ * values. The rows of this peak list are returned as the same instance on
+ * each call, so they can be compared by identity. Peak views are created on
+ * each call and compare equal if they refer to the same peak.
+ * 
+ * The columns of a removed row are reused for the next added row, and the
+ * data points of replaced and removed peaks are reclaimed by compacting the
+ * FeatureTraceStore once they outnumber the data points in use.
+ */
+public class ColumnarPeakList implements PeakList {
+
+    // Value of the status column for a missing peak
+    private static final byte NO_PEAK = 0;
+
+    private static final FeatureStatus STATUS_VALUES[] = FeatureStatus
+	    .values();
+
+    private String name;
+    private final RawDataFile dataFiles[];
+    private final HashMap<RawDataFile, Integer> fileOrdinals = new HashMap<>();
+    private final int numOfFiles;
+    private Vector<PeakListAppliedMethod> descriptionOfAppliedTasks = new Vector<>();
+    private String dateCreated;
+
+    // Set whenever the peak list is changed, cleared when the project is saved
+    private boolean modified = true;
+
+    // Rows are stored in slots. rowOrder maps row numbers to slots. The slots
+    // of removed rows are kept in freeSlots until they are reused.
+    private int numOfSlots = 0, numOfRows = 0, numOfFreeSlots = 0;
+    private int rowOrder[];
+    private int freeSlots[] = new int[0];
+
+    // Row columns, indexed by slot
+    private int rowIDs[];
+    private String comments[];
+    private PeakIdentity identities[][];
+    private PeakIdentity preferredIdentities[];
+    private double averageMZ[], averageRT[], averageHeight[], averageArea[];
+    private int rowCharges[];
+    private ColumnarPeakListRow rowViews[];
+
+    // Peak columns, indexed by slot * numOfFiles + file ordinal
+    private byte status[];
+    private double mz[], rt[], height[], area[];
+    private double rtMin[], rtMax[], mzMin[], mzMax[], intensityMin[],
+	    intensityMax[];
+    private double fwhm[], tailingFactor[], asymmetryFactor[];
+    private int representativeScans[], fragmentScans[], charges[];
+    private IsotopePattern isotopePatterns[];
+    private long traceOffsets[];
+    private int traceLengths[];
+
+    private FeatureTraceStore traces = new FeatureTraceStore();
+
+    // Guards the columns and the trace store. Rows and peaks may be read by
+    // several threads at once, so readers do not exclude each other.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock(), writeLock = lock
+	    .writeLock();
+
+    public ColumnarPeakList(String name, RawDataFile[] dataFiles) {
+	this(name, dataFiles, 16);
+    }
+
+    private ColumnarPeakList(String name, RawDataFile[] dataFiles, int slots) {
+	if ((dataFiles == null) || (dataFiles.length == 0)) {
+	    throw (new IllegalArgumentException(
+		    "Cannot create a peak list with no data files"));
+	}
+	this.name = name;
+	this.dataFiles = dataFiles.clone();
+	this.numOfFiles = dataFiles.length;
+	for (int i = 0; i < dataFiles.length; i++)
+	    fileOrdinals.put(dataFiles[i], i);
+
+	allocate(slots);
+
+	dateCreated = SimplePeakList.dateFormat.format(new Date());
+    }
+
+    @Override
+    public String getName() {
+	return name;
+    }
+
+    @Override
+    public String toString() {
+	return name;
+    }
+
+    public void setName(String name) {
+	this.name = name;
+	modified = true;
+    }
+
+    public int getNumberOfRawDataFiles() {
+	return numOfFiles;
+    }
+
+    public RawDataFile[] getRawDataFiles() {
+	return dataFiles;
+    }
+
+    public RawDataFile getRawDataFile(int position) {
+	return dataFiles[position];
+    }
+
+    public boolean hasRawDataFile(RawDataFile file) {
+	return fileOrdinals.containsKey(file);
+    }
+
+    public int getNumberOfRows() {
+	readLock.lock();
+	try {
+	    return numOfRows;
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public Feature getPeak(int row, RawDataFile rawDataFile) {
+	readLock.lock();
+	try {
+	    return getRowPeak(rowOrder[checkRowNumber(row)], rawDataFile);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public Feature[] getPeaks(RawDataFile rawDataFile) {
+	readLock.lock();
+	try {
+	    Integer file = fileOrdinals.get(rawDataFile);
+	    if (file == null)
+		return new Feature[0];
+	    ArrayList<Feature> peaks = new ArrayList<Feature>();
+	    for (int i = 0; i < numOfRows; i++) {
+		int cell = rowOrder[i] * numOfFiles + file;
+		if (status[cell] != NO_PEAK)
+		    peaks.add(createFeature(cell));
+	    }
+	    return peaks.toArray(new Feature[0]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public PeakListRow getRow(int row) {
+	readLock.lock();
+	try {
+	    return rowViews[rowOrder[checkRowNumber(row)]];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public PeakListRow[] getRows() {
+	readLock.lock();
+	try {
+	    PeakListRow rows[] = new PeakListRow[numOfRows];
+	    for (int i = 0; i < numOfRows; i++)
+		rows[i] = rowViews[rowOrder[i]];
+	    return rows;
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public PeakListRow[] getRowsInsideScanRange(Range<Double> rtRange) {
+	Range<Double> all = Range.all();
+	return getRowsInsideScanAndMZRange(rtRange, all);
+    }
+
+    public PeakListRow[] getRowsInsideMZRange(Range<Double> mzRange) {
+	Range<Double> all = Range.all();
+	return getRowsInsideScanAndMZRange(all, mzRange);
+    }
+
+    public PeakListRow[] getRowsInsideScanAndMZRange(
+	    Range<Double> rtRange, Range<Double> mzRange) {
+	readLock.lock();
+	try {
+	    ArrayList<PeakListRow> rowsInside = new ArrayList<PeakListRow>();
+	    for (int i = 0; i < numOfRows; i++) {
+		int slot = rowOrder[i];
+		if (rtRange.contains(averageRT[slot])
+			&& mzRange.contains(averageMZ[slot]))
+		    rowsInside.add(rowViews[slot]);
+	    }
+	    return rowsInside.toArray(new PeakListRow[0]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public Feature[] getPeaksInsideScanRange(RawDataFile file,
+	    Range<Double> rtRange) {
+	Range<Double> all = Range.all();
+	return getPeaksInsideScanAndMZRange(file, rtRange, all);
+    }
+
+    public Feature[] getPeaksInsideMZRange(RawDataFile file,
+	    Range<Double> mzRange) {
+	Range<Double> all = Range.all();
+	return getPeaksInsideScanAndMZRange(file, all, mzRange);
+    }
+
+    public Feature[] getPeaksInsideScanAndMZRange(
+	    RawDataFile rawDataFile, Range<Double> rtRange,
+	    Range<Double> mzRange) {
+	readLock.lock();
+	try {
+	    Integer file = fileOrdinals.get(rawDataFile);
+	    if (file == null)
+		return new Feature[0];
+	    ArrayList<Feature> peaksInside = new ArrayList<Feature>();
+	    for (int i = 0; i < numOfRows; i++) {
+		int cell = rowOrder[i] * numOfFiles + file;
+		if ((status[cell] != NO_PEAK) && rtRange.contains(rt[cell])
+			&& mzRange.contains(mz[cell]))
+		    peaksInside.add(createFeature(cell));
+	    }
+	    return peaksInside.toArray(new Feature[0]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public double getDataPointMaxIntensity() {
+	readLock.lock();
+	try {
+	    double maxIntensity = 0;
+	    for (int i = 0; i < numOfRows; i++)
+		maxIntensity = Math.max(maxIntensity,
+			getRowMaxIntensity(rowOrder[i]));
+	    return maxIntensity;
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    /**
+     * Copies the given row and its peaks to a new row at the end of this peak
+     * list
+     */
+    public void addRow(PeakListRow row) {
+	writeLock.lock();
+	try {
+	    for (RawDataFile testFile : row.getRawDataFiles()) {
+		if (!fileOrdinals.containsKey(testFile))
+		    throw (new IllegalArgumentException("Data file " + testFile
+			    + " is not in this peak list"));
+	    }
+
+	    int slot = appendSlot(row.getID());
+	    for (RawDataFile file : row.getRawDataFiles())
+		setPeak(slot, file, row.getPeak(file));
+	    comments[slot] = row.getComment();
+	    PeakIdentity rowIdentities[] = row.getPeakIdentities();
+	    if (rowIdentities.length > 0)
+		identities[slot] = rowIdentities;
+	    preferredIdentities[slot] = row.getPreferredPeakIdentity();
+
+	    // Keep averages which were set explicitly, e.g. by the RANSAC
+	    // aligner
+	    averageMZ[slot] = row.getAverageMZ();
+	    averageRT[slot] = row.getAverageRT();
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    /**
+     * Adds a new empty row at the end of this peak list and returns it. Peaks
+     * added to the returned row are stored in this peak list.
+     */
+    public PeakListRow createRow(int rowID) {
+	writeLock.lock();
+	try {
+	    int slot = appendSlot(rowID);
+	    return rowViews[slot];
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    public void removeRow(int rowNum) {
+	removeRow(getRow(rowNum));
+    }
+
+    public void removeRow(PeakListRow row) {
+	writeLock.lock();
+	try {
+	    int rowNum = getRowNumber(row);
+	    if (rowNum < 0)
+		return;
+	    System.arraycopy(rowOrder, rowNum + 1, rowOrder, rowNum,
+		    numOfRows - rowNum - 1);
+	    numOfRows--;
+	    releaseSlot(((ColumnarPeakListRow) row).getSlot());
+	    modified = true;
+	} finally {
+	    writeLock.unlock();
+	}
+
+	// We have to update the project tree model
+	MZmineProjectImpl project = (MZmineProjectImpl) MZmineCore
+		.getProjectManager().getCurrentProject();
+	PeakListTreeModel treeModel = project.getPeakListTreeModel();
+	treeModel.removeObject(row);
+    }
+
+    public int getPeakRowNum(Feature peak) {
+	readLock.lock();
+	try {
+	    if ((!(peak instanceof ColumnarFeature))
+		    || (((ColumnarFeature) peak).getPeakList() != this))
+		return -1;
+	    int slot = ((ColumnarFeature) peak).getCell() / numOfFiles;
+	    for (int i = 0; i < numOfRows; i++) {
+		if (rowOrder[i] == slot)
+		    return i;
+	    }
+	    return -1;
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public PeakListRow getPeakRow(Feature peak) {
+	readLock.lock();
+	try {
+	    int rowNum = getPeakRowNum(peak);
+	    if (rowNum < 0)
+		return null;
+	    return rowViews[rowOrder[rowNum]];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public void addDescriptionOfAppliedTask(PeakListAppliedMethod appliedMethod) {
+	descriptionOfAppliedTasks.add(appliedMethod);
+	modified = true;
+    }
+
+    public PeakListAppliedMethod[] getAppliedMethods() {
+	return descriptionOfAppliedTasks.toArray(new PeakListAppliedMethod[0]);
+    }
+
+    public Range<Double> getRowsMZRange() {
+	readLock.lock();
+	try {
+	    return getRowsRange(averageMZ);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public Range<Double> getRowsRTRange() {
+	readLock.lock();
+	try {
+	    return getRowsRange(averageRT);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    public String getDateCreated() {
+	return dateCreated;
+    }
+
+    public void setDateCreated(String date) {
+	this.dateCreated = date;
+	modified = true;
+    }
+
+    /**
+     * Returns true if this peak list, any of its rows or any of their
+     * identities was changed since the project was last saved or loaded.
+     * Identities which do not track their changes are always considered
+     * modified.
+     */
+    public boolean isModified() {
+	readLock.lock();
+	try {
+	    if (modified)
+		return true;
+	    for (PeakIdentity rowIdentities[] : identities) {
+		if (rowIdentities == null)
+		    continue;
+		for (PeakIdentity identity : rowIdentities) {
+		    if (!(identity instanceof SimplePeakIdentity)
+			    || ((SimplePeakIdentity) identity).isModified())
+			return true;
+		}
+	    }
+	    return false;
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    /**
+     * Sets the modification flag of this peak list. Clearing it also clears
+     * the flags of the identities of its rows.
+     */
+    public void setModified(boolean modified) {
+	writeLock.lock();
+	try {
+	    this.modified = modified;
+	    if (modified)
+		return;
+	    for (PeakIdentity rowIdentities[] : identities) {
+		if (rowIdentities == null)
+		    continue;
+		for (PeakIdentity identity : rowIdentities) {
+		    if (identity instanceof SimplePeakIdentity)
+			((SimplePeakIdentity) identity).setModified(false);
+		}
+	    }
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    /**
+     * Returns the number of data points stored for the peaks of this peak list
+     */
+    public long getNumberOfStoredDataPoints() {
+	readLock.lock();
+	try {
+	    return traces.getSize() - traces.getFreeSize();
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    // Row access for ColumnarPeakListRow. All methods take the slot of the
+    // row.
+
+    int getRowID(int slot) {
+	readLock.lock();
+	try {
+	    return rowIDs[slot];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    int getNumberOfPeaks(int slot) {
+	readLock.lock();
+	try {
+	    int numOfPeaks = 0;
+	    for (int file = 0; file < numOfFiles; file++) {
+		if (status[slot * numOfFiles + file] != NO_PEAK)
+		    numOfPeaks++;
+	    }
+	    return numOfPeaks;
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    RawDataFile[] getRowFiles(int slot) {
+	readLock.lock();
+	try {
+	    ArrayList<RawDataFile> files = new ArrayList<RawDataFile>();
+	    for (int file = 0; file < numOfFiles; file++) {
+		if (status[slot * numOfFiles + file] != NO_PEAK)
+		    files.add(dataFiles[file]);
+	    }
+	    return files.toArray(new RawDataFile[0]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    Feature[] getRowPeaks(int slot) {
+	readLock.lock();
+	try {
+	    ArrayList<Feature> peaks = new ArrayList<Feature>();
+	    for (int file = 0; file < numOfFiles; file++) {
+		int cell = slot * numOfFiles + file;
+		if (status[cell] != NO_PEAK)
+		    peaks.add(createFeature(cell));
+	    }
+	    return peaks.toArray(new Feature[0]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    Feature getRowPeak(int slot, RawDataFile rawDataFile) {
+	readLock.lock();
+	try {
+	    Integer file = fileOrdinals.get(rawDataFile);
+	    if (file == null)
+		return null;
+	    int cell = slot * numOfFiles + file;
+	    if (status[cell] == NO_PEAK)
+		return null;
+	    return createFeature(cell);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    boolean hasPeak(int slot, Feature peak) {
+	readLock.lock();
+	try {
+	    if (!(peak instanceof ColumnarFeature))
+		return false;
+	    ColumnarFeature columnarPeak = (ColumnarFeature) peak;
+	    int cell = columnarPeak.getCell();
+	    return (columnarPeak.getPeakList() == this)
+		    && (cell / numOfFiles == slot) && (status[cell] != NO_PEAK);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    boolean hasPeak(int slot, RawDataFile rawDataFile) {
+	readLock.lock();
+	try {
+	    Integer file = fileOrdinals.get(rawDataFile);
+	    return (file != null)
+		    && (status[slot * numOfFiles + file] != NO_PEAK);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    /**
+     * Copies the values and data points of the given peak to the given row
+     */
+    void setPeak(int slot, RawDataFile rawDataFile, Feature peak) {
+	writeLock.lock();
+	try {
+	    if (peak == null)
+		throw new IllegalArgumentException(
+			"Cannot add null peak to a peak list row");
+	    Integer file = fileOrdinals.get(rawDataFile);
+	    if (file == null)
+		throw (new IllegalArgumentException("Data file " + rawDataFile
+			+ " is not in this peak list"));
+
+	    int cell = slot * numOfFiles + file;
+
+	    // The peak may be a view of this very cell
+	    if (peak.equals(createFeature(cell)))
+		return;
+
+	    status[cell] = (byte) (peak.getFeatureStatus().ordinal() + 1);
+	    mz[cell] = peak.getMZ();
+	    rt[cell] = peak.getRT();
+	    height[cell] = peak.getHeight();
+	    area[cell] = peak.getArea();
+	    Range<Double> range = peak.getRawDataPointsRTRange();
+	    rtMin[cell] = range.lowerEndpoint();
+	    rtMax[cell] = range.upperEndpoint();
+	    range = peak.getRawDataPointsMZRange();
+	    mzMin[cell] = range.lowerEndpoint();
+	    mzMax[cell] = range.upperEndpoint();
+	    range = peak.getRawDataPointsIntensityRange();
+	    intensityMin[cell] = range.lowerEndpoint();
+	    intensityMax[cell] = range.upperEndpoint();
+	    fwhm[cell] = toColumnValue(peak.getFWHM());
+	    tailingFactor[cell] = toColumnValue(peak.getTailingFactor());
+	    asymmetryFactor[cell] = toColumnValue(peak.getAsymmetryFactor());
+	    representativeScans[cell] = peak.getRepresentativeScanNumber();
+	    fragmentScans[cell] = peak.getMostIntenseFragmentScanNumber();
+	    charges[cell] = peak.getCharge();
+	    isotopePatterns[cell] = peak.getIsotopePattern();
+
+	    int scanNumbers[] = peak.getScanNumbers();
+	    DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+	    for (int i = 0; i < scanNumbers.length; i++)
+		dataPoints[i] = peak.getDataPoint(scanNumbers[i]);
+
+	    // Overwrite the trace of a replaced peak if the new one fits
+	    if (scanNumbers.length <= traceLengths[cell]) {
+		traces.set(traceOffsets[cell], traceLengths[cell], scanNumbers,
+			dataPoints);
+	    } else {
+		releaseTrace(cell);
+		traceOffsets[cell] = traces.add(scanNumbers, dataPoints);
+	    }
+	    traceLengths[cell] = scanNumbers.length;
+	    compactTraces();
+
+	    modified = true;
+	    calculateAverageValues(slot);
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    void removePeak(int slot, RawDataFile rawDataFile) {
+	writeLock.lock();
+	try {
+	    Integer file = fileOrdinals.get(rawDataFile);
+	    if (file == null)
+		return;
+	    int cell = slot * numOfFiles + file;
+	    status[cell] = NO_PEAK;
+	    isotopePatterns[cell] = null;
+	    releaseTrace(cell);
+	    compactTraces();
+	    modified = true;
+	    calculateAverageValues(slot);
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    double getAverageMZ(int slot) {
+	readLock.lock();
+	try {
+	    return averageMZ[slot];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    double getAverageRT(int slot) {
+	readLock.lock();
+	try {
+	    return averageRT[slot];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    double getAverageHeight(int slot) {
+	readLock.lock();
+	try {
+	    return averageHeight[slot];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    double getAverageArea(int slot) {
+	readLock.lock();
+	try {
+	    return averageArea[slot];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    int getRowCharge(int slot) {
+	readLock.lock();
+	try {
+	    return rowCharges[slot];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void setAverageMZ(int slot, double mz) {
+	writeLock.lock();
+	try {
+	    averageMZ[slot] = mz;
+	    modified = true;
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    void setAverageRT(int slot, double rt) {
+	writeLock.lock();
+	try {
+	    averageRT[slot] = rt;
+	    modified = true;
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    String getComment(int slot) {
+	readLock.lock();
+	try {
+	    return comments[slot];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void setComment(int slot, String comment) {
+	writeLock.lock();
+	try {
+	    comments[slot] = comment;
+	    modified = true;
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    PeakIdentity[] getPeakIdentities(int slot) {
+	readLock.lock();
+	try {
+	    if (identities[slot] == null)
+		return new PeakIdentity[0];
+	    return identities[slot].clone();
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void addPeakIdentity(int slot, PeakIdentity identity,
+	    boolean preferred) {
+	writeLock.lock();
+	try {
+	    // Verify if exists already an identity with the same name
+	    PeakIdentity rowIdentities[] = getPeakIdentities(slot);
+	    for (PeakIdentity testId : rowIdentities) {
+		if (testId.getName().equals(identity.getName()))
+		    return;
+	    }
+
+	    rowIdentities = Arrays.copyOf(rowIdentities,
+		    rowIdentities.length + 1);
+	    rowIdentities[rowIdentities.length - 1] = identity;
+	    identities[slot] = rowIdentities;
+	    modified = true;
+	    if ((preferredIdentities[slot] == null) || (preferred))
+		preferredIdentities[slot] = identity;
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    void removePeakIdentity(int slot, PeakIdentity identity) {
+	writeLock.lock();
+	try {
+	    List<PeakIdentity> rowIdentities = new ArrayList<PeakIdentity>(
+		    Arrays.asList(getPeakIdentities(slot)));
+	    rowIdentities.remove(identity);
+	    identities[slot] = rowIdentities.isEmpty() ? null : rowIdentities
+		    .toArray(new PeakIdentity[0]);
+	    modified = true;
+	    if (preferredIdentities[slot] == identity) {
+		preferredIdentities[slot] = rowIdentities.isEmpty() ? null
+			: rowIdentities.get(0);
+	    }
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    PeakIdentity getPreferredPeakIdentity(int slot) {
+	readLock.lock();
+	try {
+	    return preferredIdentities[slot];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void setPreferredPeakIdentity(int slot, PeakIdentity identity) {
+	writeLock.lock();
+	try {
+	    if (identity == null)
+		return;
+	    preferredIdentities[slot] = identity;
+	    modified = true;
+	    if (!Arrays.asList(getPeakIdentities(slot)).contains(identity)) {
+		PeakIdentity rowIdentities[] = getPeakIdentities(slot);
+		rowIdentities = Arrays.copyOf(rowIdentities,
+			rowIdentities.length + 1);
+		rowIdentities[rowIdentities.length - 1] = identity;
+		identities[slot] = rowIdentities;
+	    }
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    double getRowMaxIntensity(int slot) {
+	readLock.lock();
+	try {
+	    double maxIntensity = 0;
+	    for (int file = 0; file < numOfFiles; file++) {
+		int cell = slot * numOfFiles + file;
+		if (status[cell] != NO_PEAK)
+		    maxIntensity = Math.max(maxIntensity, intensityMax[cell]);
+	    }
+	    return maxIntensity;
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    /**
+     * Returns the highest peak of the given row, optionally only among the
+     * peaks with an isotope pattern
+     */
+    Feature getBestPeak(int slot, boolean withIsotopePattern) {
+	readLock.lock();
+	try {
+	    int bestCell = -1;
+	    for (int file = 0; file < numOfFiles; file++) {
+		int cell = slot * numOfFiles + file;
+		if ((status[cell] == NO_PEAK)
+			|| (withIsotopePattern
+				&& (isotopePatterns[cell] == null)))
+		    continue;
+		if ((bestCell < 0) || (height[cell] > height[bestCell]))
+		    bestCell = cell;
+	    }
+	    if (bestCell < 0)
+		return null;
+	    return createFeature(bestCell);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    // Peak access for ColumnarFeature. All methods take the cell of the peak.
+
+    RawDataFile getDataFile(int cell) {
+	readLock.lock();
+	try {
+	    return dataFiles[cell % numOfFiles];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    FeatureStatus getFeatureStatus(int cell) {
+	readLock.lock();
+	try {
+	    if (status[cell] == NO_PEAK)
+		return FeatureStatus.UNKNOWN;
+	    return STATUS_VALUES[status[cell] - 1];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    double getMZ(int cell) {
+	readLock.lock();
+	try {
+	    return mz[cell];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    double getRT(int cell) {
+	readLock.lock();
+	try {
+	    return rt[cell];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    double getHeight(int cell) {
+	readLock.lock();
+	try {
+	    return height[cell];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    double getArea(int cell) {
+	readLock.lock();
+	try {
+	    return area[cell];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    int[] getScanNumbers(int cell) {
+	readLock.lock();
+	try {
+	    return traces.getScanNumbers(traceOffsets[cell],
+		    traceLengths[cell]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    int getRepresentativeScanNumber(int cell) {
+	readLock.lock();
+	try {
+	    return representativeScans[cell];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    int getMostIntenseFragmentScanNumber(int cell) {
+	readLock.lock();
+	try {
+	    return fragmentScans[cell];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    DataPoint getDataPoint(int cell, int scanNumber) {
+	readLock.lock();
+	try {
+	    return traces.getDataPoint(traceOffsets[cell], traceLengths[cell],
+		    scanNumber);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    Range<Double> getRawDataPointsRTRange(int cell) {
+	readLock.lock();
+	try {
+	    return Range.closed(rtMin[cell], rtMax[cell]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    Range<Double> getRawDataPointsMZRange(int cell) {
+	readLock.lock();
+	try {
+	    return Range.closed(mzMin[cell], mzMax[cell]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    Range<Double> getRawDataPointsIntensityRange(int cell) {
+	readLock.lock();
+	try {
+	    return Range.closed(intensityMin[cell], intensityMax[cell]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    IsotopePattern getIsotopePattern(int cell) {
+	readLock.lock();
+	try {
+	    return isotopePatterns[cell];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void setIsotopePattern(int cell, IsotopePattern pattern) {
+	writeLock.lock();
+	try {
+	    isotopePatterns[cell] = pattern;
+	    modified = true;
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    int getCharge(int cell) {
+	readLock.lock();
+	try {
+	    return charges[cell];
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void setCharge(int cell, int charge) {
+	writeLock.lock();
+	try {
+	    charges[cell] = charge;
+	    modified = true;
+	    calculateAverageValues(cell / numOfFiles);
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    Double getFWHM(int cell) {
+	readLock.lock();
+	try {
+	    return fromColumnValue(fwhm[cell]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void setFWHM(int cell, Double value) {
+	writeLock.lock();
+	try {
+	    fwhm[cell] = toColumnValue(value);
+	    modified = true;
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    Double getTailingFactor(int cell) {
+	readLock.lock();
+	try {
+	    return fromColumnValue(tailingFactor[cell]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void setTailingFactor(int cell, Double value) {
+	writeLock.lock();
+	try {
+	    tailingFactor[cell] = toColumnValue(value);
+	    modified = true;
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    Double getAsymmetryFactor(int cell) {
+	readLock.lock();
+	try {
+	    return fromColumnValue(asymmetryFactor[cell]);
+	} finally {
+	    readLock.unlock();
+	}
+    }
+
+    void setAsymmetryFactor(int cell, Double value) {
+	writeLock.lock();
+	try {
+	    asymmetryFactor[cell] = toColumnValue(value);
+	    modified = true;
+	} finally {
+	    writeLock.unlock();
+	}
+    }
+
+    /**
+     * Same averages as SimplePeakListRow
+     */
+    private void calculateAverageValues(int slot) {
+	double rtSum = 0, mzSum = 0, heightSum = 0, areaSum = 0;
+	int numOfPeaks = 0, charge = 0;
+	HashSet<Integer> chargeArr = new HashSet<Integer>();
+	for (int file = 0; file < numOfFiles; file++) {
+	    int cell = slot * numOfFiles + file;
+	    if (status[cell] == NO_PEAK)
+		continue;
+	    numOfPeaks++;
+	    rtSum += rt[cell];
+	    mzSum += mz[cell];
+	    heightSum += height[cell];
+	    areaSum += area[cell];
+	    if (charges[cell] > 0) {
+		chargeArr.add(charges[cell]);
+		charge = charges[cell];
+	    }
+	}
+	averageRT[slot] = rtSum / numOfPeaks;
+	averageMZ[slot] = mzSum / numOfPeaks;
+	averageHeight[slot] = heightSum / numOfPeaks;
+	averageArea[slot] = areaSum / numOfPeaks;
+	rowCharges[slot] = (chargeArr.size() < 2) ? charge : 0;
+    }
+
+    private Range<Double> getRowsRange(double values[]) {
+	Range<Double> range = null;
+	for (int i = 0; i < numOfRows; i++) {
+	    double value = values[rowOrder[i]];
+	    if (range == null)
+		range = Range.singleton(value);
+	    else
+		range = range.span(Range.singleton(value));
+	}
+	return range;
+    }
+
+    private int getRowNumber(PeakListRow row) {
+	if ((!(row instanceof ColumnarPeakListRow))
+		|| (((ColumnarPeakListRow) row).getPeakList() != this))
+	    return -1;
+	int slot = ((ColumnarPeakListRow) row).getSlot();
+	for (int i = 0; i < numOfRows; i++) {
+	    if (rowOrder[i] == slot)
+		return i;
+	}
+	return -1;
+    }
+
+    private int checkRowNumber(int row) {
+	if ((row < 0) || (row >= numOfRows))
+	    throw new IndexOutOfBoundsException("Row " + row
+		    + " is not in peak list " + name + " with " + numOfRows
+		    + " rows");
+	return row;
+    }
+
+    private int appendSlot(int rowID) {
+	int slot;
+	if (numOfFreeSlots > 0) {
+	    slot = freeSlots[--numOfFreeSlots];
+	} else {
+	    if (numOfSlots == rowIDs.length)
+		allocate(rowIDs.length + (rowIDs.length >> 1));
+	    slot = numOfSlots++;
+	}
+	rowIDs[slot] = rowID;
+	averageMZ[slot] = Double.NaN;
+	averageRT[slot] = Double.NaN;
+	averageHeight[slot] = Double.NaN;
+	averageArea[slot] = Double.NaN;
+	rowViews[slot] = new ColumnarPeakListRow(this, slot);
+	rowOrder[numOfRows++] = slot;
+	modified = true;
+	return slot;
+    }
+
+    /**
+     * Moves the data of a removed row to a peak list of its own, so the row
+     * and its peaks can still be used by whoever holds them, and clears the
+     * slot for the next added row. The peak list of the removed row has
+     * columns for one row and a trace store only as large as its data points.
+     */
+    private void releaseSlot(int slot) {
+
+	ColumnarPeakListRow row = rowViews[slot];
+	ColumnarPeakList detachedList = new ColumnarPeakList(name, dataFiles,
+		1);
+	detachedList.addRow(row);
+	detachedList.rowViews[0] = row;
+	row.moveTo(detachedList, 0);
+
+	for (int file = 0; file < numOfFiles; file++) {
+	    int cell = slot * numOfFiles + file;
+	    status[cell] = NO_PEAK;
+	    isotopePatterns[cell] = null;
+	    releaseTrace(cell);
+	}
+	comments[slot] = null;
+	identities[slot] = null;
+	preferredIdentities[slot] = null;
+	rowViews[slot] = null;
+	compactTraces();
+
+	if (numOfFreeSlots == freeSlots.length)
+	    freeSlots = grow(freeSlots, Math.max(16, numOfFreeSlots * 2));
+	freeSlots[numOfFreeSlots++] = slot;
+    }
+
+    private void releaseTrace(int cell) {
+	traces.free(traceOffsets[cell], traceLengths[cell]);
+	traceLengths[cell] = 0;
+    }
+
+    /**
+     * Copies the traces in use to a new store once the freed data points
+     * outnumber them
+     */
+    private void compactTraces() {
+	if (traces.getFreeSize() <= traces.getSize() / 2)
+	    return;
+	FeatureTraceStore compactedTraces = new FeatureTraceStore();
+	final int numOfCells = numOfSlots * numOfFiles;
+	for (int cell = 0; cell < numOfCells; cell++) {
+	    if (traceLengths[cell] > 0)
+		traceOffsets[cell] = compactedTraces.copy(traces,
+			traceOffsets[cell], traceLengths[cell]);
+	}
+	traces = compactedTraces;
+    }
+
+    private Feature createFeature(int cell) {
+	return new ColumnarFeature(rowViews[cell / numOfFiles], cell
+		% numOfFiles);
+    }
+
+    /**
+     * Grows all columns to the given number of row slots
+     */
+    private void allocate(int slots) {
+	if ((long) slots * numOfFiles > Integer.MAX_VALUE)
+	    throw new IllegalStateException("Peak list " + name
+		    + " cannot hold more than " + numOfSlots + " rows");
+	int cells = slots * numOfFiles;
+
+	rowOrder = grow(rowOrder, slots);
+	rowIDs = grow(rowIDs, slots);
+	comments = Arrays.copyOf(comments == null ? new String[0] : comments,
+		slots);
+	identities = Arrays.copyOf(identities == null ? new PeakIdentity[0][]
+		: identities, slots);
+	preferredIdentities = Arrays.copyOf(
+		preferredIdentities == null ? new PeakIdentity[0]
+			: preferredIdentities, slots);
+	averageMZ = grow(averageMZ, slots);
+	averageRT = grow(averageRT, slots);
+	averageHeight = grow(averageHeight, slots);
+	averageArea = grow(averageArea, slots);
+	rowCharges = grow(rowCharges, slots);
+	rowViews = Arrays.copyOf(rowViews == null ? new ColumnarPeakListRow[0]
+		: rowViews, slots);
+
+	status = status == null ? new byte[cells] : Arrays.copyOf(status,
+		cells);
+	mz = grow(mz, cells);
+	rt = grow(rt, cells);
+	height = grow(height, cells);
+	area = grow(area, cells);
+	rtMin = grow(rtMin, cells);
+	rtMax = grow(rtMax, cells);
+	mzMin = grow(mzMin, cells);
+	mzMax = grow(mzMax, cells);
+	intensityMin = grow(intensityMin, cells);
+	intensityMax = grow(intensityMax, cells);
+	fwhm = grow(fwhm, cells);
+	tailingFactor = grow(tailingFactor, cells);
+	asymmetryFactor = grow(asymmetryFactor, cells);
+	representativeScans = grow(representativeScans, cells);
+	fragmentScans = grow(fragmentScans, cells);
+	charges = grow(charges, cells);
+	isotopePatterns = Arrays.copyOf(
+		isotopePatterns == null ? new IsotopePattern[0]
+			: isotopePatterns, cells);
+	traceOffsets = traceOffsets == null ? new long[cells] : Arrays.copyOf(
+		traceOffsets, cells);
+	traceLengths = grow(traceLengths, cells);
+    }
+
+    private static double[] grow(double array[], int length) {
+	return array == null ? new double[length] : Arrays.copyOf(array,
+		length);
+    }
+
+    private static int[] grow(int array[], int length) {
+	return array == null ? new int[length] : Arrays.copyOf(array, length);
+    }
+
+    // Optional values are stored as NaN when not set
+    private static double toColumnValue(Double value) {
+	return value == null ? Double.NaN : value;
+    }
+
+    private static Double fromColumnValue(double value) {
+	return Double.isNaN(value) ? null : value;
+    }
+
+}
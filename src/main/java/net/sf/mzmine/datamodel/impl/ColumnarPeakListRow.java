@@ -0,0 +1,194 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.text.Format;
+
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.PeakIdentity;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Row of a ColumnarPeakList. The row holds no data itself, all values are
+ * read from and written to the columns of the peak list. When the row is
+ * removed from the peak list, its data are moved to a separate peak list, so
+ * the row keeps its values.
+ */
+public class ColumnarPeakListRow implements PeakListRow {
+
+    private volatile ColumnarPeakList peakList;
+    private volatile int slot;
+
+    ColumnarPeakListRow(ColumnarPeakList peakList, int slot) {
+	this.peakList = peakList;
+	this.slot = slot;
+    }
+
+    /**
+     * Returns the peak list which stores this row
+     */
+    public ColumnarPeakList getPeakList() {
+	return peakList;
+    }
+
+    int getSlot() {
+	return slot;
+    }
+
+    /**
+     * Points this row to the given slot of another peak list, which holds a
+     * copy of its data
+     */
+    void moveTo(ColumnarPeakList peakList, int slot) {
+	this.slot = slot;
+	this.peakList = peakList;
+    }
+
+    public int getID() {
+	return peakList.getRowID(slot);
+    }
+
+    public RawDataFile[] getRawDataFiles() {
+	return peakList.getRowFiles(slot);
+    }
+
+    public int getNumberOfPeaks() {
+	return peakList.getNumberOfPeaks(slot);
+    }
+
+    public Feature[] getPeaks() {
+	return peakList.getRowPeaks(slot);
+    }
+
+    public Feature getPeak(RawDataFile rawData) {
+	return peakList.getRowPeak(slot, rawData);
+    }
+
+    /**
+     * Copies the values and data points of the given peak to this row
+     */
+    public void addPeak(RawDataFile rawData, Feature peak) {
+	peakList.setPeak(slot, rawData, peak);
+    }
+
+    public void removePeak(RawDataFile file) {
+	peakList.removePeak(slot, file);
+    }
+
+    public boolean hasPeak(Feature peak) {
+	return peakList.hasPeak(slot, peak);
+    }
+
+    public boolean hasPeak(RawDataFile rawData) {
+	return peakList.hasPeak(slot, rawData);
+    }
+
+    public double getAverageMZ() {
+	return peakList.getAverageMZ(slot);
+    }
+
+    public double getAverageRT() {
+	return peakList.getAverageRT(slot);
+    }
+
+    public double getAverageHeight() {
+	return peakList.getAverageHeight(slot);
+    }
+
+    public int getRowCharge() {
+	return peakList.getRowCharge(slot);
+    }
+
+    public double getAverageArea() {
+	return peakList.getAverageArea(slot);
+    }
+
+    public String getComment() {
+	return peakList.getComment(slot);
+    }
+
+    public void setComment(String comment) {
+	peakList.setComment(slot, comment);
+    }
+
+    public void setAverageMZ(double mz) {
+	peakList.setAverageMZ(slot, mz);
+    }
+
+    public void setAverageRT(double rt) {
+	peakList.setAverageRT(slot, rt);
+    }
+
+    public void addPeakIdentity(PeakIdentity identity, boolean preffered) {
+	peakList.addPeakIdentity(slot, identity, preffered);
+    }
+
+    public void removePeakIdentity(PeakIdentity identity) {
+	peakList.removePeakIdentity(slot, identity);
+    }
+
+    public PeakIdentity[] getPeakIdentities() {
+	return peakList.getPeakIdentities(slot);
+    }
+
+    public PeakIdentity getPreferredPeakIdentity() {
+	return peakList.getPreferredPeakIdentity(slot);
+    }
+
+    public void setPreferredPeakIdentity(PeakIdentity identity) {
+	peakList.setPreferredPeakIdentity(slot, identity);
+    }
+
+    public double getDataPointMaxIntensity() {
+	return peakList.getRowMaxIntensity(slot);
+    }
+
+    public Feature getBestPeak() {
+	return peakList.getBestPeak(slot, false);
+    }
+
+    public IsotopePattern getBestIsotopePattern() {
+	Feature peak = peakList.getBestPeak(slot, true);
+	if (peak == null)
+	    return null;
+	return peak.getIsotopePattern();
+    }
+
+    public String toString() {
+	StringBuffer buf = new StringBuffer();
+	Format mzFormat = MZmineCore.getConfiguration().getMZFormat();
+	Format timeFormat = MZmineCore.getConfiguration().getRTFormat();
+	buf.append("#" + getID() + " ");
+	buf.append(mzFormat.format(getAverageMZ()));
+	buf.append(" m/z @");
+	buf.append(timeFormat.format(getAverageRT()));
+	PeakIdentity preferredIdentity = getPreferredPeakIdentity();
+	if (preferredIdentity != null)
+	    buf.append(" " + preferredIdentity.getName());
+	String comment = getComment();
+	if ((comment != null) && (comment.length() > 0))
+	    buf.append(" (" + comment + ")");
+	return buf.toString();
+    }
+
+}
@@ -0,0 +1,703 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
+import net.sf.mzmine.util.MathUtils;
+import net.sf.mzmine.util.PeakUtils;
+import net.sf.mzmine.util.ScanUtils;
+
+import com.google.common.collect.Range;
+
+/**
+ * Memory efficient implementation of the peak interface. The data points are
+ * kept in parallel arrays of primitive values instead of DataPoint instances,
+ * and only for the scans which have a data point. The scans of the data points
+ * are kept as 16-bit offsets from the first of them, and the scan numbers of
+ * the peak are rebuilt from them on request when all scans have a data point.
+ * The boundaries of the raw data points are kept as primitive values, and the
+ * Range instances are created on request. The quality parameters (FWHM,
+ * tailing and asymmetry factor) are calculated on first request, unless they
+ * were set before.
+ *
+ * The m/z values and intensities of the data points are stored in single
+ * precision, which is the precision of the scans of a raw data file and of
+ * the peaks in a saved project. Height, area and the ranges are kept in double
+ * precision.
+ *
+ * The scan numbers must be in ascending order, as the data point of a scan is
+ * found by a binary search.
+ *
+ * The data points of a peak loaded from a project can be released when memory
+ * runs low; they are read again from the project on the next access.
+ */
+public class CompactFeature implements Feature {
+
+    private FeatureStatus peakStatus;
+    private RawDataFile dataFile;
+
+    // Scan numbers and data points, null while they are released
+    private volatile Trace trace;
+
+    // Peak list which reads the data points again after they were released
+    private volatile SimplePeakList dataPointSource;
+
+    // M/Z, RT, Height and Area
+    private double mz, rt, height, area;
+
+    // Boundaries of the peak raw data points
+    private double rtMin, rtMax, mzMin, mzMax, intensityMin, intensityMax;
+
+    // Number of representative scan, number of most intense fragment scan
+    private int representativeScan, fragmentScanNumber;
+
+    // FWHM, Tailing factor, Asymmetry factor, calculated on request
+    private Double fwhm, tf, af;
+    private boolean qualityParametersSet = false;
+
+    // Set when a value of the peak is changed, cleared when the project is
+    // saved
+    private boolean modified = false;
+
+    // Isotope pattern. Null by default but can be set later by deisotoping
+    // method.
+    private IsotopePattern isotopePattern;
+    private int charge = 0;
+
+    /**
+     * Initializes a new peak using given values. Data points may be null for
+     * scans without a data point.
+     */
+    public CompactFeature(RawDataFile dataFile, double MZ, double RT,
+	    double height, double area, int[] scanNumbers,
+	    DataPoint[] dataPointsPerScan, FeatureStatus peakStatus,
+	    int representativeScan, int fragmentScanNumber,
+	    Range<Double> rtRange, Range<Double> mzRange,
+	    Range<Double> intensityRange) {
+
+	if (dataPointsPerScan.length == 0) {
+	    throw new IllegalArgumentException(
+		    "Cannot create a CompactFeature instance with no data points");
+	}
+	checkScanOrder(scanNumbers);
+
+	this.dataFile = dataFile;
+	this.mz = MZ;
+	this.rt = RT;
+	this.height = height;
+	this.area = area;
+	this.peakStatus = peakStatus;
+	this.representativeScan = representativeScan;
+	this.fragmentScanNumber = fragmentScanNumber;
+	setRanges(rtRange, mzRange, intensityRange);
+	setDataPoints(scanNumbers, dataPointsPerScan);
+    }
+
+    /**
+     * Initializes a new peak using given values, with the data points given as
+     * primitive arrays, as they are stored in a project. Scans without a data
+     * point have an m/z value of 0. The m/z and intensity ranges are
+     * calculated from the data points; the intensity range includes the
+     * intensities of the scans without a data point, as in the saved peak.
+     */
+    public CompactFeature(RawDataFile dataFile, double MZ, double RT,
+	    double height, double area, int[] scanNumbers, float mzValues[],
+	    float intensityValues[], FeatureStatus peakStatus,
+	    int representativeScan, int fragmentScanNumber, double rtMin,
+	    double rtMax) {
+
+	if (scanNumbers.length == 0) {
+	    throw new IllegalArgumentException(
+		    "Cannot create a CompactFeature instance with no data points");
+	}
+	checkScanOrder(scanNumbers);
+
+	this.dataFile = dataFile;
+	this.mz = MZ;
+	this.rt = RT;
+	this.height = height;
+	this.area = area;
+	this.peakStatus = peakStatus;
+	this.representativeScan = representativeScan;
+	this.fragmentScanNumber = fragmentScanNumber;
+	this.rtMin = rtMin;
+	this.rtMax = rtMax;
+
+	int numOfDataPoints = 0;
+	intensityMin = intensityMax = intensityValues[0];
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    intensityMin = Math.min(intensityMin, intensityValues[i]);
+	    intensityMax = Math.max(intensityMax, intensityValues[i]);
+	    if (mzValues[i] > 0)
+		numOfDataPoints++;
+	}
+
+	int dataPointScans[] = scanNumbers;
+	float dataPointMZValues[] = mzValues;
+	float dataPointIntensityValues[] = intensityValues;
+	if (numOfDataPoints < scanNumbers.length) {
+	    dataPointScans = new int[numOfDataPoints];
+	    dataPointMZValues = new float[numOfDataPoints];
+	    dataPointIntensityValues = new float[numOfDataPoints];
+	}
+	mzMin = mzMax = MZ;
+	int index = 0;
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    if (mzValues[i] <= 0)
+		continue;
+	    if (index == 0) {
+		mzMin = mzMax = mzValues[i];
+	    } else {
+		mzMin = Math.min(mzMin, mzValues[i]);
+		mzMax = Math.max(mzMax, mzValues[i]);
+	    }
+	    dataPointScans[index] = scanNumbers[i];
+	    dataPointMZValues[index] = mzValues[i];
+	    dataPointIntensityValues[index] = intensityValues[i];
+	    index++;
+	}
+
+	trace = new Trace(scanNumbers, dataPointScans, dataPointMZValues,
+		dataPointIntensityValues);
+    }
+
+    /**
+     * Copy constructor, converts any other peak implementation. The scan
+     * numbers are sorted if they are not in ascending order.
+     */
+    public CompactFeature(Feature p) {
+
+	this.dataFile = p.getDataFile();
+
+	this.mz = p.getMZ();
+	this.rt = p.getRT();
+	this.height = p.getHeight();
+	this.area = p.getArea();
+	setRanges(p.getRawDataPointsRTRange(), p.getRawDataPointsMZRange(),
+		p.getRawDataPointsIntensityRange());
+
+	int scanNumbers[] = p.getScanNumbers();
+	if (!isAscending(scanNumbers)) {
+	    scanNumbers = scanNumbers.clone();
+	    Arrays.sort(scanNumbers);
+	    checkScanOrder(scanNumbers);
+	}
+	DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    dataPoints[i] = p.getDataPoint(scanNumbers[i]);
+	}
+	setDataPoints(scanNumbers, dataPoints);
+
+	this.peakStatus = p.getFeatureStatus();
+	this.representativeScan = p.getRepresentativeScanNumber();
+	this.fragmentScanNumber = p.getMostIntenseFragmentScanNumber();
+	this.isotopePattern = p.getIsotopePattern();
+	this.charge = p.getCharge();
+
+	// Keep the quality parameters, if they were calculated
+	if ((p.getFWHM() != null) || (p.getTailingFactor() != null)
+		|| (p.getAsymmetryFactor() != null)) {
+	    this.fwhm = p.getFWHM();
+	    this.tf = p.getTailingFactor();
+	    this.af = p.getAsymmetryFactor();
+	    this.qualityParametersSet = true;
+	}
+
+    }
+
+    /**
+     * Initializes a new peak from its data points in the given scans, which
+     * must all have a data point. The m/z of the peak is the median m/z of the
+     * data points, the height and RT are those of the most intense data point
+     * and the area is calculated using the retention time in seconds. The
+     * charge is taken from the best fragmentation scan, if available.
+     */
+    public CompactFeature(RawDataFile dataFile, FeatureStatus peakStatus,
+	    int[] scanNumbers, double mzValues[], double intensityValues[]) {
+
+	if (scanNumbers.length == 0) {
+	    throw new IllegalArgumentException(
+		    "Cannot create a CompactFeature instance with no data points");
+	}
+	checkScanOrder(scanNumbers);
+
+	this.dataFile = dataFile;
+	this.peakStatus = peakStatus;
+	float dataPointMZValues[] = new float[scanNumbers.length];
+	float dataPointIntensityValues[] = new float[scanNumbers.length];
+
+	// Median m/z
+	mz = MathUtils.calcQuantile(mzValues, 0.5f);
+
+	// Height, RT, representative scan, area and raw data point ranges,
+	// reading the retention time of each scan only once
+	height = Double.MIN_VALUE;
+	area = 0;
+	double previousRT = 0;
+	for (int i = 0; i < scanNumbers.length; i++) {
+
+	    final double currentRT = dataFile.getScan(scanNumbers[i])
+		    .getRetentionTime();
+	    final double intensity = intensityValues[i];
+	    dataPointMZValues[i] = (float) mzValues[i];
+	    dataPointIntensityValues[i] = (float) intensity;
+
+	    if (i == 0) {
+		rtMin = rtMax = currentRT;
+		mzMin = mzMax = mzValues[i];
+		intensityMin = intensityMax = intensity;
+	    } else {
+		rtMin = Math.min(rtMin, currentRT);
+		rtMax = Math.max(rtMax, currentRT);
+		mzMin = Math.min(mzMin, mzValues[i]);
+		mzMax = Math.max(mzMax, mzValues[i]);
+		intensityMin = Math.min(intensityMin, intensity);
+		intensityMax = Math.max(intensityMax, intensity);
+
+		// For area calculation, we use retention time in seconds
+		area += (currentRT - previousRT) * 60d
+			* (intensity + intensityValues[i - 1]) / 2;
+	    }
+
+	    if (height < intensity) {
+		height = intensity;
+		rt = currentRT;
+		representativeScan = scanNumbers[i];
+	    }
+
+	    previousRT = currentRT;
+	}
+
+	trace = new Trace(scanNumbers, scanNumbers, dataPointMZValues,
+		dataPointIntensityValues);
+
+	// Update fragment scan
+	fragmentScanNumber = ScanUtils.findBestFragmentScan(dataFile,
+		getRawDataPointsRTRange(), getRawDataPointsMZRange());
+
+	if (fragmentScanNumber > 0) {
+	    Scan fragmentScanObject = dataFile.getScan(fragmentScanNumber);
+	    int precursorCharge = fragmentScanObject.getPrecursorCharge();
+	    if (precursorCharge > 0)
+		this.charge = precursorCharge;
+	}
+
+    }
+
+    /**
+     * This method returns the status of the peak
+     */
+    public @Nonnull FeatureStatus getFeatureStatus() {
+	return peakStatus;
+    }
+
+    /**
+     * This method returns M/Z value of the peak
+     */
+    public double getMZ() {
+	return mz;
+    }
+
+    public void setMZ(double mz) {
+	this.mz = mz;
+	modified = true;
+    }
+
+    /**
+     * This method returns retention time of the peak
+     */
+    public double getRT() {
+	return rt;
+    }
+
+    public void setRT(double rt) {
+	this.rt = rt;
+	modified = true;
+    }
+
+    /**
+     * This method returns the raw height of the peak
+     */
+    public double getHeight() {
+	return height;
+    }
+
+    /**
+     * @param height
+     *            The height to set.
+     */
+    public void setHeight(double height) {
+	this.height = height;
+	modified = true;
+    }
+
+    /**
+     * This method returns the raw area of the peak
+     */
+    public double getArea() {
+	return area;
+    }
+
+    /**
+     * @param area
+     *            The area to set.
+     */
+    public void setArea(double area) {
+	this.area = area;
+	modified = true;
+    }
+
+    /**
+     * This method returns numbers of scans that contain this peak
+     */
+    public @Nonnull int[] getScanNumbers() {
+	return getTrace().getScanNumbers();
+    }
+
+    /**
+     * This method returns a representative datapoint of this peak in a given
+     * scan
+     */
+    public DataPoint getDataPoint(int scanNumber) {
+	final Trace currentTrace = getTrace();
+	int index = currentTrace.indexOf(scanNumber);
+	if (index < 0)
+	    return null;
+	return new SimpleDataPoint(currentTrace.mzValues[index],
+		currentTrace.intensityValues[index]);
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.Feature#getDataFile()
+     */
+    public @Nonnull RawDataFile getDataFile() {
+	return dataFile;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+	return PeakUtils.peakToString(this);
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.Feature#getRawDataPointsIntensityRange()
+     */
+    public @Nonnull Range<Double> getRawDataPointsIntensityRange() {
+	return Range.closed(intensityMin, intensityMax);
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.Feature#getRawDataPointsMZRange()
+     */
+    public @Nonnull Range<Double> getRawDataPointsMZRange() {
+	return Range.closed(mzMin, mzMax);
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.Feature#getRawDataPointsRTRange()
+     */
+    public @Nonnull Range<Double> getRawDataPointsRTRange() {
+	return Range.closed(rtMin, rtMax);
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.Feature#getRepresentativeScanNumber()
+     */
+    public int getRepresentativeScanNumber() {
+	return representativeScan;
+    }
+
+    public int getMostIntenseFragmentScanNumber() {
+	return fragmentScanNumber;
+    }
+
+    public IsotopePattern getIsotopePattern() {
+	return isotopePattern;
+    }
+
+    public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
+	this.isotopePattern = isotopePattern;
+	modified = true;
+    }
+
+    public int getCharge() {
+	return charge;
+    }
+
+    public void setCharge(int charge) {
+	this.charge = charge;
+	modified = true;
+    }
+
+    /**
+     * This method returns the full width at half maximum (FWHM) of the peak
+     */
+    public Double getFWHM() {
+	calculateQualityParameters();
+	return fwhm;
+    }
+
+    /**
+     * @param fwhm
+     *            The full width at half maximum (FWHM) to set.
+     */
+    public synchronized void setFWHM(Double fwhm) {
+	this.fwhm = fwhm;
+	qualityParametersSet = true;
+	modified = true;
+    }
+
+    /**
+     * This method returns the tailing factor of the peak
+     */
+    public Double getTailingFactor() {
+	calculateQualityParameters();
+	return tf;
+    }
+
+    /**
+     * @param tf
+     *            The tailing factor to set.
+     */
+    public synchronized void setTailingFactor(Double tf) {
+	this.tf = tf;
+	qualityParametersSet = true;
+	modified = true;
+    }
+
+    /**
+     * This method returns the asymmetry factor of the peak
+     */
+    public Double getAsymmetryFactor() {
+	calculateQualityParameters();
+	return af;
+    }
+
+    /**
+     * @param af
+     *            The asymmetry factor to set.
+     */
+    public synchronized void setAsymmetryFactor(Double af) {
+	this.af = af;
+	qualityParametersSet = true;
+	modified = true;
+    }
+
+    /**
+     * Calculates the quality parameters on first request. Setting any of them
+     * disables the calculation. The calculation does not modify the peak.
+     */
+    private synchronized void calculateQualityParameters() {
+	if (qualityParametersSet)
+	    return;
+	qualityParametersSet = true;
+	final boolean wasModified = modified;
+	QualityParameters.calculateQualityParameters(this);
+	modified = wasModified;
+    }
+
+    /**
+     * Returns true if a value of this peak was changed since the project was
+     * last saved or loaded
+     */
+    boolean isModified() {
+	return modified;
+    }
+
+    void setModified(boolean modified) {
+	this.modified = modified;
+    }
+
+    private void setRanges(Range<Double> rtRange, Range<Double> mzRange,
+	    Range<Double> intensityRange) {
+	rtMin = rtRange.lowerEndpoint();
+	rtMax = rtRange.upperEndpoint();
+	mzMin = mzRange.lowerEndpoint();
+	mzMax = mzRange.upperEndpoint();
+	intensityMin = intensityRange.lowerEndpoint();
+	intensityMax = intensityRange.upperEndpoint();
+    }
+
+    /**
+     * Stores the given data points, leaving out missing ones
+     */
+    private void setDataPoints(int scanNumbers[], DataPoint dataPoints[]) {
+
+	int numOfDataPoints = 0;
+	for (DataPoint dp : dataPoints) {
+	    if (dp != null)
+		numOfDataPoints++;
+	}
+
+	int dataPointScans[];
+	if (numOfDataPoints == scanNumbers.length)
+	    dataPointScans = scanNumbers;
+	else
+	    dataPointScans = new int[numOfDataPoints];
+	float dataPointMZValues[] = new float[numOfDataPoints];
+	float dataPointIntensityValues[] = new float[numOfDataPoints];
+
+	int index = 0;
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    if (dataPoints[i] == null)
+		continue;
+	    dataPointScans[index] = scanNumbers[i];
+	    dataPointMZValues[index] = (float) dataPoints[i].getMZ();
+	    dataPointIntensityValues[index] = (float) dataPoints[i]
+		    .getIntensity();
+	    index++;
+	}
+
+	trace = new Trace(scanNumbers, dataPointScans, dataPointMZValues,
+		dataPointIntensityValues);
+
+    }
+
+    private static boolean isAscending(int scanNumbers[]) {
+	for (int i = 1; i < scanNumbers.length; i++) {
+	    if (scanNumbers[i] <= scanNumbers[i - 1])
+		return false;
+	}
+	return true;
+    }
+
+    private static void checkScanOrder(int scanNumbers[]) {
+	if (!isAscending(scanNumbers)) {
+	    throw new IllegalArgumentException(
+		    "Scan numbers of a peak must be in ascending order: "
+			    + Arrays.toString(scanNumbers));
+	}
+    }
+
+    /**
+     * Releases the data points of this peak. They are read again through the
+     * given peak list on the next access.
+     */
+    void releaseDataPoints(SimplePeakList source) {
+	dataPointSource = source;
+	trace = null;
+    }
+
+    /**
+     * Takes over the data points of the given peak, which was loaded again
+     * after this peak released its data points
+     */
+    void restoreDataPoints(CompactFeature loadedPeak) {
+	trace = loadedPeak.getTrace();
+    }
+
+    private Trace getTrace() {
+	Trace currentTrace = trace;
+	if (currentTrace != null)
+	    return currentTrace;
+	dataPointSource.reloadDataPoints();
+	currentTrace = trace;
+	if (currentTrace == null)
+	    throw new IllegalStateException(
+		    "Could not read the released data points of a peak in "
+			    + dataFile + " again");
+	return currentTrace;
+    }
+
+    /**
+     * Scan numbers and data points of the peak
+     */
+    private static final class Trace {
+
+	// Scan numbers, as returned by getScanNumbers(), or null if all scans
+	// have a data point and the scan numbers are rebuilt from scanOffsets
+	private final int scanNumbers[];
+
+	// Scans with a data point, as offsets from the first of them, or null
+	// if they are too far apart and dataPointScans is used instead
+	private final int firstScan;
+	private final char scanOffsets[];
+	private final int dataPointScans[];
+
+	// M/Z and intensity of each data point
+	final float mzValues[];
+	final float intensityValues[];
+
+	/**
+	 * If all scans have a data point, dataPointScans must be scanNumbers
+	 */
+	Trace(int scanNumbers[], int dataPointScans[], float mzValues[],
+		float intensityValues[]) {
+
+	    final int numOfDataPoints = dataPointScans.length;
+	    firstScan = numOfDataPoints > 0 ? dataPointScans[0] : 0;
+	    final long lastOffset = numOfDataPoints > 0 ? (long) dataPointScans[numOfDataPoints - 1]
+		    - firstScan
+		    : 0;
+	    if (lastOffset <= Character.MAX_VALUE) {
+		scanOffsets = new char[numOfDataPoints];
+		for (int i = 0; i < numOfDataPoints; i++)
+		    scanOffsets[i] = (char) (dataPointScans[i] - firstScan);
+		this.dataPointScans = null;
+		this.scanNumbers = dataPointScans == scanNumbers ? null
+			: scanNumbers;
+	    } else {
+		scanOffsets = null;
+		this.dataPointScans = dataPointScans;
+		this.scanNumbers = scanNumbers;
+	    }
+
+	    this.mzValues = mzValues;
+	    this.intensityValues = intensityValues;
+
+	}
+
+	int[] getScanNumbers() {
+	    if (scanNumbers != null)
+		return scanNumbers;
+	    int numbers[] = new int[scanOffsets.length];
+	    for (int i = 0; i < numbers.length; i++)
+		numbers[i] = firstScan + scanOffsets[i];
+	    return numbers;
+	}
+
+	/**
+	 * Returns the index of the data point in the given scan, or a negative
+	 * value if the scan has no data point
+	 */
+	int indexOf(int scanNumber) {
+	    if (dataPointScans != null)
+		return Arrays.binarySearch(dataPointScans, scanNumber);
+	    final long offset = (long) scanNumber - firstScan;
+	    if ((offset < 0) || (offset > Character.MAX_VALUE))
+		return -1;
+	    return Arrays.binarySearch(scanOffsets, (char) offset);
+	}
+
+    }
+
+}
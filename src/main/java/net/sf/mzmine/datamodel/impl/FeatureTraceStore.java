@@ -0,0 +1,228 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import net.sf.mzmine.datamodel.DataPoint;
+
+/**
+ * Store of the per-scan data points (traces) of many peaks. The scan numbers,
+ * m/z values and intensities of all traces are kept in pages of primitive
+ * arrays, so a trace costs 20 bytes per scan instead of a DataPoint object and
+ * an array slot. Each trace is addressed by its offset in the store and its
+ * length.
+ * 
+ * Traces are appended to the end of the store. A trace can be overwritten by a
+ * shorter one, and freed traces are only counted; the owner of the store
+ * reclaims them by copying the used traces to a new store (see copy()).
+ * 
+ * The last page only grows as far as needed, so a store of a few traces takes
+ * little more memory than their data points.
+ * 
+ * The store is not synchronized. Its owner must not change it while other
+ * threads read it.
+ */
+public class FeatureTraceStore {
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private int scanPages[][] = new int[0][];
+    private double mzPages[][] = new double[0][];
+    private double intensityPages[][] = new double[0][];
+
+    private long size = 0, freeSize = 0;
+
+    /**
+     * Appends a trace to the store. The scan numbers must be sorted. Missing
+     * data points (null) are kept as such.
+     *
+     * @return Offset of the trace in the store
+     */
+    public long add(int scanNumbers[], DataPoint dataPoints[]) {
+
+	long offset = size;
+	ensureCapacity(size + scanNumbers.length);
+	size += scanNumbers.length;
+	write(offset, scanNumbers, dataPoints);
+
+	return offset;
+    }
+
+    /**
+     * Overwrites the trace at the given offset with the given data points. The
+     * old trace must be at least as long as the new one; the rest of it is
+     * freed.
+     */
+    public void set(long offset, int length, int scanNumbers[],
+	    DataPoint dataPoints[]) {
+	if (scanNumbers.length > length)
+	    throw new IllegalArgumentException("Trace of " + scanNumbers.length
+		    + " data points does not fit in " + length);
+	write(offset, scanNumbers, dataPoints);
+	freeSize += length - scanNumbers.length;
+    }
+
+    /**
+     * Marks the trace at the given offset as unused
+     */
+    public void free(long offset, int length) {
+	freeSize += length;
+    }
+
+    /**
+     * Appends a copy of a trace of the given store to this store
+     * 
+     * @return Offset of the copy in this store
+     */
+    public long copy(FeatureTraceStore source, long offset,
+	    int length) {
+	long copyOffset = size;
+	ensureCapacity(size + length);
+	for (int i = 0; i < length; i++) {
+	    int from = (int) ((offset + i) >>> PAGE_BITS);
+	    int fromIndex = (int) ((offset + i) & PAGE_MASK);
+	    int page = (int) (size >>> PAGE_BITS);
+	    int index = (int) (size & PAGE_MASK);
+	    scanPages[page][index] = source.scanPages[from][fromIndex];
+	    mzPages[page][index] = source.mzPages[from][fromIndex];
+	    intensityPages[page][index] = source.intensityPages[from][fromIndex];
+	    size++;
+	}
+	return copyOffset;
+    }
+
+    /**
+     * Returns the scan numbers of the trace at the given offset
+     */
+    public int[] getScanNumbers(long offset, int length) {
+	int scanNumbers[] = new int[length];
+	for (int i = 0; i < length; i++)
+	    scanNumbers[i] = getScanNumber(offset + i);
+	return scanNumbers;
+    }
+
+    /**
+     * Returns the data point of the trace at the given offset in the given
+     * scan, or null if the trace has no data point in that scan
+     */
+    public @Nullable DataPoint getDataPoint(long offset,
+	    int length, int scanNumber) {
+
+	// Binary search for the scan number
+	long low = offset, high = offset + length - 1;
+	while (low <= high) {
+	    long middle = (low + high) >>> 1;
+	    int middleScan = getScanNumber(middle);
+	    if (middleScan < scanNumber)
+		low = middle + 1;
+	    else if (middleScan > scanNumber)
+		high = middle - 1;
+	    else {
+		int page = (int) (middle >>> PAGE_BITS);
+		int index = (int) (middle & PAGE_MASK);
+		double mz = mzPages[page][index];
+		if (Double.isNaN(mz))
+		    return null;
+		return new SimpleDataPoint(mz, intensityPages[page][index]);
+	    }
+	}
+	return null;
+
+    }
+
+    /**
+     * Returns the number of data points in the store, including freed ones
+     */
+    public long getSize() {
+	return size;
+    }
+
+    /**
+     * Returns the number of freed data points in the store
+     */
+    public long getFreeSize() {
+	return freeSize;
+    }
+
+    private void write(long position, int scanNumbers[],
+	    DataPoint dataPoints[]) {
+	for (int i = 0; i < scanNumbers.length; i++, position++) {
+	    int page = (int) (position >>> PAGE_BITS);
+	    int index = (int) (position & PAGE_MASK);
+	    scanPages[page][index] = scanNumbers[i];
+	    if (dataPoints[i] == null) {
+		mzPages[page][index] = Double.NaN;
+		intensityPages[page][index] = Double.NaN;
+	    } else {
+		mzPages[page][index] = dataPoints[i].getMZ();
+		intensityPages[page][index] = dataPoints[i].getIntensity();
+	    }
+	}
+    }
+
+    private int getScanNumber(long position) {
+	return scanPages[(int) (position >>> PAGE_BITS)][(int) (position
+		& PAGE_MASK)];
+    }
+
+    /**
+     * Adds pages and grows the last page to hold the given number of data
+     * points. All pages but the last one are full size, and the last one at
+     * least doubles when it grows.
+     */
+    private void ensureCapacity(long capacity) {
+	if (capacity == 0)
+	    return;
+	int numOfPages = (int) ((capacity + PAGE_MASK) >>> PAGE_BITS);
+	int oldNumOfPages = scanPages.length;
+	if (numOfPages > oldNumOfPages) {
+	    scanPages = Arrays.copyOf(scanPages, numOfPages);
+	    mzPages = Arrays.copyOf(mzPages, numOfPages);
+	    intensityPages = Arrays.copyOf(intensityPages, numOfPages);
+	    for (int i = Math.max(0, oldNumOfPages - 1); i < numOfPages - 1; i++)
+		growPage(i, PAGE_SIZE);
+	}
+	int lastPage = numOfPages - 1;
+	int lastPageSize = (int) (capacity - ((long) lastPage << PAGE_BITS));
+	int oldLastPageSize = scanPages[lastPage] == null ? 0
+		: scanPages[lastPage].length;
+	if (lastPageSize > oldLastPageSize)
+	    growPage(lastPage, Math.min(PAGE_SIZE,
+		    Math.max(lastPageSize, oldLastPageSize * 2)));
+    }
+
+    private void growPage(int page, int pageSize) {
+	if (scanPages[page] == null) {
+	    scanPages[page] = new int[pageSize];
+	    mzPages[page] = new double[pageSize];
+	    intensityPages[page] = new double[pageSize];
+	} else if (scanPages[page].length < pageSize) {
+	    scanPages[page] = Arrays.copyOf(scanPages[page], pageSize);
+	    mzPages[page] = Arrays.copyOf(mzPages[page], pageSize);
+	    intensityPages[page] = Arrays.copyOf(intensityPages[page], pageSize);
+	}
+    }
+
+}
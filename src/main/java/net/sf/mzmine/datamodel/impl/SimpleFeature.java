@@ -62,6 +62,10 @@ public class SimpleFeature implements Feature {
     private IsotopePattern isotopePattern;
     private int charge = 0;
 
+    // Set when a value of the peak is changed, cleared when the project is
+    // saved
+    private boolean modified = false;
+
     /**
      * Initializes a new peak using given values
      * 
@@ -146,10 +150,12 @@ public class SimpleFeature implements Feature {
 
     public void setMZ(double mz) {
 	this.mz = mz;
+	modified = true;
     }
 
     public void setRT(double rt) {
 	this.rt = rt;
+	modified = true;
     }
 
     /**
@@ -172,6 +178,7 @@ public class SimpleFeature implements Feature {
      */
     public void setHeight(double height) {
 	this.height = height;
+	modified = true;
     }
 
     /**
@@ -187,6 +194,7 @@ public class SimpleFeature implements Feature {
      */
     public void setArea(double area) {
 	this.area = area;
+	modified = true;
     }
 
     /**
@@ -219,6 +227,7 @@ public class SimpleFeature implements Feature {
      */
     public void setDataFile(RawDataFile dataFile) {
 	this.dataFile = dataFile;
+	modified = true;
     }
 
     /**
@@ -267,6 +276,7 @@ public class SimpleFeature implements Feature {
 
     public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
 	this.isotopePattern = isotopePattern;
+	modified = true;
     }
 
     public int getCharge() {
@@ -275,6 +285,7 @@ public class SimpleFeature implements Feature {
 
     public void setCharge(int charge) {
 	this.charge = charge;
+	modified = true;
     }
 
     /**
@@ -290,6 +301,7 @@ public class SimpleFeature implements Feature {
      */
     public void setFWHM(Double fwhm) {
         this.fwhm = fwhm;
+        modified = true;
     }
 
     /**
@@ -305,6 +317,7 @@ public class SimpleFeature implements Feature {
      */
     public void setTailingFactor(Double tf) {
         this.tf = tf;
+        modified = true;
     }
 
     /**
@@ -320,6 +333,19 @@ public class SimpleFeature implements Feature {
      */
     public void setAsymmetryFactor(Double af) {
         this.af = af;
+        modified = true;
+    }
+
+    /**
+     * Returns true if a value of this peak was changed since the project was
+     * last saved or loaded
+     */
+    boolean isModified() {
+	return modified;
+    }
+
+    void setModified(boolean modified) {
+	this.modified = modified;
     }
 
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.datamodel.IonChromatogram;
+
+import com.google.common.collect.Range;
+
+/**
+ * Simple implementation of the IonChromatogram interface, backed by primitive
+ * arrays. The arrays are not copied.
+ */
+public class SimpleIonChromatogram implements IonChromatogram {
+
+    private final Range<Double> mzRange, rtRange;
+    private final int scanNumbers[];
+    private final double retentionTimes[], mzValues[], intensities[];
+
+    public SimpleIonChromatogram(Range<Double> mzRange, Range<Double> rtRange,
+	    int scanNumbers[], double retentionTimes[], double mzValues[],
+	    double intensities[]) {
+	this.mzRange = mzRange;
+	this.rtRange = rtRange;
+	this.scanNumbers = scanNumbers;
+	this.retentionTimes = retentionTimes;
+	this.mzValues = mzValues;
+	this.intensities = intensities;
+    }
+
+    @Override
+    public @Nonnull Range<Double> getMZRange() {
+	return mzRange;
+    }
+
+    @Override
+    public @Nonnull Range<Double> getRTRange() {
+	return rtRange;
+    }
+
+    @Override
+    public int getNumberOfDataPoints() {
+	return scanNumbers.length;
+    }
+
+    @Override
+    public @Nonnull int[] getScanNumbers() {
+	return scanNumbers;
+    }
+
+    @Override
+    public @Nonnull double[] getRetentionTimes() {
+	return retentionTimes;
+    }
+
+    @Override
+    public @Nonnull double[] getMZValues() {
+	return mzValues;
+    }
+
+    @Override
+    public @Nonnull double[] getIntensities() {
+	return intensities;
+    }
+
+}
@@ -34,6 +34,9 @@ public class SimplePeakIdentity implements PeakIdentity {
 
     private Hashtable<String, String> properties;
 
+    // Set when a property is changed, cleared when the project is saved
+    private boolean modified = false;
+
     /**
      * This constructor is protected so only derived classes can use it. Other
      * modules using this class should always set the name by default.
@@ -146,6 +149,19 @@ public class SimplePeakIdentity implements PeakIdentity {
 	}
 
 	properties.put(property, value);
+	modified = true;
+    }
+
+    /**
+     * Returns true if a property of this identity was changed since the
+     * project was last saved or loaded
+     */
+    boolean isModified() {
+	return modified;
+    }
+
+    void setModified(boolean modified) {
+	this.modified = modified;
     }
 
     /**
@@ -19,12 +19,14 @@
 
 package net.sf.mzmine.datamodel.impl;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
 import net.sf.mzmine.datamodel.Feature;
@@ -34,6 +36,7 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.desktop.impl.projecttree.PeakListTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.util.PeakUtils;
 
 import com.google.common.collect.Range;
 
@@ -50,6 +53,31 @@ public class SimplePeakList implements PeakList {
     private String dateCreated;
     private Range<Double> mzRange, rtRange;
 
+    // Set whenever the peak list is changed, cleared when the project is saved
+    private boolean modified = true;
+
+    // Loads the rows on first access, if the peak list was opened without
+    // them. While the rows are not loaded, peakListRows is null.
+    private RowLoader rowLoader;
+    private int numOfUnloadedRows;
+
+    // Peaks whose data points were released, by row in the order of the
+    // loaded rows and by raw data file. Null while nothing is released.
+    private CompactFeature releasedPeaks[][];
+
+    /**
+     * Provides the rows of a peak list which was created without them, e.g.
+     * when opening a project file
+     */
+    public interface RowLoader {
+
+	/**
+	 * Reads the rows of the given peak list from their source
+	 */
+	List<PeakListRow> loadRows(SimplePeakList peakList) throws IOException;
+
+    }
+
     public static DateFormat dateFormat = new SimpleDateFormat(
 	    "yyyy/MM/dd HH:mm:ss");
 
@@ -108,7 +136,9 @@ public class SimplePeakList implements PeakList {
     /**
      * Returns number of rows in the alignment result
      */
-    public int getNumberOfRows() {
+    public synchronized int getNumberOfRows() {
+	if (peakListRows == null)
+	    return numOfUnloadedRows;
 	return peakListRows.size();
     }
 
@@ -122,7 +152,7 @@ public class SimplePeakList implements PeakList {
      *            Raw data file where the peak is detected/estimated
      */
     public Feature getPeak(int row, RawDataFile rawDataFile) {
-	return peakListRows.get(row).getPeak(rawDataFile);
+	return rows().get(row).getPeak(rawDataFile);
     }
 
     /**
@@ -130,8 +160,9 @@ public class SimplePeakList implements PeakList {
      */
     public Feature[] getPeaks(RawDataFile rawDataFile) {
 	Vector<Feature> peakSet = new Vector<Feature>();
-	for (int row = 0; row < getNumberOfRows(); row++) {
-	    Feature p = peakListRows.get(row).getPeak(rawDataFile);
+	ArrayList<PeakListRow> rows = rows();
+	for (int row = 0; row < rows.size(); row++) {
+	    Feature p = rows.get(row).getPeak(rawDataFile);
 	    if (p != null)
 		peakSet.add(p);
 	}
@@ -142,11 +173,11 @@ public class SimplePeakList implements PeakList {
      * Returns all peaks on one row
      */
     public PeakListRow getRow(int row) {
-	return peakListRows.get(row);
+	return rows().get(row);
     }
 
     public PeakListRow[] getRows() {
-	return peakListRows.toArray(new PeakListRow[0]);
+	return rows().toArray(new PeakListRow[0]);
     }
 
     public PeakListRow[] getRowsInsideMZRange(Range<Double> mzRange) {
@@ -163,7 +194,7 @@ public class SimplePeakList implements PeakList {
 	    Range<Double> mzRange) {
 	Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
 
-	for (PeakListRow row : peakListRows) {
+	for (PeakListRow row : rows()) {
 	    if (rtRange.contains(row.getAverageRT())
 		    && mzRange.contains(row.getAverageMZ()))
 		rowsInside.add(row);
@@ -179,7 +210,18 @@ public class SimplePeakList implements PeakList {
 		throw (new IllegalArgumentException("Data file " + testFile
 			+ " is not in this peak list"));
 	}
-	peakListRows.add(row);
+
+	// Rows of a ColumnarPeakList would keep the whole peak list in memory,
+	// so they are copied
+	if (row instanceof ColumnarPeakListRow) {
+	    PeakListRow copiedRow = new SimplePeakListRow(row.getID());
+	    for (Feature peak : row.getPeaks())
+		copiedRow.addPeak(peak.getDataFile(), peak);
+	    PeakUtils.copyPeakListRowProperties(row, copiedRow);
+	    row = copiedRow;
+	}
+	rows().add(row);
+	modified = true;
 	if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
 	    maxDataPointIntensity = row.getDataPointMaxIntensity();
 	}
@@ -239,7 +281,8 @@ public class SimplePeakList implements PeakList {
      * @see net.sf.mzmine.datamodel.PeakList#removeRow(net.sf.mzmine.datamodel.PeakListRow)
      */
     public void removeRow(PeakListRow row) {
-	peakListRows.remove(row);
+	rows().remove(row);
+	modified = true;
 
 	// We have to update the project tree model
 	MZmineProjectImpl project = (MZmineProjectImpl) MZmineCore
@@ -254,14 +297,14 @@ public class SimplePeakList implements PeakList {
      * @see net.sf.mzmine.datamodel.PeakList#removeRow(net.sf.mzmine.datamodel.PeakListRow)
      */
     public void removeRow(int rowNum) {
-	removeRow(peakListRows.get(rowNum));
+	removeRow(rows().get(rowNum));
     }
 
     private void updateMaxIntensity() {
 	maxDataPointIntensity = 0;
 	mzRange = null;
 	rtRange = null;
-	for (PeakListRow peakListRow : peakListRows) {
+	for (PeakListRow peakListRow : rows()) {
 	    if (peakListRow.getDataPointMaxIntensity() > maxDataPointIntensity)
 		maxDataPointIntensity = peakListRow.getDataPointMaxIntensity();
 
@@ -296,6 +339,7 @@ public class SimplePeakList implements PeakList {
      * @see net.sf.mzmine.datamodel.PeakList#getDataPointMaxIntensity()
      */
     public double getDataPointMaxIntensity() {
+	rows(); // The maximum is known once the rows are loaded
 	return maxDataPointIntensity;
     }
 
@@ -316,10 +360,12 @@ public class SimplePeakList implements PeakList {
 
     public void setName(String name) {
 	this.name = name;
+	modified = true;
     }
 
     public void addDescriptionOfAppliedTask(PeakListAppliedMethod appliedMethod) {
 	descriptionOfAppliedTasks.add(appliedMethod);
+	modified = true;
     }
 
     public PeakListAppliedMethod[] getAppliedMethods() {
@@ -332,6 +378,7 @@ public class SimplePeakList implements PeakList {
 
     public void setDateCreated(String date) {
 	this.dateCreated = date;
+	modified = true;
     }
 
     public Range<Double> getRowsMZRange() {
@@ -344,4 +391,150 @@ public class SimplePeakList implements PeakList {
 	return rtRange;
     }
 
+    /**
+     * Returns true if this peak list or any of its rows was changed since the
+     * project was last saved or loaded
+     */
+    public synchronized boolean isModified() {
+	if (modified)
+	    return true;
+	if (peakListRows == null)
+	    return false;
+	for (PeakListRow row : peakListRows) {
+	    if (!(row instanceof SimplePeakListRow)
+		    || ((SimplePeakListRow) row).isModified())
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * Sets the modification flag of this peak list and all its rows
+     */
+    public synchronized void setModified(boolean modified) {
+	this.modified = modified;
+	if (peakListRows == null)
+	    return;
+	for (PeakListRow row : peakListRows) {
+	    if (row instanceof SimplePeakListRow)
+		((SimplePeakListRow) row).setModified(modified);
+	}
+    }
+
+    /**
+     * Sets the loader which provides the rows of this peak list on first
+     * access. The peak list must not contain any rows yet.
+     * 
+     * @param numOfRows
+     *            Number of rows the loader will provide
+     */
+    public synchronized void setRowLoader(RowLoader rowLoader, int numOfRows) {
+	if ((peakListRows != null) && (!peakListRows.isEmpty()))
+	    throw new IllegalStateException("Peak list " + name
+		    + " already contains rows");
+	this.rowLoader = rowLoader;
+	this.numOfUnloadedRows = numOfRows;
+	peakListRows = null;
+    }
+
+    public RowLoader getRowLoader() {
+	return rowLoader;
+    }
+
+    /**
+     * Returns true if the rows of this peak list are in memory
+     */
+    public synchronized boolean isLoaded() {
+	return peakListRows != null;
+    }
+
+    /**
+     * Releases the data points of the peaks of this peak list, if they can be
+     * loaded again by the row loader. The rows and peaks stay in memory, so
+     * whoever holds them keeps working on the same objects; the data points
+     * are read again on the next access. Peak lists whose rows were changed
+     * since loading are kept.
+     * 
+     * @param keptPeaks
+     *            Peaks which keep their data points, e.g. because they are
+     *            shared with peak lists which cannot load them again
+     * @return true if the data points were released
+     */
+    public synchronized boolean releaseDataPoints(Set<Feature> keptPeaks) {
+	if ((rowLoader == null) || (peakListRows == null)
+		|| (releasedPeaks != null) || isModified())
+	    return false;
+	CompactFeature peaks[][] = new CompactFeature[peakListRows.size()][];
+	for (int i = 0; i < peaks.length; i++) {
+	    PeakListRow row = peakListRows.get(i);
+	    peaks[i] = new CompactFeature[dataFiles.length];
+	    for (int j = 0; j < dataFiles.length; j++) {
+		Feature peak = row.getPeak(dataFiles[j]);
+		if ((peak instanceof CompactFeature)
+			&& (!keptPeaks.contains(peak))) {
+		    peaks[i][j] = (CompactFeature) peak;
+		    peaks[i][j].releaseDataPoints(this);
+		}
+	    }
+	}
+	releasedPeaks = peaks;
+	return true;
+    }
+
+    /**
+     * Reads the released data points of the peaks of this peak list again
+     */
+    synchronized void reloadDataPoints() {
+	if (releasedPeaks == null)
+	    return;
+
+	List<PeakListRow> loadedRows = loadRows();
+	if (loadedRows.size() != releasedPeaks.length)
+	    throw new IllegalStateException("Rows of peak list " + name
+		    + " do not match the loaded rows");
+
+	for (int i = 0; i < releasedPeaks.length; i++) {
+	    for (int j = 0; j < dataFiles.length; j++) {
+		if (releasedPeaks[i][j] == null)
+		    continue;
+		Feature loadedPeak = loadedRows.get(i).getPeak(dataFiles[j]);
+		if (!(loadedPeak instanceof CompactFeature))
+		    throw new IllegalStateException("Peaks of peak list "
+			    + name + " do not match the loaded peaks");
+		releasedPeaks[i][j]
+			.restoreDataPoints((CompactFeature) loadedPeak);
+	    }
+	}
+	releasedPeaks = null;
+    }
+
+    /**
+     * Returns the list of rows, loading it first if necessary
+     */
+    private synchronized ArrayList<PeakListRow> rows() {
+	if (peakListRows != null)
+	    return peakListRows;
+
+	List<PeakListRow> loadedRows = loadRows();
+
+	// Loading does not change the peak list, so keep the modification
+	// flags as they were
+	peakListRows = new ArrayList<PeakListRow>(loadedRows);
+	for (PeakListRow row : peakListRows) {
+	    if (row instanceof SimplePeakListRow)
+		((SimplePeakListRow) row).setModified(false);
+	}
+	updateMaxIntensity();
+	return peakListRows;
+    }
+
+    private List<PeakListRow> loadRows() {
+	try {
+	    return rowLoader.loadRows(this);
+	} catch (IOException e) {
+	    throw new IllegalStateException("Could not load rows of peak list "
+		    + name + ": " + e.getMessage(), e);
+	}
+    }
+
 }
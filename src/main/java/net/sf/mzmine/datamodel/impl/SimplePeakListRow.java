@@ -48,6 +48,9 @@ public class SimplePeakListRow implements PeakListRow {
     private int myID;
     private double maxDataPointIntensity = 0;
 
+    // Set whenever the row is changed, cleared when the project is saved
+    private boolean modified = true;
+
     /**
      * These variables are used for caching the average values, so we don't need
      * to calculate them again and again
@@ -77,6 +80,7 @@ public class SimplePeakListRow implements PeakListRow {
 
     public void removePeak(RawDataFile file) {
 	this.peaks.remove(file);
+	modified = true;
 	calculateAverageValues();
     }
 
@@ -100,7 +104,12 @@ public class SimplePeakListRow implements PeakListRow {
 	    throw new IllegalArgumentException(
 		    "Cannot add null peak to a peak list row");
 
+	// Peaks of a ColumnarPeakList would keep the whole peak list in memory
+	if (peak instanceof ColumnarFeature)
+	    peak = new CompactFeature(peak);
+
 	peaks.put(rawData, peak);
+	modified = true;
 	if (peak.getRawDataPointsIntensityRange().upperEndpoint() > maxDataPointIntensity)
 	    maxDataPointIntensity = peak.getRawDataPointsIntensityRange()
 		    .upperEndpoint();
@@ -185,6 +194,7 @@ public class SimplePeakListRow implements PeakListRow {
      */
     public void setComment(String comment) {
 	this.comment = comment;
+	modified = true;
     }
     
     /**
@@ -192,6 +202,7 @@ public class SimplePeakListRow implements PeakListRow {
      */
     public void setAverageMZ(double mz) {
 	this.averageMZ = mz;
+	modified = true;
     }
 
     /**
@@ -199,6 +210,7 @@ public class SimplePeakListRow implements PeakListRow {
      */
     public void setAverageRT(double rt) {
 	this.averageRT = rt;
+	modified = true;
     }
 
     /**
@@ -215,6 +227,7 @@ public class SimplePeakListRow implements PeakListRow {
 	}
 
 	identities.add(identity);
+	modified = true;
 	if ((preferredIdentity == null) || (preferred)) {
 	    setPreferredPeakIdentity(identity);
 	}
@@ -225,6 +238,7 @@ public class SimplePeakListRow implements PeakListRow {
      */
     public synchronized void removePeakIdentity(PeakIdentity identity) {
 	identities.remove(identity);
+	modified = true;
 	if (preferredIdentity == identity) {
 	    if (identities.size() > 0) {
 		PeakIdentity[] identitiesArray = identities
@@ -258,6 +272,7 @@ public class SimplePeakListRow implements PeakListRow {
 	    return;
 
 	preferredIdentity = identity;
+	modified = true;
 
 	if (!identities.contains(identity)) {
 	    identities.add(identity);
@@ -309,4 +324,51 @@ public class SimplePeakListRow implements PeakListRow {
 	return peaks[0];
     }
 
+    /**
+     * Returns true if this row, one of its peaks or one of its identities was
+     * changed since the project was last saved or loaded. Peaks and
+     * identities which do not track their changes are always considered
+     * modified.
+     */
+    public boolean isModified() {
+	if (modified)
+	    return true;
+	for (Feature peak : getPeaks()) {
+	    if (peak instanceof CompactFeature) {
+		if (((CompactFeature) peak).isModified())
+		    return true;
+	    } else if (peak instanceof SimpleFeature) {
+		if (((SimpleFeature) peak).isModified())
+		    return true;
+	    } else
+		return true;
+	}
+	for (PeakIdentity identity : getPeakIdentities()) {
+	    if (!(identity instanceof SimplePeakIdentity)
+		    || ((SimplePeakIdentity) identity).isModified())
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * Sets the modification flag of this row. Clearing it also clears the
+     * flags of its peaks and identities.
+     */
+    public void setModified(boolean modified) {
+	this.modified = modified;
+	if (modified)
+	    return;
+	for (Feature peak : getPeaks()) {
+	    if (peak instanceof CompactFeature)
+		((CompactFeature) peak).setModified(false);
+	    else if (peak instanceof SimpleFeature)
+		((SimpleFeature) peak).setModified(false);
+	}
+	for (PeakIdentity identity : getPeakIdentities()) {
+	    if (identity instanceof SimplePeakIdentity)
+		((SimplePeakIdentity) identity).setModified(false);
+	}
+    }
+
 }
@@ -53,6 +53,11 @@ public class MZminePreferences extends SimpleParameterSet {
 
     public static final NumOfThreadsParameter numOfThreads = new NumOfThreadsParameter();
 
+    public static final IntegerParameter readersPerDisk = new IntegerParameter(
+            "Raw data files read in parallel per disk",
+            "Maximum number of raw data files imported from the same disk at the same time. Reading several files in parallel from a hard disk slows down the import, while SSDs and network storage may allow more.",
+            2, 1, null);
+
     public static final OptionalModuleParameter proxySettings = new OptionalModuleParameter(
             "Use proxy", "Use proxy for internet connection?",
             new ProxySettings());
@@ -66,6 +71,11 @@ public class MZminePreferences extends SimpleParameterSet {
             "Allow MZmine to send anonymous statistics on the module usage?",
             true);
 
+    public static final BooleanParameter mappableProjectScans = new BooleanParameter(
+            "Store scan data uncompressed in projects",
+            "If checked, scan data is saved uncompressed in project files, so that it can be accessed directly from the project file when it is opened from a local disk, instead of being extracted to a temporary file. Project files will be larger.",
+            false);
+
     public static final WindowSettingsParameter windowSetttings = new WindowSettingsParameter();
 
     public static final StringParameter vtmxUsername = new StringParameter(
@@ -81,8 +91,8 @@ public class MZminePreferences extends SimpleParameterSet {
     		
     public MZminePreferences() {
         super(new Parameter[] { mzFormat, rtFormat, intensityFormat,
-                numOfThreads, proxySettings, rExecPath, sendStatistics,
-                windowSetttings, vtmxUsername, vtmxPassword, vtmxProject  });
+                numOfThreads, readersPerDisk, proxySettings, rExecPath,
+                sendStatistics, mappableProjectScans, windowSetttings, vtmxUsername, vtmxPassword, vtmxProject  });
     }
 
     @Override
@@ -76,6 +76,16 @@ public class NumOfThreadsParameter implements
 	return automatic;
     }
 
+    /**
+     * Returns the number of threads to use, which is the number of available
+     * processors if the value is set automatically
+     */
+    public int getNumOfThreads() {
+	if (automatic || (value == null))
+	    return Runtime.getRuntime().availableProcessors();
+	return value;
+    }
+
     @Override
     public void setValue(Integer value) {
 	assert value != null;
@@ -88,20 +88,42 @@ public final class MZmineCore {
 	// be . or , depending on the locale)
 	Locale.setDefault(new Locale("en", "US"));
 	
-	// find the single argument if it exists while still picking up the -t option
+	// find the batch file argument if it exists while still picking up the
+	// -t option, the -checkpoint directory, the number of -shards and the
+	// -metrics report file
 	String param = null;
-	if (args.length > 0)
+	File checkpointDir = null;
+	File metricsFile = null;
+	int numOfShards = 0;
+	for (int i = 0; i < args.length; i++)
 	{
-		if (args[0].equals("-t"))
+		if (args[i].equals("-t"))
 		{
 			VtmxLive       = false;
 			MZmineVersion += "test";
-			if (args.length > 1)
-				param = args[1];
+		}
+		else if (args[i].equals("-checkpoint") && (i + 1 < args.length))
+			checkpointDir = new File(args[++i]);
+		else if (args[i].equals("-shards") && (i + 1 < args.length))
+		{
+			try {
+				numOfShards = Integer.parseInt(args[++i]);
+			} catch (NumberFormatException e) {
+				numOfShards = 0;
+			}
+			if (numOfShards < 1)
+			{
+				System.err.println("Invalid number of shards: " + args[i]);
+				System.err.println("Usage: MZmineCore [-t] [-checkpoint directory]"
+						+ " [-shards number] [-metrics file] [batch file]");
+				System.exit(1);
 			}
-			else
-				param = args[0];
-	 		}
+		}
+		else if (args[i].equals("-metrics") && (i + 1 < args.length))
+			metricsFile = new File(args[++i]);
+		else
+			param = args[i];
+	}
 
 	// Configure the logging properties before we start logging
 	ClassLoader cl = MZmineCore.class.getClassLoader();
@@ -285,8 +307,26 @@ public final class MZmineCore {
 		logger.severe("Cannot read batch file " + batchFile);
 		System.exit(1);
 	    }
-	    ExitCode exitCode = BatchModeModule.runBatch(
-		    projectManager.getCurrentProject(), batchFile);
+	    ExitCode exitCode;
+	    if (numOfShards > 1)
+		exitCode = BatchModeModule.runShardedBatch(
+			projectManager.getCurrentProject(), batchFile,
+			checkpointDir, numOfShards);
+	    else
+		exitCode = BatchModeModule.runBatch(
+			projectManager.getCurrentProject(), batchFile,
+			checkpointDir);
+
+	    // Write the resource usage of the tasks of the batch
+	    if (metricsFile != null) {
+		try {
+		    taskController.getTaskMetrics().writeReport(metricsFile);
+		} catch (IOException e) {
+		    logger.log(Level.WARNING, "Could not write task metrics to "
+			    + metricsFile, e);
+		}
+	    }
+
 	    if (exitCode == ExitCode.OK)
 		System.exit(0);
 	    else
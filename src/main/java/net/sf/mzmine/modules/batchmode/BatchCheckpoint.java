@@ -0,0 +1,370 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.batchmode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoaderParameters;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectOpeningTask;
+import net.sf.mzmine.modules.projectmethods.projectsave.ProjectSaveAsParameters;
+import net.sf.mzmine.modules.projectmethods.projectsave.ProjectSavingTask;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Checkpoint of a batch run in a directory. After each step, the project is
+ * saved into the directory and a manifest records the number of completed
+ * steps, the raw data files and peak lists produced by each step, and the
+ * project file of the last checkpoint. Raw data files and peak lists which did
+ * not change since the previous checkpoint are copied from its project file,
+ * so each checkpoint only serializes the objects produced by the last step.
+ *
+ * The manifest is replaced only after the project file has been written, and
+ * the previous project file is deleted only after that, so the directory
+ * always contains a consistent checkpoint.
+ */
+class BatchCheckpoint {
+
+    private static final String MANIFEST_FILENAME = "batch-checkpoint.xml";
+
+    private static final String ROOT_ELEMENT = "batchcheckpoint";
+    private static final String BATCH_FILE_ELEMENT = "batchfile";
+    private static final String CHECKSUM_ATTRIBUTE = "checksum";
+    private static final String PROJECT_FILE_ELEMENT = "projectfile";
+    private static final String COMPLETED_STEPS_ELEMENT = "completedsteps";
+    private static final String STEP_ELEMENT = "step";
+    private static final String NUMBER_ATTRIBUTE = "number";
+    private static final String MODULE_ATTRIBUTE = "module";
+    private static final String RAW_DATA_FILE_ELEMENT = "rawdatafile";
+    private static final String PEAK_LIST_ELEMENT = "peaklist";
+    private static final String INDEX_ATTRIBUTE = "index";
+
+    private Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final File directory, manifestFile;
+    private final String batchFileChecksum;
+
+    // Manifest of the last checkpoint
+    private Document manifest;
+    private File projectFile;
+    private int completedSteps;
+
+    // Raw data files and peak lists produced by the last completed step
+    private RawDataFile lastDataFiles[] = new RawDataFile[0];
+    private PeakList lastPeakLists[] = new PeakList[0];
+
+    BatchCheckpoint(File directory, File batchFile) throws IOException {
+        this.directory = directory;
+        this.manifestFile = new File(directory, MANIFEST_FILENAME);
+        this.batchFileChecksum = Hashing.sha1()
+                .hashBytes(Files.readAllBytes(batchFile.toPath())).toString();
+
+        if ((!directory.isDirectory()) && (!directory.mkdirs()))
+            throw new IOException("Could not create checkpoint directory "
+                    + directory);
+    }
+
+    /**
+     * Loads the project of the last checkpoint, if there is one for the same
+     * batch file. The loaded project replaces the current project.
+     *
+     * @return true if the project was restored
+     */
+    boolean restore() throws Exception {
+        return restore(null);
+    }
+
+    /**
+     * Loads the project of the last checkpoint, if there is one for the same
+     * batch file. If a target project is given, the raw data files and peak
+     * lists of the checkpoint are added to it, otherwise the loaded project
+     * replaces the current project.
+     *
+     * @return true if the project was restored
+     */
+    boolean restore(MZmineProjectImpl targetProject) throws Exception {
+
+        if (!manifestFile.exists())
+            return false;
+
+        DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder();
+        Document document = docBuilder.parse(manifestFile);
+        Element root = document.getDocumentElement();
+
+        Element batchFileElement = getChild(root, BATCH_FILE_ELEMENT);
+        if ((batchFileElement == null)
+                || (!batchFileChecksum.equals(batchFileElement
+                        .getAttribute(CHECKSUM_ATTRIBUTE)))) {
+            logger.warning("Checkpoint in " + directory
+                    + " was created for a different batch, starting over");
+            return false;
+        }
+
+        Element projectFileElement = getChild(root, PROJECT_FILE_ELEMENT);
+        Element completedStepsElement = getChild(root,
+                COMPLETED_STEPS_ELEMENT);
+        if ((projectFileElement == null) || (completedStepsElement == null))
+            throw new IOException("Invalid checkpoint manifest "
+                    + manifestFile);
+        File checkpointProject = new File(directory,
+                projectFileElement.getTextContent());
+        int steps = Integer.parseInt(completedStepsElement.getTextContent());
+
+        logger.info("Restoring the project after step #" + steps + " from "
+                + checkpointProject);
+
+        ParameterSet loadParameters = new ProjectLoaderParameters();
+        loadParameters.getParameter(ProjectLoaderParameters.projectFile)
+                .setValue(checkpointProject);
+        int fileOffset = 0, peakListOffset = 0;
+        if (targetProject != null) {
+            fileOffset = targetProject.getDataFiles().length;
+            peakListOffset = targetProject.getPeakLists().length;
+        }
+        ProjectOpeningTask openingTask = new ProjectOpeningTask(
+                loadParameters, targetProject);
+        openingTask.run();
+        if (openingTask.getStatus() != TaskStatus.FINISHED)
+            throw new IOException("Could not load checkpoint project "
+                    + checkpointProject + ": " + openingTask.getErrorMessage());
+
+        MZmineProject project = targetProject;
+        if (project == null)
+            project = MZmineCore.getProjectManager().getCurrentProject();
+
+        // The objects produced by the last step are the input of the next
+        // one
+        List<RawDataFile> dataFiles = new ArrayList<>();
+        List<PeakList> peakLists = new ArrayList<>();
+        List<Element> stepElements = getChildren(root, STEP_ELEMENT);
+        if (!stepElements.isEmpty()) {
+            Element lastStep = stepElements.get(stepElements.size() - 1);
+            RawDataFile projectFiles[] = project.getDataFiles();
+            for (Element e : getChildren(lastStep, RAW_DATA_FILE_ELEMENT)) {
+                int index = fileOffset
+                        + Integer.parseInt(e.getAttribute(INDEX_ATTRIBUTE));
+                if (index < projectFiles.length)
+                    dataFiles.add(projectFiles[index]);
+            }
+            PeakList projectPeakLists[] = project.getPeakLists();
+            for (Element e : getChildren(lastStep, PEAK_LIST_ELEMENT)) {
+                int index = peakListOffset
+                        + Integer.parseInt(e.getAttribute(INDEX_ATTRIBUTE));
+                if (index < projectPeakLists.length)
+                    peakLists.add(projectPeakLists[index]);
+            }
+        }
+
+        manifest = document;
+        projectFile = checkpointProject;
+        completedSteps = steps;
+        lastDataFiles = dataFiles.toArray(new RawDataFile[0]);
+        lastPeakLists = peakLists.toArray(new PeakList[0]);
+
+        return true;
+
+    }
+
+    /**
+     * Saves the project after a completed step, together with the raw data
+     * files and peak lists produced by that step
+     */
+    void save(MZmineProject project, int stepNumber, String moduleName,
+            List<RawDataFile> createdDataFiles,
+            List<PeakList> createdPeakLists) throws Exception {
+
+        File previousProjectFile = projectFile;
+        File newProjectFile = new File(directory, "checkpoint-"
+                + (stepNumber + 1) + ".mzmine");
+
+        ParameterSet saveParameters = new ProjectSaveAsParameters();
+        saveParameters.getParameter(ProjectSaveAsParameters.projectFile)
+                .setValue(newProjectFile);
+        ProjectSavingTask savingTask = new ProjectSavingTask(project,
+                saveParameters);
+        savingTask.run();
+        if (savingTask.getStatus() != TaskStatus.FINISHED)
+            throw new IOException("Could not save checkpoint project "
+                    + newProjectFile + ": " + savingTask.getErrorMessage());
+
+        if (manifest == null) {
+            DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder();
+            manifest = docBuilder.newDocument();
+            Element root = manifest.createElement(ROOT_ELEMENT);
+            manifest.appendChild(root);
+            root.appendChild(manifest.createElement(BATCH_FILE_ELEMENT));
+            root.appendChild(manifest.createElement(PROJECT_FILE_ELEMENT));
+            root.appendChild(manifest.createElement(COMPLETED_STEPS_ELEMENT));
+        }
+        Element root = manifest.getDocumentElement();
+
+        setChild(root, BATCH_FILE_ELEMENT, null).setAttribute(
+                CHECKSUM_ATTRIBUTE, batchFileChecksum);
+        setChild(root, PROJECT_FILE_ELEMENT, newProjectFile.getName());
+        setChild(root, COMPLETED_STEPS_ELEMENT,
+                String.valueOf(stepNumber + 1));
+
+        // Record the produced objects by their position in the project, which
+        // is kept when the project is loaded
+        Element stepElement = manifest.createElement(STEP_ELEMENT);
+        stepElement.setAttribute(NUMBER_ATTRIBUTE,
+                String.valueOf(stepNumber + 1));
+        stepElement.setAttribute(MODULE_ATTRIBUTE, moduleName);
+        List<RawDataFile> projectFiles = Arrays.asList(project.getDataFiles());
+        for (RawDataFile dataFile : createdDataFiles) {
+            int index = projectFiles.indexOf(dataFile);
+            if (index < 0)
+                continue;
+            Element e = manifest.createElement(RAW_DATA_FILE_ELEMENT);
+            e.setAttribute(INDEX_ATTRIBUTE, String.valueOf(index));
+            e.setTextContent(dataFile.getName());
+            stepElement.appendChild(e);
+        }
+        List<PeakList> projectPeakLists = Arrays
+                .asList(project.getPeakLists());
+        for (PeakList peakList : createdPeakLists) {
+            int index = projectPeakLists.indexOf(peakList);
+            if (index < 0)
+                continue;
+            Element e = manifest.createElement(PEAK_LIST_ELEMENT);
+            e.setAttribute(INDEX_ATTRIBUTE, String.valueOf(index));
+            e.setTextContent(peakList.getName());
+            stepElement.appendChild(e);
+        }
+        root.appendChild(stepElement);
+
+        writeManifest();
+
+        projectFile = newProjectFile;
+        completedSteps = stepNumber + 1;
+
+        if ((previousProjectFile != null)
+                && (!previousProjectFile.equals(newProjectFile))
+                && (!previousProjectFile.delete()))
+            logger.warning("Could not delete previous checkpoint "
+                    + previousProjectFile);
+
+    }
+
+    int getCompletedSteps() {
+        return completedSteps;
+    }
+
+    RawDataFile[] getLastDataFiles() {
+        return lastDataFiles;
+    }
+
+    PeakList[] getLastPeakLists() {
+        return lastPeakLists;
+    }
+
+    /**
+     * Writes the manifest into a temporary file first, which then atomically
+     * replaces the previous manifest, so an interrupted write does not damage
+     * it
+     */
+    private void writeManifest() throws Exception {
+
+        File tempFile = new File(directory, MANIFEST_FILENAME + ".tmp");
+
+        TransformerFactory transfac = TransformerFactory.newInstance();
+        Transformer transformer = transfac.newTransformer();
+        transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        transformer.setOutputProperty(
+                "{http://xml.apache.org/xslt}indent-amount", "4");
+
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            transformer.transform(new DOMSource(manifest),
+                    new StreamResult(out));
+        } finally {
+            out.close();
+        }
+
+        Files.move(tempFile.toPath(), manifestFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    private static Element getChild(Element parent, String name) {
+        List<Element> children = getChildren(parent, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static List<Element> getChildren(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if ((nodes.item(i) instanceof Element)
+                    && (nodes.item(i).getNodeName().equals(name)))
+                children.add((Element) nodes.item(i));
+        }
+        return children;
+    }
+
+    /**
+     * Returns the child element of the given name, created if necessary, with
+     * the given text content if it is not null
+     */
+    private Element setChild(Element parent, String name, String text) {
+        Element child = getChild(parent, name);
+        if (child == null) {
+            child = manifest.createElement(name);
+            parent.appendChild(child);
+        }
+        if (text != null)
+            child.setTextContent(text);
+        return child;
+    }
+
+}
@@ -20,11 +20,18 @@
 package net.sf.mzmine.modules.batchmode;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
@@ -33,6 +40,7 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineModuleCategory;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
@@ -86,6 +94,16 @@ public class BatchModeModule implements MZmineProcessingModule {
 
     public static ExitCode runBatch(@Nonnull MZmineProject project,
 	    File batchFile) {
+	return runBatch(project, batchFile, null);
+    }
+
+    /**
+     * Runs the batch from the given file. If a checkpoint directory is given,
+     * the state is saved there after each step, and a batch interrupted
+     * earlier continues after its last saved step.
+     */
+    public static ExitCode runBatch(@Nonnull MZmineProject project,
+	    File batchFile, @Nullable File checkpointDir) {
 
 	logger.info("Running batch from file " + batchFile);
 
@@ -98,7 +116,13 @@ public class BatchModeModule implements MZmineProcessingModule {
 	    ParameterSet parameters = new BatchModeParameters();
 	    parameters.getParameter(BatchModeParameters.batchQueue).setValue(
 		    newQueue);
-	    Task batchTask = new BatchTask(project, parameters);
+	    BatchCheckpoint checkpoint = null;
+	    if (checkpointDir != null) {
+		checkpoint = new BatchCheckpoint(checkpointDir, batchFile);
+		if (checkpoint.restore())
+		    project = MZmineCore.getProjectManager().getCurrentProject();
+	    }
+	    Task batchTask = new BatchTask(project, parameters, checkpoint);
 	    batchTask.run();
 	    if (batchTask.getStatus() == TaskStatus.FINISHED)
 		return ExitCode.OK;
@@ -112,6 +136,77 @@ public class BatchModeModule implements MZmineProcessingModule {
 
     }
 
+    /**
+     * Runs the batch from the given file on several worker processes, which
+     * process separate parts of the imported raw data files up to the first
+     * step that combines the files, such as alignment. The remaining steps
+     * are run in this process. The workers exchange their results through the
+     * given directory, or through a temporary directory if it is null. The
+     * temporary directory is deleted when the batch finishes, and kept with
+     * the logs of the workers when it fails.
+     */
+    public static ExitCode runShardedBatch(@Nonnull MZmineProject project,
+	    File batchFile, @Nullable File directory, int numOfShards) {
+
+	logger.info("Running batch from file " + batchFile + " in "
+		+ numOfShards + " shards");
+
+	File tempDirectory = null;
+	ExitCode exitCode = ExitCode.ERROR;
+	try {
+	    if (directory == null) {
+		tempDirectory = Files.createTempDirectory("mzmine-shards")
+			.toFile();
+		directory = tempDirectory;
+	    }
+	    ShardedBatch shardedBatch = new ShardedBatch(batchFile, directory,
+		    numOfShards);
+	    exitCode = shardedBatch.run((MZmineProjectImpl) project);
+	    return exitCode;
+	} catch (Throwable e) {
+	    logger.log(Level.SEVERE, "Error while running batch", e);
+	    return ExitCode.ERROR;
+	} finally {
+	    if (tempDirectory != null) {
+		if (exitCode == ExitCode.OK)
+		    deleteDirectory(tempDirectory);
+		else
+		    logger.info("Keeping the files of the failed batch in "
+			    + tempDirectory);
+	    }
+	}
+
+    }
+
+    /**
+     * Deletes the given directory with all its contents
+     */
+    private static void deleteDirectory(File directory) {
+	try {
+	    Files.walkFileTree(directory.toPath(),
+		    new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file,
+				BasicFileAttributes attrs) throws IOException {
+			    Files.delete(file);
+			    return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir,
+				IOException e) throws IOException {
+			    if (e != null)
+				throw e;
+			    Files.delete(dir);
+			    return FileVisitResult.CONTINUE;
+			}
+		    });
+	} catch (IOException e) {
+	    logger.log(Level.WARNING, "Could not delete temporary directory "
+		    + directory, e);
+	}
+    }
+
     @Override
     public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
 	return BatchModeParameters.class;
@@ -38,6 +38,7 @@ import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ExitCode;
 
 /**
@@ -55,8 +56,22 @@ public class BatchTask extends AbstractTask {
     private final List<RawDataFile> createdDataFiles;
     private final List<PeakList> createdPeakLists;
 
+    // Checkpoint saved after each step, may be null
+    private final BatchCheckpoint checkpoint;
+
     BatchTask(MZmineProject project, ParameterSet parameters) {
+        this(project, parameters, null);
+    }
+
+    /**
+     * Creates a batch task which saves a checkpoint after each step. If the
+     * checkpoint was restored, the batch continues after its last completed
+     * step.
+     */
+    BatchTask(MZmineProject project, ParameterSet parameters,
+            BatchCheckpoint checkpoint) {
         this.project = project;
+        this.checkpoint = checkpoint;
         this.queue = parameters.getParameter(BatchModeParameters.batchQueue)
                 .getValue();
         totalSteps = queue.size();
@@ -64,6 +79,17 @@ public class BatchTask extends AbstractTask {
         createdPeakLists = new ArrayList<>();
     }
 
+    /**
+     * Sets the raw data files and peak lists which the first step processes
+     * if its parameters refer to the objects created by the previous step
+     */
+    void setLastCreatedObjects(RawDataFile dataFiles[], PeakList peakLists[]) {
+        createdDataFiles.clear();
+        createdDataFiles.addAll(Arrays.asList(dataFiles));
+        createdPeakLists.clear();
+        createdPeakLists.addAll(Arrays.asList(peakLists));
+    }
+
     public void run() {
 
         setStatus(TaskStatus.PROCESSING);
@@ -83,8 +109,22 @@ public class BatchTask extends AbstractTask {
         };
         project.addProjectListener(listener);
 
+        // Continue after the last completed step of the checkpoint, with the
+        // objects created by that step
+        int firstStep = 0;
+        if (checkpoint != null) {
+            firstStep = checkpoint.getCompletedSteps();
+            createdDataFiles.addAll(Arrays.asList(checkpoint
+                    .getLastDataFiles()));
+            createdPeakLists.addAll(Arrays.asList(checkpoint
+                    .getLastPeakLists()));
+            processedSteps = firstStep;
+            if (firstStep > 0)
+                logger.info("Resuming the batch after step # " + firstStep);
+        }
+
         // Process individual batch steps
-        for (int i = 0; i < totalSteps; i++) {
+        for (int i = firstStep; i < totalSteps; i++) {
 
             processQueueStep(i);
             processedSteps++;
@@ -94,6 +134,20 @@ public class BatchTask extends AbstractTask {
                 return;
             }
 
+            // Save the state after this step
+            if (checkpoint != null) {
+                try {
+                    checkpoint.save(project, i, queue.get(i).getModule()
+                            .getName(), createdDataFiles, createdPeakLists);
+                } catch (Exception e) {
+                    setStatus(TaskStatus.ERROR);
+                    setErrorMessage("Could not save the checkpoint after step # "
+                            + (i + 1) + ": "
+                            + ExceptionUtils.exceptionToString(e));
+                    return;
+                }
+            }
+
         }
 
         project.removeProjectListener(listener);
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.batchmode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.MZmineModuleCategory;
+import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.modules.impl.MZmineProcessingStepImpl;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.FileNamesParameter;
+import net.sf.mzmine.parameters.Parameter;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExitCode;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Runs a batch on several local worker processes. The steps at the beginning
+ * of the batch which process each raw data file on its own (import, raw data
+ * methods, peak picking, peak list processing and filtering, identification)
+ * are run by the workers, each on a contiguous part of the imported files.
+ * The workers save their results as batch checkpoints in a shared directory.
+ * This process then loads the results of all workers, in the order of the
+ * imported files, and runs the remaining steps, such as alignment and gap
+ * filling, on all of them. These steps are checkpointed in the same
+ * directory.
+ *
+ * Each worker is a new JVM with the same class path and JVM options as this
+ * one, running the batch of its part with a checkpoint directory. If the
+ * sharded batch is started again with the same directory, the workers resume
+ * from their checkpoints, and finished workers return immediately. If the
+ * remaining steps had already started, they resume from their own checkpoint
+ * without starting the workers again. Each worker writes the resource usage
+ * of its tasks to shard-k-metrics.csv.
+ */
+class ShardedBatch {
+
+    // Categories of the steps which process each raw data file on its own
+    private static final MZmineModuleCategory PER_FILE_CATEGORIES[] = {
+            MZmineModuleCategory.RAWDATA,
+            MZmineModuleCategory.RAWDATAFILTERING,
+            MZmineModuleCategory.PEAKPICKING, MZmineModuleCategory.ISOTOPES,
+            MZmineModuleCategory.PEAKLISTPICKING,
+            MZmineModuleCategory.PEAKLISTFILTERING,
+            MZmineModuleCategory.IDENTIFICATION };
+
+    private Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final File batchFile, directory;
+    private final int numOfShards;
+
+    /**
+     * @param batchFile
+     *            the batch to run
+     * @param directory
+     *            directory for the exchange with the workers
+     * @param numOfShards
+     *            number of worker processes
+     */
+    ShardedBatch(File batchFile, File directory, int numOfShards) {
+        this.batchFile = batchFile;
+        this.directory = directory;
+        this.numOfShards = numOfShards;
+    }
+
+    ExitCode run(MZmineProjectImpl project) throws Exception {
+
+        DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder();
+        Document parsedBatchXML = docBuilder.parse(batchFile);
+        BatchQueue queue = BatchQueue.loadFromXml(parsedBatchXML
+                .getDocumentElement());
+
+        // Find the steps run by the workers, and the imported files
+        int perFileSteps = 0;
+        while ((perFileSteps < queue.size())
+                && isPerFileStep(queue.get(perFileSteps)))
+            perFileSteps++;
+        File importedFiles[] = null;
+        int importStep = -1;
+        for (int i = 0; (i < perFileSteps) && (importStep < 0); i++) {
+            FileNamesParameter fileNames = getFileNamesParameter(queue.get(i)
+                    .getParameterSet());
+            if (fileNames != null) {
+                importStep = i;
+                importedFiles = fileNames.getValue();
+            }
+        }
+
+        final int shards = (importedFiles == null) ? 0 : Math.min(
+                numOfShards, importedFiles.length);
+        if (shards < 2) {
+            logger.info("Batch " + batchFile
+                    + " does not import several files for independent "
+                    + "processing, running it in this process");
+            BatchCheckpoint checkpoint = createCheckpoint(0);
+            checkpoint.restore(project);
+            return runSteps(project, queue, 0, queue.size(), checkpoint,
+                    new RawDataFile[0], new PeakList[0]);
+        }
+
+        if ((!directory.isDirectory()) && (!directory.mkdirs()))
+            throw new IOException("Could not create directory " + directory);
+
+        // The workers had finished in an earlier run, which was interrupted
+        // in the remaining steps
+        BatchCheckpoint checkpoint = createCheckpoint(perFileSteps);
+        if (checkpoint.restore(project)) {
+            logger.info("Resuming the remaining steps of batch " + batchFile
+                    + " after step #"
+                    + (perFileSteps + checkpoint.getCompletedSteps()));
+            return runSteps(project, queue, perFileSteps, queue.size(),
+                    checkpoint, new RawDataFile[0], new PeakList[0]);
+        }
+
+        logger.info("Running the first " + perFileSteps + " steps of batch "
+                + batchFile + " in " + shards + " worker processes");
+
+        // Write the batch of each worker, importing a contiguous part of the
+        // files, and start the workers
+        File shardBatchFiles[] = new File[shards];
+        File shardDirectories[] = new File[shards];
+        Process workers[] = new Process[shards];
+        try {
+            for (int k = 0; k < shards; k++) {
+                int start = (int) ((long) importedFiles.length * k / shards);
+                int end = (int) ((long) importedFiles.length * (k + 1) / shards);
+                BatchQueue shardQueue = new BatchQueue();
+                for (int i = 0; i < perFileSteps; i++) {
+                    MZmineProcessingStep<MZmineProcessingModule> step = queue
+                            .get(i);
+                    ParameterSet parameters = step.getParameterSet()
+                            .cloneParameterSet();
+                    if (i == importStep) {
+                        getFileNamesParameter(parameters).setValue(
+                                Arrays.copyOfRange(importedFiles, start, end));
+                    }
+                    shardQueue.add(new MZmineProcessingStepImpl<MZmineProcessingModule>(
+                            step.getModule(), parameters));
+                }
+
+                shardBatchFiles[k] = new File(directory, "shard-" + (k + 1)
+                        + ".xml");
+                shardDirectories[k] = new File(directory, "shard-" + (k + 1));
+                writeBatchFile(shardQueue, shardBatchFiles[k]);
+
+                workers[k] = startWorker(shardBatchFiles[k],
+                        shardDirectories[k], new File(directory, "shard-"
+                                + (k + 1) + ".log"));
+            }
+
+            // Wait for all workers
+            for (int k = 0; k < shards; k++) {
+                int exitValue = workers[k].waitFor();
+                workers[k] = null;
+                if (exitValue != 0) {
+                    logger.severe("Worker " + (k + 1)
+                            + " failed, see its log in " + directory);
+                    return ExitCode.ERROR;
+                }
+            }
+        } finally {
+            for (Process worker : workers) {
+                if (worker != null)
+                    worker.destroy();
+            }
+        }
+
+        // Add the results of the workers to the project, in the order of the
+        // imported files
+        List<RawDataFile> lastDataFiles = new ArrayList<>();
+        List<PeakList> lastPeakLists = new ArrayList<>();
+        for (int k = 0; k < shards; k++) {
+            BatchCheckpoint shardCheckpoint = new BatchCheckpoint(
+                    shardDirectories[k], shardBatchFiles[k]);
+            if ((!shardCheckpoint.restore(project))
+                    || (shardCheckpoint.getCompletedSteps() != perFileSteps))
+                throw new IOException("Worker " + (k + 1)
+                        + " did not complete its steps");
+            lastDataFiles.addAll(Arrays.asList(shardCheckpoint
+                    .getLastDataFiles()));
+            lastPeakLists.addAll(Arrays.asList(shardCheckpoint
+                    .getLastPeakLists()));
+        }
+
+        logger.info("Running the remaining " + (queue.size() - perFileSteps)
+                + " steps of batch " + batchFile);
+
+        return runSteps(project, queue, perFileSteps, queue.size(),
+                checkpoint, lastDataFiles.toArray(new RawDataFile[0]),
+                lastPeakLists.toArray(new PeakList[0]));
+
+    }
+
+    /**
+     * Creates the checkpoint of the steps run in this process, starting with
+     * the given step
+     */
+    private BatchCheckpoint createCheckpoint(int fromStep) throws IOException {
+        return new BatchCheckpoint(new File(directory, "steps-from-"
+                + (fromStep + 1)), batchFile);
+    }
+
+    /**
+     * Runs the given steps of the queue in this process, continuing after
+     * the last completed step of the checkpoint if it was restored
+     */
+    private ExitCode runSteps(MZmineProjectImpl project, BatchQueue queue,
+            int fromStep, int toStep, BatchCheckpoint checkpoint,
+            RawDataFile lastDataFiles[], PeakList lastPeakLists[]) {
+
+        BatchQueue steps = new BatchQueue();
+        steps.addAll(queue.subList(fromStep, toStep));
+        ParameterSet parameters = new BatchModeParameters();
+        parameters.getParameter(BatchModeParameters.batchQueue)
+                .setValue(steps);
+
+        BatchTask batchTask = new BatchTask(project, parameters, checkpoint);
+        batchTask.setLastCreatedObjects(lastDataFiles, lastPeakLists);
+        batchTask.run();
+
+        if (batchTask.getStatus() == TaskStatus.FINISHED)
+            return ExitCode.OK;
+        logger.severe("Batch failed: " + batchTask.getErrorMessage());
+        return ExitCode.ERROR;
+
+    }
+
+    private Process startWorker(File shardBatchFile, File shardDirectory,
+            File logFile) throws IOException {
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+
+        // Same JVM options as this process, except for debugger agents which
+        // would all try to listen on the same port
+        for (String argument : ManagementFactory.getRuntimeMXBean()
+                .getInputArguments()) {
+            if (argument.startsWith("-agentlib:jdwp")
+                    || argument.startsWith("-Xrunjdwp"))
+                continue;
+            command.add(argument);
+        }
+
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MZmineCore.class.getName());
+        if (!MZmineCore.VtmxLive)
+            command.add("-t");
+        command.add("-checkpoint");
+        command.add(shardDirectory.getPath());
+        command.add("-metrics");
+        command.add(shardDirectory.getPath() + "-metrics.csv");
+        command.add(shardBatchFile.getPath());
+
+        logger.info("Starting worker for " + shardBatchFile + ", log in "
+                + logFile);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(logFile);
+        return builder.start();
+
+    }
+
+    private static boolean isPerFileStep(
+            MZmineProcessingStep<MZmineProcessingModule> step) {
+        return Arrays.asList(PER_FILE_CATEGORIES).contains(
+                step.getModule().getModuleCategory());
+    }
+
+    private static FileNamesParameter getFileNamesParameter(
+            ParameterSet parameters) {
+        for (Parameter<?> p : parameters.getParameters()) {
+            if (p instanceof FileNamesParameter)
+                return (FileNamesParameter) p;
+        }
+        return null;
+    }
+
+    private static void writeBatchFile(BatchQueue queue, File file)
+            throws Exception {
+
+        DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder();
+        Document document = docBuilder.newDocument();
+        Element element = document.createElement("batch");
+        document.appendChild(element);
+        queue.saveToXml(element);
+
+        Transformer transformer = TransformerFactory.newInstance()
+                .newTransformer();
+        transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        transformer.setOutputProperty(
+                "{http://xml.apache.org/xslt}indent-amount", "4");
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            transformer.transform(new DOMSource(document),
+                    new StreamResult(out));
+        } finally {
+            out.close();
+        }
+
+    }
+
+}
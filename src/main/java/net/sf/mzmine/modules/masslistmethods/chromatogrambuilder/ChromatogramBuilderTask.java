@@ -28,6 +28,7 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.CompactFeature;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
@@ -187,11 +188,12 @@ public class ChromatogramBuilderTask extends AbstractTask {
         Arrays.sort(chromatograms,
                 new PeakSorter(SortingProperty.MZ, SortingDirection.Ascending));
 
-        // Add the chromatograms to the new peak list
+        // Add the chromatograms to the new peak list, converted to compact
+        // peaks which keep only their data points
         for (Feature finishedPeak : chromatograms) {
             SimplePeakListRow newRow = new SimplePeakListRow(newPeakID);
             newPeakID++;
-            newRow.addPeak(dataFile, finishedPeak);
+            newRow.addPeak(dataFile, new CompactFeature(finishedPeak));
             newPeakList.addRow(newRow);
         }
 
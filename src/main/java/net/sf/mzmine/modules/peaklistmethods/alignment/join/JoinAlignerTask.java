@@ -30,9 +30,8 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreCalculator;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
@@ -49,7 +48,8 @@ class JoinAlignerTask extends AbstractTask {
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
     private final MZmineProject project;
-    private PeakList peakLists[], alignedPeakList;
+    private PeakList peakLists[];
+    private ColumnarPeakList alignedPeakList;
 
     // Processed rows counter
     private int processedRows, totalRows;
@@ -152,8 +152,9 @@ class JoinAlignerTask extends AbstractTask {
             }
         }
 
-        // Create a new aligned peak list
-        alignedPeakList = new SimplePeakList(peakListName,
+        // Create a new aligned peak list. The aligned peaks are copied to its
+        // columns, so it does not keep the peaks of the source peak lists.
+        alignedPeakList = new ColumnarPeakList(peakListName,
                 allDataFiles.toArray(new RawDataFile[0]));
 
         // Iterate source peak lists
@@ -251,9 +252,8 @@ class JoinAlignerTask extends AbstractTask {
 
                 // If we have no mapping for this row, add a new one
                 if (targetRow == null) {
-                    targetRow = new SimplePeakListRow(newRowID);
+                    targetRow = alignedPeakList.createRow(newRowID);
                     newRowID++;
-                    alignedPeakList.addRow(targetRow);
                 }
 
                 // Add all peaks from the original row to the aligned row
@@ -19,7 +19,11 @@
 
 package net.sf.mzmine.modules.peaklistmethods.filtering.duplicatefilter;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,6 +46,8 @@ import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
 
+import com.google.common.collect.Range;
+
 /**
  * A task to filter out duplicate peak list rows.
  */
@@ -167,36 +173,44 @@ public class DuplicateFilterTask extends AbstractTask {
 	// Loop through all peak list rows
 	processedRows = 0;
 	totalRows = rowCount;
+	final RowGrid grid = new RowGrid(peakListRows, mzTolerance, rtTolerance);
 	for (int firstRowIndex = 0; !isCanceled() && firstRowIndex < rowCount; firstRowIndex++) {
 
 	    final PeakListRow firstRow = peakListRows[firstRowIndex];
 	    if (firstRow != null) {
 
-		for (int secondRowIndex = firstRowIndex + 1; !isCanceled()
-			&& secondRowIndex < rowCount; secondRowIndex++) {
+		// Only rows in the neighboring grid cells can be duplicates
+		final Range<Double> mzRange = mzTolerance
+			.getToleranceRange(firstRow.getAverageMZ());
+		final Range<Double> rtRange = rtTolerance
+			.getToleranceRange(firstRow.getAverageRT());
+		for (final int[] cell : grid.getNeighborCells(firstRowIndex)) {
+		    for (final int secondRowIndex : cell) {
+
+			if (secondRowIndex <= firstRowIndex)
+			    continue;
 
-		    final PeakListRow secondRow = peakListRows[secondRowIndex];
-		    if (secondRow != null) {
+			final PeakListRow secondRow = peakListRows[secondRowIndex];
+			if (secondRow != null) {
 
-			// Compare identifications
-			final boolean sameID = !requireSameId
-				|| PeakUtils.compareIdentities(firstRow,
-					secondRow);
+			    // Compare identifications
+			    final boolean sameID = !requireSameId
+				    || PeakUtils.compareIdentities(firstRow,
+					    secondRow);
 
-			// Compare m/z
-			final boolean sameMZ = mzTolerance.getToleranceRange(
-				firstRow.getAverageMZ()).contains(
-				secondRow.getAverageMZ());
+			    // Compare m/z
+			    final boolean sameMZ = mzRange.contains(secondRow
+				    .getAverageMZ());
 
-			// Compare rt
-			final boolean sameRT = rtTolerance.getToleranceRange(
-				firstRow.getAverageRT()).contains(
-				secondRow.getAverageRT());
+			    // Compare rt
+			    final boolean sameRT = rtRange.contains(secondRow
+				    .getAverageRT());
 
-			// Duplicate peaks?
-			if (sameID && sameMZ && sameRT) {
+			    // Duplicate peaks?
+			    if (sameID && sameMZ && sameRT) {
 
-			    peakListRows[secondRowIndex] = null;
+				peakListRows[secondRowIndex] = null;
+			    }
 			}
 		    }
 		}
@@ -249,4 +263,106 @@ public class DuplicateFilterTask extends AbstractTask {
 
 	return newPeakList;
     }
+
+    /**
+     * Grid of (m/z, RT) cells, each as wide as the largest tolerance range of
+     * the rows, so the duplicates of a row can only be in the cell of the row
+     * or in the neighboring cells. Non-empty cells are kept in a hash map,
+     * with the row indices in ascending order.
+     */
+    static class RowGrid {
+
+	// Margin for rounding when comparing differences to the cell size
+	private static final double CELL_MARGIN = 1e-9;
+
+	private final double mzCellSize, rtCellSize;
+	private final long mzCells[], rtCells[];
+	private final Map<Long, int[]> cells = new HashMap<Long, int[]>();
+
+	RowGrid(final PeakListRow[] rows, final MZTolerance mzTolerance,
+		final RTTolerance rtTolerance) {
+
+	    double maxMZTolerance = 0.0, maxRTTolerance = 0.0;
+	    for (final PeakListRow row : rows) {
+		final double mz = row.getAverageMZ();
+		final double rt = row.getAverageRT();
+		final Range<Double> mzRange = mzTolerance.getToleranceRange(mz);
+		final Range<Double> rtRange = rtTolerance.getToleranceRange(rt);
+		final double mzTol = Math.max(mzRange.upperEndpoint() - mz, mz
+			- mzRange.lowerEndpoint());
+		final double rtTol = Math.max(rtRange.upperEndpoint() - rt, rt
+			- rtRange.lowerEndpoint());
+		if (mzTol > maxMZTolerance)
+		    maxMZTolerance = mzTol;
+		if (rtTol > maxRTTolerance)
+		    maxRTTolerance = rtTol;
+	    }
+	    mzCellSize = getCellSize(maxMZTolerance);
+	    rtCellSize = getCellSize(maxRTTolerance);
+
+	    // Assign the rows to the cells, in ascending order
+	    mzCells = new long[rows.length];
+	    rtCells = new long[rows.length];
+	    final Map<Long, List<Integer>> rowsByCell = new HashMap<Long, List<Integer>>();
+	    for (int i = 0; i < rows.length; i++) {
+		mzCells[i] = (long) Math.floor(rows[i].getAverageMZ()
+			/ mzCellSize);
+		rtCells[i] = (long) Math.floor(rows[i].getAverageRT()
+			/ rtCellSize);
+		final Long key = getKey(mzCells[i], rtCells[i]);
+		List<Integer> cellRows = rowsByCell.get(key);
+		if (cellRows == null) {
+		    cellRows = new ArrayList<Integer>();
+		    rowsByCell.put(key, cellRows);
+		}
+		cellRows.add(i);
+	    }
+	    for (final Map.Entry<Long, List<Integer>> entry : rowsByCell
+		    .entrySet()) {
+		final List<Integer> cellRows = entry.getValue();
+		final int[] cell = new int[cellRows.size()];
+		for (int i = 0; i < cell.length; i++)
+		    cell[i] = cellRows.get(i);
+		cells.put(entry.getKey(), cell);
+	    }
+	}
+
+	/**
+	 * Returns the cells around the row with the given index, including its
+	 * own cell
+	 */
+	List<int[]> getNeighborCells(final int row) {
+
+	    final List<int[]> neighbors = new ArrayList<int[]>(9);
+	    for (long mzCell = mzCells[row] - 1; mzCell <= mzCells[row] + 1; mzCell++) {
+		for (long rtCell = rtCells[row] - 1; rtCell <= rtCells[row] + 1; rtCell++) {
+		    final int[] cell = cells.get(getKey(mzCell, rtCell));
+		    if (cell != null && !neighbors.contains(cell))
+			neighbors.add(cell);
+		}
+	    }
+	    return neighbors;
+	}
+
+	static double getCellSize(final double maxTolerance) {
+
+	    // Unlimited tolerance puts all rows into one cell
+	    if (Double.isInfinite(maxTolerance))
+		return Double.MAX_VALUE;
+
+	    // Any cell size works for a zero tolerance, as duplicates must then
+	    // have exactly the same value
+	    if (maxTolerance == 0.0)
+		return 1.0;
+
+	    return maxTolerance * (1.0 + CELL_MARGIN);
+	}
+
+	static Long getKey(final long mzCell, final long rtCell) {
+
+	    // Different cells may share a key, which only means more rows are
+	    // compared
+	    return (mzCell * 31L) ^ (rtCell << 32) ^ rtCell;
+	}
+    }
 }
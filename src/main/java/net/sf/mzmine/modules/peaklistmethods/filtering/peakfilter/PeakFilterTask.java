@@ -33,6 +33,7 @@ import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.modules.peaklistmethods.filtering.rowsfilter.RowsFilterParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelRowExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.PeakUtils;
 
@@ -52,8 +53,9 @@ public class PeakFilterTask extends AbstractTask {
     private final PeakList origPeakList;
     private PeakList filteredPeakList;
 
-    // Processed rows counter
-    private int processedRows, totalRows;
+    // Processes the rows, counting the processed rows
+    private final ParallelRowExecutor rowExecutor = new ParallelRowExecutor(
+            this);
 
     // Parameters
     private final ParameterSet parameters;
@@ -74,14 +76,11 @@ public class PeakFilterTask extends AbstractTask {
         parameters = parameterSet;
         origPeakList = list;
         filteredPeakList = null;
-        processedRows = 0;
-        totalRows = 0;
     }
 
     @Override
     public double getFinishedPercentage() {
-        return totalRows == 0 ? 0.0 : (double) processedRows
-                / (double) totalRows;
+        return rowExecutor.getFinishedPercentage();
     }
 
     @Override
@@ -134,7 +133,8 @@ public class PeakFilterTask extends AbstractTask {
      * @return a new peak list with entries of the original peak list that pass
      *         the filtering.
      */
-    private PeakList filterPeakList(final PeakList peakList) {
+    private PeakList filterPeakList(final PeakList peakList)
+            throws Exception {
 
         // Make a copy of the peakList
         final PeakList newPeakList = new SimplePeakList(peakList.getName()
@@ -142,6 +142,28 @@ public class PeakFilterTask extends AbstractTask {
                 + parameters.getParameter(RowsFilterParameters.SUFFIX)
                         .getValue(), peakList.getRawDataFiles());
 
+        // Loop through all rows in peak list, in parallel keeping their order
+        rowExecutor.processRows(peakList.getRows(),
+                new ParallelRowExecutor.RowFunction<PeakListRow>() {
+                    @Override
+                    public PeakListRow processRow(final int index,
+                            final PeakListRow row) {
+                        return filterRow(row);
+                    }
+                }, newPeakList);
+
+        return newPeakList;
+    }
+
+    /**
+     * Filter the peaks of a peak list row.
+     *
+     * @param row
+     *            the row to filter.
+     * @return a copy of the row with the peaks that pass the filtering.
+     */
+    private PeakListRow filterRow(final PeakListRow row) {
+
         // Get parameters - which filters are active
         final boolean filterByDuration = parameters.getParameter(
                 PeakFilterParameters.PEAK_DURATION).getValue();
@@ -158,125 +180,116 @@ public class PeakFilterTask extends AbstractTask {
         final boolean filterByAsymmetryFactor = parameters.getParameter(
                 PeakFilterParameters.PEAK_ASYMMETRYFACTOR).getValue();
 
-        // Loop through all rows in peak list
-        final PeakListRow[] rows = peakList.getRows();
-        totalRows = rows.length;
-        for (processedRows = 0; !isCanceled() && processedRows < totalRows; processedRows++) {
-            final PeakListRow row = rows[processedRows];
-            final RawDataFile[] rawdatafiles = row.getRawDataFiles();
-            int totalRawDataFiles = rawdatafiles.length;
-            boolean[] keepPeak = new boolean[totalRawDataFiles];
-
-            for (int i = 0; i < totalRawDataFiles; i++) {
-                // Peak values
-                keepPeak[i] = true;
-                final Feature peak = row.getPeak(rawdatafiles[i]);
-                final double peakDuration = peak.getRawDataPointsRTRange()
-                        .upperEndpoint()
-                        - peak.getRawDataPointsRTRange().lowerEndpoint();
-                final double peakArea = peak.getArea();
-                final double peakHeight = peak.getHeight();
-                final int peakDatapoints = peak.getScanNumbers().length;
-
-                Double peakFWHM = peak.getFWHM();
-                Double peakTailingFactor = peak.getTailingFactor();
-                Double peakAsymmetryFactor = peak.getAsymmetryFactor();
-                if (peakFWHM == null) {
-                    peakFWHM = -1.0;
-                }
-                if (peakTailingFactor == null) {
-                    peakTailingFactor = -1.0;
-                }
-                if (peakAsymmetryFactor == null) {
-                    peakAsymmetryFactor = -1.0;
-                }
+        final RawDataFile[] rawdatafiles = row.getRawDataFiles();
+        int totalRawDataFiles = rawdatafiles.length;
+        boolean[] keepPeak = new boolean[totalRawDataFiles];
+
+        for (int i = 0; i < totalRawDataFiles; i++) {
+            // Peak values
+            keepPeak[i] = true;
+            final Feature peak = row.getPeak(rawdatafiles[i]);
+            final double peakDuration = peak.getRawDataPointsRTRange()
+                    .upperEndpoint()
+                    - peak.getRawDataPointsRTRange().lowerEndpoint();
+            final double peakArea = peak.getArea();
+            final double peakHeight = peak.getHeight();
+            final int peakDatapoints = peak.getScanNumbers().length;
+
+            Double peakFWHM = peak.getFWHM();
+            Double peakTailingFactor = peak.getTailingFactor();
+            Double peakAsymmetryFactor = peak.getAsymmetryFactor();
+            if (peakFWHM == null) {
+                peakFWHM = -1.0;
+            }
+            if (peakTailingFactor == null) {
+                peakTailingFactor = -1.0;
+            }
+            if (peakAsymmetryFactor == null) {
+                peakAsymmetryFactor = -1.0;
+            }
 
-                // Check Duration
-                if (filterByDuration) {
-                    final Range<Double> durationRange = parameters
-                            .getParameter(PeakFilterParameters.PEAK_DURATION)
-                            .getEmbeddedParameter().getValue();
-                    if (!durationRange.contains(peakDuration)) {
-                        // Mark peak to be removed
-                        keepPeak[i] = false;
-                    }
+            // Check Duration
+            if (filterByDuration) {
+                final Range<Double> durationRange = parameters
+                        .getParameter(PeakFilterParameters.PEAK_DURATION)
+                        .getEmbeddedParameter().getValue();
+                if (!durationRange.contains(peakDuration)) {
+                    // Mark peak to be removed
+                    keepPeak[i] = false;
                 }
+            }
 
-                // Check Area
-                if (filterByArea) {
-                    final Range<Double> areaRange = parameters
-                            .getParameter(PeakFilterParameters.PEAK_AREA)
-                            .getEmbeddedParameter().getValue();
-                    if (!areaRange.contains(peakArea)) {
-                        // Mark peak to be removed
-                        keepPeak[i] = false;
-                    }
+            // Check Area
+            if (filterByArea) {
+                final Range<Double> areaRange = parameters
+                        .getParameter(PeakFilterParameters.PEAK_AREA)
+                        .getEmbeddedParameter().getValue();
+                if (!areaRange.contains(peakArea)) {
+                    // Mark peak to be removed
+                    keepPeak[i] = false;
                 }
+            }
 
-                // Check Height
-                if (filterByHeight) {
-                    final Range<Double> heightRange = parameters
-                            .getParameter(PeakFilterParameters.PEAK_HEIGHT)
-                            .getEmbeddedParameter().getValue();
-                    if (!heightRange.contains(peakHeight)) {
-                        // Mark peak to be removed
-                        keepPeak[i] = false;
-                    }
+            // Check Height
+            if (filterByHeight) {
+                final Range<Double> heightRange = parameters
+                        .getParameter(PeakFilterParameters.PEAK_HEIGHT)
+                        .getEmbeddedParameter().getValue();
+                if (!heightRange.contains(peakHeight)) {
+                    // Mark peak to be removed
+                    keepPeak[i] = false;
                 }
+            }
 
-                // Check # Data Points
-                if (filterByDatapoints) {
-                    final Range<Integer> datapointsRange = parameters
-                            .getParameter(PeakFilterParameters.PEAK_DATAPOINTS)
-                            .getEmbeddedParameter().getValue();
-                    if (!datapointsRange.contains(peakDatapoints)) {
-                        // Mark peak to be removed
-                        keepPeak[i] = false;
-                    }
+            // Check # Data Points
+            if (filterByDatapoints) {
+                final Range<Integer> datapointsRange = parameters
+                        .getParameter(PeakFilterParameters.PEAK_DATAPOINTS)
+                        .getEmbeddedParameter().getValue();
+                if (!datapointsRange.contains(peakDatapoints)) {
+                    // Mark peak to be removed
+                    keepPeak[i] = false;
                 }
+            }
 
-                // Check FWHM
-                if (filterByFWHM) {
-                    final Range<Double> fwhmRange = parameters
-                            .getParameter(PeakFilterParameters.PEAK_FWHM)
-                            .getEmbeddedParameter().getValue();
-                    if (!fwhmRange.contains(peakFWHM)) {
-                        // Mark peak to be removed
-                        keepPeak[i] = false;
-                    }
+            // Check FWHM
+            if (filterByFWHM) {
+                final Range<Double> fwhmRange = parameters
+                        .getParameter(PeakFilterParameters.PEAK_FWHM)
+                        .getEmbeddedParameter().getValue();
+                if (!fwhmRange.contains(peakFWHM)) {
+                    // Mark peak to be removed
+                    keepPeak[i] = false;
                 }
+            }
 
-                // Check Tailing Factor
-                if (filterByTailingFactor) {
-                    final Range<Double> tailingRange = parameters
-                            .getParameter(
-                                    PeakFilterParameters.PEAK_TAILINGFACTOR)
-                            .getEmbeddedParameter().getValue();
-                    if (!tailingRange.contains(peakTailingFactor)) {
-                        // Mark peak to be removed
-                        keepPeak[i] = false;
-                    }
+            // Check Tailing Factor
+            if (filterByTailingFactor) {
+                final Range<Double> tailingRange = parameters
+                        .getParameter(
+                                PeakFilterParameters.PEAK_TAILINGFACTOR)
+                        .getEmbeddedParameter().getValue();
+                if (!tailingRange.contains(peakTailingFactor)) {
+                    // Mark peak to be removed
+                    keepPeak[i] = false;
                 }
+            }
 
-                // Check height
-                if (filterByAsymmetryFactor) {
-                    final Range<Double> asymmetryRange = parameters
-                            .getParameter(
-                                    PeakFilterParameters.PEAK_ASYMMETRYFACTOR)
-                            .getEmbeddedParameter().getValue();
-                    if (!asymmetryRange.contains(peakAsymmetryFactor)) {
-                        // Mark peak to be removed
-                        keepPeak[i] = false;
-                    }
+            // Check height
+            if (filterByAsymmetryFactor) {
+                final Range<Double> asymmetryRange = parameters
+                        .getParameter(
+                                PeakFilterParameters.PEAK_ASYMMETRYFACTOR)
+                        .getEmbeddedParameter().getValue();
+                if (!asymmetryRange.contains(peakAsymmetryFactor)) {
+                    // Mark peak to be removed
+                    keepPeak[i] = false;
                 }
-
             }
 
-            newPeakList.addRow(copyPeakRow(row, keepPeak));
-
         }
 
-        return newPeakList;
+        return copyPeakRow(row, keepPeak);
     }
 
     /**
@@ -39,6 +39,7 @@ import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelRowExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.RangeUtils;
@@ -57,8 +58,9 @@ public class RowsFilterTask extends AbstractTask {
     private final MZmineProject project;
     private final PeakList origPeakList;
     private PeakList filteredPeakList;
-    // Processed rows counter
-    private int processedRows, totalRows;
+    // Processes the rows, counting the processed rows
+    private final ParallelRowExecutor rowExecutor = new ParallelRowExecutor(
+            this);
     // Parameters.
     private final ParameterSet parameters;
 
@@ -78,15 +80,12 @@ public class RowsFilterTask extends AbstractTask {
         parameters = parameterSet;
         origPeakList = list;
         filteredPeakList = null;
-        processedRows = 0;
-        totalRows = 0;
     }
 
     @Override
     public double getFinishedPercentage() {
 
-        return totalRows == 0 ? 0.0 : (double) processedRows
-                / (double) totalRows;
+        return rowExecutor.getFinishedPercentage();
     }
 
     @Override
@@ -138,7 +137,8 @@ public class RowsFilterTask extends AbstractTask {
      * @return a new peak list with rows of the original peak list that pass the
      *         filtering.
      */
-    private PeakList filterPeakListRows(final PeakList peakList) {
+    private PeakList filterPeakListRows(final PeakList peakList)
+            throws Exception {
 
         // Create new peak list.
         final PeakList newPeakList = new SimplePeakList(peakList.getName()
@@ -157,6 +157,28 @@ public class RowsFilterTask extends AbstractTask {
                 .addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
                         getTaskDescription(), parameters));
 
+        // Filter the rows in parallel, keeping their order.
+        rowExecutor.processRows(peakList.getRows(),
+                new ParallelRowExecutor.RowFunction<PeakListRow>() {
+                    @Override
+                    public PeakListRow processRow(final int index,
+                            final PeakListRow row) {
+                        return filterRow(row);
+                    }
+                }, newPeakList);
+
+        return newPeakList;
+    }
+
+    /**
+     * Filter a peak list row.
+     *
+     * @param row
+     *            the row to filter.
+     * @return a copy of the row if it passes the filters, otherwise null.
+     */
+    private PeakListRow filterRow(final PeakListRow row) {
+
         // Get parameters.
         final boolean onlyIdentified = parameters.getParameter(
                 RowsFilterParameters.HAS_IDENTITIES).getValue();
@@ -177,116 +199,106 @@ public class RowsFilterTask extends AbstractTask {
         final boolean filterByDuration = parameters.getParameter(
                 RowsFilterParameters.PEAK_DURATION).getValue();
 
-        // Filter rows.
-        final PeakListRow[] rows = peakList.getRows();
-        totalRows = rows.length;
-        for (processedRows = 0; !isCanceled() && processedRows < totalRows; processedRows++) {
-
-            final PeakListRow row = rows[processedRows];
-
-            final int peakCount = getPeakCount(row, groupingParameter);
+        final int peakCount = getPeakCount(row, groupingParameter);
 
-            // Check number of peaks.
-            if (filterByMinPeakCount) {
-                final int minPeakCount = parameters
-                        .getParameter(RowsFilterParameters.MIN_PEAK_COUNT)
-                        .getEmbeddedParameter().getValue();
-                if (peakCount < minPeakCount)
-                    continue;
-            }
-
-            // Check identities.
-            if (onlyIdentified && row.getPreferredPeakIdentity() == null)
-                continue;
-
-            // Check average m/z.
-            if (filterByMzRange) {
-                final Range<Double> mzRange = parameters
-                        .getParameter(RowsFilterParameters.MZ_RANGE)
-                        .getEmbeddedParameter().getValue();
-                if (!mzRange.contains(row.getAverageMZ()))
-                    continue;
-            }
+        // Check number of peaks.
+        if (filterByMinPeakCount) {
+            final int minPeakCount = parameters
+                    .getParameter(RowsFilterParameters.MIN_PEAK_COUNT)
+                    .getEmbeddedParameter().getValue();
+            if (peakCount < minPeakCount)
+                return null;
+        }
 
-            // Check average RT.
-            if (filterByRtRange) {
-                final Range<Double> rtRange = parameters
-                        .getParameter(RowsFilterParameters.RT_RANGE)
-                        .getEmbeddedParameter().getValue();
+        // Check identities.
+        if (onlyIdentified && row.getPreferredPeakIdentity() == null)
+            return null;
+
+        // Check average m/z.
+        if (filterByMzRange) {
+            final Range<Double> mzRange = parameters
+                    .getParameter(RowsFilterParameters.MZ_RANGE)
+                    .getEmbeddedParameter().getValue();
+            if (!mzRange.contains(row.getAverageMZ()))
+                return null;
+        }
 
-                if (!rtRange.contains(row.getAverageRT()))
-                    continue;
-            }
+        // Check average RT.
+        if (filterByRtRange) {
+            final Range<Double> rtRange = parameters
+                    .getParameter(RowsFilterParameters.RT_RANGE)
+                    .getEmbeddedParameter().getValue();
 
-            // Search peak identity text.
-            if (filterByIdentityText) {
-                if (row.getPreferredPeakIdentity() == null)
-                    continue;
-                final String searchText = parameters
-                        .getParameter(RowsFilterParameters.IDENTITY_TEXT)
-                        .getEmbeddedParameter().getValue().toLowerCase().trim();
-                final String rowText = row.getPreferredPeakIdentity().getName()
-                        .toLowerCase().trim();
-                if (!rowText.contains(searchText))
-                    continue;
-            }
+            if (!rtRange.contains(row.getAverageRT()))
+                return null;
+        }
 
-            // Search peak comment text.
-            if (filterByCommentText) {
-                if (row.getComment() == null)
-                    continue;
-                final String searchText = parameters
-                        .getParameter(RowsFilterParameters.COMMENT_TEXT)
-                        .getEmbeddedParameter().getValue().toLowerCase().trim();
-                final String rowText = row.getComment().toLowerCase().trim();
-                if (!rowText.contains(searchText))
-                    continue;
-            }
+        // Search peak identity text.
+        if (filterByIdentityText) {
+            if (row.getPreferredPeakIdentity() == null)
+                return null;
+            final String searchText = parameters
+                    .getParameter(RowsFilterParameters.IDENTITY_TEXT)
+                    .getEmbeddedParameter().getValue().toLowerCase().trim();
+            final String rowText = row.getPreferredPeakIdentity().getName()
+                    .toLowerCase().trim();
+            if (!rowText.contains(searchText))
+                return null;
+        }
 
-            // Calculate average duration and isotope pattern count.
-            int maxIsotopePatternSizeOnRow = 1;
-            double avgDuration = 0.0;
-            final Feature[] peaks = row.getPeaks();
-            for (final Feature p : peaks) {
+        // Search peak comment text.
+        if (filterByCommentText) {
+            if (row.getComment() == null)
+                return null;
+            final String searchText = parameters
+                    .getParameter(RowsFilterParameters.COMMENT_TEXT)
+                    .getEmbeddedParameter().getValue().toLowerCase().trim();
+            final String rowText = row.getComment().toLowerCase().trim();
+            if (!rowText.contains(searchText))
+                return null;
+        }
 
-                final IsotopePattern pattern = p.getIsotopePattern();
-                if (pattern != null
-                        && maxIsotopePatternSizeOnRow < pattern
-                                .getNumberOfDataPoints()) {
+        // Calculate average duration and isotope pattern count.
+        int maxIsotopePatternSizeOnRow = 1;
+        double avgDuration = 0.0;
+        final Feature[] peaks = row.getPeaks();
+        for (final Feature p : peaks) {
 
-                    maxIsotopePatternSizeOnRow = pattern
-                            .getNumberOfDataPoints();
-                }
+            final IsotopePattern pattern = p.getIsotopePattern();
+            if (pattern != null
+                    && maxIsotopePatternSizeOnRow < pattern
+                            .getNumberOfDataPoints()) {
 
-                avgDuration += RangeUtils.rangeLength(p
-                        .getRawDataPointsRTRange());
+                maxIsotopePatternSizeOnRow = pattern
+                        .getNumberOfDataPoints();
             }
 
-            // Check isotope pattern count.
-            if (filterByMinIsotopePatternSize) {
-                final int minIsotopePatternSize = parameters
-                        .getParameter(
-                                RowsFilterParameters.MIN_ISOTOPE_PATTERN_COUNT)
-                        .getEmbeddedParameter().getValue();
-                if (maxIsotopePatternSizeOnRow < minIsotopePatternSize)
-                    continue;
-            }
+            avgDuration += RangeUtils.rangeLength(p
+                    .getRawDataPointsRTRange());
+        }
 
-            // Check average duration.
-            avgDuration /= (double) peakCount;
-            if (filterByDuration) {
-                final Range<Double> durationRange = parameters
-                        .getParameter(RowsFilterParameters.PEAK_DURATION)
-                        .getEmbeddedParameter().getValue();
-                if (!durationRange.contains(avgDuration))
-                    continue;
-            }
+        // Check isotope pattern count.
+        if (filterByMinIsotopePatternSize) {
+            final int minIsotopePatternSize = parameters
+                    .getParameter(
+                            RowsFilterParameters.MIN_ISOTOPE_PATTERN_COUNT)
+                    .getEmbeddedParameter().getValue();
+            if (maxIsotopePatternSizeOnRow < minIsotopePatternSize)
+                return null;
+        }
 
-            // Good row?
-            newPeakList.addRow(copyPeakRow(row));
+        // Check average duration.
+        avgDuration /= (double) peakCount;
+        if (filterByDuration) {
+            final Range<Double> durationRange = parameters
+                    .getParameter(RowsFilterParameters.PEAK_DURATION)
+                    .getEmbeddedParameter().getValue();
+            if (!durationRange.contains(avgDuration))
+                return null;
         }
 
-        return newPeakList;
+        // Good row?
+        return copyPeakRow(row);
     }
 
     /**
@@ -27,8 +27,8 @@ import net.sf.mzmine.datamodel.Feature.FeatureStatus;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.CompactFeature;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
-import net.sf.mzmine.datamodel.impl.SimpleFeature;
 import net.sf.mzmine.util.RangeUtils;
 import net.sf.mzmine.util.ScanUtils;
 
@@ -193,7 +193,7 @@ class Gap {
 	    int fragmentScan = ScanUtils.findBestFragmentScan(rawDataFile,
 		    finalRTRange, finalMZRange);
 
-	    SimpleFeature newPeak = new SimpleFeature(rawDataFile, mz, rt,
+	    CompactFeature newPeak = new CompactFeature(rawDataFile, mz, rt,
 		    height, area, scanNumbers, finalDataPoint,
 		    FeatureStatus.ESTIMATED, representativeScan, fragmentScan,
 		    finalRTRange, finalMZRange, finalIntensityRange);
@@ -29,6 +29,7 @@ import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
@@ -88,9 +89,13 @@ class PeakFinderTask extends AbstractTask {
 	    totalScans += dataFile.getNumOfScans(1);
 	}
 
-	// Create new peak list
-	processedPeakList = new SimplePeakList(peakList + " " + suffix,
-		peakList.getRawDataFiles());
+	// Create new peak list, keeping the columnar layout of aligned lists
+	if (peakList instanceof ColumnarPeakList)
+	    processedPeakList = new ColumnarPeakList(peakList + " " + suffix,
+		    peakList.getRawDataFiles());
+	else
+	    processedPeakList = new SimplePeakList(peakList + " " + suffix,
+		    peakList.getRawDataFiles());
 
 	// Fill new peak list with empty rows
 	for (int row = 0; row < peakList.getNumberOfRows(); row++) {
@@ -19,16 +19,20 @@
 
 package net.sf.mzmine.modules.peaklistmethods.gapfilling.samerange;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.IonChromatogram;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakIdentity;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
+import net.sf.mzmine.datamodel.impl.CompactFeature;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
@@ -38,8 +42,6 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.RangeUtils;
-import net.sf.mzmine.util.ScanUtils;
 
 import com.google.common.collect.Range;
 
@@ -54,7 +56,7 @@ class SameRangeTask extends AbstractTask {
     private MZTolerance mzTolerance;
     private boolean removeOriginal;
 
-    private int processedRows, totalRows;
+    private int processedColumns, processedRows, totalColumns, totalRows;
 
     private ParameterSet parameters;
 
@@ -85,18 +87,44 @@ class SameRangeTask extends AbstractTask {
 
 	// Get peak list columns
 	RawDataFile columns[] = peakList.getRawDataFiles();
+	totalColumns = columns.length;
 
-	// Create new peak list
-	processedPeakList = new SimplePeakList(peakList + " " + suffix, columns);
+	// Create new peak list, keeping the columnar layout of aligned lists
+	if (peakList instanceof ColumnarPeakList)
+	    processedPeakList = new ColumnarPeakList(peakList + " " + suffix,
+		    columns);
+	else
+	    processedPeakList = new SimplePeakList(peakList + " " + suffix,
+		    columns);
 
-	// Fill gaps in given column
+	// Fill the gaps of each column
+	PeakListRow sourceRows[] = peakList.getRows();
+	Feature filledPeaks[][] = new Feature[columns.length][];
+	for (int column = 0; column < columns.length; column++) {
+
+	    // Canceled?
+	    if (isCanceled())
+		return;
+
+	    try {
+		filledPeaks[column] = fillGaps(sourceRows, columns[column]);
+	    } catch (IOException e) {
+		setStatus(TaskStatus.ERROR);
+		setErrorMessage("Could not read the scans of "
+			+ columns[column] + ": " + e);
+		return;
+	    }
+	    processedColumns++;
+	}
+
+	// Copy the rows, adding the peaks which fill the gaps
 	for (int row = 0; row < totalRows; row++) {
 
 	    // Canceled?
 	    if (isCanceled())
 		return;
 
-	    PeakListRow sourceRow = peakList.getRow(row);
+	    PeakListRow sourceRow = sourceRows[row];
 	    PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
 
 	    // Copy comment
@@ -110,22 +138,18 @@ class SameRangeTask extends AbstractTask {
 			.getPreferredPeakIdentity());
 
 	    // Copy each peaks and fill gaps
-	    for (RawDataFile column : columns) {
-
-		// Canceled?
-		if (isCanceled())
-		    return;
+	    for (int column = 0; column < columns.length; column++) {
 
 		// Get current peak
-		Feature currentPeak = sourceRow.getPeak(column);
+		Feature currentPeak = sourceRow.getPeak(columns[column]);
 
-		// If there is a gap, try to fill it
+		// If there is a gap, use the peak filling it
 		if (currentPeak == null)
-		    currentPeak = fillGap(sourceRow, column);
+		    currentPeak = filledPeaks[column][row];
 
 		// If a peak was found or created, add it
 		if (currentPeak != null)
-		    newRow.addPeak(column, currentPeak);
+		    newRow.addPeak(columns[column], currentPeak);
 
 	    }
 
@@ -156,64 +180,83 @@ class SameRangeTask extends AbstractTask {
 
     }
 
-    private Feature fillGap(PeakListRow row, RawDataFile column) {
+    /**
+     * Fills the gaps of one column. The ion chromatograms of all its gaps are
+     * extracted in one pass over the scans.
+     * 
+     * @return Peaks filling the gaps, indexed by row
+     */
+    private Feature[] fillGaps(PeakListRow rows[], RawDataFile column)
+	    throws IOException {
 
-	SameRangePeak newPeak = new SameRangePeak(column);
+	List<Integer> gapRows = new ArrayList<Integer>();
+	List<Range<Double>> mzRanges = new ArrayList<Range<Double>>();
+	List<Range<Double>> rtRanges = new ArrayList<Range<Double>>();
 
-	Range<Double> mzRange = null, rtRange = null;
+	for (int row = 0; row < rows.length; row++) {
 
-	// Check the peaks for selected data files
-	for (RawDataFile dataFile : row.getRawDataFiles()) {
-	    Feature peak = row.getPeak(dataFile);
-	    if (peak == null)
+	    if (rows[row].getPeak(column) != null)
 		continue;
-	    if ((mzRange == null) || (rtRange == null)) {
-		mzRange = peak.getRawDataPointsMZRange();
-		rtRange = peak.getRawDataPointsRTRange();
-	    } else {
-		mzRange = mzRange.span(peak.getRawDataPointsMZRange());
-		rtRange = rtRange.span(peak.getRawDataPointsRTRange());
+
+	    Range<Double> mzRange = null, rtRange = null;
+
+	    // Check the peaks for selected data files
+	    for (RawDataFile dataFile : rows[row].getRawDataFiles()) {
+		Feature peak = rows[row].getPeak(dataFile);
+		if (peak == null)
+		    continue;
+		if ((mzRange == null) || (rtRange == null)) {
+		    mzRange = peak.getRawDataPointsMZRange();
+		    rtRange = peak.getRawDataPointsRTRange();
+		} else {
+		    mzRange = mzRange.span(peak.getRawDataPointsMZRange());
+		    rtRange = rtRange.span(peak.getRawDataPointsRTRange());
+		}
 	    }
-	}
 
-	assert mzRange != null;
-	assert rtRange != null;
+	    assert mzRange != null;
+	    assert rtRange != null;
 
-	Range<Double> mzRangeWithTol = mzTolerance.getToleranceRange(mzRange);
+	    gapRows.add(row);
+	    mzRanges.add(mzTolerance.getToleranceRange(mzRange));
+	    rtRanges.add(rtRange);
+	}
 
-	// Get scan numbers
-	int[] scanNumbers = column.getScanNumbers(1, rtRange);
+	@SuppressWarnings("unchecked")
+	IonChromatogram xics[] = column.getIonChromatograms(1,
+		mzRanges.toArray(new Range[0]), rtRanges.toArray(new Range[0]));
 
-	boolean dataPointFound = false;
+	Feature filledPeaks[] = new Feature[rows.length];
+	for (int i = 0; i < xics.length; i++)
+	    filledPeaks[gapRows.get(i)] = createPeak(column, xics[i]);
 
-	for (int scanNumber : scanNumbers) {
+	return filledPeaks;
+    }
 
-	    if (isCanceled())
-		return null;
+    private Feature createPeak(RawDataFile column, IonChromatogram xic) {
 
-	    // Get next scan
-	    Scan scan = column.getScan(scanNumber);
+	SameRangePeak newPeak = new SameRangePeak(column);
 
-	    // Find most intense m/z peak
-	    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRangeWithTol);
+	// Most intense m/z peak of each scan, or intensity 0 at the center of
+	// the m/z range
+	int scanNumbers[] = xic.getScanNumbers();
+	double mzValues[] = xic.getMZValues();
+	double intensities[] = xic.getIntensities();
 
-	    if (basePeak != null) {
-		if (basePeak.getIntensity() > 0)
-		    dataPointFound = true;
-		newPeak.addDatapoint(scan.getScanNumber(), basePeak);
-	    } else {
-		DataPoint fakeDataPoint = new SimpleDataPoint(
-			RangeUtils.rangeCenter(mzRangeWithTol), 0);
-		newPeak.addDatapoint(scan.getScanNumber(), fakeDataPoint);
-	    }
+	boolean dataPointFound = false;
 
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    if (intensities[i] > 0)
+		dataPointFound = true;
+	    newPeak.addDatapoint(scanNumbers[i], new SimpleDataPoint(
+		    mzValues[i], intensities[i]));
 	}
 
 	if (dataPointFound) {
 	    newPeak.finalizePeak();
 	    if (newPeak.getArea() == 0)
 		return null;
-	    return newPeak;
+	    return new CompactFeature(newPeak);
 	}
 
 	return null;
@@ -222,7 +265,9 @@ class SameRangeTask extends AbstractTask {
     public double getFinishedPercentage() {
 	if (totalRows == 0)
 	    return 0;
-	return (double) processedRows / (double) totalRows;
+	// Filling the gaps of a column takes about as long as copying all rows
+	return (double) (processedColumns * totalRows + processedRows)
+		/ (double) ((totalColumns + 1) * totalRows);
 
     }
 
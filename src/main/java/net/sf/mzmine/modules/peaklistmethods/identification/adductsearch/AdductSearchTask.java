@@ -25,6 +25,7 @@ import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.
 import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.AdductSearchParameters.RT_TOLERANCE;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,19 +37,25 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelRowExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListRowIndex;
 import net.sf.mzmine.util.PeakListRowSorter;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
 
+import com.google.common.collect.Range;
+
 public class AdductSearchTask extends AbstractTask {
 
     // Logger.
     private static final Logger LOG = Logger.getLogger(AdductSearchTask.class
 	    .getName());
 
-    private int finishedRows;
-    private int totalRows;
+    // Searches the adducts of several main peaks in parallel.
+    private final ParallelRowExecutor rowExecutor = new ParallelRowExecutor(
+	    this);
+
     private final PeakList peakList;
 
     private final RTTolerance rtTolerance;
@@ -71,9 +78,6 @@ public class AdductSearchTask extends AbstractTask {
 	peakList = list;
 	parameters = parameterSet;
 
-	finishedRows = 0;
-	totalRows = 0;
-
 	rtTolerance = parameterSet.getParameter(RT_TOLERANCE).getValue();
 	mzTolerance = parameterSet.getParameter(MZ_TOLERANCE).getValue();
 	selectedAdducts = parameterSet.getParameter(ADDUCTS).getValue();
@@ -84,8 +88,7 @@ public class AdductSearchTask extends AbstractTask {
     @Override
     public double getFinishedPercentage() {
 
-	return totalRows == 0 ? 0.0 : (double) finishedRows
-		/ (double) totalRows;
+	return rowExecutor.getFinishedPercentage();
     }
 
     @Override
@@ -127,54 +130,102 @@ public class AdductSearchTask extends AbstractTask {
     }
 
     /**
-     * Search peak-list for adducts.
+     * Search peak-list for adducts. The adducts of several main peaks are
+     * looked up in parallel, but the identities are added in the order of the
+     * main peaks, so the result is the same as when comparing the rows one by
+     * one.
      */
-    private void searchAdducts() {
+    private void searchAdducts() throws Exception {
 
 	// Get rows.
 	final PeakListRow[] rows = peakList.getRows();
-	totalRows = rows.length;
 
 	// Start with the highest peaks.
 	Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height,
 		SortingDirection.Descending));
 
-	// Compare each pair of rows against each other.
-	for (int i = 0; !isCanceled() && i < totalRows; i++) {
-	    for (int j = 0; !isCanceled() && j < totalRows; j++) {
-
-		if (i == j)
-		    continue;
-
-		findAdducts(rows[i], rows[j]);
+	final PeakListRowIndex index = new PeakListRowIndex(rows);
+
+	final List<int[]> matches = rowExecutor.processRows(rows,
+		new ParallelRowExecutor.RowFunction<int[]>() {
+		    public int[] processRow(int mainRow, PeakListRow row) {
+			return findAdducts(index, mainRow);
+		    }
+		});
+	if (matches == null)
+	    return;
+
+	for (int i = 0; i < rows.length; i++) {
+	    for (int match : matches.get(i)) {
+		addAdductInfo(rows[i], rows[match / selectedAdducts.length],
+			selectedAdducts[match % selectedAdducts.length]);
 	    }
-
-	    finishedRows++;
 	}
     }
 
     /**
-     * Check if candidate peak may be a possible adduct of a given main peak.
+     * Find the rows which may be adducts of a given main peak. The m/z of each
+     * type of adduct is looked up in the index, within the retention time
+     * tolerance of the main peak.
      *
+     * @param index
+     *            index of the rows.
      * @param mainRow
-     *            main peak.
-     * @param possibleAdduct
-     *            candidate adduct peak.
+     *            position of the main peak in the index.
+     * @return the matches, encoded as the position of the adduct peak times
+     *         the number of adduct types plus the adduct type, in ascending
+     *         order.
      */
-    private void findAdducts(final PeakListRow mainRow,
-	    final PeakListRow possibleAdduct) {
+    private int[] findAdducts(final PeakListRowIndex index, final int mainRow) {
+
+	final PeakListRow mainPeak = index.getRow(mainRow);
+	final Range<Double> rtRange = rtTolerance.getToleranceRange(index
+		.getRT(mainRow));
+
+	int[] matches = new int[8];
+	int numOfMatches = 0;
+	for (int a = 0; a < selectedAdducts.length; a++) {
+
+	    final AdductType adduct = selectedAdducts[a];
+	    final Range<Double> mzRange = mzTolerance.getToleranceRange(index
+		    .getMZ(mainRow) + adduct.getMassDifference());
 
-	for (final AdductType adduct : selectedAdducts) {
+	    for (final int candidate : index.getRowsInside(mzRange, rtRange)) {
 
-	    if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+		if (isCanceled())
+		    return new int[0];
 
-		// Add adduct identity and notify GUI.
-		possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow,
-			adduct), false);
-		MZmineCore.getProjectManager().getCurrentProject()
-			.notifyObjectChanged(possibleAdduct, false);
+		if ((candidate != mainRow)
+			&& checkAdduct(mainPeak, index.getRow(candidate), adduct)) {
+		    if (numOfMatches == matches.length)
+			matches = Arrays.copyOf(matches, numOfMatches * 2);
+		    matches[numOfMatches++] = candidate * selectedAdducts.length
+			    + a;
+		}
 	    }
 	}
+
+	matches = Arrays.copyOf(matches, numOfMatches);
+	Arrays.sort(matches);
+	return matches;
+    }
+
+    /**
+     * Add adduct identity to the adduct row and notify GUI.
+     *
+     * @param mainRow
+     *            main peak.
+     * @param adductRow
+     *            adduct peak.
+     * @param adduct
+     *            adduct.
+     */
+    private void addAdductInfo(final PeakListRow mainRow,
+	    final PeakListRow adductRow, final AdductType adduct) {
+
+	adductRow.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
+	MZmineCore.getProjectManager().getCurrentProject()
+		.notifyObjectChanged(adductRow, false);
     }
 
     /**
@@ -20,22 +20,23 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.complexsearch;
 
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.IonizationType;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
-import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelRowExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.PeakListRowSorter;
-import net.sf.mzmine.util.SortingDirection;
-import net.sf.mzmine.util.SortingProperty;
+import net.sf.mzmine.util.ExceptionUtils;
+import net.sf.mzmine.util.PeakListRowIndex;
 
 import com.google.common.collect.Range;
 
@@ -43,7 +44,10 @@ public class ComplexSearchTask extends AbstractTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
-    private int finishedRows, totalRows;
+    // Searches the complexes of several rows in parallel
+    private final ParallelRowExecutor rowExecutor = new ParallelRowExecutor(
+	    this);
+
     private PeakList peakList;
 
     private RTTolerance rtTolerance;
@@ -76,9 +80,7 @@ public class ComplexSearchTask extends AbstractTask {
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-	if (totalRows == 0)
-	    return 0;
-	return ((double) finishedRows) / totalRows;
+	return rowExecutor.getFinishedPercentage();
     }
 
     /**
@@ -97,57 +99,163 @@ public class ComplexSearchTask extends AbstractTask {
 
 	logger.info("Starting complex search in " + peakList);
 
-	PeakListRow rows[] = peakList.getRows();
-	totalRows = rows.length;
+	PeakListRowIndex index = new PeakListRowIndex(peakList.getRows());
 
-	// Sort the array by m/z so we start with biggest peak (possible
-	// complex)
-	Arrays.sort(rows, new PeakListRowSorter(SortingProperty.MZ,
-		SortingDirection.Descending));
+	try {
+	    searchComplexes(index);
+	} catch (Throwable e) {
+	    setStatus(TaskStatus.ERROR);
+	    setErrorMessage("Error searching complexes in " + peakList + ": "
+		    + ExceptionUtils.exceptionToString(e));
+	    return;
+	}
 
-	// Compare each three rows against each other
-	for (int i = 0; i < totalRows; i++) {
+	// Task canceled?
+	if (isCanceled())
+	    return;
 
-	    Range<Double> testRTRange = rtTolerance.getToleranceRange(rows[i]
-		    .getAverageRT());
-	    PeakListRow testRows[] = peakList
-		    .getRowsInsideScanRange(testRTRange);
+	// Add task description to peakList
+	peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
+		"Identification of complexes", parameters));
 
-	    for (int j = 0; j < testRows.length; j++) {
+	// Repaint the window to reflect the change in the peak list
+	MZmineCore.getDesktop().getMainWindow().repaint();
 
-		for (int k = j; k < testRows.length; k++) {
+	setStatus(TaskStatus.FINISHED);
 
-		    // Task canceled?
-		    if (isCanceled())
-			return;
+	logger.info("Finished complexes search in " + peakList);
 
-		    // To avoid finding a complex of the peak itself and another
-		    // very small m/z peak
-		    if ((rows[i] == testRows[j]) || (rows[i] == testRows[k]))
-			continue;
+    }
 
-		    if (checkComplex(rows[i], testRows[j], testRows[k]))
-			addComplexInfo(rows[i], testRows[j], testRows[k]);
+    /**
+     * Searches the complexes of several rows in parallel. The complex
+     * identities of each row are added in the order of the rows in the peak
+     * list, which is the order in which comparing each three rows would add
+     * them.
+     */
+    private void searchComplexes(final PeakListRowIndex index)
+	    throws Exception {
 
-		}
+	final int numOfRows = index.getNumberOfRows();
 
+	// Sort the rows by m/z so we start with biggest peak (possible
+	// complex)
+	final Integer complexRows[] = new Integer[numOfRows];
+	for (int i = 0; i < numOfRows; i++)
+	    complexRows[i] = i;
+	Arrays.sort(complexRows, new Comparator<Integer>() {
+	    public int compare(Integer a, Integer b) {
+		return Double.compare(index.getMZ(b), index.getMZ(a));
+	    }
+	});
+	PeakListRow rows[] = new PeakListRow[numOfRows];
+	for (int i = 0; i < numOfRows; i++)
+	    rows[i] = index.getRow(complexRows[i]);
+
+	final List<long[]> pairs = rowExecutor.processRows(rows,
+		new ParallelRowExecutor.RowFunction<long[]>() {
+		    public long[] processRow(int i, PeakListRow row) {
+			return findComplexes(index, complexRows[i]);
+		    }
+		});
+	if (pairs == null)
+	    return;
+
+	for (int i = 0; i < numOfRows; i++) {
+	    for (long pair : pairs.get(i)) {
+		addComplexInfo(rows[i], index.getRow((int) (pair / numOfRows)),
+			index.getRow((int) (pair % numOfRows)));
 	    }
-
-	    finishedRows++;
-
 	}
 
-	// Add task description to peakList
-	((SimplePeakList) peakList)
-		.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
-			"Identification of complexes", parameters));
+    }
 
-	// Repaint the window to reflect the change in the peak list
-	MZmineCore.getDesktop().getMainWindow().repaint();
+    /**
+     * Finds the pairs of rows which may form a given complex. For each row
+     * within the retention time tolerance, the m/z of the second row is
+     * looked up by binary search among the rows in that tolerance.
+     * 
+     * @param index
+     * @param complexRow
+     *            position of the possible complex in the index
+     * @return the pairs, encoded as the position of the first row times the
+     *         number of rows plus the position of the second row, in
+     *         ascending order
+     */
+    private long[] findComplexes(PeakListRowIndex index, int complexRow) {
+
+	final PeakListRow complexPeak = index.getRow(complexRow);
+	final int numOfRows = index.getNumberOfRows();
+
+	// Rows in the retention time tolerance, in peak list order, and their
+	// order by m/z
+	Range<Double> testRTRange = rtTolerance.getToleranceRange(index
+		.getRT(complexRow));
+	final int testRows[] = index.getRowsInsideRTRange(testRTRange);
+	final double testMZValues[] = new double[testRows.length];
+	Integer order[] = new Integer[testRows.length];
+	for (int j = 0; j < testRows.length; j++)
+	    order[j] = j;
+	Arrays.sort(order, new Comparator<Integer>() {
+	    public int compare(Integer a, Integer b) {
+		return Double.compare(index.getMZ(testRows[a]),
+			index.getMZ(testRows[b]));
+	    }
+	});
+	for (int j = 0; j < testRows.length; j++)
+	    testMZValues[j] = index.getMZ(testRows[order[j]]);
+
+	final double addedMass = ionType.getAddedMass();
+	final Range<Double> mzRange = mzTolerance.getToleranceRange(index
+		.getMZ(complexRow) - addedMass);
+
+	long pairs[] = new long[8];
+	int numOfPairs = 0;
+	for (int j = 0; j < testRows.length; j++) {
+
+	    // Task canceled?
+	    if (isCanceled())
+		return new long[0];
+
+	    // To avoid finding a complex of the peak itself and another very
+	    // small m/z peak
+	    if (testRows[j] == complexRow)
+		continue;
+
+	    // Mass of the second row so that the sum of both is in the
+	    // tolerance range, slightly widened; checkComplex() makes the exact
+	    // decision
+	    final double mz1 = index.getMZ(testRows[j]);
+	    final double lowerMZ = mzRange.lowerEndpoint() - mz1 + 2
+		    * addedMass - PeakListRowIndex.ROUNDING_MARGIN;
+	    final double upperMZ = mzRange.upperEndpoint() - mz1 + 2
+		    * addedMass + PeakListRowIndex.ROUNDING_MARGIN;
+
+	    int start = Arrays.binarySearch(testMZValues, lowerMZ);
+	    if (start < 0)
+		start = -start - 1;
+	    while ((start > 0) && (testMZValues[start - 1] >= lowerMZ))
+		start--;
+
+	    for (int m = start; (m < testRows.length)
+		    && (testMZValues[m] <= upperMZ); m++) {
+		final int k = order[m];
+		if ((k < j) || (testRows[k] == complexRow))
+		    continue;
+		if (checkComplex(complexPeak, index.getRow(testRows[j]),
+			index.getRow(testRows[k]))) {
+		    if (numOfPairs == pairs.length)
+			pairs = Arrays.copyOf(pairs, numOfPairs * 2);
+		    pairs[numOfPairs++] = (long) testRows[j] * numOfRows
+			    + testRows[k];
+		}
+	    }
 
-	setStatus(TaskStatus.FINISHED);
+	}
 
-	logger.info("Finished complexes search in " + peakList);
+	pairs = Arrays.copyOf(pairs, numOfPairs);
+	Arrays.sort(pairs);
+	return pairs;
 
     }
 
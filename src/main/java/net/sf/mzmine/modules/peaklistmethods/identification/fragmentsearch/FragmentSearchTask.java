@@ -19,7 +19,10 @@
 
 package net.sf.mzmine.modules.peaklistmethods.identification.fragmentsearch;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.DataPoint;
@@ -27,14 +30,16 @@ import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
-import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelRowExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
+import net.sf.mzmine.util.PeakListRowIndex;
 import net.sf.mzmine.util.PeakListRowSorter;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
@@ -45,7 +50,10 @@ public class FragmentSearchTask extends AbstractTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
-    private int finishedRows, totalRows;
+    // Searches the fragments of several main peaks in parallel
+    private final ParallelRowExecutor rowExecutor = new ParallelRowExecutor(
+	    this);
+
     private PeakList peakList;
 
     private RTTolerance rtTolerance;
@@ -78,9 +86,7 @@ public class FragmentSearchTask extends AbstractTask {
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-	if (totalRows == 0)
-	    return 0;
-	return ((double) finishedRows) / totalRows;
+	return rowExecutor.getFinishedPercentage();
     }
 
     /**
@@ -100,49 +106,148 @@ public class FragmentSearchTask extends AbstractTask {
 	logger.info("Starting fragments search in " + peakList);
 
 	PeakListRow rows[] = peakList.getRows();
-	totalRows = rows.length;
 
 	// Start with the highest peaks
 	Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height,
 		SortingDirection.Descending));
 
-	// Compare each two rows against each other
-	for (int i = 0; i < totalRows; i++) {
+	try {
+	    searchFragments(rows);
+	} catch (Throwable e) {
+	    setStatus(TaskStatus.ERROR);
+	    setErrorMessage("Error searching fragments in " + peakList + ": "
+		    + ExceptionUtils.exceptionToString(e));
+	    return;
+	}
 
-	    for (int j = i + 1; j < rows.length; j++) {
+	// Task canceled?
+	if (isCanceled())
+	    return;
 
-		// Task canceled?
-		if (isCanceled())
-		    return;
+	// Add task description to peakList
+	peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
+		"Identification of fragments", parameters));
 
-		// Treat the higher m/z peak as main peak and check if the
-		// smaller one may be a fragment
-		if (rows[i].getAverageMZ() > rows[j].getAverageMZ()) {
-		    if (checkFragment(rows[i], rows[j]))
-			addFragmentInfo(rows[i], rows[j]);
-		} else {
-		    if (checkFragment(rows[j], rows[i]))
-			addFragmentInfo(rows[j], rows[i]);
-		}
+	// Repaint the window to reflect the change in the peak list
+	MZmineCore.getDesktop().getMainWindow().repaint();
 
-	    }
+	setStatus(TaskStatus.FINISHED);
 
-	    finishedRows++;
+	logger.info("Finished fragments search in " + peakList);
 
+    }
+
+    /**
+     * Searches the fragments of several main peaks in parallel. The fragment
+     * identities are added in the order of the main peaks, which is the order
+     * in which comparing each two rows would add them.
+     */
+    private void searchFragments(final PeakListRow rows[]) throws Exception {
+
+	final PeakListRowIndex index = new PeakListRowIndex(rows);
+
+	final List<int[]> fragments = rowExecutor.processRows(rows,
+		new ParallelRowExecutor.RowFunction<int[]>() {
+		    public int[] processRow(int mainRow, PeakListRow row) {
+			return findFragments(index, mainRow);
+		    }
+		});
+	if (fragments == null)
+	    return;
+
+	for (int i = 0; i < rows.length; i++) {
+	    for (int fragment : fragments.get(i))
+		addFragmentInfo(rows[i], rows[fragment]);
 	}
 
-	// Add task description to peakList
-	((SimplePeakList) peakList)
-		.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
-			"Identification of fragments", parameters));
+    }
 
-	// Repaint the window to reflect the change in the peak list
-	MZmineCore.getDesktop().getMainWindow().repaint();
+    /**
+     * Finds the rows which may be fragments of a given main peak. Only rows
+     * whose m/z matches a sufficiently high peak in the MS/MS scan of the main
+     * peak are looked up in the index, within the retention time tolerance.
+     * 
+     * @param index
+     * @param mainRow
+     *            position of the main peak in the index
+     * @return positions of the fragment rows, in ascending order
+     */
+    private int[] findFragments(PeakListRowIndex index, int mainRow) {
 
-	setStatus(TaskStatus.FINISHED);
+	final PeakListRow mainPeak = index.getRow(mainRow);
 
-	logger.info("Finished fragments search in " + peakList);
+	// Get MS/MS scan, if exists
+	int fragmentScanNumber = mainPeak.getBestPeak()
+		.getMostIntenseFragmentScanNumber();
+	if (fragmentScanNumber <= 0)
+	    return new int[0];
 
+	RawDataFile dataFile = mainPeak.getBestPeak().getDataFile();
+	Scan fragmentScan = dataFile.getScan(fragmentScanNumber);
+	if (fragmentScan == null)
+	    return new int[0];
+
+	// Only MS/MS peaks of required height can make a hit
+	ArrayList<DataPoint> highDataPoints = new ArrayList<DataPoint>();
+	for (DataPoint dp : fragmentScan.getDataPoints()) {
+	    if (dp.getIntensity() > minMS2peakHeight)
+		highDataPoints.add(dp);
+	}
+	if (highDataPoints.isEmpty())
+	    return new int[0];
+	DataPoint fragmentDataPoints[] = highDataPoints
+		.toArray(new DataPoint[0]);
+
+	Range<Double> rtRange = rtTolerance.getToleranceRange(index
+		.getRT(mainRow));
+	TreeSet<Integer> candidates = new TreeSet<Integer>();
+	for (DataPoint dp : fragmentDataPoints) {
+	    for (int candidate : index.getRowsInside(
+		    getFragmentMZRange(dp.getMZ()), rtRange))
+		candidates.add(candidate);
+	}
+
+	int fragments[] = new int[candidates.size()];
+	int numOfFragments = 0;
+	for (int candidate : candidates) {
+
+	    if (isCanceled())
+		return new int[0];
+
+	    if (candidate == mainRow)
+		continue;
+
+	    // Of each two rows, the one with the higher m/z is the main peak
+	    final boolean isMainPeak;
+	    if (mainRow < candidate)
+		isMainPeak = index.getMZ(mainRow) > index.getMZ(candidate);
+	    else
+		isMainPeak = !(index.getMZ(candidate) > index.getMZ(mainRow));
+	    if (!isMainPeak)
+		continue;
+
+	    if (checkFragment(mainPeak, index.getRow(candidate),
+		    fragmentDataPoints))
+		fragments[numOfFragments++] = candidate;
+	}
+
+	return Arrays.copyOf(fragments, numOfFragments);
+
+    }
+
+    /**
+     * Returns the range of m/z values of the rows whose MS/MS tolerance range
+     * may contain the given MS/MS m/z value. The range is slightly wider than
+     * necessary, checkFragment() makes the exact decision.
+     */
+    private Range<Double> getFragmentMZRange(double ms2mz) {
+	final double absolute = ms2mzTolerance.getMzTolerance();
+	final double relative = ms2mzTolerance.getPpmTolerance() / 1000000.0;
+	final double lower = Math.min(ms2mz - absolute, ms2mz / (1 + relative));
+	final double upper = relative < 1 ? Math.max(ms2mz + absolute, ms2mz
+		/ (1 - relative)) : Double.POSITIVE_INFINITY;
+	return Range.closed(lower - PeakListRowIndex.ROUNDING_MARGIN, upper
+		+ PeakListRowIndex.ROUNDING_MARGIN);
     }
 
     /**
@@ -150,9 +255,12 @@ public class FragmentSearchTask extends AbstractTask {
      * 
      * @param mainPeak
      * @param possibleFragment
+     * @param fragmentDataPoints
+     *            data points of the MS/MS scan of the main peak which have
+     *            the required height, sorted by m/z
      */
     private boolean checkFragment(PeakListRow mainPeak,
-	    PeakListRow possibleFragment) {
+	    PeakListRow possibleFragment, DataPoint fragmentDataPoints[]) {
 
 	// Check retention time condition
 	boolean rtCheck = rtTolerance.checkWithinTolerance(
@@ -165,27 +273,12 @@ public class FragmentSearchTask extends AbstractTask {
 		* maxFragmentHeight)
 	    return false;
 
-	// Get MS/MS scan, if exists
-	int fragmentScanNumber = mainPeak.getBestPeak()
-		.getMostIntenseFragmentScanNumber();
-	if (fragmentScanNumber <= 0)
-	    return false;
-
-	RawDataFile dataFile = mainPeak.getBestPeak().getDataFile();
-	Scan fragmentScan = dataFile.getScan(fragmentScanNumber);
-	if (fragmentScan == null)
-	    return false;
-
-	// Get MS/MS data points in the tolerance range
+	// If there is a MS/MS peak of required height in the tolerance range,
+	// we have a hit
 	Range<Double> ms2mzRange = ms2mzTolerance
 		.getToleranceRange(possibleFragment.getAverageMZ());
-
-	DataPoint fragmentDataPoints[] = fragmentScan
-		.getDataPointsByMass(ms2mzRange);
-
-	// If there is a MS/MS peak of required height, we have a hit
 	for (DataPoint dp : fragmentDataPoints) {
-	    if (dp.getIntensity() > minMS2peakHeight)
+	    if (ms2mzRange.contains(dp.getMZ()))
 		return true;
 	}
 
@@ -34,11 +34,9 @@ public class GPLipidIdentity extends SimplePeakIdentity {
 
 	this(lipidType.getAbbr() + '(' + fattyAcid1Length + ':'
 		+ fattyAcid1DoubleBonds + '/' + fattyAcid2Length + ':'
-		+ fattyAcid2DoubleBonds + ')', lipidType.getFormula()
-		+ calculateFattyAcidFormula(fattyAcid1Length,
-			fattyAcid1DoubleBonds)
-		+ calculateFattyAcidFormula(fattyAcid2Length,
-			fattyAcid2DoubleBonds));
+		+ fattyAcid2DoubleBonds + ')', calculateFormula(lipidType,
+		fattyAcid1Length, fattyAcid1DoubleBonds, fattyAcid2Length,
+		fattyAcid2DoubleBonds));
     }
 
     private GPLipidIdentity(final String name, final String formula) {
@@ -49,6 +47,32 @@ public class GPLipidIdentity extends SimplePeakIdentity {
 	setPropertyValue(PROPERTY_METHOD, "Glycerophospholipid search");
     }
 
+    /**
+     * Calculate lipid formula.
+     *
+     * @param lipidType
+     *            lipid type.
+     * @param fattyAcid1Length
+     *            first acid length.
+     * @param fattyAcid1DoubleBonds
+     *            first acid double bond count.
+     * @param fattyAcid2Length
+     *            second acid length.
+     * @param fattyAcid2DoubleBonds
+     *            second acid double bond count.
+     * @return lipid formula.
+     */
+    static String calculateFormula(final GPLipidType lipidType,
+	    final int fattyAcid1Length, final int fattyAcid1DoubleBonds,
+	    final int fattyAcid2Length, final int fattyAcid2DoubleBonds) {
+
+	return lipidType.getFormula()
+		+ calculateFattyAcidFormula(fattyAcid1Length,
+			fattyAcid1DoubleBonds)
+		+ calculateFattyAcidFormula(fattyAcid2Length,
+			fattyAcid2DoubleBonds);
+    }
+
     /**
      * Calculate fatty acid formula.
      *
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.glycerophospholipidsearch;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.mzmine.datamodel.IonizationType;
+import net.sf.mzmine.util.FormulaUtils;
+
+import com.google.common.collect.Range;
+
+/**
+ * Ion masses of all lipids of one lipid type, for all combinations of fatty
+ * acid lengths and double bonds, sorted by mass. The lipids are numbered in the
+ * order in which the search enumerates them. Tables are cached, so repeated
+ * searches with the same parameters do not calculate the masses again.
+ */
+class GPLipidMassTable {
+
+    // Number of tables kept in the cache
+    private static final int CACHE_SIZE = 16;
+
+    private static final Map<String, GPLipidMassTable> cache = new LinkedHashMap<String, GPLipidMassTable>(
+	    CACHE_SIZE, 0.75f, true) {
+	@Override
+	protected boolean removeEldestEntry(
+		Map.Entry<String, GPLipidMassTable> eldest) {
+	    return size() > CACHE_SIZE;
+	}
+    };
+
+    private final GPLipidType lipidType;
+
+    // Fatty acids of each lipid, by lipid number
+    private final int fattyAcid1Length[], fattyAcid1DoubleBonds[],
+	    fattyAcid2Length[], fattyAcid2DoubleBonds[];
+
+    // Ion masses in ascending order, and the corresponding lipid numbers
+    private final double ionMasses[];
+    private final int lipidsByMass[];
+
+    /**
+     * Returns the table of the given lipid type, from the cache if possible
+     */
+    static GPLipidMassTable getTable(GPLipidType lipidType,
+	    int minChainLength, int maxChainLength, int maxDoubleBonds,
+	    IonizationType ionizationType) {
+
+	final String key = lipidType.name() + '/' + minChainLength + '/'
+		+ maxChainLength + '/' + maxDoubleBonds + '/'
+		+ ionizationType.name();
+
+	synchronized (cache) {
+	    GPLipidMassTable table = cache.get(key);
+	    if (table != null)
+		return table;
+	}
+
+	GPLipidMassTable table = new GPLipidMassTable(lipidType,
+		minChainLength, maxChainLength, maxDoubleBonds, ionizationType);
+
+	synchronized (cache) {
+	    cache.put(key, table);
+	}
+
+	return table;
+
+    }
+
+    private GPLipidMassTable(GPLipidType lipidType, int minChainLength,
+	    int maxChainLength, int maxDoubleBonds,
+	    IonizationType ionizationType) {
+
+	this.lipidType = lipidType;
+
+	final int maxLipids = (maxChainLength + 1) * (maxDoubleBonds + 1)
+		* (maxChainLength + 1) * (maxDoubleBonds + 1);
+	int fa1Length[] = new int[maxLipids], fa1DoubleBonds[] = new int[maxLipids];
+	int fa2Length[] = new int[maxLipids], fa2DoubleBonds[] = new int[maxLipids];
+	final double masses[] = new double[maxLipids];
+	int numOfLipids = 0;
+
+	// Try all combinations of fatty acid lengths and double bonds
+	for (int fattyAcid1Length = 0; fattyAcid1Length <= maxChainLength; fattyAcid1Length++) {
+	    for (int fattyAcid1DoubleBonds = 0; fattyAcid1DoubleBonds <= maxDoubleBonds; fattyAcid1DoubleBonds++) {
+		for (int fattyAcid2Length = 0; fattyAcid2Length <= maxChainLength; fattyAcid2Length++) {
+		    for (int fattyAcid2DoubleBonds = 0; fattyAcid2DoubleBonds <= maxDoubleBonds; fattyAcid2DoubleBonds++) {
+
+			// If we have non-zero fatty acid, which is shorter
+			// than minimal length, skip this lipid
+			if (((fattyAcid1Length > 0) && (fattyAcid1Length < minChainLength))
+				|| ((fattyAcid2Length > 0) && (fattyAcid2Length < minChainLength)))
+			    continue;
+
+			// If we have more double bonds than carbons, it
+			// doesn't make sense, so let's skip such lipids
+			if (((fattyAcid1DoubleBonds > 0) && (fattyAcid1DoubleBonds > fattyAcid1Length - 1))
+				|| ((fattyAcid2DoubleBonds > 0) && (fattyAcid2DoubleBonds > fattyAcid2Length - 1)))
+			    continue;
+
+			final String formula = GPLipidIdentity.calculateFormula(
+				lipidType, fattyAcid1Length,
+				fattyAcid1DoubleBonds, fattyAcid2Length,
+				fattyAcid2DoubleBonds);
+
+			fa1Length[numOfLipids] = fattyAcid1Length;
+			fa1DoubleBonds[numOfLipids] = fattyAcid1DoubleBonds;
+			fa2Length[numOfLipids] = fattyAcid2Length;
+			fa2DoubleBonds[numOfLipids] = fattyAcid2DoubleBonds;
+			masses[numOfLipids] = FormulaUtils
+				.calculateExactMass(formula)
+				+ ionizationType.getAddedMass();
+			numOfLipids++;
+
+		    }
+		}
+	    }
+	}
+
+	fattyAcid1Length = Arrays.copyOf(fa1Length, numOfLipids);
+	fattyAcid1DoubleBonds = Arrays.copyOf(fa1DoubleBonds, numOfLipids);
+	fattyAcid2Length = Arrays.copyOf(fa2Length, numOfLipids);
+	fattyAcid2DoubleBonds = Arrays.copyOf(fa2DoubleBonds, numOfLipids);
+
+	Integer order[] = new Integer[numOfLipids];
+	for (int i = 0; i < numOfLipids; i++)
+	    order[i] = i;
+	Arrays.sort(order, new Comparator<Integer>() {
+	    public int compare(Integer a, Integer b) {
+		return Double.compare(masses[a], masses[b]);
+	    }
+	});
+	ionMasses = new double[numOfLipids];
+	lipidsByMass = new int[numOfLipids];
+	for (int i = 0; i < numOfLipids; i++) {
+	    lipidsByMass[i] = order[i];
+	    ionMasses[i] = masses[order[i]];
+	}
+
+    }
+
+    int getNumberOfLipids() {
+	return ionMasses.length;
+    }
+
+    /**
+     * Returns the numbers of the lipids with ion mass within the given range,
+     * in ascending order
+     */
+    int[] findLipids(Range<Double> mzRange) {
+
+	int start = Arrays.binarySearch(ionMasses, mzRange.lowerEndpoint());
+	if (start < 0)
+	    start = -start - 1;
+	while ((start > 0) && (mzRange.contains(ionMasses[start - 1])))
+	    start--;
+
+	int end = start;
+	while ((end < ionMasses.length) && (mzRange.contains(ionMasses[end])))
+	    end++;
+
+	int lipids[] = Arrays.copyOfRange(lipidsByMass, start, end);
+	Arrays.sort(lipids);
+	return lipids;
+
+    }
+
+    /**
+     * Creates the identity of the lipid with the given number
+     */
+    GPLipidIdentity createIdentity(int lipid) {
+	return new GPLipidIdentity(lipidType, fattyAcid1Length[lipid],
+		fattyAcid1DoubleBonds[lipid], fattyAcid2Length[lipid],
+		fattyAcid2DoubleBonds[lipid]);
+    }
+
+}
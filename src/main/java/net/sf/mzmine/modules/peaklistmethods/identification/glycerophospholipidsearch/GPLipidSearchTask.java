@@ -19,18 +19,22 @@
 
 package net.sf.mzmine.modules.peaklistmethods.identification.glycerophospholipidsearch;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.IonizationType;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
-import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.OrderedParallelExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 
 import com.google.common.collect.Range;
 
@@ -38,7 +42,8 @@ public class GPLipidSearchTask extends AbstractTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
-    private long finishedSteps, totalSteps;
+    private final AtomicLong finishedSteps = new AtomicLong();
+    private long totalSteps;
     private PeakList peakList;
 
     private GPLipidType[] selectedLipids;
@@ -78,7 +83,7 @@ public class GPLipidSearchTask extends AbstractTask {
     public double getFinishedPercentage() {
 	if (totalSteps == 0)
 	    return 0;
-	return ((double) finishedSteps) / totalSteps;
+	return ((double) finishedSteps.get()) / totalSteps;
     }
 
     /**
@@ -99,59 +104,25 @@ public class GPLipidSearchTask extends AbstractTask {
 
 	PeakListRow rows[] = peakList.getRows();
 
-	// Calculate how many possible lipids we will try
-	totalSteps = selectedLipids.length * (maxChainLength + 1)
-		* (maxDoubleBonds + 1) * (maxChainLength + 1)
-		* (maxDoubleBonds + 1);
-
-	// Try all combinations of fatty acid lengths and double bonds
-	for (GPLipidType lipidType : selectedLipids) {
-	    for (int fattyAcid1Length = 0; fattyAcid1Length <= maxChainLength; fattyAcid1Length++) {
-		for (int fattyAcid1DoubleBonds = 0; fattyAcid1DoubleBonds <= maxDoubleBonds; fattyAcid1DoubleBonds++) {
-		    for (int fattyAcid2Length = 0; fattyAcid2Length <= maxChainLength; fattyAcid2Length++) {
-			for (int fattyAcid2DoubleBonds = 0; fattyAcid2DoubleBonds <= maxDoubleBonds; fattyAcid2DoubleBonds++) {
-
-			    // Task canceled?
-			    if (isCanceled())
-				return;
-
-			    // If we have non-zero fatty acid, which is shorter
-			    // than minimal length, skip this lipid
-			    if (((fattyAcid1Length > 0) && (fattyAcid1Length < minChainLength))
-				    || ((fattyAcid2Length > 0) && (fattyAcid2Length < minChainLength))) {
-				finishedSteps++;
-				continue;
-			    }
-
-			    // If we have more double bonds than carbons, it
-			    // doesn't make sense, so let's skip such lipids
-			    if (((fattyAcid1DoubleBonds > 0) && (fattyAcid1DoubleBonds > fattyAcid1Length - 1))
-				    || ((fattyAcid2DoubleBonds > 0) && (fattyAcid2DoubleBonds > fattyAcid2Length - 1))) {
-				finishedSteps++;
-				continue;
-			    }
-
-			    // Prepare a lipid instance
-			    GPLipidIdentity lipid = new GPLipidIdentity(
-				    lipidType, fattyAcid1Length,
-				    fattyAcid1DoubleBonds, fattyAcid2Length,
-				    fattyAcid2DoubleBonds);
-
-			    // Find all rows that match this lipid
-			    findPossibleGPL(lipid, rows);
-
-			    finishedSteps++;
-
-			}
-		    }
-		}
-	    }
+	// Each lipid type is matched against each row
+	totalSteps = (long) selectedLipids.length * rows.length;
+
+	try {
+	    searchLipids(rows);
+	} catch (Throwable e) {
+	    setStatus(TaskStatus.ERROR);
+	    setErrorMessage("Error searching glycerophospholipids in "
+		    + peakList + ": " + ExceptionUtils.exceptionToString(e));
+	    return;
 	}
 
+	// Task canceled?
+	if (isCanceled())
+	    return;
+
 	// Add task description to peakList
-	((SimplePeakList) peakList)
-		.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
-			"Identification of glycerophospholipids", parameters));
+	peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
+		"Identification of glycerophospholipids", parameters));
 
 	// Repaint the window to reflect the change in the peak list
 	MZmineCore.getDesktop().getMainWindow().repaint();
@@ -163,37 +134,88 @@ public class GPLipidSearchTask extends AbstractTask {
     }
 
     /**
-     * Check if candidate peak may be a possible adduct of a given main peak
+     * Matches the lipid types in parallel. The identities are added to each row
+     * in the order of the lipid types and then of the fatty acids, which is
+     * the order in which trying all lipids one by one would add them.
+     */
+    private void searchLipids(final PeakListRow rows[]) throws Exception {
+
+	new OrderedParallelExecutor(this).process(selectedLipids,
+		new OrderedParallelExecutor.ItemFunction<GPLipidType, int[][]>() {
+		    public int[][] processItem(int index, GPLipidType lipidType) {
+			return findPossibleGPL(lipidType, rows);
+		    }
+		},
+		new OrderedParallelExecutor.ResultConsumer<GPLipidType, int[][]>() {
+		    public void consumeResult(int index, GPLipidType lipidType,
+			    int matches[][]) {
+			addIdentities(rows, lipidType, matches);
+		    }
+		});
+
+    }
+
+    /**
+     * Adds the identities of the lipids of the given type to the matching rows
+     */
+    private void addIdentities(PeakListRow rows[], GPLipidType lipidType,
+	    int matches[][]) {
+
+	GPLipidMassTable table = getTable(lipidType);
+	Map<Integer, GPLipidIdentity> identities = new HashMap<Integer, GPLipidIdentity>();
+	for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
+	    for (int lipid : matches[rowIndex]) {
+		GPLipidIdentity identity = identities.get(lipid);
+		if (identity == null) {
+		    identity = table.createIdentity(lipid);
+		    identities.put(lipid, identity);
+		}
+		rows[rowIndex].addPeakIdentity(identity, false);
+
+		// Notify the GUI about the change in the project
+		MZmineCore.getProjectManager().getCurrentProject()
+			.notifyObjectChanged(rows[rowIndex], false);
+	    }
+	}
+
+    }
+
+    /**
+     * Find the lipids of the given type which may be each row, by looking up
+     * the m/z tolerance range of the row in the table of lipid ion masses
      * 
-     * @param mainPeak
-     * @param possibleFragment
+     * @param lipidType
+     * @param rows
+     * @return numbers of the matching lipids of each row, in ascending order
      */
-    private void findPossibleGPL(GPLipidIdentity lipid, PeakListRow rows[]) {
+    private int[][] findPossibleGPL(GPLipidType lipidType, PeakListRow rows[]) {
 
-	final double lipidIonMass = lipid.getMass()
-		+ ionizationType.getAddedMass();
+	final GPLipidMassTable table = getTable(lipidType);
 
-	logger.finest("Searching for lipid " + lipid.getDescription() + ", "
-		+ lipidIonMass + " m/z");
+	logger.finest("Searching for " + table.getNumberOfLipids() + " "
+		+ lipidType.getAbbr() + " lipids");
 
+	int matches[][] = new int[rows.length][];
 	for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
 
 	    if (isCanceled())
-		return;
+		return matches;
 
 	    Range<Double> mzTolRange = mzTolerance
 		    .getToleranceRange(rows[rowIndex].getAverageMZ());
+	    matches[rowIndex] = table.findLipids(mzTolRange);
 
-	    if (mzTolRange.contains(lipidIonMass)) {
-		rows[rowIndex].addPeakIdentity(lipid, false);
-
-		// Notify the GUI about the change in the project
-		MZmineCore.getProjectManager().getCurrentProject()
-			.notifyObjectChanged(rows[rowIndex], false);
-	    }
+	    finishedSteps.incrementAndGet();
 
 	}
 
+	return matches;
+
+    }
+
+    private GPLipidMassTable getTable(GPLipidType lipidType) {
+	return GPLipidMassTable.getTable(lipidType, minChainLength,
+		maxChainLength, maxDoubleBonds, ionizationType);
     }
 
 }
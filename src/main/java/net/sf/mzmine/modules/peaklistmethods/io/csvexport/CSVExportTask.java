@@ -20,7 +20,8 @@
 package net.sf.mzmine.modules.peaklistmethods.io.csvexport;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.util.regex.Pattern;
 
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.Feature.FeatureStatus;
@@ -31,12 +32,19 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListRowWriter;
+import net.sf.mzmine.util.PeakListRowWriter.RowFormatter;
+import net.sf.mzmine.util.PeakListRowWriter.RowFormatterFactory;
 import net.sf.mzmine.util.RangeUtils;
 
 class CSVExportTask extends AbstractTask {
 
+    private static final Pattern controlCharacters = Pattern
+            .compile("[\\p{Cntrl}]");
+
     private PeakList peakList;
-    private int processedRows = 0, totalRows = 0;
+    private int totalRows = 0;
+    private volatile PeakListRowWriter writer;
 
     // parameter values
     private File fileName;
@@ -68,10 +76,11 @@ class CSVExportTask extends AbstractTask {
     }
 
     public double getFinishedPercentage() {
-        if (totalRows == 0) {
+        final PeakListRowWriter rowWriter = writer;
+        if ((totalRows == 0) || (rowWriter == null)) {
             return 0;
         }
-        return (double) processedRows / (double) totalRows;
+        return (double) rowWriter.getWrittenRows() / (double) totalRows;
     }
 
     public String getTaskDescription() {
@@ -83,9 +92,8 @@ class CSVExportTask extends AbstractTask {
         setStatus(TaskStatus.PROCESSING);
 
         // Open file
-        FileWriter writer;
         try {
-            writer = new FileWriter(fileName);
+            writer = new PeakListRowWriter(this, fileName);
         } catch (Exception e) {
             setStatus(TaskStatus.ERROR);
             setErrorMessage("Could not open file " + fileName + " for writing.");
@@ -111,12 +119,12 @@ class CSVExportTask extends AbstractTask {
 
     }
 
-    private void exportPeakList(PeakList peakList, FileWriter writer) {
+    private void exportPeakList(PeakList peakList, PeakListRowWriter writer) {
 
         RawDataFile rawDataFiles[] = peakList.getRawDataFiles();
 
         // Buffer for writing
-        StringBuffer line = new StringBuffer();
+        StringBuilder line = new StringBuilder();
 
         // Write column headers
         // Common elements
@@ -157,162 +165,168 @@ class CSVExportTask extends AbstractTask {
             return;
         }
 
-        // Write data rows
-        for (PeakListRow peakListRow : peakList.getRows()) {
+        // Write data rows, they are formatted in parallel
+        try {
+            writer.writeRows(peakList.getRows(), new RowFormatterFactory() {
+                public RowFormatter createFormatter() {
+                    return new RowFormatter() {
+                        public void formatRow(PeakListRow row,
+                                StringBuilder text) {
+                            exportPeakListRow(row, text);
+                        }
+                    };
+                }
+            });
+        } catch (IOException e) {
+            setStatus(TaskStatus.ERROR);
+            setErrorMessage("Could not write to file " + fileName);
+            return;
+        }
+    }
 
-            // Cancel?
-            if (isCanceled()) {
-                return;
-            }
+    /**
+     * Appends one line for the row. Called by several formatting threads.
+     */
+    private void exportPeakListRow(PeakListRow peakListRow, StringBuilder line) {
 
-            // Reset the buffer
-            line.setLength(0);
+        final RawDataFile rawDataFiles[] = peakList.getRawDataFiles();
+        int length;
 
-            // Common elements
-            length = commonElements.length;
-            for (int i = 0; i < length; i++) {
-                switch (commonElements[i]) {
-                case ROW_ID:
-                    line.append(peakListRow.getID() + fieldSeparator);
-                    break;
-                case ROW_MZ:
-                    line.append(peakListRow.getAverageMZ() + fieldSeparator);
-                    break;
-                case ROW_RT:
-                    line.append(peakListRow.getAverageRT() + fieldSeparator);
-                    break;
-                case ROW_COMMENT:
-                    String comment = escapeStringForCSV(peakListRow
-                            .getComment());
-                    line.append(comment + fieldSeparator);
-                    break;
-                case ROW_PEAK_NUMBER:
-                    int numDetected = 0;
-                    for (Feature p : peakListRow.getPeaks()) {
-                        if (p.getFeatureStatus() == FeatureStatus.DETECTED) {
-                            numDetected++;
-                        }
+        // Common elements
+        length = commonElements.length;
+        for (int i = 0; i < length; i++) {
+            switch (commonElements[i]) {
+            case ROW_ID:
+                line.append(peakListRow.getID()).append(fieldSeparator);
+                break;
+            case ROW_MZ:
+                line.append(peakListRow.getAverageMZ()).append(fieldSeparator);
+                break;
+            case ROW_RT:
+                line.append(peakListRow.getAverageRT()).append(fieldSeparator);
+                break;
+            case ROW_COMMENT:
+                String comment = escapeStringForCSV(peakListRow
+                        .getComment());
+                line.append(comment).append(fieldSeparator);
+                break;
+            case ROW_PEAK_NUMBER:
+                int numDetected = 0;
+                for (Feature p : peakListRow.getPeaks()) {
+                    if (p.getFeatureStatus() == FeatureStatus.DETECTED) {
+                        numDetected++;
                     }
-                    line.append(numDetected + fieldSeparator);
-                    break;
                 }
+                line.append(numDetected).append(fieldSeparator);
+                break;
             }
+        }
 
-	    // Identity elements
-	    length = identityElements.length;
-	    PeakIdentity peakIdentity = peakListRow.getPreferredPeakIdentity();
-	    PeakIdentity[] peakIdentities = peakListRow.getPeakIdentities();
-
-	    if (exportAllIDs && peakIdentities.length > 1) {
-		// Export all identification results
-		for (int i = 0; i < length; i++) {
-		    String propertyValue = "";
-		    for (int x = 0; x < peakIdentities.length; x++) {
-			if (x == 0) {
-			    propertyValue = escapeStringForCSV(peakIdentities[x]
-				    .getPropertyValue(identityElements[i]));
-			} else {
-			    propertyValue = propertyValue
-				    + idSeparator
-				    + escapeStringForCSV(peakIdentities[x]
-					    .getPropertyValue(identityElements[i]));
-			}
-		    }
-		    line.append(propertyValue + fieldSeparator);
-		}
-	    } else if (peakIdentity != null) {
-		for (int i = 0; i < length; i++) {
-		    String propertyValue = escapeStringForCSV(peakIdentity
-			    .getPropertyValue(identityElements[i]));
-		    line.append(propertyValue + fieldSeparator);
-		}
-	    } else {
-		for (int i = 0; i < length; i++) {
-		    line.append(fieldSeparator);
-		}
-	    }
-
-            // Data file elements
-            length = dataFileElements.length;
-            for (RawDataFile dataFile : rawDataFiles) {
-                for (int i = 0; i < length; i++) {
-                    Feature peak = peakListRow.getPeak(dataFile);
-                    if (peak != null) {
-                        switch (dataFileElements[i]) {
-                        case PEAK_STATUS:
-                            line.append(peak.getFeatureStatus()
-                                    + fieldSeparator);
-                            break;
-                        case PEAK_MZ:
-                            line.append(peak.getMZ() + fieldSeparator);
-                            break;
-                        case PEAK_RT:
-                            line.append(peak.getRT() + fieldSeparator);
-                            break;
-                        case PEAK_RT_START:
-                            line.append(peak.getRawDataPointsRTRange()
-                                    .lowerEndpoint() + fieldSeparator);
-                            break;
-                        case PEAK_RT_END:
-                            line.append(peak.getRawDataPointsRTRange()
-                                    .upperEndpoint() + fieldSeparator);
-                            break;
-                        case PEAK_DURATION:
-                            line.append(RangeUtils.rangeLength(peak
-                                    .getRawDataPointsRTRange())
-                                    + fieldSeparator);
-                            break;
-                        case PEAK_HEIGHT:
-                            line.append(peak.getHeight() + fieldSeparator);
-                            break;
-                        case PEAK_AREA:
-                            line.append(peak.getArea() + fieldSeparator);
-                            break;
-                        case PEAK_CHARGE:
-                            line.append(peak.getCharge() + fieldSeparator);
-                            break;
-                        case PEAK_DATAPOINTS:
-                            line.append(peak.getScanNumbers().length
-                                    + fieldSeparator);
-                            break;
-                        case PEAK_FWHM:
-                            line.append(peak.getFWHM() + fieldSeparator);
-                            break;
-                        case PEAK_TAILINGFACTOR:
-                            line.append(peak.getTailingFactor()
-                                    + fieldSeparator);
-                            break;
-                        case PEAK_ASYMMETRYFACTOR:
-                            line.append(peak.getAsymmetryFactor()
-                                    + fieldSeparator);
-                            break;
+        // Identity elements
+        length = identityElements.length;
+        PeakIdentity peakIdentity = peakListRow.getPreferredPeakIdentity();
+        PeakIdentity[] peakIdentities = peakListRow.getPeakIdentities();
 
-                        }
+        if (exportAllIDs && peakIdentities.length > 1) {
+            // Export all identification results
+            for (int i = 0; i < length; i++) {
+                String propertyValue = "";
+                for (int x = 0; x < peakIdentities.length; x++) {
+                    if (x == 0) {
+                        propertyValue = escapeStringForCSV(peakIdentities[x]
+                                .getPropertyValue(identityElements[i]));
                     } else {
-                        switch (dataFileElements[i]) {
-                        case PEAK_STATUS:
-                            line.append(FeatureStatus.UNKNOWN + fieldSeparator);
-                            break;
-                        default:
-                            line.append("0" + fieldSeparator);
-                            break;
-                        }
+                        propertyValue = propertyValue
+                                + idSeparator
+                                + escapeStringForCSV(peakIdentities[x]
+                                        .getPropertyValue(identityElements[i]));
                     }
                 }
+                line.append(propertyValue).append(fieldSeparator);
+            }
+        } else if (peakIdentity != null) {
+            for (int i = 0; i < length; i++) {
+                String propertyValue = escapeStringForCSV(peakIdentity
+                        .getPropertyValue(identityElements[i]));
+                line.append(propertyValue).append(fieldSeparator);
             }
+        } else {
+            for (int i = 0; i < length; i++) {
+                line.append(fieldSeparator);
+            }
+        }
 
-            line.append("\n");
+        // Data file elements
+        length = dataFileElements.length;
+        for (RawDataFile dataFile : rawDataFiles) {
+            for (int i = 0; i < length; i++) {
+                Feature peak = peakListRow.getPeak(dataFile);
+                if (peak != null) {
+                    switch (dataFileElements[i]) {
+                    case PEAK_STATUS:
+                        line.append(peak.getFeatureStatus()).append(
+                                fieldSeparator);
+                        break;
+                    case PEAK_MZ:
+                        line.append(peak.getMZ()).append(fieldSeparator);
+                        break;
+                    case PEAK_RT:
+                        line.append(peak.getRT()).append(fieldSeparator);
+                        break;
+                    case PEAK_RT_START:
+                        line.append(peak.getRawDataPointsRTRange()
+                                .lowerEndpoint()).append(fieldSeparator);
+                        break;
+                    case PEAK_RT_END:
+                        line.append(peak.getRawDataPointsRTRange()
+                                .upperEndpoint()).append(fieldSeparator);
+                        break;
+                    case PEAK_DURATION:
+                        line.append(RangeUtils.rangeLength(peak
+                                .getRawDataPointsRTRange())).append(
+                                fieldSeparator);
+                        break;
+                    case PEAK_HEIGHT:
+                        line.append(peak.getHeight()).append(fieldSeparator);
+                        break;
+                    case PEAK_AREA:
+                        line.append(peak.getArea()).append(fieldSeparator);
+                        break;
+                    case PEAK_CHARGE:
+                        line.append(peak.getCharge()).append(fieldSeparator);
+                        break;
+                    case PEAK_DATAPOINTS:
+                        line.append(peak.getScanNumbers().length).append(
+                                fieldSeparator);
+                        break;
+                    case PEAK_FWHM:
+                        line.append(peak.getFWHM()).append(fieldSeparator);
+                        break;
+                    case PEAK_TAILINGFACTOR:
+                        line.append(peak.getTailingFactor()).append(
+                                fieldSeparator);
+                        break;
+                    case PEAK_ASYMMETRYFACTOR:
+                        line.append(peak.getAsymmetryFactor()).append(
+                                fieldSeparator);
+                        break;
 
-            try {
-                writer.write(line.toString());
-            } catch (Exception e) {
-                setStatus(TaskStatus.ERROR);
-                setErrorMessage("Could not write to file " + fileName);
-                return;
+                    }
+                } else {
+                    switch (dataFileElements[i]) {
+                    case PEAK_STATUS:
+                        line.append(FeatureStatus.UNKNOWN).append(
+                                fieldSeparator);
+                        break;
+                    default:
+                        line.append("0").append(fieldSeparator);
+                        break;
+                    }
+                }
             }
-
-            processedRows++;
         }
+
+        line.append("\n");
     }
 
     private String escapeStringForCSV(final String inputString) {
@@ -322,12 +336,12 @@ class CSVExportTask extends AbstractTask {
 
         // Remove all special characters (particularly \n would mess up our CSV
         // format).
-        String result = inputString.replaceAll("[\\p{Cntrl}]", " ");
+        String result = controlCharacters.matcher(inputString).replaceAll(" ");
 
         // If the text contains fieldSeparator, we will add
         // parenthesis
         if (result.contains(fieldSeparator)) {
-            result = "\"" + result.replaceAll("\"", "'") + "\"";
+            result = "\"" + result.replace('"', '\'') + "\"";
         }
 
         return result;
@@ -20,8 +20,8 @@
 package net.sf.mzmine.modules.peaklistmethods.io.metaboanalystexport;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.text.NumberFormat;
 
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
@@ -34,6 +34,9 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListRowWriter;
+import net.sf.mzmine.util.PeakListRowWriter.RowFormatter;
+import net.sf.mzmine.util.PeakListRowWriter.RowFormatterFactory;
 
 class MetaboAnalystExportTask extends AbstractTask {
 
@@ -41,7 +44,8 @@ class MetaboAnalystExportTask extends AbstractTask {
 
     private final MZmineProject project;
     private final PeakList peakList;
-    private int processedRows = 0, totalRows = 0;
+    private int totalRows = 0;
+    private volatile PeakListRowWriter writer;
 
     // parameter values
     private File fileName;
@@ -62,10 +66,11 @@ class MetaboAnalystExportTask extends AbstractTask {
     }
 
     public double getFinishedPercentage() {
-        if (totalRows == 0) {
+        final PeakListRowWriter rowWriter = writer;
+        if ((totalRows == 0) || (rowWriter == null)) {
             return 0;
         }
-        return (double) processedRows / (double) totalRows;
+        return (double) rowWriter.getWrittenRows() / (double) totalRows;
     }
 
     public String getTaskDescription() {
@@ -89,7 +94,7 @@ class MetaboAnalystExportTask extends AbstractTask {
         try {
 
             // Open file
-            FileWriter writer = new FileWriter(fileName);
+            writer = new PeakListRowWriter(this, fileName);
 
             // Get number of rows
             totalRows = peakList.getNumberOfRows();
@@ -132,13 +137,13 @@ class MetaboAnalystExportTask extends AbstractTask {
         return true;
     }
 
-    private void exportPeakList(PeakList peakList, FileWriter writer)
+    private void exportPeakList(PeakList peakList, PeakListRowWriter writer)
             throws IOException {
 
         final RawDataFile rawDataFiles[] = peakList.getRawDataFiles();
 
         // Buffer for writing
-        StringBuffer line = new StringBuffer();
+        StringBuilder line = new StringBuilder();
 
         // Write sample (raw data file) names
         line.append("\"Sample\"");
@@ -170,20 +175,32 @@ class MetaboAnalystExportTask extends AbstractTask {
         line.append("\n");
         writer.write(line.toString());
 
-        // Write data rows
-        for (PeakListRow peakListRow : peakList.getRows()) {
-
-            // Cancel?
-            if (isCanceled()) {
-                return;
+        // Write data rows, they are formatted in parallel
+        writer.writeRows(peakList.getRows(), new RowFormatterFactory() {
+            public RowFormatter createFormatter() {
+                return new MetaboAnalystRowFormatter();
             }
+        });
+    }
+
+    /**
+     * Formats the rows in one formatting thread, with its own copies of the
+     * number formats
+     */
+    private class MetaboAnalystRowFormatter implements RowFormatter {
+
+        private final RawDataFile rawDataFiles[] = peakList.getRawDataFiles();
+        private final NumberFormat mzFormat = (NumberFormat) MZmineCore
+                .getConfiguration().getMZFormat().clone();
+        private final NumberFormat rtFormat = (NumberFormat) MZmineCore
+                .getConfiguration().getRTFormat().clone();
 
-            // Reset the buffer
-            line.setLength(0);
+        public void formatRow(PeakListRow peakListRow, StringBuilder line) {
 
-            final String rowName = generateUniquePeakListRowName(peakListRow);
+            final String rowName = generateUniquePeakListRowName(peakListRow,
+                    mzFormat, rtFormat);
 
-            line.append("\"" + rowName + "\"");
+            line.append('"').append(rowName).append('"');
 
             for (RawDataFile dataFile : rawDataFiles) {
                 line.append(fieldSeparator);
@@ -191,29 +208,27 @@ class MetaboAnalystExportTask extends AbstractTask {
                 Feature peak = peakListRow.getPeak(dataFile);
                 if (peak != null) {
                     final double area = peak.getArea();
-                    line.append(String.valueOf(area));
+                    line.append(area);
                 }
             }
 
             line.append("\n");
-            writer.write(line.toString());
-
-            processedRows++;
         }
+
     }
 
     /**
      * Generates a unique name for each peak list row
      */
-    private String generateUniquePeakListRowName(PeakListRow row) {
+    private String generateUniquePeakListRowName(PeakListRow row,
+            NumberFormat mzFormat, NumberFormat rtFormat) {
 
         final double mz = row.getAverageMZ();
         final double rt = row.getAverageRT();
         final int rowId = row.getID();
 
-        String generatedName = rowId + ":"
-                + MZmineCore.getConfiguration().getMZFormat().format(mz) + "@"
-                + MZmineCore.getConfiguration().getRTFormat().format(rt);
+        String generatedName = rowId + ":" + mzFormat.format(mz) + "@"
+                + rtFormat.format(rt);
 
         PeakIdentity peakIdentity = row.getPreferredPeakIdentity();
 
@@ -19,9 +19,7 @@
 
 package net.sf.mzmine.modules.peaklistmethods.io.mztabexport;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.net.URL;
 
 import net.sf.mzmine.datamodel.Feature;
@@ -36,6 +34,9 @@ import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.parameters.parametertypes.ComboParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListRowWriter;
+import net.sf.mzmine.util.PeakListRowWriter.RowFormatter;
+import net.sf.mzmine.util.PeakListRowWriter.RowFormatterFactory;
 import uk.ac.ebi.pride.jmztab.model.Assay;
 import uk.ac.ebi.pride.jmztab.model.CVParam;
 import uk.ac.ebi.pride.jmztab.model.MZTabColumnFactory;
@@ -49,7 +50,8 @@ import uk.ac.ebi.pride.jmztab.model.StudyVariable;
 
 class MzTabExportTask extends AbstractTask {
 
-    private int processedRows = 0, totalRows = 0;
+    private int totalRows = 0;
+    private volatile PeakListRowWriter writer;
 
     // parameter values
     private final MZmineProject project;
@@ -68,10 +70,11 @@ class MzTabExportTask extends AbstractTask {
     }
 
     public double getFinishedPercentage() {
-        if (totalRows == 0) {
+        final PeakListRowWriter rowWriter = writer;
+        if ((totalRows == 0) || (rowWriter == null)) {
             return 0;
         }
-        return (double) processedRows / (double) totalRows;
+        return (double) rowWriter.getWrittenRows() / (double) totalRows;
     }
 
     public String getTaskDescription() {
@@ -88,7 +91,7 @@ class MzTabExportTask extends AbstractTask {
             totalRows = peakList.getNumberOfRows();
 
             // Metadata
-            Metadata mtd = new Metadata();
+            final Metadata mtd = new Metadata();
             mtd.setMZTabMode(MZTabDescription.Mode.Summary);
             mtd.setMZTabType(MZTabDescription.Type.Quantification);
             mtd.setDescription(peakList.getName());
@@ -104,7 +107,7 @@ class MzTabExportTask extends AbstractTask {
 		    "No variable modifications searched", null));
 
             // Create stable columns
-            MZTabColumnFactory factory = MZTabColumnFactory
+            final MZTabColumnFactory factory = MZTabColumnFactory
                     .getInstance(Section.Small_Molecule);
             factory.addDefaultStableColumns();
 
@@ -166,100 +169,27 @@ class MzTabExportTask extends AbstractTask {
                 }
             }
 
-            // Write to file
-            FileWriter writer = new FileWriter(fileName);
-            BufferedWriter out = new BufferedWriter(writer);
-            out.write(mtd.toString());
-            out.write("\n");
-            out.write(factory.toString());
-            out.write("\n");
-
-            // Write data rows
-            for (PeakListRow peakListRow : peakList.getRows()) {
-
-                // Cancel?
-                if (isCanceled()) {
-                    return;
-                }
-
-                PeakIdentity peakIdentity = peakListRow
-                        .getPreferredPeakIdentity();
-                if (exportall || peakIdentity != null) {
-                    SmallMolecule sm = new SmallMolecule(factory, mtd);
-                    if (peakIdentity != null) {
-                        // Identity information
-                        String identifier = escapeString(peakIdentity
-                                .getPropertyValue("ID"));
-                        String database = peakIdentity
-                                .getPropertyValue("Identification method");
-                        String formula = peakIdentity
-                                .getPropertyValue("Molecular formula");
-                        String description = escapeString(peakIdentity
-                                .getPropertyValue("Name"));
-                        String url = peakIdentity.getPropertyValue("URL");
-
-                        if (identifier != null) {
-                            sm.setIdentifier(identifier);
-                        }
-                        if (database != null) {
-                            sm.setDatabase(database);
-                        }
-                        if (formula != null) {
-                            sm.setChemicalFormula(formula);
-                        }
-                        if (description != null) {
-                            sm.setDescription(description);
-                        }
-                        if (url != null) {
-                            sm.setURI(url);
-                        }
-                    }
-
-                    Double rowMZ = peakListRow.getAverageMZ();
-                    int rowCharge = peakListRow.getRowCharge();
-                    String rowRT = String.valueOf(peakListRow.getAverageRT());
-
-                    if (rowMZ != null) {
-                        sm.setExpMassToCharge(rowMZ);
-                    }
-                    if (rowCharge > 0) {
-                        sm.setCharge(rowCharge);
-                    }
-                    if (rowRT != null) {
-                        sm.setRetentionTime(rowRT);
-                    }
-
-                    int dataFileCount = 0;
-                    for (RawDataFile dataFile : rawDataFiles) {
-                        dataFileCount++;
-                        Feature peak = peakListRow.getPeak(dataFile);
-                        if (peak != null) {
-                            String peakMZ = String.valueOf(peak.getMZ());
-                            String peakRT = String.valueOf(String.valueOf(peak
-                                    .getRT()));
-                            String peakHeight = String
-                                    .valueOf(peak.getHeight());
-                            Double peakArea = peak.getArea();
-
-                            sm.setOptionColumnValue(new Assay(dataFileCount),
-                                    "peak_mz", peakMZ);
-                            sm.setOptionColumnValue(new Assay(dataFileCount),
-                                    "peak_rt", peakRT);
-                            sm.setOptionColumnValue(new Assay(dataFileCount),
-                                    "peak_height", peakHeight);
-                            sm.setAbundanceColumnValue(
-                                    new Assay(dataFileCount), peakArea);
+            // Write to file. The column factory and metadata are used by all
+            // rows, so the rows are formatted in one thread.
+            writer = new PeakListRowWriter(this, fileName, 1);
+            writer.write(mtd.toString());
+            writer.write("\n");
+            writer.write(factory.toString());
+            writer.write("\n");
+
+            // Write data rows, one small molecule at a time
+            writer.writeRows(peakList.getRows(), new RowFormatterFactory() {
+                public RowFormatter createFormatter() {
+                    return new RowFormatter() {
+                        public void formatRow(PeakListRow peakListRow,
+                                StringBuilder text) {
+                            exportPeakListRow(peakListRow, factory, mtd,
+                                    rawDataFiles, text);
                         }
-                    }
-
-                    out.write(sm.toString());
-                    out.write("\n");
+                    };
                 }
+            });
 
-            }
-
-            out.flush();
-            out.close();
             writer.close();
 
         } catch (Exception e) {
@@ -275,6 +205,89 @@ class MzTabExportTask extends AbstractTask {
 
     }
 
+    /**
+     * Appends the small molecule line of the row, if the row is exported
+     */
+    private void exportPeakListRow(PeakListRow peakListRow,
+            MZTabColumnFactory factory, Metadata mtd,
+            RawDataFile rawDataFiles[], StringBuilder text) {
+
+        PeakIdentity peakIdentity = peakListRow
+                .getPreferredPeakIdentity();
+        if (exportall || peakIdentity != null) {
+            SmallMolecule sm = new SmallMolecule(factory, mtd);
+            if (peakIdentity != null) {
+                // Identity information
+                String identifier = escapeString(peakIdentity
+                        .getPropertyValue("ID"));
+                String database = peakIdentity
+                        .getPropertyValue("Identification method");
+                String formula = peakIdentity
+                        .getPropertyValue("Molecular formula");
+                String description = escapeString(peakIdentity
+                        .getPropertyValue("Name"));
+                String url = peakIdentity.getPropertyValue("URL");
+
+                if (identifier != null) {
+                    sm.setIdentifier(identifier);
+                }
+                if (database != null) {
+                    sm.setDatabase(database);
+                }
+                if (formula != null) {
+                    sm.setChemicalFormula(formula);
+                }
+                if (description != null) {
+                    sm.setDescription(description);
+                }
+                if (url != null) {
+                    sm.setURI(url);
+                }
+            }
+
+            Double rowMZ = peakListRow.getAverageMZ();
+            int rowCharge = peakListRow.getRowCharge();
+            String rowRT = String.valueOf(peakListRow.getAverageRT());
+
+            if (rowMZ != null) {
+                sm.setExpMassToCharge(rowMZ);
+            }
+            if (rowCharge > 0) {
+                sm.setCharge(rowCharge);
+            }
+            if (rowRT != null) {
+                sm.setRetentionTime(rowRT);
+            }
+
+            int dataFileCount = 0;
+            for (RawDataFile dataFile : rawDataFiles) {
+                dataFileCount++;
+                Feature peak = peakListRow.getPeak(dataFile);
+                if (peak != null) {
+                    String peakMZ = String.valueOf(peak.getMZ());
+                    String peakRT = String.valueOf(String.valueOf(peak
+                            .getRT()));
+                    String peakHeight = String
+                            .valueOf(peak.getHeight());
+                    Double peakArea = peak.getArea();
+
+                    sm.setOptionColumnValue(new Assay(dataFileCount),
+                            "peak_mz", peakMZ);
+                    sm.setOptionColumnValue(new Assay(dataFileCount),
+                            "peak_rt", peakRT);
+                    sm.setOptionColumnValue(new Assay(dataFileCount),
+                            "peak_height", peakHeight);
+                    sm.setAbundanceColumnValue(
+                            new Assay(dataFileCount), peakArea);
+                }
+            }
+
+            text.append(sm.toString());
+            text.append("\n");
+        }
+
+    }
+
     private String escapeString(final String inputString) {
 
         if (inputString == null)
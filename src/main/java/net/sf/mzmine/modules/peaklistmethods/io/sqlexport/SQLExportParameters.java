@@ -22,6 +22,7 @@ package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.StringParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
 
@@ -46,9 +47,14 @@ public class SQLExportParameters extends SimpleParameterSet {
             "Export empty peak list",
             "If selected, an empty peak list will be exported with null values for all column other than the rawdatafile and any constant values.");
 
+    public static final IntegerParameter batchSize = new IntegerParameter(
+            "Batch size",
+            "Number of table rows sent to the database at once. Larger batches need fewer round trips to the database server.",
+            1000, 1, null);
+
     public SQLExportParameters() {
         super(new Parameter[] { peakList, connectionString, tableName,
-                exportColumns, emptyExport });
+                exportColumns, emptyExport, batchSize });
     }
 
 }
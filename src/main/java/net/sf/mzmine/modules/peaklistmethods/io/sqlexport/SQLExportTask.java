@@ -20,11 +20,14 @@
 package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 
 import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
@@ -35,38 +38,79 @@ import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
-import net.sf.mzmine.modules.peaklistmethods.io.mztabexport.MzTabExportParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.RangeUtils;
 import net.sf.mzmine.util.ScanUtils;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Exports the peak list into a database table. The values of the table rows
+ * are collected by a separate thread, while the task thread sends them to the
+ * database in batches of given size. PostgreSQL tables are filled using the
+ * COPY command, unless binary (BLOB) columns are exported.
+ */
 class SQLExportTask extends AbstractTask {
 
+    private Logger logger = Logger.getLogger(this.getClass().getName());
+
+    // Marks the end of the table rows in the queue
+    private static final Object[] END_OF_ROWS = new Object[0];
+
+    private static final Charset COPY_CHARSET = Charset.forName("UTF-8");
+
     private final PeakList peakList;
     private final String connectionString;
     private final String tableName;
     private final SQLColumnSettings exportColumns;
     private final boolean emptyExport;
+    private final int batchSize;
 
-    private int processedRows = 0, totalRows = 0;
+    private volatile int processedRows = 0, totalRows = 0;
+
+    // Number of table rows sent to the database, for the export rate
+    private volatile int exportedTableRows = 0;
+    private volatile long startTime = 0, endTime = 0;
+
+    // Values of the table rows, waiting to be sent to the database
+    private final LinkedBlockingQueue<Object[]> tableRows;
+    private volatile Throwable producerError;
 
     private Connection dbConnection;
 
     SQLExportTask(ParameterSet parameters) {
 
-        this.peakList = parameters.getParameter(SQLExportParameters.peakList)
-                .getValue().getMatchingPeakLists()[0];
-        this.connectionString = parameters.getParameter(
-                SQLExportParameters.connectionString).getValue();
+        this(parameters.getParameter(SQLExportParameters.peakList).getValue()
+                .getMatchingPeakLists()[0], parameters.getParameter(
+                SQLExportParameters.connectionString).getValue(), parameters
+                .getParameter(SQLExportParameters.tableName).getValue(),
+                parameters.getParameter(SQLExportParameters.exportColumns)
+                        .getValue(), parameters.getParameter(
+                        SQLExportParameters.emptyExport).getValue(),
+                parameters.getParameter(SQLExportParameters.batchSize)
+                        .getValue());
+
+    }
+
+    SQLExportTask(PeakList peakList, String connectionString,
+            String tableName, SQLColumnSettings exportColumns,
+            boolean emptyExport, Integer batchSize) {
+
+        this.peakList = peakList;
+        this.connectionString = connectionString;
+        this.tableName = tableName;
+        this.exportColumns = exportColumns;
+        this.emptyExport = emptyExport;
+        this.batchSize = ((batchSize == null) || (batchSize < 1)) ? 1
+                : batchSize;
 
-        this.tableName = parameters.getParameter(SQLExportParameters.tableName)
-                .getValue();
-        this.exportColumns = parameters.getParameter(
-                SQLExportParameters.exportColumns).getValue();
-        this.emptyExport = parameters.getParameter(
-                SQLExportParameters.emptyExport).getValue();
+        // Let the row producer run ahead by a few batches
+        this.tableRows = new LinkedBlockingQueue<Object[]>(Math.max(
+                this.batchSize * 4, 1000));
 
     }
 
@@ -78,8 +122,16 @@ class SQLExportTask extends AbstractTask {
     }
 
     public String getTaskDescription() {
-        return "Exporting peak list \"" + peakList + "\" to SQL table "
-                + tableName;
+        String description = "Exporting peak list \"" + peakList
+                + "\" to SQL table " + tableName;
+        final long start = startTime;
+        if ((start == 0) || (System.nanoTime() - start < 1e9))
+            return description;
+        long end = endTime;
+        if (end == 0)
+            end = System.nanoTime();
+        return description + " (" + Math.round(exportedTableRows * 1e9
+                / (end - start)) + " rows/s)";
     }
 
     public void run() {
@@ -97,55 +149,73 @@ class SQLExportTask extends AbstractTask {
             return;
         }
 
-        PeakListRow rows[] = peakList.getRows();
+        // Collect the values of the table rows in a separate thread
+        Runnable producer = TaskMetrics.propagate(new Runnable() {
+            public void run() {
+                produceTableRows();
+            }
+        });
+        Thread producerThread = new Thread(producer, "SQL export of "
+                + peakList);
+        producerThread.setDaemon(true);
 
         try {
             dbConnection.setAutoCommit(false);
 
-            // If select, an empty row with just the raw data file
-            // information will be exported
-            if (rows.length < 1 && emptyExport) {
-                exportPeakListRow(null);
-            } else {
-                for (PeakListRow row : rows) {
-                    if (getStatus() != TaskStatus.PROCESSING)
-                        break;
-                    exportPeakListRow(row);
-                    processedRows++;
-                }
+            startTime = System.nanoTime();
+            producerThread.start();
+
+            if (isCopySupported())
+                copyTableRows();
+            else
+                insertTableRows();
+
+            endTime = System.nanoTime();
+
+            if (producerError != null) {
+                setStatus(TaskStatus.ERROR);
+                setErrorMessage("Error exporting peak list row: "
+                        + producerError.toString());
+                dbConnection.rollback();
+                dbConnection.close();
+                return;
             }
+
             dbConnection.commit();
             dbConnection.close();
-        } catch (SQLException e) {
+        } catch (Exception e) {
             setStatus(TaskStatus.ERROR);
             setErrorMessage("Error running SQL query: " + e.toString());
+            try {
+                dbConnection.close();
+            } catch (SQLException closeError) {
+                logger.fine("Could not close the database connection: "
+                        + closeError);
+            }
             return;
+        } finally {
+            producerThread.interrupt();
         }
 
+        logger.info("Exported " + exportedTableRows + " rows of peak list "
+                + peakList + " to SQL table " + tableName);
+
         if (getStatus() == TaskStatus.PROCESSING)
             setStatus(TaskStatus.FINISHED);
 
     }
 
-    private void exportPeakListRow(PeakListRow row) throws SQLException {
-
-        // Cancel?
-        if (isCanceled()) {
-            return;
-        }
-
-        // Value for looping through raw data files
-        boolean loopDataFiles = false;
+    /**
+     * Sends the table rows to the database using INSERT statements, in
+     * batches of batchSize rows
+     */
+    private void insertTableRows() throws SQLException, InterruptedException {
 
         StringBuilder sql = new StringBuilder();
         sql.append("INSERT INTO ");
         sql.append(tableName);
         sql.append(" (");
-        for (int i = 0; i < exportColumns.getRowCount(); i++) {
-            sql.append(exportColumns.getValueAt(i, 0));
-            if (i < exportColumns.getRowCount() - 1)
-                sql.append(",");
-        }
+        appendColumnNames(sql);
         sql.append(" ) VALUES (");
         for (int i = 0; i < exportColumns.getRowCount(); i++) {
             sql.append("?");
@@ -157,145 +227,365 @@ class SQLExportTask extends AbstractTask {
         PreparedStatement statement = dbConnection.prepareStatement(sql
                 .toString());
 
+        try {
+            int batchRows = 0;
+            Object[] values;
+            while ((values = tableRows.take()) != END_OF_ROWS) {
+
+                // Cancel?
+                if (isCanceled())
+                    return;
+
+                for (int i = 0; i < values.length; i++) {
+                    setValue(statement, i + 1, values[i], getSQLType(i));
+                }
+                statement.addBatch();
+                batchRows++;
+
+                if (batchRows == batchSize) {
+                    statement.executeBatch();
+                    exportedTableRows += batchRows;
+                    batchRows = 0;
+                }
+
+            }
+
+            if (batchRows > 0) {
+                statement.executeBatch();
+                exportedTableRows += batchRows;
+            }
+        } finally {
+            statement.close();
+        }
+
+    }
+
+    /**
+     * Streams the table rows to a PostgreSQL database using the COPY command,
+     * in chunks of batchSize rows
+     */
+    private void copyTableRows() throws Exception {
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("COPY ");
+        sql.append(tableName);
+        sql.append(" (");
+        appendColumnNames(sql);
+        sql.append(") FROM STDIN");
+
+        PGConnection pgConnection = dbConnection.unwrap(PGConnection.class);
+        CopyIn copyIn = pgConnection.getCopyAPI().copyIn(sql.toString());
+
+        try {
+            StringBuilder data = new StringBuilder();
+            int batchRows = 0;
+            Object[] values;
+            while ((values = tableRows.take()) != END_OF_ROWS) {
+
+                // Cancel?
+                if (isCanceled()) {
+                    copyIn.cancelCopy();
+                    return;
+                }
+
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0)
+                        data.append('\t');
+                    appendCopyValue(data, values[i]);
+                }
+                data.append('\n');
+                batchRows++;
+
+                if (batchRows == batchSize) {
+                    writeToCopy(copyIn, data);
+                    exportedTableRows += batchRows;
+                    batchRows = 0;
+                }
+
+            }
+
+            writeToCopy(copyIn, data);
+            copyIn.endCopy();
+            exportedTableRows += batchRows;
+        } finally {
+            if (copyIn.isActive())
+                copyIn.cancelCopy();
+        }
+
+    }
+
+    private void writeToCopy(CopyIn copyIn, StringBuilder data)
+            throws SQLException {
+        byte bytes[] = data.toString().getBytes(COPY_CHARSET);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        data.setLength(0);
+    }
+
+    /**
+     * Appends a value in the text format of the PostgreSQL COPY command
+     */
+    static void appendCopyValue(StringBuilder data, Object value) {
+
+        if (value == null) {
+            data.append("\\N");
+            return;
+        }
+
+        String text = value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '\\':
+                data.append("\\\\");
+                break;
+            case '\t':
+                data.append("\\t");
+                break;
+            case '\n':
+                data.append("\\n");
+                break;
+            case '\r':
+                data.append("\\r");
+                break;
+            default:
+                data.append(c);
+                break;
+            }
+        }
+
+    }
+
+    /**
+     * COPY is used for PostgreSQL databases, unless BLOB values are exported.
+     * The PostgreSQL JDBC driver stores BLOBs as large objects, which COPY
+     * cannot create.
+     */
+    private boolean isCopySupported() throws SQLException {
+        for (int i = 0; i < exportColumns.getRowCount(); i++) {
+            if (getSQLType(i) == Types.BLOB)
+                return false;
+        }
+        return dbConnection.isWrapperFor(PGConnection.class);
+    }
+
+    private void appendColumnNames(StringBuilder sql) {
+        for (int i = 0; i < exportColumns.getRowCount(); i++) {
+            sql.append(exportColumns.getValueAt(i, 0));
+            if (i < exportColumns.getRowCount() - 1)
+                sql.append(",");
+        }
+    }
+
+    /**
+     * Returns the SQL type used for null values of given column
+     */
+    private int getSQLType(int column) {
+        SQLExportDataType dataType = (SQLExportDataType) exportColumns
+                .getValueAt(column, 1);
+        switch (dataType) {
+        case ISOTOPEPATTERN:
+        case MSMS:
+            return Types.BLOB;
+        default:
+            return Types.VARCHAR;
+        }
+    }
+
+    private static void setValue(PreparedStatement statement, int index,
+            Object value, int sqlType) throws SQLException {
+        if (value == null)
+            statement.setNull(index, sqlType);
+        else if (value instanceof Double)
+            statement.setDouble(index, (Double) value);
+        else if (value instanceof Integer)
+            statement.setInt(index, (Integer) value);
+        else if (value instanceof byte[])
+            statement.setBlob(index, new ByteArrayInputStream((byte[]) value));
+        else
+            statement.setString(index, value.toString());
+    }
+
+    /**
+     * Collects the values of all table rows into the queue, followed by
+     * END_OF_ROWS. Runs in a separate thread.
+     */
+    private void produceTableRows() {
+
+        try {
+
+            PeakListRow rows[] = peakList.getRows();
+
+            // If select, an empty row with just the raw data file
+            // information will be exported
+            if (rows.length < 1 && emptyExport) {
+                exportPeakListRow(null);
+            } else {
+                for (PeakListRow row : rows) {
+                    if (getStatus() != TaskStatus.PROCESSING)
+                        break;
+                    exportPeakListRow(row);
+                    processedRows++;
+                }
+            }
+
+        } catch (InterruptedException e) {
+            // The export was stopped
+            return;
+        } catch (Throwable e) {
+            producerError = e;
+        }
+
+        try {
+            tableRows.put(END_OF_ROWS);
+        } catch (InterruptedException e) {
+            // The export was stopped
+        }
+
+    }
+
+    private void exportPeakListRow(PeakListRow row)
+            throws InterruptedException {
+
+        // Cancel?
+        if (isCanceled()) {
+            return;
+        }
+
+        // Value for looping through raw data files
+        boolean loopDataFiles = false;
+
         if (row == null) {
+            Object values[] = new Object[exportColumns.getRowCount()];
             for (int i = 0; i < exportColumns.getRowCount(); i++) {
                 SQLExportDataType dataType = (SQLExportDataType) exportColumns
                         .getValueAt(i, 1);
                 String dataValue = (String) exportColumns.getValueAt(i, 2);
                 switch (dataType) {
                 case CONSTANT:
-                    statement.setString(i + 1, dataValue);
+                    values[i] = dataValue;
                     break;
                 case RAWFILE:
                     RawDataFile rawdatafiles[] = peakList.getRawDataFiles();
-                    statement.setString(i + 1, rawdatafiles[0].getName());
+                    values[i] = rawdatafiles[0].getName();
                     break;
                 default:
-                    statement.setString(i + 1, null);
+                    values[i] = null;
                     break;
                 }
             }
-            statement.executeUpdate();
+            tableRows.put(values);
         }
 
         else {
             for (RawDataFile rawDataFile : row.getRawDataFiles()) {
                 Feature peak = row.getPeak(rawDataFile);
 
+                Object values[] = new Object[exportColumns.getRowCount()];
                 for (int i = 0; i < exportColumns.getRowCount(); i++) {
                     SQLExportDataType dataType = (SQLExportDataType) exportColumns
                             .getValueAt(i, 1);
                     String dataValue = (String) exportColumns.getValueAt(i, 2);
                     switch (dataType) {
                     case CONSTANT:
-                        statement.setString(i + 1, dataValue);
+                        values[i] = dataValue;
                         break;
                     case MZ:
-                        statement.setDouble(i + 1, row.getAverageMZ());
+                        values[i] = row.getAverageMZ();
                         break;
                     case RT:
-                        statement.setDouble(i + 1, row.getAverageRT());
+                        values[i] = row.getAverageRT();
                         break;
                     case ID:
-                        statement.setInt(i + 1, row.getID());
+                        values[i] = row.getID();
                         break;
                     case PEAKCHARGE:
-                        statement.setDouble(i + 1, peak.getCharge());
+                        values[i] = (double) peak.getCharge();
                         loopDataFiles = true;
                         break;
                     case PEAKDURATION:
-                        statement.setDouble(i + 1, RangeUtils.rangeLength(peak
-                                .getRawDataPointsRTRange()));
+                        values[i] = RangeUtils.rangeLength(peak
+                                .getRawDataPointsRTRange());
                         loopDataFiles = true;
                         break;
                     case PEAKSTATUS:
-                        statement.setString(i + 1, peak.getFeatureStatus()
-                                .name());
+                        values[i] = peak.getFeatureStatus().name();
                         loopDataFiles = true;
                         break;
                     case PEAKMZ:
-                        statement.setDouble(i + 1, peak.getMZ());
+                        values[i] = peak.getMZ();
                         loopDataFiles = true;
                         break;
                     case PEAKRT:
-                        statement.setDouble(i + 1, peak.getRT());
+                        values[i] = peak.getRT();
                         loopDataFiles = true;
                         break;
                     case PEAKRT_START:
-                        statement.setDouble(i + 1, peak
-                                .getRawDataPointsRTRange().lowerEndpoint());
+                        values[i] = peak.getRawDataPointsRTRange()
+                                .lowerEndpoint();
                         loopDataFiles = true;
                         break;
                     case PEAKRT_END:
-                        statement.setDouble(i + 1, peak
-                                .getRawDataPointsRTRange().upperEndpoint());
+                        values[i] = peak.getRawDataPointsRTRange()
+                                .upperEndpoint();
                         loopDataFiles = true;
                         break;
                     case PEAKHEIGHT:
-                        statement.setDouble(i + 1, peak.getHeight());
+                        values[i] = peak.getHeight();
                         loopDataFiles = true;
                         break;
                     case PEAKAREA:
-                        statement.setDouble(i + 1, peak.getArea());
+                        values[i] = peak.getArea();
                         loopDataFiles = true;
                         break;
                     case DATAPOINTS:
-                        statement
-                                .setDouble(i + 1, peak.getScanNumbers().length);
+                        values[i] = (double) peak.getScanNumbers().length;
                         loopDataFiles = true;
                         break;
                     case FWHM:
-                        statement.setDouble(i + 1, peak.getFWHM());
+                        values[i] = peak.getFWHM();
                         loopDataFiles = true;
                         break;
                     case TAILINGFACTOR:
-                        statement.setDouble(i + 1, peak.getTailingFactor());
+                        values[i] = peak.getTailingFactor();
                         loopDataFiles = true;
                         break;
                     case ASYMMETRYFACTOR:
-                        statement.setDouble(i + 1, peak.getAsymmetryFactor());
+                        values[i] = peak.getAsymmetryFactor();
                         loopDataFiles = true;
                         break;
                     case RAWFILE:
-                        statement.setString(i + 1, rawDataFile.getName());
+                        values[i] = rawDataFile.getName();
                         loopDataFiles = true;
                         break;
                     case HEIGHT:
-                        statement.setDouble(i + 1, row.getAverageHeight());
+                        values[i] = row.getAverageHeight();
                         break;
                     case AREA:
-                        statement.setDouble(i + 1, row.getAverageArea());
+                        values[i] = row.getAverageArea();
                         break;
                     case COMMENT:
-                        statement.setString(i + 1, row.getComment());
+                        values[i] = row.getComment();
                         break;
                     case IDENTITY:
                         PeakIdentity id = row.getPreferredPeakIdentity();
                         if (id != null) {
-                            statement.setString(i + 1, id.getName());
-                        } else {
-                            statement.setNull(i + 1, Types.VARCHAR);
+                            values[i] = id.getName();
                         }
                         break;
                     case ISOTOPEPATTERN:
                         IsotopePattern isotopes = row.getBestIsotopePattern();
                         if (isotopes == null) {
-                            statement.setNull(i + 1, Types.BLOB);
                             break;
                         }
                         DataPoint dataPoints[] = isotopes.getDataPoints();
-                        byte bytes[] = ScanUtils
+                        values[i] = ScanUtils
                                 .encodeDataPointsToBytes(dataPoints);
-                        ByteArrayInputStream is = new ByteArrayInputStream(
-                                bytes);
-                        statement.setBlob(i + 1, is);
                         break;
                     case MSMS:
                         int msmsScanNum = row.getBestPeak()
                                 .getMostIntenseFragmentScanNumber();
                         // Check if there is any MS/MS scan
                         if (msmsScanNum <= 0) {
-                            statement.setNull(i + 1, Types.BLOB);
                             break;
                         }
                         RawDataFile dataFile = row.getBestPeak().getDataFile();
@@ -303,19 +593,17 @@ class SQLExportTask extends AbstractTask {
                         MassList msmsMassList = msmsScan.getMassList(dataValue);
                         // Check if there is a masslist for the scan
                         if (msmsMassList == null) {
-                            statement.setNull(i + 1, Types.BLOB);
                             break;
                         }
                         dataPoints = msmsMassList.getDataPoints();
-                        bytes = ScanUtils.encodeDataPointsToBytes(dataPoints);
-                        is = new ByteArrayInputStream(bytes);
-                        statement.setBlob(i + 1, is);
+                        values[i] = ScanUtils
+                                .encodeDataPointsToBytes(dataPoints);
                         break;
                     default:
                         break;
                     }
                 }
-                statement.executeUpdate();
+                tableRows.put(values);
 
                 // If no data file elements are selected then don't loop through
                 // all
@@ -20,6 +20,8 @@
 package net.sf.mzmine.modules.peaklistmethods.peakpicking.peakextender;
 
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.DataPoint;
@@ -37,7 +39,9 @@ import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelRowExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.PeakSorter;
 import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.ScanUtils;
@@ -53,8 +57,9 @@ public class PeakExtenderTask extends AbstractTask {
     private final MZmineProject project;
     private PeakList peakList, extendedPeakList;
 
-    // peaks counter
-    private int processedPeaks, totalPeaks;
+    // Processes the rows of the peaks, counting the processed peaks
+    private final ParallelRowExecutor rowExecutor = new ParallelRowExecutor(
+	    this);
 
     // Parameters
     private MZTolerance mzTolerance;
@@ -92,9 +97,7 @@ public class PeakExtenderTask extends AbstractTask {
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-	if (totalPeaks == 0)
-	    return 0.0;
-	return (double) processedPeaks / (double) totalPeaks;
+	return rowExecutor.getFinishedPercentage();
     }
 
     /**
@@ -106,44 +109,45 @@ public class PeakExtenderTask extends AbstractTask {
 	logger.info("Running peak extender on " + peakList);
 
 	// We assume source peakList contains one datafile
-	RawDataFile dataFile = peakList.getRawDataFile(0);
+	final RawDataFile dataFile = peakList.getRawDataFile(0);
 
 	// Create a new deisotoped peakList
 	extendedPeakList = new SimplePeakList(peakList + " " + suffix,
 		peakList.getRawDataFiles());
 
 	// Sort peaks by descending height
-	Feature[] sortedPeaks = peakList.getPeaks(dataFile);
+	final Feature[] sortedPeaks = peakList.getPeaks(dataFile);
 	Arrays.sort(sortedPeaks, new PeakSorter(SortingProperty.Height,
 		SortingDirection.Descending));
 
-	// Loop through all peaks
-	totalPeaks = sortedPeaks.length;
-	Feature oldPeak;
-
-	for (int ind = 0; ind < totalPeaks; ind++) {
-
-	    if (isCanceled())
+	// Rows of the peaks, in the same order
+	Map<Feature, PeakListRow> peakRows = new IdentityHashMap<>();
+	for (PeakListRow row : peakList.getRows()) {
+	    Feature peak = row.getPeak(dataFile);
+	    if ((peak != null) && (!peakRows.containsKey(peak)))
+		peakRows.put(peak, row);
+	}
+	PeakListRow sortedRows[] = new PeakListRow[sortedPeaks.length];
+	for (int ind = 0; ind < sortedPeaks.length; ind++)
+	    sortedRows[ind] = peakRows.get(sortedPeaks[ind]);
+
+	// Loop through all peaks, extending them in parallel
+	try {
+	    boolean finished = rowExecutor.processRows(sortedRows,
+		    new ParallelRowExecutor.RowFunction<PeakListRow>() {
+			@Override
+			public PeakListRow processRow(final int index,
+				final PeakListRow oldRow) {
+			    return extendRow(oldRow, sortedPeaks[index],
+				    dataFile);
+			}
+		    }, extendedPeakList);
+	    if (!finished)
 		return;
-
-	    oldPeak = sortedPeaks[ind];
-
-	    if (oldPeak.getHeight() >= minimumHeight) {
-		Feature newPeak = this.getExtendedPeak(oldPeak);
-		// Get previous pekaListRow
-		PeakListRow oldRow = peakList.getPeakRow(oldPeak);
-
-		// keep old ID
-		int oldID = oldRow.getID();
-		SimplePeakListRow newRow = new SimplePeakListRow(oldID);
-		PeakUtils.copyPeakListRowProperties(oldRow, newRow);
-		newRow.addPeak(dataFile, newPeak);
-		extendedPeakList.addRow(newRow);
-	    }
-
-	    // Update completion rate
-	    processedPeaks++;
-
+	} catch (Exception e) {
+	    setStatus(TaskStatus.ERROR);
+	    setErrorMessage(ExceptionUtils.exceptionToString(e));
+	    return;
 	}
 
 	// Add new peakList to the project
@@ -171,6 +175,27 @@ public class PeakExtenderTask extends AbstractTask {
 
     }
 
+    /**
+     * Creates a new row with the extended peak, keeping the ID of the old row,
+     * or returns null if the peak is below the minimum height
+     */
+    private PeakListRow extendRow(PeakListRow oldRow, Feature oldPeak,
+	    RawDataFile dataFile) {
+
+	if (oldPeak.getHeight() < minimumHeight)
+	    return null;
+
+	Feature newPeak = this.getExtendedPeak(oldPeak);
+
+	// keep old ID
+	int oldID = oldRow.getID();
+	SimplePeakListRow newRow = new SimplePeakListRow(oldID);
+	PeakUtils.copyPeakListRowProperties(oldRow, newRow);
+	newRow.addPeak(dataFile, newPeak);
+	return newRow;
+
+    }
+
     private Feature getExtendedPeak(Feature oldPeak) {
 
 	double maxHeight = oldPeak.getHeight();
@@ -41,6 +41,7 @@ import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelRowExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 
 import com.google.common.collect.Range;
@@ -66,8 +67,9 @@ public class SmoothingTask extends AbstractTask {
     private final boolean removeOriginal;
     private final int filterWidth;
 
-    private int progress;
-    private final int progressMax;
+    // Processes the rows, counting the processed rows.
+    private final ParallelRowExecutor rowExecutor = new ParallelRowExecutor(
+	    this);
 
     /**
      * Create the task.
@@ -83,8 +85,6 @@ public class SmoothingTask extends AbstractTask {
 	// Initialize.
 	this.project = project;
 	origPeakList = peakList;
-	progress = 0;
-	progressMax = peakList.getNumberOfRows();
 
 	// Parameters.
 	parameters = smoothingParameters;
@@ -102,8 +102,7 @@ public class SmoothingTask extends AbstractTask {
 
     @Override
     public double getFinishedPercentage() {
-	return progressMax == 0 ? 0.0 : (double) progress
-		/ (double) progressMax;
+	return rowExecutor.getFinishedPercentage();
     }
 
     @Override
@@ -119,123 +118,16 @@ public class SmoothingTask extends AbstractTask {
 	    // Create new peak list
 	    newPeakList = new SimplePeakList(origPeakList + " " + suffix,
 		    origPeakList.getRawDataFiles());
-	    int peakID = 1;
-
-	    // Process each row.
-	    for (final PeakListRow row : origPeakList.getRows()) {
-
-		if (!isCanceled()) {
-
-		    // Create a new peak-list row.
-		    final PeakListRow newRow = new SimplePeakListRow(peakID++);
-
-		    // Process each peak.
-		    for (final Feature peak : row.getPeaks()) {
-
-			if (!isCanceled()) {
-
-			    // Copy original peak intensities.
-			    final int[] scanNumbers = peak.getScanNumbers();
-			    final int numScans = scanNumbers.length;
-			    final double[] intensities = new double[numScans];
-			    for (int i = 0; i < numScans; i++) {
-
-				final DataPoint dataPoint = peak
-					.getDataPoint(scanNumbers[i]);
-				intensities[i] = dataPoint == null ? 0.0
-					: dataPoint.getIntensity();
-			    }
-
-			    // Smooth peak.
-			    final double[] smoothed = convolve(intensities,
-				    filterWeights);
-
-			    // Measure peak (max, ranges, area etc.)
-			    final RawDataFile dataFile = peak.getDataFile();
-			    final DataPoint[] newDataPoints = new DataPoint[numScans];
-			    double maxIntensity = 0.0;
-			    int maxScanNumber = -1;
-			    DataPoint maxDataPoint = null;
-			    Range<Double> intensityRange = null;
-			    double area = 0.0;
-			    for (int i = 0; i < numScans; i++) {
-
-				final int scanNumber = scanNumbers[i];
-				final DataPoint dataPoint = peak
-					.getDataPoint(scanNumber);
-				final double intensity = smoothed[i];
-				if (dataPoint != null && intensity > 0.0) {
-
-				    // Create a new data point.
-				    final double mz = dataPoint.getMZ();
-				    final double rt = dataFile.getScan(
-					    scanNumber).getRetentionTime();
-				    final DataPoint newDataPoint = new SimpleDataPoint(
-					    mz, intensity);
-				    newDataPoints[i] = newDataPoint;
-
-				    // Track maximum intensity data point.
-				    if (intensity > maxIntensity) {
-
-					maxIntensity = intensity;
-					maxScanNumber = scanNumber;
-					maxDataPoint = newDataPoint;
-				    }
-
-				    // Update ranges.
-				    if (intensityRange == null) {
-					intensityRange = Range
-						.singleton(intensity);
-				    } else {
-					intensityRange = intensityRange
-						.span(Range
-							.singleton(intensity));
-				    }
-
-				    // Accumulate peak area.
-				    if (i != 0) {
-
-					final DataPoint lastDP = newDataPoints[i - 1];
-					final double lastIntensity = lastDP == null ? 0.0
-						: lastDP.getIntensity();
-					final double lastRT = dataFile.getScan(
-						scanNumbers[i - 1])
-						.getRetentionTime();
-					area += (rt - lastRT)
-						* (intensity + lastIntensity)
-						/ 2.0;
-				    }
-				}
-			    }
-
-			    assert maxDataPoint != null;
-
-			    if (!isCanceled() && maxScanNumber >= 0) {
-
-				// Create a new peak.
-				newRow.addPeak(
-					dataFile,
-					new SimpleFeature(
-						dataFile,
-						maxDataPoint.getMZ(),
-						peak.getRT(),
-						maxIntensity,
-						area,
-						scanNumbers,
-						newDataPoints,
-						peak.getFeatureStatus(),
-						maxScanNumber,
-						peak.getMostIntenseFragmentScanNumber(),
-						peak.getRawDataPointsRTRange(),
-						peak.getRawDataPointsMZRange(),
-						intensityRange));
-			    }
+
+	    // Process each row, numbering the new rows in the original order.
+	    rowExecutor.processRows(origPeakList.getRows(),
+		    new ParallelRowExecutor.RowFunction<PeakListRow>() {
+			@Override
+			public PeakListRow processRow(final int index,
+				final PeakListRow row) {
+			    return smoothRow(row, index + 1, filterWeights);
 			}
-		    }
-		    newPeakList.addRow(newRow);
-		    progress++;
-		}
-	    }
+		    }, newPeakList);
 
 	    // Finish up.
 	    if (!isCanceled()) {
@@ -264,7 +156,8 @@ public class SmoothingTask extends AbstractTask {
 				"Peaks smoothed by Savitzky-Golay filter",
 				parameters));
 
-		LOG.finest("Finished peak smoothing: " + progress
+		LOG.finest("Finished peak smoothing: "
+			+ rowExecutor.getProcessedRows()
 			+ " rows processed");
 
 		setStatus(TaskStatus.FINISHED);
@@ -277,6 +170,130 @@ public class SmoothingTask extends AbstractTask {
 	}
     }
 
+    /**
+     * Smooth the peaks of a peak-list row.
+     *
+     * @param row
+     *            the row to smooth.
+     * @param rowID
+     *            ID of the new row.
+     * @param filterWeights
+     *            the filter weights.
+     * @return the new row with the smoothed peaks.
+     */
+    private PeakListRow smoothRow(final PeakListRow row, final int rowID,
+	    final double[] filterWeights) {
+
+	// Create a new peak-list row.
+	final PeakListRow newRow = new SimplePeakListRow(rowID);
+
+	// Process each peak.
+	for (final Feature peak : row.getPeaks()) {
+
+	    if (!isCanceled()) {
+
+		// Copy original peak intensities.
+		final int[] scanNumbers = peak.getScanNumbers();
+		final int numScans = scanNumbers.length;
+		final double[] intensities = new double[numScans];
+		for (int i = 0; i < numScans; i++) {
+
+		    final DataPoint dataPoint = peak
+			    .getDataPoint(scanNumbers[i]);
+		    intensities[i] = dataPoint == null ? 0.0
+			    : dataPoint.getIntensity();
+		}
+
+		// Smooth peak.
+		final double[] smoothed = convolve(intensities,
+			filterWeights);
+
+		// Measure peak (max, ranges, area etc.)
+		final RawDataFile dataFile = peak.getDataFile();
+		final DataPoint[] newDataPoints = new DataPoint[numScans];
+		double maxIntensity = 0.0;
+		int maxScanNumber = -1;
+		DataPoint maxDataPoint = null;
+		Range<Double> intensityRange = null;
+		double area = 0.0;
+		for (int i = 0; i < numScans; i++) {
+
+		    final int scanNumber = scanNumbers[i];
+		    final DataPoint dataPoint = peak
+			    .getDataPoint(scanNumber);
+		    final double intensity = smoothed[i];
+		    if (dataPoint != null && intensity > 0.0) {
+
+			// Create a new data point.
+			final double mz = dataPoint.getMZ();
+			final double rt = dataFile.getScan(
+				scanNumber).getRetentionTime();
+			final DataPoint newDataPoint = new SimpleDataPoint(
+				mz, intensity);
+			newDataPoints[i] = newDataPoint;
+
+			// Track maximum intensity data point.
+			if (intensity > maxIntensity) {
+
+			    maxIntensity = intensity;
+			    maxScanNumber = scanNumber;
+			    maxDataPoint = newDataPoint;
+			}
+
+			// Update ranges.
+			if (intensityRange == null) {
+			    intensityRange = Range
+				    .singleton(intensity);
+			} else {
+			    intensityRange = intensityRange
+				    .span(Range
+					    .singleton(intensity));
+			}
+
+			// Accumulate peak area.
+			if (i != 0) {
+
+			    final DataPoint lastDP = newDataPoints[i - 1];
+			    final double lastIntensity = lastDP == null ? 0.0
+				    : lastDP.getIntensity();
+			    final double lastRT = dataFile.getScan(
+				    scanNumbers[i - 1])
+				    .getRetentionTime();
+			    area += (rt - lastRT)
+				    * (intensity + lastIntensity)
+				    / 2.0;
+			}
+		    }
+		}
+
+		assert maxDataPoint != null;
+
+		if (!isCanceled() && maxScanNumber >= 0) {
+
+		    // Create a new peak.
+		    newRow.addPeak(
+			    dataFile,
+			    new SimpleFeature(
+				    dataFile,
+				    maxDataPoint.getMZ(),
+				    peak.getRT(),
+				    maxIntensity,
+				    area,
+				    scanNumbers,
+				    newDataPoints,
+				    peak.getFeatureStatus(),
+				    maxScanNumber,
+				    peak.getMostIntenseFragmentScanNumber(),
+				    peak.getRawDataPointsRTRange(),
+				    peak.getRawDataPointsMZRange(),
+				    intensityRange));
+		}
+	    }
+	}
+
+	return newRow;
+    }
+
     /**
      * Convolve a set of weights with a set of intensities.
      *
@@ -22,6 +22,7 @@ package net.sf.mzmine.modules.peaklistmethods.qualityparameters;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.CompactFeature;
 
 /**
  * Calculates quality parameters for each peak in a peak list: - Full width at
@@ -32,47 +33,52 @@ public class QualityParameters {
     public static void calculateQualityParameters(PeakList peakList) {
 
         Feature peak;
-        double height, rt;
 
         for (int i = 0; i < peakList.getNumberOfRows(); i++) {
             for (int x = 0; x < peakList.getNumberOfRawDataFiles(); x++) {
 
                 peak = peakList.getPeak(i, peakList.getRawDataFile(x));
-                if (peak != null) {
-                    height = peak.getHeight();
-                    rt = peak.getRT();
-
-                    // FWHM
-                    double rtValues[] = PeakFindRTs(height / 2, rt, peak);
-                    Double fwhm = rtValues[1] - rtValues[0];
-                    if (fwhm <= 0 || Double.isNaN(fwhm) || Double.isInfinite(fwhm)) {
-                        fwhm = null;
-                    }
-                    peak.setFWHM(fwhm);
-
-                    // Tailing Factor - TF
-                    double rtValues2[] = PeakFindRTs(height * 0.05, rt, peak);
-                    Double tf = (rtValues2[1] - rtValues2[0])
-                            / (2 * (rt - rtValues2[0]));
-                    if (tf <= 0 || Double.isNaN(tf) || Double.isInfinite(tf)) {
-                        tf = null;
-                    }
-                    peak.setTailingFactor(tf);
-
-                    // Asymmetry factor - AF
-                    double rtValues3[] = PeakFindRTs(height * 0.1, rt, peak);
-                    Double af = (rtValues3[1] - rt) / (rt - rtValues3[0]);
-                    if (af <= 0 || Double.isNaN(af) || Double.isInfinite(af)) {
-                        af = null;
-                    }
-                    peak.setAsymmetryFactor(af);
 
-                }
+                // Compact peaks calculate their parameters on request
+                if ((peak != null) && (!(peak instanceof CompactFeature)))
+                    calculateQualityParameters(peak);
             }
         }
 
     }
 
+    public static void calculateQualityParameters(Feature peak) {
+
+        double height = peak.getHeight();
+        double rt = peak.getRT();
+
+        // FWHM
+        double rtValues[] = PeakFindRTs(height / 2, rt, peak);
+        Double fwhm = rtValues[1] - rtValues[0];
+        if (fwhm <= 0 || Double.isNaN(fwhm) || Double.isInfinite(fwhm)) {
+            fwhm = null;
+        }
+        peak.setFWHM(fwhm);
+
+        // Tailing Factor - TF
+        double rtValues2[] = PeakFindRTs(height * 0.05, rt, peak);
+        Double tf = (rtValues2[1] - rtValues2[0])
+                / (2 * (rt - rtValues2[0]));
+        if (tf <= 0 || Double.isNaN(tf) || Double.isInfinite(tf)) {
+            tf = null;
+        }
+        peak.setTailingFactor(tf);
+
+        // Asymmetry factor - AF
+        double rtValues3[] = PeakFindRTs(height * 0.1, rt, peak);
+        Double af = (rtValues3[1] - rt) / (rt - rtValues3[0]);
+        if (af <= 0 || Double.isNaN(af) || Double.isInfinite(af)) {
+            af = null;
+        }
+        peak.setAsymmetryFactor(af);
+
+    }
+
     private static double[] PeakFindRTs(double intensity, double rt, Feature peak) {
 
         double x1 = 0, x2 = 0, x3 = 0, x4 = 0, y1 = 0, y2 = 0, y3 = 0, y4 = 0,
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import static net.sf.mzmine.modules.projectmethods.projectsave.PeakListBinaryFormat.readString;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
+import net.sf.mzmine.datamodel.impl.CompactFeature;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
+import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.projectsave.PeakListBinaryFormat;
+
+/**
+ * Loads a peak list from the binary container described in
+ * PeakListBinaryFormat. Sections unknown to this version are skipped.
+ */
+public class PeakListBinaryOpenHandler implements PeakListOpenHandler {
+
+    private Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private Hashtable<String, RawDataFile> dataFilesIDMap;
+
+    // Retention times of the scans of each raw data file, read once instead
+    // of once per data point
+    private final HashMap<RawDataFile, double[]> retentionTimesMap = new HashMap<>();
+
+    private PeakList buildingPeakList;
+    private ArrayList<PeakListRow> loadedRows;
+    private FeatureStatus featureStatuses[];
+
+    // Set by the LAYOUT section; the rows of a columnar peak list are added
+    // to it as soon as they are read
+    private boolean columnar;
+
+    // Sections of the block currently being read
+    private ByteBuffer rowsSection, featuresSection, dataPointsSection,
+	    identitiesSection, isotopePatternsSection;
+
+    private int parsedRows, totalRows;
+
+    private boolean canceled = false;
+
+    public PeakListBinaryOpenHandler(
+	    Hashtable<String, RawDataFile> dataFilesIDMap) {
+	this.dataFilesIDMap = dataFilesIDMap;
+    }
+
+    /**
+     * Load the peak list from the binary peak list entry
+     */
+    public PeakList readPeakList(InputStream peakListStream)
+	    throws IOException {
+
+	readSections(peakListStream, false);
+
+	for (PeakListRow row : loadedRows)
+	    buildingPeakList.addRow(row);
+	loadedRows = null;
+
+	return buildingPeakList;
+
+    }
+
+    /**
+     * Load only the header of the peak list: name, creation date, raw data
+     * files and applied methods. The returned peak list has no rows, except
+     * for a peak list saved as ColumnarPeakList, which is compact enough to be
+     * loaded completely.
+     */
+    public PeakList readPeakListHeader(InputStream peakListStream)
+	    throws IOException {
+
+	readSections(peakListStream, true);
+
+	return buildingPeakList;
+
+    }
+
+    /**
+     * Load the rows of the peak list from the binary peak list entry
+     */
+    public List<PeakListRow> readPeakListRows(InputStream peakListStream)
+	    throws IOException {
+
+	readSections(peakListStream, false);
+
+	List<PeakListRow> rows = loadedRows;
+	loadedRows = null;
+	return rows;
+
+    }
+
+    /**
+     * @return number of rows of the peak list, once its header was read
+     */
+    public int getNumberOfRows() {
+	return totalRows;
+    }
+
+    private void readSections(InputStream peakListStream, boolean headerOnly)
+	    throws IOException {
+
+	totalRows = 0;
+	parsedRows = 0;
+	buildingPeakList = null;
+	loadedRows = new ArrayList<PeakListRow>();
+	columnar = false;
+
+	DataInputStream in = new DataInputStream(new BufferedInputStream(
+		peakListStream, 1 << 16));
+
+	if (in.readInt() != PeakListBinaryFormat.MAGIC)
+	    throw new IOException("Invalid peak list data");
+
+	final int formatVersion = in.readInt();
+	final int minReaderVersion = in.readInt();
+	if (minReaderVersion > PeakListBinaryFormat.FORMAT_VERSION) {
+	    throw new IOException("The peak list was saved in format version "
+		    + formatVersion + ", which cannot be read by this version");
+	}
+
+	while (true) {
+
+	    if (canceled)
+		throw new IOException("Loading canceled");
+
+	    final int sectionID, sectionLength;
+	    try {
+		sectionID = in.readInt();
+		sectionLength = in.readInt();
+	    } catch (EOFException e) {
+		throw new IOException("Truncated peak list data");
+	    }
+
+	    if (sectionID == PeakListBinaryFormat.SECTION_END)
+		break;
+
+	    byte sectionData[] = new byte[sectionLength];
+	    in.readFully(sectionData);
+	    ByteBuffer section = ByteBuffer.wrap(sectionData);
+
+	    try {
+		switch (sectionID) {
+		case PeakListBinaryFormat.SECTION_LAYOUT:
+		    columnar = (section.getInt() == PeakListBinaryFormat
+			    .LAYOUT_COLUMNAR);
+		    break;
+		case PeakListBinaryFormat.SECTION_HEADER:
+		    readHeader(section);
+		    if (headerOnly && !columnar)
+			return;
+		    break;
+		case PeakListBinaryFormat.SECTION_ROWS:
+		    finishBlock();
+		    rowsSection = section;
+		    break;
+		case PeakListBinaryFormat.SECTION_FEATURES:
+		    featuresSection = section;
+		    break;
+		case PeakListBinaryFormat.SECTION_DATA_POINTS:
+		    dataPointsSection = section;
+		    break;
+		case PeakListBinaryFormat.SECTION_IDENTITIES:
+		    identitiesSection = section;
+		    break;
+		case PeakListBinaryFormat.SECTION_ISOTOPE_PATTERNS:
+		    isotopePatternsSection = section;
+		    break;
+		default:
+		    // Section added in a newer format version
+		    logger.finest("Skipping unknown peak list section "
+			    + sectionID);
+		}
+	    } catch (BufferUnderflowException e) {
+		throw new IOException("Truncated peak list section "
+			+ sectionID);
+	    }
+	}
+
+	try {
+	    finishBlock();
+	} catch (BufferUnderflowException e) {
+	    throw new IOException("Truncated peak list section");
+	}
+
+	if (buildingPeakList == null)
+	    throw new IOException("Missing peak list header");
+
+    }
+
+    /**
+     * @return the progress of loading the peak list
+     */
+    public double getProgress() {
+	if (totalRows == 0)
+	    return 0;
+	return (double) parsedRows / totalRows;
+    }
+
+    public void cancel() {
+	canceled = true;
+    }
+
+    private void readHeader(ByteBuffer section) throws IOException {
+
+	final String peakListName = readString(section);
+	final String dateCreated = readString(section);
+	totalRows = section.getInt();
+
+	final int numOfMethods = section.getInt();
+	SimplePeakListAppliedMethod methods[] = new SimplePeakListAppliedMethod[numOfMethods];
+	for (int i = 0; i < numOfMethods; i++) {
+	    String methodName = readString(section);
+	    String methodParams = readString(section);
+	    methods[i] = new SimplePeakListAppliedMethod(methodName,
+		    methodParams);
+	}
+
+	final int numOfDataFiles = section.getInt();
+	RawDataFile dataFiles[] = new RawDataFile[numOfDataFiles];
+	for (int i = 0; i < numOfDataFiles; i++)
+	    dataFiles[i] = getDataFile(section.getInt());
+
+	final int numOfStatuses = section.getInt();
+	featureStatuses = new FeatureStatus[numOfStatuses];
+	for (int i = 0; i < numOfStatuses; i++) {
+	    String statusName = readString(section);
+	    try {
+		featureStatuses[i] = FeatureStatus.valueOf(statusName);
+	    } catch (IllegalArgumentException e) {
+		featureStatuses[i] = FeatureStatus.UNKNOWN;
+	    }
+	}
+
+	logger.info("Loading peak list: " + peakListName);
+
+	if (columnar) {
+	    ColumnarPeakList columnarPeakList = new ColumnarPeakList(
+		    peakListName, dataFiles);
+	    columnarPeakList.setDateCreated(dateCreated);
+	    buildingPeakList = columnarPeakList;
+	} else {
+	    SimplePeakList simplePeakList = new SimplePeakList(peakListName,
+		    dataFiles);
+	    simplePeakList.setDateCreated(dateCreated);
+	    buildingPeakList = simplePeakList;
+	}
+	for (SimplePeakListAppliedMethod method : methods)
+	    buildingPeakList.addDescriptionOfAppliedTask(method);
+    }
+
+    /**
+     * Creates the rows of the block whose sections were read
+     */
+    private void finishBlock() throws IOException {
+
+	if (rowsSection == null)
+	    return;
+
+	if (buildingPeakList == null)
+	    throw new IOException("Missing peak list header");
+
+	if ((featuresSection == null) || (dataPointsSection == null))
+	    throw new IOException("Incomplete peak list block");
+
+	// Rows
+	final ByteBuffer rowsData = rowsSection;
+	final int numOfRows = rowsData.getInt();
+	SimplePeakListRow rows[] = new SimplePeakListRow[numOfRows];
+	for (int i = 0; i < numOfRows; i++)
+	    rows[i] = new SimplePeakListRow(rowsData.getInt());
+	for (int i = 0; i < numOfRows; i++)
+	    rows[i].setComment(readString(rowsData));
+	int numOfPeaks[] = new int[numOfRows];
+	for (int i = 0; i < numOfRows; i++)
+	    numOfPeaks[i] = rowsData.getInt();
+
+	// Features
+	final ByteBuffer featuresData = featuresSection;
+	final int numOfFeatures = featuresData.getInt();
+	int columns[] = new int[numOfFeatures];
+	double mz[] = new double[numOfFeatures];
+	double rt[] = new double[numOfFeatures];
+	double height[] = new double[numOfFeatures];
+	double area[] = new double[numOfFeatures];
+	byte status[] = new byte[numOfFeatures];
+	int charge[] = new int[numOfFeatures];
+	int representativeScan[] = new int[numOfFeatures];
+	int fragmentScan[] = new int[numOfFeatures];
+	int numOfScans[] = new int[numOfFeatures];
+	readInts(featuresData, columns);
+	readDoubles(featuresData, mz);
+	readDoubles(featuresData, rt);
+	readDoubles(featuresData, height);
+	readDoubles(featuresData, area);
+	featuresData.get(status);
+	readInts(featuresData, charge);
+	readInts(featuresData, representativeScan);
+	readInts(featuresData, fragmentScan);
+	readInts(featuresData, numOfScans);
+
+	// Data points
+	final ByteBuffer dataPointsData = dataPointsSection;
+	final int numOfDataPoints = dataPointsData.getInt();
+	int scanNumbers[] = new int[numOfDataPoints];
+	float dataPointMZ[] = new float[numOfDataPoints];
+	float dataPointIntensity[] = new float[numOfDataPoints];
+	readInts(dataPointsData, scanNumbers);
+	readFloats(dataPointsData, dataPointMZ);
+	readFloats(dataPointsData, dataPointIntensity);
+
+	int featureIndex = 0, dataPointIndex = 0;
+	for (int i = 0; i < numOfRows; i++) {
+
+	    if (canceled)
+		throw new IOException("Loading canceled");
+
+	    for (int j = 0; j < numOfPeaks[i]; j++, featureIndex++) {
+
+		final int start = dataPointIndex;
+		dataPointIndex += numOfScans[featureIndex];
+		RawDataFile dataFile = getDataFile(columns[featureIndex]);
+		double retentionTimes[] = getRetentionTimes(dataFile);
+
+		double rtMin = Double.MAX_VALUE, rtMax = -Double.MAX_VALUE;
+		for (int k = start; k < dataPointIndex; k++) {
+		    final int scanNumber = scanNumbers[k];
+		    if ((scanNumber < 0)
+			    || (scanNumber >= retentionTimes.length)
+			    || Double.isNaN(retentionTimes[scanNumber]))
+			throw new IOException("Scan " + scanNumber
+				+ " of a peak is missing in raw data file "
+				+ dataFile);
+		    rtMin = Math.min(rtMin, retentionTimes[scanNumber]);
+		    rtMax = Math.max(rtMax, retentionTimes[scanNumber]);
+		}
+
+		final int statusIndex = status[featureIndex];
+		FeatureStatus peakStatus = FeatureStatus.UNKNOWN;
+		if ((statusIndex >= 0) && (statusIndex < featureStatuses.length))
+		    peakStatus = featureStatuses[statusIndex];
+
+		CompactFeature peak = new CompactFeature(dataFile,
+			mz[featureIndex], rt[featureIndex],
+			height[featureIndex], area[featureIndex],
+			Arrays.copyOfRange(scanNumbers, start, dataPointIndex),
+			Arrays.copyOfRange(dataPointMZ, start, dataPointIndex),
+			Arrays.copyOfRange(dataPointIntensity, start,
+				dataPointIndex), peakStatus,
+			representativeScan[featureIndex],
+			fragmentScan[featureIndex], rtMin, rtMax);
+		peak.setCharge(charge[featureIndex]);
+
+		if (isotopePatternsSection != null)
+		    readIsotopePattern(isotopePatternsSection, peak);
+
+		rows[i].addPeak(dataFile, peak);
+	    }
+
+	    if (identitiesSection != null)
+		readIdentities(identitiesSection, rows[i]);
+
+	    if (columnar)
+		buildingPeakList.addRow(rows[i]);
+	    else
+		loadedRows.add(rows[i]);
+	    parsedRows++;
+	}
+
+	rowsSection = null;
+	featuresSection = null;
+	dataPointsSection = null;
+	identitiesSection = null;
+	isotopePatternsSection = null;
+    }
+
+    private void readIdentities(ByteBuffer section, SimplePeakListRow row)
+	    throws IOException {
+	final int numOfIdentities = section.getInt();
+	final int preferredIndex = section.getInt();
+	for (int j = 0; j < numOfIdentities; j++) {
+	    final int numOfProperties = section.getInt();
+	    Hashtable<String, String> properties = new Hashtable<String, String>();
+	    for (int k = 0; k < numOfProperties; k++) {
+		String key = readString(section);
+		String value = readString(section);
+		if ((key != null) && (value != null))
+		    properties.put(key, value);
+	    }
+	    row.addPeakIdentity(new SimplePeakIdentity(properties),
+		    j == preferredIndex);
+	}
+    }
+
+    private void readIsotopePattern(ByteBuffer section, CompactFeature peak)
+	    throws IOException {
+	final int numOfIsotopes = section.getInt();
+	if (numOfIsotopes < 0)
+	    return;
+	String statusName = readString(section);
+	IsotopePatternStatus patternStatus = getIsotopePatternStatus(statusName);
+	String description = readString(section);
+	double isotopeMZ[] = new double[numOfIsotopes];
+	double isotopeIntensity[] = new double[numOfIsotopes];
+	readDoubles(section, isotopeMZ);
+	readDoubles(section, isotopeIntensity);
+	if (numOfIsotopes == 0)
+	    return;
+	DataPoint isotopes[] = new DataPoint[numOfIsotopes];
+	for (int i = 0; i < numOfIsotopes; i++)
+	    isotopes[i] = new SimpleDataPoint(isotopeMZ[i], isotopeIntensity[i]);
+	peak.setIsotopePattern(new SimpleIsotopePattern(isotopes,
+		patternStatus, description));
+    }
+
+    /**
+     * Returns the isotope pattern status of the given name. Statuses added in
+     * a newer version are loaded as DETECTED.
+     */
+    private IsotopePatternStatus getIsotopePatternStatus(String statusName) {
+	for (IsotopePatternStatus patternStatus : IsotopePatternStatus
+		.values()) {
+	    if (patternStatus.name().equals(statusName))
+		return patternStatus;
+	}
+	logger.warning("Unknown isotope pattern status " + statusName
+		+ ", loading the isotope pattern as detected");
+	return IsotopePatternStatus.DETECTED;
+    }
+
+    /**
+     * Returns the retention times of the scans of the given raw data file,
+     * indexed by scan number. Numbers of missing scans have the value NaN.
+     */
+    private double[] getRetentionTimes(RawDataFile dataFile) {
+	double retentionTimes[] = retentionTimesMap.get(dataFile);
+	if (retentionTimes != null)
+	    return retentionTimes;
+	final int fileScanNumbers[] = dataFile.getScanNumbers();
+	int maxScanNumber = 0;
+	for (int scanNumber : fileScanNumbers)
+	    maxScanNumber = Math.max(maxScanNumber, scanNumber);
+	retentionTimes = new double[maxScanNumber + 1];
+	Arrays.fill(retentionTimes, Double.NaN);
+	for (int scanNumber : fileScanNumbers) {
+	    retentionTimes[scanNumber] = dataFile.getScan(scanNumber)
+		    .getRetentionTime();
+	}
+	retentionTimesMap.put(dataFile, retentionTimes);
+	return retentionTimes;
+    }
+
+    private static void readInts(ByteBuffer section, int values[]) {
+	section.asIntBuffer().get(values);
+	section.position(section.position() + 4 * values.length);
+    }
+
+    private static void readFloats(ByteBuffer section, float values[]) {
+	section.asFloatBuffer().get(values);
+	section.position(section.position() + 4 * values.length);
+    }
+
+    private static void readDoubles(ByteBuffer section, double values[]) {
+	section.asDoubleBuffer().get(values);
+	section.position(section.position() + 8 * values.length);
+    }
+
+    private RawDataFile getDataFile(int ID) throws IOException {
+	RawDataFile dataFile = dataFilesIDMap.get(String.valueOf(ID));
+	if (dataFile == null) {
+	    throw new IOException(
+		    "Cannot open peak list, because raw data file " + ID
+			    + " is missing.");
+	}
+	return dataFile;
+    }
+
+}
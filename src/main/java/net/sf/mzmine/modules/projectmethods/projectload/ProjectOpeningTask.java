@@ -25,19 +25,31 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import javax.swing.JOptionPane;
 import javax.xml.parsers.ParserConfigurationException;
 
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_0.PeakListOpenHandler_2_0;
@@ -48,30 +60,52 @@ import net.sf.mzmine.modules.projectmethods.projectload.version_2_3.UserParamete
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_5.PeakListOpenHandler_2_5;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_5.RawDataFileOpenHandler_2_5;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_5.UserParameterOpenHandler_2_5;
+import net.sf.mzmine.modules.projectmethods.projectsave.MappableScansEntry;
+import net.sf.mzmine.modules.projectmethods.projectsave.PeakListBinaryFormat;
 import net.sf.mzmine.modules.projectmethods.projectsave.ProjectSavingTask;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.project.ProjectManager;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.GUIUtils;
 import net.sf.mzmine.util.StreamCopy;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.xml.sax.SAXException;
 
+import com.google.common.collect.Range;
 import com.google.common.io.CountingInputStream;
 
+/**
+ * Opens a project from a ZIP file. Raw data files, and then peak lists, are
+ * read concurrently from their ZIP entries, and added to the project in their
+ * saved order.
+ */
 public class ProjectOpeningTask extends AbstractTask {
 
+    // File system types on which we do not memory-map scan data
+    private static final String remoteFileSystems[] = { "nfs", "cifs",
+            "smbfs", "smb2", "afpfs", "webdav", "davfs", "fuse.sshfs",
+            "9p" };
+
+    // Versions of the project format, which determine the opening handlers
+    private static final int FORMAT_2_0 = 0, FORMAT_2_3 = 1, FORMAT_2_5 = 2;
+
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
     private File openFile;
     private MZmineProjectImpl newProject;
 
-    private RawDataFileOpenHandler rawDataFileOpenHandler;
-    private PeakListOpenHandler peakListOpenHandler;
+    // Project to which the loaded objects are added instead of replacing the
+    // current project, may be null
+    private final MZmineProjectImpl targetProject;
+
+    private int projectFormat;
     private UserParameterOpenHandler userParameterOpenHandler;
     private StreamCopy copyMachine;
 
@@ -79,13 +113,35 @@ public class ProjectOpeningTask extends AbstractTask {
     private long totalBytes, finishedBytes;
     private String currentLoadedObjectName;
 
+    // Raw data files or peak lists which are currently being loaded
+    private LoadedObject loadedObjects[];
+
+    // Reads the raw data files and peak lists
+    private ExecutorService executor;
+
     // This hashtable maps stored IDs to raw data file objects
     private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
-    private final Hashtable<String, File> scanFilesIDMap = new Hashtable<>();
+
+    private boolean mapScanData;
+
+    // This hashtable maps peak lists to their ZIP entry within the project
+    private final Hashtable<PeakList, String> peakListEntriesMap = new Hashtable<>();
 
     public ProjectOpeningTask(ParameterSet parameters) {
+        this(parameters, null);
+    }
+
+    /**
+     * Creates a task which adds the raw data files and peak lists of the
+     * project file to the given project, after its existing objects. The
+     * current project, the configuration and the user parameters are left as
+     * they are.
+     */
+    public ProjectOpeningTask(ParameterSet parameters,
+            MZmineProjectImpl targetProject) {
         this.openFile = parameters.getParameter(
                 ProjectLoaderParameters.projectFile).getValue();
+        this.targetProject = targetProject;
     }
 
     /**
@@ -106,14 +162,21 @@ public class ProjectOpeningTask extends AbstractTask {
         if (totalBytes == 0)
             return 0;
 
-        long totalReadBytes = this.finishedBytes;
+        long totalReadBytes;
 
-        // Add the current ZIP entry progress to totalReadBytes
+        // Add the current ZIP entries progress to totalReadBytes
         synchronized (this) {
+            totalReadBytes = this.finishedBytes;
             if (cis != null)
                 totalReadBytes += cis.getCount();
         }
 
+        final LoadedObject objects[] = loadedObjects;
+        if (objects != null) {
+            for (LoadedObject object : objects)
+                totalReadBytes += object.getReadBytes();
+        }
+
         return (double) totalReadBytes / totalBytes;
     }
 
@@ -122,131 +185,175 @@ public class ProjectOpeningTask extends AbstractTask {
      */
     public void run() {
 
+        ZipFile zipFile = null;
+
         try {
-            // Check if existing raw data files are present
-            ProjectManager projectManager = MZmineCore.getProjectManager();
-            if (projectManager.getCurrentProject().getDataFiles().length > 0) {
-                int dialogResult = JOptionPane
-                        .showConfirmDialog(
-                                null,
-                                "Loading the project will replace the existing raw data files and peak lists. Do you want to proceed?",
-                                "Warning", JOptionPane.YES_NO_OPTION);
-
-                if (dialogResult != JOptionPane.YES_OPTION) {
-                    cancel();
-                    return;
+            if (targetProject == null) {
+
+                // Check if existing raw data files are present
+                ProjectManager projectManager = MZmineCore
+                        .getProjectManager();
+                if (projectManager.getCurrentProject().getDataFiles().length > 0) {
+                    int dialogResult = JOptionPane
+                            .showConfirmDialog(
+                                    null,
+                                    "Loading the project will replace the existing raw data files and peak lists. Do you want to proceed?",
+                                    "Warning", JOptionPane.YES_NO_OPTION);
+
+                    if (dialogResult != JOptionPane.YES_OPTION) {
+                        cancel();
+                        return;
+                    }
                 }
-            }
 
-            logger.info("Started opening project " + openFile);
-            setStatus(TaskStatus.PROCESSING);
+                logger.info("Started opening project " + openFile);
+                setStatus(TaskStatus.PROCESSING);
 
-            // Create a new project
-            newProject = new MZmineProjectImpl();
-            newProject.setProjectFile(openFile);
+                // Create a new project
+                newProject = new MZmineProjectImpl();
+                newProject.setProjectFile(openFile);
 
-            // Close all windows related to previous project
-            GUIUtils.closeAllWindows();
+                // Close all windows related to previous project
+                GUIUtils.closeAllWindows();
 
-            // Replace the current project with the new one
-            projectManager.setCurrentProject(newProject);
+                // Replace the current project with the new one
+                projectManager.setCurrentProject(newProject);
 
-            // Open the ZIP file
-            ZipFile zipFile = new ZipFile(openFile);
+            } else {
+
+                logger.info("Started adding project " + openFile + " to "
+                        + targetProject);
+                setStatus(TaskStatus.PROCESSING);
+
+                newProject = targetProject;
 
-            // Get total uncompressed size
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                totalBytes += entry.getSize();
             }
 
+            // Open the ZIP file
+            zipFile = new ZipFile(openFile);
+            mapScanData = isOnLocalDisk(openFile);
+
             final Pattern rawFilePattern = Pattern
                     .compile("Raw data file #([\\d]+) (.*)\\.xml$");
             final Pattern scansFilePattern = Pattern
                     .compile("Raw data file #([\\d]+) (.*)\\.scans$");
             final Pattern peakListPattern = Pattern
-                    .compile("Peak list #([\\d]+) (.*)\\.xml$");
+                    .compile("Peak list #([\\d]+) (.*)\\.(xml|peaks)$");
 
-            boolean versionInformationLoaded = false;
+            ZipArchiveEntry versionEntry = null, configEntry = null;
+            ZipArchiveEntry parametersEntry = null;
+            final Hashtable<String, ZipArchiveEntry> scansEntries = new Hashtable<>();
+            final List<LoadedObject> rawDataFileObjects = new ArrayList<>();
+            final List<LoadedObject> peakListObjects = new ArrayList<>();
 
-            // Iterate over the entries and read them
-            entries = zipFile.entries();
+            // Sort the entries and get total uncompressed size
+            Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
             while (entries.hasMoreElements()) {
 
-                if (isCanceled()) {
-                    zipFile.close();
-                    return;
-                }
-
-                ZipEntry entry = entries.nextElement();
+                ZipArchiveEntry entry = entries.nextElement();
                 String entryName = entry.getName();
-                cis = new CountingInputStream(zipFile.getInputStream(entry));
+                totalBytes += entry.getSize();
 
-                // Load version
-                if (entryName.equals(ProjectSavingTask.VERSION_FILENAME)) {
-                    loadVersion(cis);
-                    versionInformationLoaded = true;
-                }
+                if (entryName.equals(ProjectSavingTask.VERSION_FILENAME))
+                    versionEntry = entry;
 
-                // Load configuration
                 if (entryName.equals(ProjectSavingTask.CONFIG_FILENAME))
-                    loadConfiguration(cis);
+                    configEntry = entry;
 
-                // Load user parameters
-                if (entryName.equals(ProjectSavingTask.PARAMETERS_FILENAME)) {
-                    loadUserParameters(cis);
-                }
+                if (entryName.equals(ProjectSavingTask.PARAMETERS_FILENAME))
+                    parametersEntry = entry;
 
-                // Load a raw data file
                 final Matcher rawFileMatcher = rawFilePattern
                         .matcher(entryName);
                 if (rawFileMatcher.matches()) {
                     final String fileID = rawFileMatcher.group(1);
                     final String fileName = rawFileMatcher.group(2);
-                    loadRawDataFile(cis, fileID, fileName);
+                    rawDataFileObjects.add(new LoadedObject(zipFile, entry,
+                            fileID, fileName));
                 }
 
-                // Load the scan data of a raw data file
                 final Matcher scansFileMatcher = scansFilePattern
                         .matcher(entryName);
                 if (scansFileMatcher.matches()) {
                     final String fileID = scansFileMatcher.group(1);
-                    final String fileName = scansFileMatcher.group(2);
-                    loadScansFile(cis, fileID, fileName);
+                    scansEntries.put(fileID, entry);
                 }
 
-                // Load a peak list
                 final Matcher peakListMatcher = peakListPattern
                         .matcher(entryName);
                 if (peakListMatcher.matches()) {
                     final String peakListName = peakListMatcher.group(2);
-                    loadPeakList(cis, peakListName);
+                    peakListObjects.add(new LoadedObject(zipFile, entry,
+                            peakListName));
                 }
 
-                // Close the ZIP entry
-                cis.close();
+            }
 
-                // Add the uncompressed entry size finishedBytes
-                synchronized (this) {
-                    finishedBytes += entry.getSize();
-                    cis = null;
-                }
+            // Load version
+            if (versionEntry == null) {
+                throw new IOException(
+                        "This file is not valid MZmine 2 project. It does not contain version information.");
+            }
+            loadVersion(openEntry(zipFile, versionEntry));
+            closeEntry(versionEntry);
 
+            // Load configuration
+            if ((configEntry != null) && (targetProject == null)) {
+                loadConfiguration(openEntry(zipFile, configEntry));
+                closeEntry(configEntry);
             }
 
-            // Finish and close the project ZIP file
-            zipFile.close();
+            NumOfThreadsParameter threadsParameter = MZmineCore
+                    .getConfiguration().getPreferences()
+                    .getParameter(MZminePreferences.numOfThreads);
+            executor = Executors.newFixedThreadPool(threadsParameter
+                    .getNumOfThreads());
 
-            if (!versionInformationLoaded) {
-                throw new IOException(
-                        "This file is not valid MZmine 2 project. It does not contain version information.");
+            // Load the raw data files, together with their scan data
+            for (LoadedObject object : rawDataFileObjects)
+                object.scansEntry = scansEntries.get(object.fileID);
+            loadObjects(rawDataFileObjects);
+            if (isCanceled())
+                return;
+            for (LoadedObject object : rawDataFileObjects) {
+                RawDataFile newFile = (RawDataFile) object.result;
+                newProject.addFile(newFile);
+                dataFilesIDMap.put(object.fileID, newFile);
+            }
+
+            // Load the peak lists, which refer to the raw data files
+            loadObjects(peakListObjects);
+            if (isCanceled())
+                return;
+            for (LoadedObject object : peakListObjects) {
+                PeakList newPeakList = (PeakList) object.result;
+                newProject.addPeakList(newPeakList);
+                peakListEntriesMap.put(newPeakList, object.entry.getName());
+            }
+
+            // Load user parameters
+            if ((parametersEntry != null) && (targetProject == null)
+                    && (!isCanceled())) {
+                loadUserParameters(openEntry(zipFile, parametersEntry));
+                closeEntry(parametersEntry);
             }
 
             // Final check for cancel
             if (isCanceled())
                 return;
 
+            // Remember the contents of the project file, so that unchanged
+            // objects can be copied when the project is saved again. Objects
+            // added to another project have to be saved again.
+            if ((projectFormat == FORMAT_2_5) && (targetProject == null)) {
+                Hashtable<RawDataFile, String> savedIDs = new Hashtable<>();
+                for (String fileID : dataFilesIDMap.keySet())
+                    savedIDs.put(dataFilesIDMap.get(fileID), fileID);
+                newProject.setSavedEntries(savedIDs, peakListEntriesMap);
+            }
+            if (targetProject == null)
+                clearModifiedFlags();
+
             logger.info("Finished opening project " + openFile);
 
             setStatus(TaskStatus.FINISHED);
@@ -262,6 +369,16 @@ public class ProjectOpeningTask extends AbstractTask {
             e.printStackTrace();
             setErrorMessage("Failed opening project: "
                     + ExceptionUtils.exceptionToString(e));
+
+        } finally {
+
+            if (executor != null)
+                executor.shutdownNow();
+
+            // Finish and close the project ZIP file
+            if (zipFile != null)
+                ZipFile.closeQuietly(zipFile);
+
         }
 
     }
@@ -275,11 +392,11 @@ public class ProjectOpeningTask extends AbstractTask {
 
         setStatus(TaskStatus.CANCELED);
 
-        if (rawDataFileOpenHandler != null)
-            rawDataFileOpenHandler.cancel();
-
-        if (peakListOpenHandler != null)
-            peakListOpenHandler.cancel();
+        final LoadedObject objects[] = loadedObjects;
+        if (objects != null) {
+            for (LoadedObject object : objects)
+                object.cancel();
+        }
 
         if (userParameterOpenHandler != null)
             userParameterOpenHandler.cancel();
@@ -289,6 +406,58 @@ public class ProjectOpeningTask extends AbstractTask {
 
     }
 
+    private InputStream openEntry(ZipFile zipFile, ZipArchiveEntry entry)
+            throws IOException {
+        synchronized (this) {
+            cis = new CountingInputStream(zipFile.getInputStream(entry));
+            return cis;
+        }
+    }
+
+    private void closeEntry(ZipArchiveEntry entry) throws IOException {
+        // Add the uncompressed entry size finishedBytes
+        synchronized (this) {
+            cis.close();
+            cis = null;
+            finishedBytes += entry.getSize();
+        }
+    }
+
+    /**
+     * Loads the given raw data files or peak lists concurrently, and waits
+     * until all of them are loaded
+     */
+    private void loadObjects(List<LoadedObject> objects) throws Exception {
+
+        loadedObjects = objects.toArray(new LoadedObject[0]);
+
+        List<Future<Void>> futures = new ArrayList<>();
+        for (LoadedObject object : objects)
+            futures.add(executor.submit(TaskMetrics.propagate(object)));
+
+        try {
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (CancellationException e) {
+            return;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw (Error) cause;
+        } finally {
+            // Do not continue loading after a failure
+            for (Future<Void> future : futures)
+                future.cancel(true);
+        }
+
+        synchronized (this) {
+            for (LoadedObject object : objects)
+                finishedBytes += object.getReadBytes();
+            loadedObjects = null;
+        }
+    }
+
     /**
      * Load the version info from the ZIP file and checks whether such version
      * can be opened with this MZmine
@@ -332,15 +501,13 @@ public class ProjectOpeningTask extends AbstractTask {
 
         // Check if the project version is 2.0 to 2.2
         if ((projectMajorVersion == 2) && (projectMinorVersion <= 2)) {
-            rawDataFileOpenHandler = new RawDataFileOpenHandler_2_0();
-            peakListOpenHandler = new PeakListOpenHandler_2_0(dataFilesIDMap);
+            projectFormat = FORMAT_2_0;
             return;
         }
 
         // Check if the project version is 2.3 to 2.4
         if ((projectMajorVersion == 2) && (projectMinorVersion <= 4)) {
-            rawDataFileOpenHandler = new RawDataFileOpenHandler_2_3();
-            peakListOpenHandler = new PeakListOpenHandler_2_3(dataFilesIDMap);
+            projectFormat = FORMAT_2_3;
             userParameterOpenHandler = new UserParameterOpenHandler_2_3(
                     newProject, dataFilesIDMap);
             return;
@@ -359,8 +526,7 @@ public class ProjectOpeningTask extends AbstractTask {
         }
 
         // Default opening handler for MZmine 2.5 and higher
-        rawDataFileOpenHandler = new RawDataFileOpenHandler_2_5();
-        peakListOpenHandler = new PeakListOpenHandler_2_5(dataFilesIDMap);
+        projectFormat = FORMAT_2_5;
         userParameterOpenHandler = new UserParameterOpenHandler_2_5(newProject,
                 dataFilesIDMap);
 
@@ -391,73 +557,280 @@ public class ProjectOpeningTask extends AbstractTask {
         tempConfigFile.delete();
     }
 
-    private void loadRawDataFile(InputStream is, String fileID, String fileName)
-            throws IOException, ParserConfigurationException, SAXException,
-            InstantiationException, IllegalAccessException {
-
-        logger.info("Loading raw data file #" + fileID + ": " + fileName);
+    /**
+     * Checks whether the project file can be memory-mapped safely. We avoid
+     * network file systems, and Windows, where a mapped file cannot be
+     * replaced when the project is saved again.
+     */
+    private boolean isOnLocalDisk(File file) {
 
-        currentLoadedObjectName = fileName;
+        if (System.getProperty("os.name").toLowerCase().startsWith("windows"))
+            return false;
 
-        File scansFile = scanFilesIDMap.get(fileID);
-        if (scansFile == null) {
-            throw new IOException("Missing scans data for file ID " + fileID);
+        try {
+            FileStore store = Files.getFileStore(file.toPath());
+            String type = store.type().toLowerCase();
+            for (String remoteType : remoteFileSystems) {
+                if (type.startsWith(remoteType))
+                    return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warning("Could not determine the file system of " + file
+                    + ": " + e);
+            return false;
         }
+    }
 
-        RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is,
-                scansFile);
-        newProject.addFile(newFile);
-        dataFilesIDMap.put(fileID, newFile);
+    /**
+     * Creates a handler for reading a raw data file in the version of the
+     * project. Each raw data file needs its own handler.
+     */
+    private RawDataFileOpenHandler createRawDataFileOpenHandler() {
+        switch (projectFormat) {
+        case FORMAT_2_0:
+            return new RawDataFileOpenHandler_2_0();
+        case FORMAT_2_3:
+            return new RawDataFileOpenHandler_2_3();
+        default:
+            return new RawDataFileOpenHandler_2_5();
+        }
+    }
 
+    /**
+     * Creates a handler for reading a peak list in the version of the
+     * project, or in the binary format. Each peak list needs its own handler.
+     */
+    private PeakListOpenHandler createPeakListOpenHandler(String entryName) {
+        if (entryName.endsWith(PeakListBinaryFormat.EXTENSION))
+            return new PeakListBinaryOpenHandler(dataFilesIDMap);
+        switch (projectFormat) {
+        case FORMAT_2_0:
+            return new PeakListOpenHandler_2_0(dataFilesIDMap);
+        case FORMAT_2_3:
+            return new PeakListOpenHandler_2_3(dataFilesIDMap);
+        default:
+            return new PeakListOpenHandler_2_5(dataFilesIDMap);
+        }
     }
 
-    private void loadScansFile(InputStream is, String fileID, String fileName)
-            throws IOException {
+    /**
+     * Marks the loaded project as unmodified
+     */
+    private void clearModifiedFlags() {
+        newProject.setModified(false);
+        for (RawDataFile dataFile : newProject.getDataFiles()) {
+            if (dataFile instanceof RawDataFileImpl)
+                ((RawDataFileImpl) dataFile).setModified(false);
+        }
+        for (PeakList peakList : newProject.getPeakLists()) {
+            if (peakList instanceof SimplePeakList)
+                ((SimplePeakList) peakList).setModified(false);
+            else if (peakList instanceof ColumnarPeakList)
+                ((ColumnarPeakList) peakList).setModified(false);
+        }
+    }
 
-        logger.info("Loading scans data #" + fileID + ": " + fileName);
+    private void loadUserParameters(InputStream is) throws IOException,
+            ParserConfigurationException, SAXException, InstantiationException,
+            IllegalAccessException {
 
-        currentLoadedObjectName = fileName + " scan data";
+        // Older versions of MZmine had no parameter saving
+        if (userParameterOpenHandler == null)
+            return;
 
-        final File tempFile = RawDataFileImpl.createNewDataPointsFile();
-        final FileOutputStream os = new FileOutputStream(tempFile);
+        logger.info("Loading user parameters");
 
-        copyMachine = new StreamCopy();
-        copyMachine.copy(is, os);
-        os.close();
+        currentLoadedObjectName = "User parameters";
 
-        scanFilesIDMap.put(fileID, tempFile);
+        userParameterOpenHandler.readUserParameters(is);
 
     }
 
-    private void loadPeakList(InputStream is, String peakListName)
-            throws IOException, ParserConfigurationException, SAXException,
-            InstantiationException, IllegalAccessException {
+    /**
+     * A raw data file or peak list read from the project file by a worker
+     * thread
+     */
+    private class LoadedObject implements Callable<Void> {
+
+        private final ZipFile zipFile;
+        private final ZipArchiveEntry entry;
+        private final String fileID, name;
+        private ZipArchiveEntry scansEntry;
+
+        private RawDataFileOpenHandler rawDataFileOpenHandler;
+        private PeakListOpenHandler peakListOpenHandler;
+        private StreamCopy copyMachine;
+        private CountingInputStream cis;
+        private long finishedBytes;
+        private boolean canceled = false;
+
+        private Object result;
+
+        /**
+         * Creates a raw data file, described by the given entry
+         */
+        LoadedObject(ZipFile zipFile, ZipArchiveEntry entry, String fileID,
+                String fileName) {
+            this.zipFile = zipFile;
+            this.entry = entry;
+            this.fileID = fileID;
+            this.name = fileName;
+        }
 
-        logger.info("Loading peak list " + peakListName);
+        /**
+         * Creates a peak list
+         */
+        LoadedObject(ZipFile zipFile, ZipArchiveEntry entry,
+                String peakListName) {
+            this(zipFile, entry, null, peakListName);
+        }
 
-        currentLoadedObjectName = peakListName;
+        public Void call() throws Exception {
 
-        PeakList newPeakList = peakListOpenHandler.readPeakList(is);
+            currentLoadedObjectName = name;
 
-        newProject.addPeakList(newPeakList);
+            if (fileID != null)
+                result = loadRawDataFile();
+            else
+                result = loadPeakList();
 
-        // Add quality parameters to peaks
-        QualityParameters.calculateQualityParameters(newPeakList);
-    }
+            return null;
+        }
 
-    private void loadUserParameters(InputStream is) throws IOException,
-            ParserConfigurationException, SAXException, InstantiationException,
-            IllegalAccessException {
+        private RawDataFile loadRawDataFile() throws Exception {
 
-        // Older versions of MZmine had no parameter saving
-        if (userParameterOpenHandler == null)
-            return;
+            logger.info("Loading raw data file #" + fileID + ": " + name);
 
-        logger.info("Loading user parameters");
+            synchronized (this) {
+                rawDataFileOpenHandler = createRawDataFileOpenHandler();
+            }
 
-        currentLoadedObjectName = "User parameters";
+            if (scansEntry == null) {
+                throw new IOException("Missing scans data for file ID "
+                        + fileID);
+            }
 
-        userParameterOpenHandler.readUserParameters(is);
+            logger.info("Loading scans data #" + fileID + ": " + name);
+
+            // Uncompressed scan data can be used directly from the project
+            // file
+            long dataOffset = -1;
+            if (mapScanData)
+                dataOffset = MappableScansEntry.getDataOffset(scansEntry);
+
+            if (dataOffset >= 0) {
+
+                logger.info("Mapping scans data #" + fileID
+                        + " from the project file");
+                Range<Long> scansRegion = Range.closedOpen(dataOffset,
+                        dataOffset + scansEntry.getSize());
+                synchronized (this) {
+                    finishedBytes += scansEntry.getSize();
+                }
+
+                InputStream is = openEntry(entry);
+                try {
+                    return rawDataFileOpenHandler.readRawDataFile(is,
+                            openFile, scansRegion);
+                } finally {
+                    closeEntry(entry);
+                }
+
+            }
+
+            final File scansFile = RawDataFileImpl.createNewDataPointsFile();
+            final FileOutputStream os = new FileOutputStream(scansFile);
+
+            InputStream is = openEntry(scansEntry);
+            try {
+                synchronized (this) {
+                    copyMachine = new StreamCopy();
+                }
+                if (canceled)
+                    throw new IOException("Canceled");
+                copyMachine.copy(is, os);
+            } finally {
+                os.close();
+                closeEntry(scansEntry);
+            }
+
+            is = openEntry(entry);
+            try {
+                return rawDataFileOpenHandler.readRawDataFile(is, scansFile);
+            } finally {
+                closeEntry(entry);
+            }
+
+        }
+
+        private PeakList loadPeakList() throws Exception {
+
+            logger.info("Loading peak list " + name);
+
+            synchronized (this) {
+                peakListOpenHandler = createPeakListOpenHandler(entry
+                        .getName());
+            }
+
+            InputStream is = openEntry(entry);
+            PeakList newPeakList;
+            try {
+
+                // Binary peak lists only read their header here, the rows
+                // are loaded from the project file on first access. Columnar
+                // peak lists are read completely.
+                if (peakListOpenHandler instanceof PeakListBinaryOpenHandler) {
+                    PeakListBinaryOpenHandler binaryHandler = (PeakListBinaryOpenHandler) peakListOpenHandler;
+                    newPeakList = binaryHandler.readPeakListHeader(is);
+                    if (newPeakList instanceof SimplePeakList) {
+                        ((SimplePeakList) newPeakList).setRowLoader(
+                                new ProjectPeakListLoader(newProject,
+                                        openFile, entry.getName(),
+                                        dataFilesIDMap),
+                                binaryHandler.getNumberOfRows());
+                        return newPeakList;
+                    }
+                } else
+                    newPeakList = peakListOpenHandler.readPeakList(is);
+            } finally {
+                closeEntry(entry);
+            }
+
+            // Add quality parameters to peaks
+            QualityParameters.calculateQualityParameters(newPeakList);
+
+            return newPeakList;
+        }
+
+        private synchronized InputStream openEntry(ZipArchiveEntry entry)
+                throws IOException {
+            cis = new CountingInputStream(zipFile.getInputStream(entry));
+            return cis;
+        }
+
+        private synchronized void closeEntry(ZipArchiveEntry entry)
+                throws IOException {
+            cis.close();
+            cis = null;
+            finishedBytes += entry.getSize();
+        }
+
+        synchronized long getReadBytes() {
+            if (cis != null)
+                return finishedBytes + cis.getCount();
+            return finishedBytes;
+        }
+
+        synchronized void cancel() {
+            canceled = true;
+            if (rawDataFileOpenHandler != null)
+                rawDataFileOpenHandler.cancel();
+            if (peakListOpenHandler != null)
+                peakListOpenHandler.cancel();
+            if (copyMachine != null)
+                copyMachine.cancel();
+        }
 
     }
 
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+/**
+ * Loads the rows of a peak list from its binary entry in the project file, on
+ * first access to the rows. When the heap is nearly full after a garbage
+ * collection, the data points of the peaks of all loaded peak lists which were
+ * not changed are released, to be read again from the project file when
+ * needed. The rows and peaks themselves stay in memory, so windows and tasks
+ * holding them keep working on the objects of the peak list.
+ * 
+ * Only peak lists which are still in the project, and whose entry is the one
+ * saved in the current project file, are released. Peaks shared with peak
+ * lists that were not loaded from the project file keep their data points.
+ */
+public class ProjectPeakListLoader implements SimplePeakList.RowLoader {
+
+    private static final Logger logger = Logger
+            .getLogger(ProjectPeakListLoader.class.getName());
+
+    /**
+     * Fraction of the old generation heap which triggers the release of
+     * loaded peak lists, when still in use after a garbage collection
+     */
+    private static final double MEMORY_THRESHOLD = 0.75;
+
+    /**
+     * Peak lists loaded more recently than this (in ms) are kept, so that a
+     * peak list which is being worked on is not loaded over and over again
+     */
+    private static final long MIN_LOADED_TIME = 10000;
+
+    // Loaders whose peak lists currently have their rows in memory
+    private static final Set<ProjectPeakListLoader> loadedPeakLists = new HashSet<>();
+
+    static {
+        installMemoryListener();
+    }
+
+    private MZmineProjectImpl project;
+    private File projectFile;
+    private String entryName;
+    private Hashtable<String, RawDataFile> dataFilesIDMap;
+
+    private WeakReference<SimplePeakList> peakList;
+    private long loadTime;
+
+    /**
+     * @param project
+     *            Project the peak list is added to
+     * @param projectFile
+     *            Project file containing the peak list
+     * @param entryName
+     *            Name of the binary peak list entry in the project file
+     * @param dataFilesIDMap
+     *            Raw data files by their ID in the project file
+     */
+    public ProjectPeakListLoader(MZmineProjectImpl project, File projectFile,
+            String entryName, Hashtable<String, RawDataFile> dataFilesIDMap) {
+        this.project = project;
+        setSource(projectFile, entryName, dataFilesIDMap);
+    }
+
+    /**
+     * Changes the entry the rows are loaded from, e.g. after the project was
+     * saved to a new file
+     */
+    public synchronized void setSource(File projectFile, String entryName,
+            Hashtable<String, RawDataFile> dataFilesIDMap) {
+        this.projectFile = projectFile;
+        this.entryName = entryName;
+        this.dataFilesIDMap = new Hashtable<>(dataFilesIDMap);
+    }
+
+    public synchronized File getProjectFile() {
+        return projectFile;
+    }
+
+    public synchronized String getEntryName() {
+        return entryName;
+    }
+
+    @Override
+    public List<PeakListRow> loadRows(SimplePeakList peakList)
+            throws IOException {
+
+        final File file;
+        final String name;
+        final Hashtable<String, RawDataFile> idMap;
+        synchronized (this) {
+            file = projectFile;
+            name = entryName;
+            idMap = dataFilesIDMap;
+        }
+
+        logger.info("Loading rows of peak list " + peakList + " from " + file);
+
+        List<PeakListRow> rows;
+        ZipFile zipFile = new ZipFile(file);
+        try {
+            ZipArchiveEntry entry = zipFile.getEntry(name);
+            if (entry == null)
+                throw new IOException("Entry " + name + " not found in "
+                        + file);
+            InputStream is = zipFile.getInputStream(entry);
+            PeakListBinaryOpenHandler handler = new PeakListBinaryOpenHandler(
+                    idMap);
+            rows = handler.readPeakListRows(is);
+            is.close();
+        } finally {
+            ZipFile.closeQuietly(zipFile);
+        }
+
+        synchronized (loadedPeakLists) {
+            this.peakList = new WeakReference<>(peakList);
+            this.loadTime = System.currentTimeMillis();
+            loadedPeakLists.add(this);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Releases the data points of all loaded peak lists which can be reloaded
+     * from the project file
+     */
+    public static void unloadPeakLists() {
+        int unloaded = unloadPeakLists(MIN_LOADED_TIME);
+        if (unloaded > 0)
+            logger.info("Low memory, released data points of " + unloaded
+                    + " peak lists");
+    }
+
+    /**
+     * Releases the data points of the peak lists loaded at least
+     * minLoadedTime ms ago, and returns the number of released peak lists
+     */
+    static int unloadPeakLists(long minLoadedTime) {
+
+        List<ProjectPeakListLoader> loaders;
+        synchronized (loadedPeakLists) {
+            loaders = new ArrayList<>(loadedPeakLists);
+        }
+
+        final long now = System.currentTimeMillis();
+        Map<MZmineProjectImpl, Set<Feature>> sharedPeaks = new HashMap<>();
+        int unloaded = 0;
+        for (ProjectPeakListLoader loader : loaders) {
+            SimplePeakList peakList = loader.peakList.get();
+            if ((peakList == null) || (!peakList.isLoaded())
+                    || (peakList.getRowLoader() != loader)) {
+                synchronized (loadedPeakLists) {
+                    loadedPeakLists.remove(loader);
+                }
+                continue;
+            }
+            if (now - loader.loadTime < minLoadedTime)
+                continue;
+            if (!loader.isCurrent(peakList))
+                continue;
+            Set<Feature> keptPeaks = sharedPeaks.get(loader.project);
+            if (keptPeaks == null) {
+                keptPeaks = getPeaksWithoutLoader(loader.project);
+                sharedPeaks.put(loader.project, keptPeaks);
+            }
+            if (peakList.releaseDataPoints(keptPeaks)) {
+                synchronized (loadedPeakLists) {
+                    loadedPeakLists.remove(loader);
+                }
+                unloaded++;
+            }
+        }
+
+        return unloaded;
+    }
+
+    /**
+     * Returns true if the given peak list is still in the current project,
+     * and its entry in the project file is the one we load from. Entries of
+     * other peak lists may be overwritten or deleted by the next save.
+     */
+    private boolean isCurrent(SimplePeakList peakList) {
+        final File file;
+        final String name;
+        synchronized (this) {
+            file = projectFile;
+            name = entryName;
+        }
+        return (project == MZmineCore.getProjectManager().getCurrentProject())
+                && file.equals(project.getProjectFile())
+                && name.equals(project.getSavedPeakListEntry(peakList))
+                && Arrays.asList(project.getPeakLists()).contains(peakList);
+    }
+
+    /**
+     * Returns the peaks of all peak lists of the project which cannot load
+     * their rows again, e.g. lists created from a loaded peak list by
+     * filtering. These peak lists may share peaks with a loaded peak list, so
+     * such peaks must keep their data points.
+     */
+    private static Set<Feature> getPeaksWithoutLoader(
+            MZmineProjectImpl project) {
+        Set<Feature> peaks = Collections
+                .newSetFromMap(new IdentityHashMap<Feature, Boolean>());
+        for (PeakList peakList : project.getPeakLists()) {
+            if (!(peakList instanceof SimplePeakList)
+                    || (((SimplePeakList) peakList).getRowLoader() != null))
+                continue;
+            for (PeakListRow row : peakList.getRows()) {
+                peaks.addAll(Arrays.asList(row.getPeaks()));
+            }
+        }
+        return peaks;
+    }
+
+    private static void installMemoryListener() {
+
+        // Old generation pools are the heap pools supporting a usage threshold
+        boolean thresholdSet = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ((pool.getType() != MemoryType.HEAP)
+                    || (!pool.isUsageThresholdSupported())
+                    || (!pool.isCollectionUsageThresholdSupported()))
+                continue;
+            final long max = pool.getUsage().getMax();
+            if (max <= 0)
+                continue;
+            pool.setCollectionUsageThreshold((long) (max * MEMORY_THRESHOLD));
+            thresholdSet = true;
+        }
+
+        if (!thresholdSet) {
+            logger.fine("No memory pool supports a collection usage threshold, peak lists will stay in memory");
+            return;
+        }
+
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory
+                .getMemoryMXBean();
+        emitter.addNotificationListener(new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification,
+                    Object handback) {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+                        .equals(notification.getType()))
+                    unloadPeakLists();
+            }
+        }, null, null);
+
+    }
+
+}
@@ -29,11 +29,21 @@ import net.sf.mzmine.datamodel.RawDataFile;
 
 import org.xml.sax.SAXException;
 
+import com.google.common.collect.Range;
+
 public interface RawDataFileOpenHandler {
 
     RawDataFile readRawDataFile(InputStream is, File scansFile) throws IOException,
             ParserConfigurationException, SAXException;
 
+    /**
+     * Reads the raw data file, memory-mapping its scan data in place from the
+     * given region of the project file instead of an extracted scans file.
+     */
+    RawDataFile readRawDataFile(InputStream is, File projectFile,
+            Range<Long> scansRegion) throws IOException,
+            ParserConfigurationException, SAXException;
+
     void cancel();
 
 }
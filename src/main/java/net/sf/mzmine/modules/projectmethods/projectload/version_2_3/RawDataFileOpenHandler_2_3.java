@@ -46,6 +46,8 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import com.google.common.collect.Range;
+
 public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements
         RawDataFileOpenHandler {
 
@@ -109,6 +111,15 @@ public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements
 
     }
 
+    /**
+     * Projects of this version never contain uncompressed scan data
+     */
+    public RawDataFile readRawDataFile(InputStream is, File projectFile,
+            Range<Long> scansRegion) throws IOException {
+        throw new IOException(
+                "Memory-mapped scan data is not supported in projects of this version");
+    }
+
     public void cancel() {
         canceled = true;
     }
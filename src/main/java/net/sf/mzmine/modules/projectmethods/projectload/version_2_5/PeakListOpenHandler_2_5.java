@@ -38,8 +38,8 @@ import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakList.PeakListAppliedMethod;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.CompactFeature;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
-import net.sf.mzmine.datamodel.impl.SimpleFeature;
 import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
 import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
@@ -372,7 +372,7 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements
 
 	    FeatureStatus status = FeatureStatus.valueOf(peakStatus);
 
-	    SimpleFeature peak = new SimpleFeature(dataFile, mass, rt, height,
+	    CompactFeature peak = new CompactFeature(dataFile, mass, rt, height,
 		    area, scanNumbers, mzPeaks, status, representativeScan,
 		    fragmentScan, peakRTRange, peakMZRange, peakIntensityRange);
 
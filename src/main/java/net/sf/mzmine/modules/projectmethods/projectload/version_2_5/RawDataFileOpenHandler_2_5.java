@@ -86,12 +86,36 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
     public RawDataFile readRawDataFile(InputStream is, File scansFile)
             throws IOException, ParserConfigurationException, SAXException {
 
-        charBuffer = new StringBuffer();
-        massLists = new ArrayList<StorableMassList>();
-
         newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
         newRawDataFile.openDataPointsFile(scansFile);
 
+        return readRawDataDescription(is);
+
+    }
+
+    /**
+     * Create a new raw data file, mapping the scan data directly from the
+     * given region of the project file
+     */
+    public RawDataFile readRawDataFile(InputStream is, File projectFile,
+            Range<Long> scansRegion) throws IOException,
+            ParserConfigurationException, SAXException {
+
+        newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
+        newRawDataFile.openDataPointsFile(projectFile,
+                scansRegion.lowerEndpoint(),
+                scansRegion.upperEndpoint() - scansRegion.lowerEndpoint());
+
+        return readRawDataDescription(is);
+
+    }
+
+    private RawDataFile readRawDataDescription(InputStream is)
+            throws IOException, ParserConfigurationException, SAXException {
+
+        charBuffer = new StringBuffer();
+        massLists = new ArrayList<StorableMassList>();
+
         dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
         dataPointsLengths = newRawDataFile.getDataPointsLengths();
 
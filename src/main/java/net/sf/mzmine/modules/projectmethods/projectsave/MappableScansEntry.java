@@ -0,0 +1,71 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+
+/**
+ * Helper for the uncompressed (STORED) .scans entries of a project file. The
+ * entry data is aligned to a page boundary, so that the project loader can
+ * memory-map the scan data in place.
+ */
+public final class MappableScansEntry {
+
+    /**
+     * Alignment of the entry data within the project file
+     */
+    public static final int PAGE_SIZE = 4096;
+
+    private MappableScansEntry() {
+    }
+
+    /**
+     * Creates a STORED ZIP entry whose data will start at a page boundary
+     */
+    static ZipArchiveEntry createEntry(String name, long size, long crc) {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+        entry.setAlignment(PAGE_SIZE);
+        return entry;
+    }
+
+    /**
+     * Returns the offset of the entry data within the project file, if the
+     * entry is stored uncompressed at a page boundary. Otherwise returns -1,
+     * and the entry has to be extracted.
+     */
+    public static long getDataOffset(ZipArchiveEntry entry) {
+
+        if (entry.getMethod() != ZipEntry.STORED)
+            return -1;
+
+        final long dataOffset = entry.getDataOffset();
+        if ((dataOffset < 0) || (dataOffset % PAGE_SIZE != 0))
+            return -1;
+
+        return dataOffset;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Binary container for peak lists in the project file (the .peaks entries).
+ * 
+ * The container starts with the MAGIC number, the FORMAT_VERSION of the
+ * writer and the oldest format version a reader has to understand to open the
+ * file. It is followed by sections, each consisting of a section ID, the length
+ * of the section in bytes and the section data. The HEADER section describes
+ * the peak list; it may be preceded by a LAYOUT section, which tells the reader
+ * which PeakList implementation to load the peak list into. The rows follow in
+ * blocks of up to ROWS_PER_BLOCK rows; each block starts with a ROWS section
+ * and stores its rows, features, per-scan data points, identities and isotope
+ * patterns in separate, columnar sections. The END section closes the
+ * container. Readers skip sections they do not know, so new sections can be
+ * added without breaking older readers.
+ * 
+ * All numbers are big-endian, strings are stored as their UTF-8 length (-1
+ * for null) followed by the UTF-8 bytes.
+ */
+public final class PeakListBinaryFormat {
+
+    /**
+     * Extension of the project file entries in this format
+     */
+    public static final String EXTENSION = ".peaks";
+
+    public static final int MAGIC = 0x4D5A504C; // "MZPL"
+
+    /**
+     * Version written by this implementation. Increase when sections are
+     * added; increase MIN_READER_VERSION too if old readers cannot skip them.
+     */
+    public static final int FORMAT_VERSION = 2;
+    public static final int MIN_READER_VERSION = 1;
+
+    public static final int ROWS_PER_BLOCK = 256;
+
+    // Section IDs
+    public static final int SECTION_END = 0;
+    public static final int SECTION_HEADER = 1;
+    public static final int SECTION_ROWS = 2;
+    public static final int SECTION_FEATURES = 3;
+    public static final int SECTION_DATA_POINTS = 4;
+    public static final int SECTION_IDENTITIES = 5;
+    public static final int SECTION_ISOTOPE_PATTERNS = 6;
+    public static final int SECTION_LAYOUT = 7;
+
+    // Values of the LAYOUT section
+    public static final int LAYOUT_ROWS = 0;
+    public static final int LAYOUT_COLUMNAR = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private PeakListBinaryFormat() {
+    }
+
+    public static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte bytes[] = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in) throws IOException {
+        try {
+            final int length = in.getInt();
+            if (length < 0)
+                return null;
+            byte bytes[] = new byte[length];
+            in.get(bytes);
+            return new String(bytes, UTF8);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated peak list section");
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import static net.sf.mzmine.modules.projectmethods.projectsave.PeakListBinaryFormat.writeString;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.PeakIdentity;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakList.PeakListAppliedMethod;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+
+/**
+ * Saves a peak list into the binary container described in
+ * PeakListBinaryFormat
+ */
+public class PeakListBinarySaveHandler {
+
+    private Hashtable<RawDataFile, String> dataFilesIDMap;
+
+    private int numberOfRows, finishedRows;
+    private boolean canceled = false;
+
+    private DataOutputStream out;
+
+    // Data of the section currently being written
+    private final ByteArrayOutputStream sectionBytes;
+    private final DataOutputStream section;
+
+    public PeakListBinarySaveHandler(OutputStream finalStream,
+	    Hashtable<RawDataFile, String> dataFilesIDMap) {
+	this.out = new DataOutputStream(new BufferedOutputStream(finalStream,
+		1 << 16));
+	this.dataFilesIDMap = dataFilesIDMap;
+	this.sectionBytes = new ByteArrayOutputStream(1 << 16);
+	this.section = new DataOutputStream(sectionBytes);
+    }
+
+    /**
+     * Write the peak list into the output stream. The stream is flushed, but
+     * not closed.
+     */
+    public void savePeakList(PeakList peakList) throws IOException {
+
+	numberOfRows = peakList.getNumberOfRows();
+	finishedRows = 0;
+
+	out.writeInt(PeakListBinaryFormat.MAGIC);
+	out.writeInt(PeakListBinaryFormat.FORMAT_VERSION);
+	out.writeInt(PeakListBinaryFormat.MIN_READER_VERSION);
+
+	// Aligned peak lists are loaded back as ColumnarPeakList
+	if (peakList instanceof ColumnarPeakList) {
+	    section.writeInt(PeakListBinaryFormat.LAYOUT_COLUMNAR);
+	    writeSection(PeakListBinaryFormat.SECTION_LAYOUT);
+	}
+
+	writeHeader(peakList);
+
+	PeakListRow rows[] = peakList.getRows();
+	for (int start = 0; start < rows.length; start += PeakListBinaryFormat.ROWS_PER_BLOCK) {
+
+	    if (canceled)
+		return;
+
+	    final int end = Math.min(rows.length, start
+		    + PeakListBinaryFormat.ROWS_PER_BLOCK);
+	    writeBlock(rows, start, end);
+	    finishedRows = end;
+	}
+
+	writeSection(PeakListBinaryFormat.SECTION_END);
+	out.flush();
+    }
+
+    private void writeHeader(PeakList peakList) throws IOException {
+
+	writeString(section, peakList.getName());
+
+	String dateText = null;
+	if (peakList instanceof SimplePeakList)
+	    dateText = ((SimplePeakList) peakList).getDateCreated();
+	else if (peakList instanceof ColumnarPeakList)
+	    dateText = ((ColumnarPeakList) peakList).getDateCreated();
+	if (dateText == null) {
+	    synchronized (PeakListSaveHandler.dateFormat) {
+		dateText = PeakListSaveHandler.dateFormat.format(new Date());
+	    }
+	}
+	writeString(section, dateText);
+
+	section.writeInt(numberOfRows);
+
+	PeakListAppliedMethod[] processes = peakList.getAppliedMethods();
+	section.writeInt(processes.length);
+	for (PeakListAppliedMethod proc : processes) {
+	    writeString(section, proc.getDescription());
+	    writeString(section, proc.getParameters());
+	}
+
+	RawDataFile[] dataFiles = peakList.getRawDataFiles();
+	section.writeInt(dataFiles.length);
+	for (RawDataFile dataFile : dataFiles)
+	    section.writeInt(getDataFileID(dataFile));
+
+	// Feature statuses are stored as indexes into this table
+	FeatureStatus statuses[] = FeatureStatus.values();
+	section.writeInt(statuses.length);
+	for (FeatureStatus status : statuses)
+	    writeString(section, status.name());
+
+	writeSection(PeakListBinaryFormat.SECTION_HEADER);
+    }
+
+    /**
+     * Writes the rows from start (inclusive) to end (exclusive) as one block
+     * of columnar sections
+     */
+    private void writeBlock(PeakListRow rows[], int start, int end)
+	    throws IOException {
+
+	final int numOfRows = end - start;
+
+	// Rows
+	section.writeInt(numOfRows);
+	int numOfFeatures = 0;
+	for (int i = start; i < end; i++)
+	    section.writeInt(rows[i].getID());
+	for (int i = start; i < end; i++)
+	    writeString(section, rows[i].getComment());
+	for (int i = start; i < end; i++) {
+	    final int numOfPeaks = rows[i].getNumberOfPeaks();
+	    section.writeInt(numOfPeaks);
+	    numOfFeatures += numOfPeaks;
+	}
+	writeSection(PeakListBinaryFormat.SECTION_ROWS);
+
+	// Collect the features of the block
+	Feature features[] = new Feature[numOfFeatures];
+	int featureIndex = 0;
+	for (int i = start; i < end; i++) {
+	    for (Feature feature : rows[i].getPeaks())
+		features[featureIndex++] = feature;
+	}
+
+	// Features
+	section.writeInt(numOfFeatures);
+	for (Feature f : features)
+	    section.writeInt(getDataFileID(f.getDataFile()));
+	for (Feature f : features)
+	    section.writeDouble(f.getMZ());
+	for (Feature f : features)
+	    section.writeDouble(f.getRT());
+	for (Feature f : features)
+	    section.writeDouble(f.getHeight());
+	for (Feature f : features)
+	    section.writeDouble(f.getArea());
+	for (Feature f : features)
+	    section.writeByte(f.getFeatureStatus().ordinal());
+	for (Feature f : features)
+	    section.writeInt(f.getCharge());
+	for (Feature f : features)
+	    section.writeInt(f.getRepresentativeScanNumber());
+	for (Feature f : features)
+	    section.writeInt(f.getMostIntenseFragmentScanNumber());
+	for (Feature f : features)
+	    section.writeInt(f.getScanNumbers().length);
+	writeSection(PeakListBinaryFormat.SECTION_FEATURES);
+
+	if (canceled)
+	    return;
+
+	// Data points per scan, concatenated for all features
+	int numOfDataPoints = 0;
+	for (Feature f : features)
+	    numOfDataPoints += f.getScanNumbers().length;
+	section.writeInt(numOfDataPoints);
+	for (Feature f : features) {
+	    for (int scan : f.getScanNumbers())
+		section.writeInt(scan);
+	}
+	for (Feature f : features) {
+	    for (int scan : f.getScanNumbers()) {
+		DataPoint dp = f.getDataPoint(scan);
+		section.writeFloat(dp != null ? (float) dp.getMZ() : 0f);
+	    }
+	}
+	for (Feature f : features) {
+	    for (int scan : f.getScanNumbers()) {
+		DataPoint dp = f.getDataPoint(scan);
+		section.writeFloat(dp != null ? (float) dp.getIntensity() : 0f);
+	    }
+	}
+	writeSection(PeakListBinaryFormat.SECTION_DATA_POINTS);
+
+	// Identities
+	for (int i = start; i < end; i++) {
+	    PeakIdentity preferredIdentity = rows[i].getPreferredPeakIdentity();
+	    PeakIdentity identities[] = rows[i].getPeakIdentities();
+	    section.writeInt(identities.length);
+	    int preferredIndex = -1;
+	    for (int j = 0; j < identities.length; j++) {
+		if (identities[j] == preferredIdentity)
+		    preferredIndex = j;
+	    }
+	    section.writeInt(preferredIndex);
+	    for (PeakIdentity identity : identities) {
+		Map<String, String> properties = identity.getAllProperties();
+		section.writeInt(properties.size());
+		for (Entry<String, String> property : properties.entrySet()) {
+		    writeString(section, property.getKey());
+		    writeString(section, property.getValue());
+		}
+	    }
+	}
+	writeSection(PeakListBinaryFormat.SECTION_IDENTITIES);
+
+	// Isotope patterns
+	for (Feature f : features) {
+	    IsotopePattern pattern = f.getIsotopePattern();
+	    if (pattern == null) {
+		section.writeInt(-1);
+		continue;
+	    }
+	    DataPoint isotopes[] = pattern.getDataPoints();
+	    section.writeInt(isotopes.length);
+	    writeString(section, pattern.getStatus().name());
+	    writeString(section, pattern.getDescription());
+	    for (DataPoint isotope : isotopes)
+		section.writeDouble(isotope.getMZ());
+	    for (DataPoint isotope : isotopes)
+		section.writeDouble(isotope.getIntensity());
+	}
+	writeSection(PeakListBinaryFormat.SECTION_ISOTOPE_PATTERNS);
+
+    }
+
+    /**
+     * Writes the collected section data, prefixed with the section ID and
+     * length
+     */
+    private void writeSection(int sectionID) throws IOException {
+	section.flush();
+	out.writeInt(sectionID);
+	out.writeInt(sectionBytes.size());
+	sectionBytes.writeTo(out);
+	sectionBytes.reset();
+    }
+
+    private int getDataFileID(RawDataFile dataFile) throws IOException {
+	String ID = dataFilesIDMap.get(dataFile);
+	if (ID == null)
+	    throw new IOException("Raw data file " + dataFile
+		    + " is not part of the saved project");
+	return Integer.parseInt(ID);
+    }
+
+    /**
+     * @return the progress of saving the peak list
+     */
+    public double getProgress() {
+	if (numberOfRows == 0)
+	    return 0;
+	return (double) finishedRows / numberOfRows;
+    }
+
+    public void cancel() {
+	canceled = true;
+    }
+
+}
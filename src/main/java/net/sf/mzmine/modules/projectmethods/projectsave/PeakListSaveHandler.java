@@ -113,11 +113,16 @@ public class PeakListSaveHandler {
 
 	// <PEAKLIST_DATE>
 	String dateText = "";
-	if (((SimplePeakList) peakList).getDateCreated() == null) {
+	if ((peakList instanceof SimplePeakList)
+		&& (((SimplePeakList) peakList).getDateCreated() == null)) {
 	    dateText = ((SimplePeakList) peakList).getDateCreated();
 	} else {
 	    Date date = new Date();
-	    dateText = dateFormat.format(date);
+	    // Peak lists may be saved concurrently, and DateFormat is not
+	    // thread-safe
+	    synchronized (dateFormat) {
+		dateText = dateFormat.format(date);
+	    }
 	}
 	hd.startElement("", "",
 		PeakListElementName.PEAKLIST_DATE.getElementName(), atts);
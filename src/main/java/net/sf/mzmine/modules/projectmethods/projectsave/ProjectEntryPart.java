@@ -0,0 +1,163 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import net.sf.mzmine.util.StreamCopy;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * A single project file entry which is serialized and compressed into a
+ * temporary file by a worker thread, and later appended to the project ZIP
+ * file without compressing it again. This allows the objects of a project to
+ * be saved concurrently while the ZIP file itself is written sequentially.
+ */
+class ProjectEntryPart {
+
+    private final String name;
+    private final boolean stored;
+    private final File partFile;
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final CountingOutputStream uncompressedCounter,
+            compressedCounter;
+    private final OutputStream outputStream;
+
+    private boolean finished = false;
+
+    /**
+     * @param stored
+     *            if true, the entry is STORED and page-aligned (see
+     *            MappableScansEntry), otherwise it is deflated
+     * @param tempDir
+     *            directory for the temporary file
+     */
+    ProjectEntryPart(String name, boolean stored, File tempDir)
+            throws IOException {
+        this.name = name;
+        this.stored = stored;
+
+        partFile = File.createTempFile("mzmineproject", ".part", tempDir);
+        partFile.deleteOnExit();
+
+        compressedCounter = new CountingOutputStream(new BufferedOutputStream(
+                new FileOutputStream(partFile), 1 << 16));
+
+        OutputStream dataStream;
+        if (stored) {
+            deflater = null;
+            dataStream = compressedCounter;
+        } else {
+            // Raw deflate data, as stored inside ZIP entries
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            dataStream = new DeflaterOutputStream(compressedCounter, deflater,
+                    1 << 16);
+        }
+        uncompressedCounter = new CountingOutputStream(dataStream);
+        outputStream = new CheckedOutputStream(uncompressedCounter, crc);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the stream receiving the uncompressed entry data
+     */
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Completes the compression and closes the temporary file
+     */
+    void finish() throws IOException {
+        if (finished)
+            return;
+        finished = true;
+        try {
+            outputStream.close();
+        } finally {
+            if (deflater != null)
+                deflater.end();
+        }
+    }
+
+    /**
+     * Appends this entry to the project ZIP file. Must be called after
+     * finish().
+     */
+    void writeTo(ZipArchiveOutputStream zipStream) throws IOException {
+
+        final long size = uncompressedCounter.getCount();
+        final InputStream partStream = new FileInputStream(partFile);
+
+        try {
+            if (stored) {
+                // Raw entries do not keep their alignment, so we copy the
+                // data through a new aligned entry
+                zipStream.putArchiveEntry(MappableScansEntry.createEntry(name,
+                        size, crc.getValue()));
+                StreamCopy copyMachine = new StreamCopy();
+                copyMachine.copy(partStream, zipStream);
+                zipStream.closeArchiveEntry();
+            } else {
+                ZipArchiveEntry entry = new ZipArchiveEntry(name);
+                entry.setMethod(ZipEntry.DEFLATED);
+                entry.setCrc(crc.getValue());
+                entry.setSize(size);
+                entry.setCompressedSize(compressedCounter.getCount());
+                zipStream.addRawArchiveEntry(entry, partStream);
+            }
+        } finally {
+            partStream.close();
+        }
+    }
+
+    /**
+     * Removes the temporary file
+     */
+    void delete() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // Ignore, we are discarding the data anyway
+        }
+        partFile.delete();
+    }
+
+}
@@ -21,31 +21,55 @@ package net.sf.mzmine.modules.projectmethods.projectsave;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.xml.transform.TransformerConfigurationException;
 
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.desktop.impl.MainWindow;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoaderParameters;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectPeakListLoader;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.StreamCopy;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.xml.sax.SAXException;
 
+/**
+ * Saves the project into a ZIP file. Raw data files and peak lists that were
+ * not modified since the project was last saved or loaded are copied from the
+ * previous project file as they are, without serializing and compressing them
+ * again. The other objects are serialized and compressed concurrently, and
+ * the resulting entries are appended to the ZIP file in the project order.
+ */
 public class ProjectSavingTask extends AbstractTask {
 
     public static final String VERSION_FILENAME = "MZMINE_VERSION";
@@ -57,24 +81,33 @@ public class ProjectSavingTask extends AbstractTask {
     private File saveFile;
     private MZmineProjectImpl savedProject;
 
-    private RawDataFileSaveHandler rawDataFileSaveHandler;
-    private PeakListSaveHandler peakListSaveHandler;
     private UserParameterSaveHandler userParameterSaveHandler;
 
-    private final int totalSaveItems;
-    private int currentStage, finishedSaveItems = 0;
+    private int currentStage;
     private String currentSavedObjectName;
 
+    // Raw data files and peak lists, in the order of the saved project
+    private SavedObject savedObjects[];
+
+    // Serializes and compresses the raw data files and peak lists
+    private ExecutorService executor;
+
     // This hashtable maps raw data files to their ID within the saved project
     private Hashtable<RawDataFile, String> dataFilesIDMap;
 
+    // This hashtable maps peak lists to their ZIP entry within the saved
+    // project
+    private Hashtable<PeakList, String> peakListEntriesMap;
+
+    // Project file saved previously, from which we copy unchanged objects
+    private ZipFile previousArchive;
+
     public ProjectSavingTask(MZmineProject project, ParameterSet parameters) {
         this.savedProject = (MZmineProjectImpl) project;
         this.saveFile = parameters
                 .getParameter(ProjectLoaderParameters.projectFile).getValue();
         dataFilesIDMap = new Hashtable<RawDataFile, String>();
-        this.totalSaveItems = project.getDataFiles().length
-                + project.getPeakLists().length;
+        peakListEntriesMap = new Hashtable<PeakList, String>();
     }
 
     /**
@@ -91,31 +124,25 @@ public class ProjectSavingTask extends AbstractTask {
      */
     public double getFinishedPercentage() {
 
-        if (totalSaveItems == 0)
-            return 0.0;
-
-        double currentItemProgress = 0.0;
-
         switch (currentStage) {
         case 2:
-            if (rawDataFileSaveHandler != null)
-                currentItemProgress = rawDataFileSaveHandler.getProgress();
             break;
         case 3:
-            if (peakListSaveHandler != null)
-                currentItemProgress = peakListSaveHandler.getProgress();
-            break;
         case 4:
-        case 5:
             return 1.0;
         default:
             return 0;
         }
 
-        double progress = ((double) finishedSaveItems + currentItemProgress)
-                / totalSaveItems;
+        final SavedObject objects[] = savedObjects;
+        if ((objects == null) || (objects.length == 0))
+            return 0.0;
+
+        double progress = 0.0;
+        for (SavedObject object : objects)
+            progress += object.getProgress();
 
-        return progress;
+        return progress / objects.length;
     }
 
     /**
@@ -127,11 +154,11 @@ public class ProjectSavingTask extends AbstractTask {
 
         setStatus(TaskStatus.CANCELED);
 
-        if (rawDataFileSaveHandler != null)
-            rawDataFileSaveHandler.cancel();
-
-        if (peakListSaveHandler != null)
-            peakListSaveHandler.cancel();
+        final SavedObject objects[] = savedObjects;
+        if (objects != null) {
+            for (SavedObject object : objects)
+                object.cancel();
+        }
 
         if (userParameterSaveHandler != null)
             userParameterSaveHandler.cancel();
@@ -143,11 +170,16 @@ public class ProjectSavingTask extends AbstractTask {
      */
     public void run() {
 
+        boolean saved = false;
+
         try {
 
             logger.info("Saving project to " + saveFile);
             setStatus(TaskStatus.PROCESSING);
 
+            // Open the previous project file, if there is any
+            openPreviousArchive();
+
             // Prepare a temporary ZIP file. We create this file in the same
             // directory as the final saveFile to avoid moving between
             // filesystems in the last stage (renameTo)
@@ -156,8 +188,8 @@ public class ProjectSavingTask extends AbstractTask {
             tempFile.deleteOnExit();
 
             // Create a ZIP stream writing to the temporary file
-            FileOutputStream tempStream = new FileOutputStream(tempFile);
-            ZipOutputStream zipStream = new ZipOutputStream(tempStream);
+            ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(
+                    tempFile);
 
             // Stage 1 - save version and configuration
             currentStage++;
@@ -169,25 +201,16 @@ public class ProjectSavingTask extends AbstractTask {
                 return;
             }
 
-            // Stage 2 - save RawDataFile objects
-            currentStage++;
-            saveRawDataFiles(zipStream);
-            if (isCanceled()) {
-                zipStream.close();
-                tempFile.delete();
-                return;
-            }
-
-            // Stage 3 - save PeakList objects
+            // Stage 2 - save RawDataFile and PeakList objects
             currentStage++;
-            savePeakLists(zipStream);
+            saveObjects(zipStream, tempFile.getParentFile());
             if (isCanceled()) {
                 zipStream.close();
                 tempFile.delete();
                 return;
             }
 
-            // Stage 4 - save user parameters
+            // Stage 3 - save user parameters
             currentStage++;
             saveUserParameters(zipStream);
             if (isCanceled()) {
@@ -196,11 +219,14 @@ public class ProjectSavingTask extends AbstractTask {
                 return;
             }
 
-            // Stage 5 - finish and close the temporary ZIP file
+            // Stage 4 - finish and close the temporary ZIP file
             currentStage++;
             currentSavedObjectName = null;
             zipStream.close();
 
+            // The previous project file may be the one we are replacing
+            closePreviousArchive();
+
             // Final check for cancel
             if (isCanceled()) {
                 tempFile.delete();
@@ -220,6 +246,9 @@ public class ProjectSavingTask extends AbstractTask {
 
             // Update the location of the project
             savedProject.setProjectFile(saveFile);
+            savedProject.setSavedEntries(dataFilesIDMap, peakListEntriesMap);
+            updatePeakListLoaders();
+            saved = true;
 
             // Update the window title to reflect the new name of the project
             if (MZmineCore.getDesktop() instanceof MainWindow) {
@@ -244,6 +273,17 @@ public class ProjectSavingTask extends AbstractTask {
                         + ExceptionUtils.exceptionToString(e));
             }
 
+        } finally {
+
+            shutdownExecutor();
+            closePreviousArchive();
+
+            // Modification flags were cleared as the objects were saved. If
+            // the project file was not replaced, we have to save everything
+            // again next time.
+            if (!saved)
+                markProjectModified();
+
         }
     }
 
@@ -252,14 +292,17 @@ public class ProjectSavingTask extends AbstractTask {
      * 
      * @throws java.io.IOException
      */
-    private void saveVersion(ZipOutputStream zipStream) throws IOException {
+    private void saveVersion(ZipArchiveOutputStream zipStream)
+            throws IOException {
 
-        zipStream.putNextEntry(new ZipEntry(VERSION_FILENAME));
+        zipStream.putArchiveEntry(new ZipArchiveEntry(VERSION_FILENAME));
 
         String MZmineVersion = MZmineCore.getMZmineVersion();
 
         zipStream.write(MZmineVersion.getBytes());
 
+        zipStream.closeArchiveEntry();
+
     }
 
     /**
@@ -267,14 +310,14 @@ public class ProjectSavingTask extends AbstractTask {
      * 
      * @throws java.io.IOException
      */
-    private void saveConfiguration(ZipOutputStream zipStream)
+    private void saveConfiguration(ZipArchiveOutputStream zipStream)
             throws IOException {
 
         logger.info("Saving configuration file");
 
         currentSavedObjectName = "configuration";
 
-        zipStream.putNextEntry(new ZipEntry(CONFIG_FILENAME));
+        zipStream.putArchiveEntry(new ZipArchiveEntry(CONFIG_FILENAME));
         File tempConfigFile = File.createTempFile("mzmineconfig", ".tmp");
 
         try {
@@ -291,63 +334,121 @@ public class ProjectSavingTask extends AbstractTask {
 
         fileStream.close();
         tempConfigFile.delete();
+
+        zipStream.closeArchiveEntry();
     }
 
     /**
-     * Save the raw data files
+     * Save the raw data files and peak lists. Objects which need to be
+     * serialized are compressed concurrently into temporary entry parts, which
+     * are appended to the ZIP file in project order as soon as they are ready.
      * 
-     * @throws SAXException
-     * @throws TransformerConfigurationException
+     * @param tempDir
+     *            directory for the entry parts
      */
-    private void saveRawDataFiles(ZipOutputStream zipStream) throws IOException,
-            TransformerConfigurationException, SAXException {
+    private void saveObjects(ZipArchiveOutputStream zipStream, File tempDir)
+            throws Exception {
 
-        rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream);
+        final boolean storeScansUncompressed = MZmineCore.getConfiguration()
+                .getPreferences()
+                .getParameter(MZminePreferences.mappableProjectScans)
+                .getValue();
 
         RawDataFile rawDataFiles[] = savedProject.getDataFiles();
+        PeakList peakLists[] = savedProject.getPeakLists();
 
-        for (int i = 0; i < rawDataFiles.length; i++) {
+        // The IDs of the raw data files have to be known before we decide
+        // which peak lists can be copied
+        for (int i = 0; i < rawDataFiles.length; i++)
+            dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
 
-            if (isCanceled())
-                return;
+        SavedObject objects[] = new SavedObject[rawDataFiles.length
+                + peakLists.length];
 
-            currentSavedObjectName = rawDataFiles[i].getName();
-            rawDataFileSaveHandler
-                    .writeRawDataFile((RawDataFileImpl) rawDataFiles[i], i + 1);
-            dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
-            finishedSaveItems++;
-        }
-    }
+        for (int i = 0; i < rawDataFiles.length; i++) {
 
-    /**
-     * Save the peak lists
-     * 
-     * @throws SAXException
-     * @throws TransformerConfigurationException
-     */
-    private void savePeakLists(ZipOutputStream zipStream) throws IOException,
-            TransformerConfigurationException, SAXException {
+            RawDataFileImpl rawDataFile = (RawDataFileImpl) rawDataFiles[i];
+            SavedObject object = new SavedObject(rawDataFile.getName());
+            objects[i] = object;
+
+            final String rawDataSavedName = "Raw data file #" + (i + 1) + " "
+                    + rawDataFile.getName();
+
+            // Copy the file from the previous project file, if it has not
+            // changed and its scans are stored the way we want
+            final String previousID = savedProject
+                    .getSavedDataFileID(rawDataFile);
+            final String previousName = "Raw data file #" + previousID + " "
+                    + rawDataFile.getName();
+            if ((previousID != null) && (!rawDataFile.isModified())
+                    && hasPreviousEntry(previousName + ".xml")
+                    && hasPreviousEntry(previousName + ".scans")
+                    && (isPreviousEntryStored(previousName + ".scans") == storeScansUncompressed)) {
+                object.copyPreviousEntry(previousName + ".scans",
+                        rawDataSavedName + ".scans");
+                object.copyPreviousEntry(previousName + ".xml",
+                        rawDataSavedName + ".xml");
+            } else {
+                rawDataFile.setModified(false);
+                object.saveRawDataFile(rawDataFile, i + 1, tempDir,
+                        storeScansUncompressed);
+            }
+        }
 
-        PeakList peakLists[] = savedProject.getPeakLists();
+        // Peak lists may share peaks and identities, whose modification flags
+        // are cleared when the first of them is saved, so check all peak
+        // lists before saving any of them
+        boolean modifiedPeakLists[] = new boolean[peakLists.length];
+        for (int i = 0; i < peakLists.length; i++)
+            modifiedPeakLists[i] = isModified(peakLists[i]);
 
         for (int i = 0; i < peakLists.length; i++) {
 
-            if (isCanceled())
-                return;
-
-            logger.info("Saving peak list: " + peakLists[i].getName());
+            SavedObject object = new SavedObject(peakLists[i].getName());
+            objects[rawDataFiles.length + i] = object;
 
             String peakListSavedName = "Peak list #" + (i + 1) + " "
                     + peakLists[i].getName();
 
-            zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+            // Copy the peak list from the previous project file, if it has
+            // not changed and its raw data files kept their IDs
+            String previousEntry = savedProject
+                    .getSavedPeakListEntry(peakLists[i]);
+            if ((previousEntry != null)
+                    && (!modifiedPeakLists[i])
+                    && haveSameIDs(peakLists[i].getRawDataFiles())
+                    && hasPreviousEntry(previousEntry)) {
+                // Keep the format of the previous entry
+                peakListSavedName += previousEntry.substring(previousEntry
+                        .lastIndexOf('.'));
+                object.copyPreviousEntry(previousEntry, peakListSavedName);
+            } else {
+                peakListSavedName += PeakListBinaryFormat.EXTENSION;
+                setModified(peakLists[i], false);
+                object.savePeakList(peakLists[i], peakListSavedName, tempDir);
+            }
+
+            peakListEntriesMap.put(peakLists[i], peakListSavedName);
+        }
+
+        savedObjects = objects;
+
+        // Start serializing the objects
+        NumOfThreadsParameter threadsParameter = MZmineCore.getConfiguration()
+                .getPreferences().getParameter(MZminePreferences.numOfThreads);
+        executor = Executors.newFixedThreadPool(threadsParameter
+                .getNumOfThreads());
+        for (SavedObject object : objects)
+            object.submit(executor);
 
-            peakListSaveHandler = new PeakListSaveHandler(zipStream,
-                    dataFilesIDMap);
+        // Write the objects into the ZIP file in the project order
+        for (SavedObject object : objects) {
+
+            if (isCanceled())
+                return;
 
-            currentSavedObjectName = peakLists[i].getName();
-            peakListSaveHandler.savePeakList(peakLists[i]);
-            finishedSaveItems++;
+            currentSavedObjectName = object.name;
+            object.writeTo(zipStream);
         }
     }
 
@@ -357,23 +458,335 @@ public class ProjectSavingTask extends AbstractTask {
      * @throws SAXException
      * @throws TransformerConfigurationException
      */
-    private void saveUserParameters(ZipOutputStream zipStream)
+    private void saveUserParameters(ZipArchiveOutputStream zipStream)
             throws IOException, TransformerConfigurationException,
             SAXException {
 
         if (isCanceled())
             return;
 
+        currentSavedObjectName = "User parameters";
+
+        // The parameters refer to raw data files by their IDs, so we can only
+        // copy them if the IDs did not change
+        if ((!savedProject.isModified())
+                && haveSameIDs(savedProject.getDataFiles())
+                && hasPreviousEntry(PARAMETERS_FILENAME)) {
+            logger.info("Copying unchanged user parameters from the previous project file");
+            copyPreviousEntry(PARAMETERS_FILENAME, PARAMETERS_FILENAME,
+                    zipStream);
+            return;
+        }
+
         logger.info("Saving user parameters");
 
-        zipStream.putNextEntry(new ZipEntry(PARAMETERS_FILENAME));
+        savedProject.setModified(false);
+
+        zipStream.putArchiveEntry(new ZipArchiveEntry(PARAMETERS_FILENAME));
 
         userParameterSaveHandler = new UserParameterSaveHandler(zipStream,
                 savedProject, dataFilesIDMap);
 
-        currentSavedObjectName = "User parameters";
         userParameterSaveHandler.saveParameters();
 
+        zipStream.closeArchiveEntry();
+
+    }
+
+    /**
+     * Opens the file the project was last saved to or loaded from. If it is
+     * not available, all objects are saved from scratch.
+     */
+    private void openPreviousArchive() {
+        File previousFile = savedProject.getProjectFile();
+        if ((previousFile == null) || (!previousFile.canRead()))
+            return;
+        try {
+            previousArchive = new ZipFile(previousFile);
+        } catch (IOException e) {
+            logger.warning("Could not open the previous project file "
+                    + previousFile + ", saving all objects: " + e);
+        }
+    }
+
+    private void closePreviousArchive() {
+        if (previousArchive == null)
+            return;
+        ZipFile.closeQuietly(previousArchive);
+        previousArchive = null;
+    }
+
+    private boolean hasPreviousEntry(String entryName) {
+        if (previousArchive == null)
+            return false;
+        return previousArchive.getEntry(entryName) != null;
+    }
+
+    private boolean isPreviousEntryStored(String entryName) {
+        return previousArchive.getEntry(entryName).getMethod() == ZipEntry.STORED;
+    }
+
+    /**
+     * Returns true if all the given raw data files keep the IDs they had in
+     * the previous project file
+     */
+    private boolean haveSameIDs(RawDataFile dataFiles[]) {
+        for (RawDataFile dataFile : dataFiles) {
+            String previousID = savedProject.getSavedDataFileID(dataFile);
+            if ((previousID == null)
+                    || (!previousID.equals(dataFilesIDMap.get(dataFile))))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies an entry from the previous project file under a new name,
+     * without decompressing it
+     */
+    private void copyPreviousEntry(String previousName, String newName,
+            ZipArchiveOutputStream zipStream) throws IOException {
+
+        ZipArchiveEntry previousEntry = previousArchive.getEntry(previousName);
+        InputStream rawStream = previousArchive
+                .getRawInputStream(previousEntry);
+
+        try {
+            if (previousEntry.getMethod() == ZipEntry.STORED) {
+                // Raw copies do not keep the alignment of uncompressed scan
+                // data, so we copy the bytes through a new aligned entry
+                zipStream.putArchiveEntry(MappableScansEntry.createEntry(
+                        newName, previousEntry.getSize(),
+                        previousEntry.getCrc()));
+                StreamCopy copyMachine = new StreamCopy();
+                copyMachine.copy(rawStream, zipStream);
+                zipStream.closeArchiveEntry();
+            } else {
+                ZipArchiveEntry newEntry = new ZipArchiveEntry(newName);
+                newEntry.setMethod(previousEntry.getMethod());
+                newEntry.setCrc(previousEntry.getCrc());
+                newEntry.setSize(previousEntry.getSize());
+                newEntry.setCompressedSize(previousEntry.getCompressedSize());
+                zipStream.addRawArchiveEntry(newEntry, rawStream);
+            }
+        } finally {
+            rawStream.close();
+        }
+    }
+
+    /**
+     * Stops the serialization of objects which were not saved, and removes
+     * all temporary entry parts
+     */
+    private void shutdownExecutor() {
+        if (executor == null)
+            return;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            // Continue removing the entry parts that are complete
+        }
+        for (SavedObject object : savedObjects)
+            object.deleteEntryParts();
+        executor = null;
+    }
+
+    /**
+     * Points the peak lists whose rows are loaded on demand to their entries
+     * in the new project file, as the previous file may no longer exist
+     */
+    private void updatePeakListLoaders() {
+        Hashtable<String, RawDataFile> savedFiles = new Hashtable<>();
+        for (RawDataFile dataFile : dataFilesIDMap.keySet())
+            savedFiles.put(dataFilesIDMap.get(dataFile), dataFile);
+        for (PeakList peakList : peakListEntriesMap.keySet()) {
+            if (!(peakList instanceof SimplePeakList))
+                continue;
+            SimplePeakList.RowLoader loader = ((SimplePeakList) peakList)
+                    .getRowLoader();
+            if (loader instanceof ProjectPeakListLoader) {
+                ((ProjectPeakListLoader) loader).setSource(saveFile,
+                        peakListEntriesMap.get(peakList), savedFiles);
+            }
+        }
+    }
+
+    /**
+     * Marks all objects of the project as modified, so they are saved again
+     */
+    private void markProjectModified() {
+        savedProject.setModified(true);
+        for (RawDataFile dataFile : savedProject.getDataFiles()) {
+            if (dataFile instanceof RawDataFileImpl)
+                ((RawDataFileImpl) dataFile).setModified(true);
+        }
+        for (PeakList peakList : savedProject.getPeakLists()) {
+            setModified(peakList, true);
+        }
+    }
+
+    /**
+     * Returns true if the given peak list was changed since it was last saved
+     * or loaded. Peak lists which do not track their changes are always
+     * considered modified.
+     */
+    private static boolean isModified(PeakList peakList) {
+        if (peakList instanceof SimplePeakList)
+            return ((SimplePeakList) peakList).isModified();
+        if (peakList instanceof ColumnarPeakList)
+            return ((ColumnarPeakList) peakList).isModified();
+        return true;
+    }
+
+    private static void setModified(PeakList peakList, boolean modified) {
+        if (peakList instanceof SimplePeakList)
+            ((SimplePeakList) peakList).setModified(modified);
+        else if (peakList instanceof ColumnarPeakList)
+            ((ColumnarPeakList) peakList).setModified(modified);
+    }
+
+    /**
+     * A raw data file or peak list within the saved project. The object is
+     * either copied from the previous project file, or serialized by a worker
+     * thread into entry parts.
+     */
+    private class SavedObject implements Callable<Void> {
+
+        private final String name;
+
+        // Entries copied from the previous project file, as pairs of the
+        // previous and the new entry name
+        private final List<String[]> copiedEntries = new ArrayList<String[]>();
+
+        private RawDataFileImpl rawDataFile;
+        private int rawDataFileNumber;
+        private RawDataFileSaveHandler rawDataFileSaveHandler;
+
+        private PeakList peakList;
+        private PeakListBinarySaveHandler peakListSaveHandler;
+        private final List<ProjectEntryPart> entryParts;
+
+        private Future<Void> future;
+        private boolean written = false;
+
+        SavedObject(String name) {
+            this.name = name;
+            this.entryParts = new ArrayList<ProjectEntryPart>();
+        }
+
+        void copyPreviousEntry(String previousName, String newName) {
+            copiedEntries.add(new String[] { previousName, newName });
+        }
+
+        void saveRawDataFile(RawDataFileImpl rawDataFile, int number,
+                File tempDir, boolean storeScansUncompressed) {
+            this.rawDataFile = rawDataFile;
+            this.rawDataFileNumber = number;
+            rawDataFileSaveHandler = new RawDataFileSaveHandler(tempDir,
+                    storeScansUncompressed);
+        }
+
+        void savePeakList(PeakList peakList, String peakListSavedName,
+                File tempDir) throws IOException {
+            this.peakList = peakList;
+            entryParts.add(new ProjectEntryPart(peakListSavedName, false,
+                    tempDir));
+            peakListSaveHandler = new PeakListBinarySaveHandler(entryParts
+                    .get(0).getOutputStream(), dataFilesIDMap);
+        }
+
+        void submit(ExecutorService executor) {
+            if ((rawDataFileSaveHandler != null)
+                    || (peakListSaveHandler != null))
+                future = executor.submit(TaskMetrics.propagate(this));
+        }
+
+        /**
+         * Serializes the object, running in a worker thread
+         */
+        public Void call() throws Exception {
+            if (rawDataFileSaveHandler != null) {
+                logger.info("Saving raw data file: " + name);
+                try {
+                    rawDataFileSaveHandler.writeRawDataFile(rawDataFile,
+                            rawDataFileNumber);
+                } finally {
+                    synchronized (this) {
+                        entryParts.addAll(rawDataFileSaveHandler
+                                .getEntryParts());
+                    }
+                }
+            }
+            if (peakListSaveHandler != null) {
+                logger.info("Saving peak list: " + name);
+                peakListSaveHandler.savePeakList(peakList);
+            }
+            for (ProjectEntryPart part : entryParts)
+                part.finish();
+            return null;
+        }
+
+        /**
+         * Waits for the object to be serialized and appends its entries to
+         * the ZIP file
+         */
+        void writeTo(ZipArchiveOutputStream zipStream) throws Exception {
+
+            for (String names[] : copiedEntries) {
+                logger.info("Copying " + names[1]
+                        + " from the previous project file");
+                ProjectSavingTask.this.copyPreviousEntry(names[0], names[1],
+                        zipStream);
+            }
+
+            if (future != null) {
+                try {
+                    future.get();
+                } catch (CancellationException e) {
+                    return;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception)
+                        throw (Exception) cause;
+                    throw (Error) cause;
+                }
+                if (isCanceled())
+                    return;
+                for (ProjectEntryPart part : entryParts) {
+                    part.writeTo(zipStream);
+                    part.delete();
+                }
+            }
+
+            written = true;
+        }
+
+        double getProgress() {
+            if (written)
+                return 1.0;
+            // Leave the last 10% for appending the entries to the ZIP file
+            if (rawDataFileSaveHandler != null)
+                return 0.9 * rawDataFileSaveHandler.getProgress();
+            if (peakListSaveHandler != null)
+                return 0.9 * peakListSaveHandler.getProgress();
+            return 0.0;
+        }
+
+        void cancel() {
+            if (future != null)
+                future.cancel(false);
+            if (rawDataFileSaveHandler != null)
+                rawDataFileSaveHandler.cancel();
+            if (peakListSaveHandler != null)
+                peakListSaveHandler.cancel();
+        }
+
+        synchronized void deleteEntryParts() {
+            for (ProjectEntryPart part : entryParts)
+                part.delete();
+        }
+
     }
 
 }
@@ -19,15 +19,14 @@
 
 package net.sf.mzmine.modules.projectmethods.projectsave;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -52,21 +51,35 @@ class RawDataFileSaveHandler {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
     private int numOfScans, completedScans;
-    private ZipOutputStream zipOutputStream;
+    private File tempDir;
+    private boolean storeScansUncompressed;
+    private final List<ProjectEntryPart> entryParts;
     private boolean canceled = false;
     private Map<Integer, Long> dataPointsOffsets;
     private Map<Integer, Long> consolidatedDataPointsOffsets;
     private Map<Integer, Integer> dataPointsLengths;
     private double progress = 0;
 
-    RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
-	this.zipOutputStream = zipOutputStream;
+    /**
+     * @param tempDir
+     *            directory for the compressed entries, until they are added
+     *            to the project file
+     * @param storeScansUncompressed
+     *            if true, the .scans entries are STORED and page-aligned (see
+     *            MappableScansEntry) instead of deflated
+     */
+    RawDataFileSaveHandler(File tempDir, boolean storeScansUncompressed) {
+	this.tempDir = tempDir;
+	this.storeScansUncompressed = storeScansUncompressed;
+	this.entryParts = new ArrayList<ProjectEntryPart>();
     }
 
     /**
      * Copy the data points file of the raw data file from the temporary folder
-     * to the zip file. Create an XML file which contains the description of the
-     * same raw data file an copy it into the same zip file.
+     * to a compressed entry. Create an XML file which contains the description
+     * of the same raw data file and compress it into another entry. The
+     * entries are available from getEntryParts() and have to be deleted by
+     * the caller, also when this method fails.
      * 
      * @param rawDataFile
      *            raw data file to be copied
@@ -92,41 +105,47 @@ class RawDataFileSaveHandler {
 	String rawDataSavedName = "Raw data file #" + number + " "
 		+ rawDataFile.getName();
 
-	zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
+	final String scansEntryName = rawDataSavedName + ".scans";
 
 	// We save only those data points that still have a reference in the
 	// dataPointsOffset table. Some deleted mass lists may still be present
 	// in the data points file, we don't want to copy those.
-	long newOffset = 0;
 	byte buffer[] = new byte[1 << 20];
-	RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
+	final int numOfStoredData = dataPointsOffsets.size();
+	int completedStoredData = 0;
+
+	final ProjectEntryPart scansPart = new ProjectEntryPart(
+		scansEntryName, storeScansUncompressed, tempDir);
+	entryParts.add(scansPart);
+	final OutputStream scansStream = scansPart.getOutputStream();
+
+	long newOffset = 0;
 	for (Integer storageID : dataPointsOffsets.keySet()) {
 
 	    if (canceled)
 		return;
 
-	    final long offset = dataPointsOffsets.get(storageID);
-	    dataPointsFile.seek(offset);
-
-	    final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
 	    consolidatedDataPointsOffsets.put(storageID, newOffset);
-	    if (buffer.length < bytes) {
-		buffer = new byte[bytes * 2];
-	    }
-	    dataPointsFile.read(buffer, 0, bytes);
-	    zipOutputStream.write(buffer, 0, bytes);
+	    buffer = ensureCapacity(buffer, dataPointsLengths.get(storageID));
+	    final int bytes = rawDataFile.readDataPointsBytes(storageID, buffer);
+	    scansStream.write(buffer, 0, bytes);
 	    newOffset += bytes;
-	    progress = 0.9 * ((double) offset / dataPointsFile.length());
+	    completedStoredData++;
+	    progress = 0.9 * ((double) completedStoredData / numOfStoredData);
 	}
 
+	scansPart.finish();
+
 	if (canceled)
 	    return;
 
 	// step 2 - save raw data description
 	logger.info("Saving raw data description of: " + rawDataFile.getName());
 
-	zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
-	OutputStream finalStream = zipOutputStream;
+	final ProjectEntryPart descriptionPart = new ProjectEntryPart(
+		rawDataSavedName + ".xml", false, tempDir);
+	entryParts.add(descriptionPart);
+	OutputStream finalStream = descriptionPart.getOutputStream();
 
 	StreamResult streamResult = new StreamResult(finalStream);
 	SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory
@@ -141,6 +160,16 @@ class RawDataFileSaveHandler {
 	hd.startDocument();
 	saveRawDataInformation(rawDataFile, hd);
 	hd.endDocument();
+
+	descriptionPart.finish();
+    }
+
+    /**
+     * Returns the project file entries written by writeRawDataFile(), in
+     * their order within the project file
+     */
+    List<ProjectEntryPart> getEntryParts() {
+	return entryParts;
     }
 
     /**
@@ -379,6 +408,16 @@ class RawDataFileSaveHandler {
 
     }
 
+    /**
+     * Returns a buffer large enough to hold the given number of data points
+     */
+    private static byte[] ensureCapacity(byte buffer[], int numOfDataPoints) {
+	final int bytes = numOfDataPoints * 4 * 2;
+	if (buffer.length < bytes)
+	    return new byte[bytes * 2];
+	return buffer;
+    }
+
     /**
      * 
      * @return the progress of these functions saving the raw data information
@@ -19,24 +19,23 @@
 
 package net.sf.mzmine.modules.rawdatamethods.peakpicking.manual;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
 import javax.swing.table.AbstractTableModel;
 
-import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.IonChromatogram;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.modules.visualization.peaklisttable.table.PeakListTable;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.ScanUtils;
 
 import com.google.common.collect.Range;
 
@@ -93,40 +92,44 @@ class ManualPickerTask extends AbstractTask {
 	    totalScans += scanNumbers.length;
 	}
 
+	@SuppressWarnings("unchecked")
+	Range<Double> mzRanges[] = new Range[] { mzRange };
+	@SuppressWarnings("unchecked")
+	Range<Double> rtRanges[] = new Range[] { rtRange };
+
 	// Find peak in each data file
 	for (RawDataFile dataFile : dataFiles) {
 
+	    if (isCanceled())
+		return;
+
 	    ManualPeak newPeak = new ManualPeak(dataFile);
 	    boolean dataPointFound = false;
 
-	    int[] scanNumbers = dataFile.getScanNumbers(1, rtRange);
-
-	    for (int scanNumber : scanNumbers) {
-
-		if (isCanceled())
-		    return;
-
-		// Get next scan
-		Scan scan = dataFile.getScan(scanNumber);
-
-		// Find most intense m/z peak
-		DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
-
-		if (basePeak != null) {
-		    if (basePeak.getIntensity() > 0)
-			dataPointFound = true;
-		    newPeak.addDatapoint(scan.getScanNumber(), basePeak);
-		} else {
-		    final double mzCenter = (mzRange.lowerEndpoint() + mzRange
-			    .upperEndpoint()) / 2.0;
-		    DataPoint fakeDataPoint = new SimpleDataPoint(mzCenter, 0);
-		    newPeak.addDatapoint(scan.getScanNumber(), fakeDataPoint);
-		}
-
-		processedScans++;
-
+	    // Most intense m/z peak of each scan, or intensity 0 at the center
+	    // of the m/z range
+	    IonChromatogram xic;
+	    try {
+		xic = dataFile.getIonChromatograms(1, mzRanges, rtRanges)[0];
+	    } catch (IOException e) {
+		setStatus(TaskStatus.ERROR);
+		setErrorMessage("Could not read the scans of " + dataFile
+			+ ": " + e);
+		return;
+	    }
+	    int scanNumbers[] = xic.getScanNumbers();
+	    double mzValues[] = xic.getMZValues();
+	    double intensities[] = xic.getIntensities();
+
+	    for (int i = 0; i < scanNumbers.length; i++) {
+		if (intensities[i] > 0)
+		    dataPointFound = true;
+		newPeak.addDatapoint(scanNumbers[i], new SimpleDataPoint(
+			mzValues[i], intensities[i]));
 	    }
 
+	    processedScans += scanNumbers.length;
+
 	    if (dataPointFound) {
 		newPeak.finalizePeak();
 		if (newPeak.getArea() > 0)
@@ -29,7 +29,9 @@ import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.OrderedParallelExecutor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 
 public class MassDetectionTask extends AbstractTask {
 
@@ -105,25 +107,22 @@ public class MassDetectionTask extends AbstractTask {
      		String job = detector.startMassValuesJob(dataFile, name, massDetector.getParameterSet(), scans.length);
      		name       = detector.filterTargetName(name);	// get the target name, the detector may change it
  
-        // Process scans one by one
-        for (Scan scan : scans) {
-
-            if (isCanceled())
-                return;
-
-            
-            DataPoint mzPeaks[] = detector.getMassValues(scan, job, massDetector.getParameterSet());
-
-            if (mzPeaks != null)
-		    {
-            	SimpleMassList newMassList = new SimpleMassList(name, scan, mzPeaks);
-		   
-            	// Add new mass list to the scan
-            	scan.addMassList(newMassList);
-		    }
-            processedScans++;
+        // Detectors without state process several scans in parallel
+        final int numOfThreads = detector.isThreadSafe() ? OrderedParallelExecutor
+                .getNumberOfThreads() : 1;
+
+        try {
+            detectMasses(detector, job, scans, numOfThreads);
+        } catch (Throwable e) {
+            setStatus(TaskStatus.ERROR);
+            setErrorMessage("Error detecting masses in " + dataFile + ": "
+                    + ExceptionUtils.exceptionToString(e));
+            return;
         }
-        
+
+        if (isCanceled())
+            return;
+
         // finish the job
      	detector.finishMassValuesJob(job);
         
@@ -133,4 +132,43 @@ public class MassDetectionTask extends AbstractTask {
 
     }
 
+    /**
+     * Detects the masses of the scans, several scans in parallel if more than
+     * one thread is given. The mass lists are still added to the scans one by
+     * one in scan order, so they are stored in the same order as by serial
+     * processing.
+     */
+    private void detectMasses(final MassDetector detector, final String job,
+            Scan scans[], int numOfThreads) throws Exception {
+
+        final ParameterSet parameters = massDetector.getParameterSet();
+
+        new OrderedParallelExecutor(this).process(scans,
+                new OrderedParallelExecutor.ItemFunction<Scan, DataPoint[]>() {
+                    public DataPoint[] processItem(int index, Scan scan) {
+                        return detector.getMassValues(scan, job, parameters);
+                    }
+                },
+                new OrderedParallelExecutor.ResultConsumer<Scan, DataPoint[]>() {
+                    public void consumeResult(int index, Scan scan,
+                            DataPoint mzPeaks[]) {
+                        addMassList(scan, mzPeaks);
+                    }
+                }, numOfThreads);
+
+    }
+
+    private void addMassList(Scan scan, DataPoint mzPeaks[]) {
+
+        if (mzPeaks != null) {
+            SimpleMassList newMassList = new SimpleMassList(name, scan,
+                    mzPeaks);
+
+            // Add new mass list to the scan
+            scan.addMassList(newMassList);
+        }
+        processedScans++;
+
+    }
+
 }
@@ -72,4 +72,13 @@ public interface MassDetector extends MZmineModule {
      * @param job 
      */
     public void finishMassValuesJob(String job);
+
+    /**
+     * Returns true if getMassValues() may be called concurrently for different
+     * scans of the same job. Detectors which compute the mass values of each
+     * scan independently, without keeping any state, are thread safe and the
+     * mass detection processes several scans in parallel. Other detectors
+     * process the scans one by one, in scan order.
+     */
+    public boolean isThreadSafe();
 }
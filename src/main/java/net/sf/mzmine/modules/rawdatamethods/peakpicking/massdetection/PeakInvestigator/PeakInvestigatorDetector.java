@@ -156,6 +156,15 @@ public class PeakInvestigatorDetector implements MassDetector
 		}
 	}
 
+	/**
+	 * The scans of a job are transmitted and their results retrieved in
+	 * order, so the mass values must be requested one scan at a time
+	 */
+	public boolean isThreadSafe()
+	{
+		return false;
+	}
+
 	/**
 	 * Retrieve the job task from a job name
 	 * 
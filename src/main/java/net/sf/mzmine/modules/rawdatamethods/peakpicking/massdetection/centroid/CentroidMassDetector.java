@@ -64,4 +64,6 @@ public class CentroidMassDetector implements MassDetector {
     }
 
     public void finishMassValuesJob(String job) {}
+
+    public boolean isThreadSafe() { return true; }
 }
@@ -251,4 +251,6 @@ public class ExactMassDetector implements MassDetector {
     }
 
     public void finishMassValuesJob(String job) {}
+
+    public boolean isThreadSafe() { return true; }
 }
@@ -107,4 +107,6 @@ public class LocalMaxMassDetector implements MassDetector {
     }
     
     public void finishMassValuesJob(String job) {}
+
+    public boolean isThreadSafe() { return true; }
 }
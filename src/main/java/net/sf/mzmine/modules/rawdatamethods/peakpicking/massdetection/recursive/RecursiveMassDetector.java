@@ -161,4 +161,6 @@ public class RecursiveMassDetector implements MassDetector {
     }
 
     public void finishMassValuesJob(String job) {}
+
+    public boolean isThreadSafe() { return true; }
 }
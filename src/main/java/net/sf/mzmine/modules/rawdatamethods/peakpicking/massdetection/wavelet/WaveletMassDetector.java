@@ -19,8 +19,9 @@
 
 package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet;
 
+import java.util.ArrayList;
 import java.util.TreeSet;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 
@@ -39,6 +40,10 @@ import net.sf.mzmine.util.SortingProperty;
  * over raw datapoints of a certain spectrum. After get the spectrum in the
  * wavelet's time domain, we use the local maxima to detect possible peaks in
  * the original raw datapoints.
+ * 
+ * The wavelet kernel only depends on the scale level and the wavelet window,
+ * so it is computed once for each combination and cached. The transform and
+ * the peak search work on primitive arrays.
  */
 public class WaveletMassDetector implements MassDetector {
 
@@ -49,7 +54,15 @@ public class WaveletMassDetector implements MassDetector {
     private static final double NPOINTS = 60000;
     private static final int WAVELET_ESL = -5;
     private static final int WAVELET_ESR = 5;
-    
+
+    /**
+     * Wavelet kernels by scale level and wavelet window
+     */
+    private static final ConcurrentHashMap<String, double[]> kernels = new ConcurrentHashMap<String, double[]>();
+
+    private static final DataPointSorter peakSorter = new DataPointSorter(
+	    SortingProperty.MZ, SortingDirection.Ascending);
+
     @Override
 	public String getDescription(String job, String str) { return str;}
 	public String filterTargetName(String name) { return name; }
@@ -63,40 +76,47 @@ public class WaveletMassDetector implements MassDetector {
 	double waveletWindow = parameters.getParameter(
 		WaveletMassDetectorParameters.waveletWindow).getValue();
 
-	DataPoint originalDataPoints[] = scan.getDataPoints();
+	return getMassValues(scan.getDataPoints(), noiseLevel, scaleLevel,
+		waveletWindow);
+    }
 
-	DataPoint waveletDataPoints[] = performCWT(originalDataPoints,
-		waveletWindow, scaleLevel);
+    /**
+     * Returns the mass values detected in the given data points, sorted by
+     * m/z
+     */
+    public DataPoint[] getMassValues(DataPoint originalDataPoints[],
+	    double noiseLevel, int scaleLevel, double waveletWindow) {
+
+	final int length = originalDataPoints.length;
+	double mzValues[] = new double[length];
+	double intensities[] = new double[length];
+	for (int i = 0; i < length; i++) {
+	    mzValues[i] = originalDataPoints[i].getMZ();
+	    intensities[i] = originalDataPoints[i].getIntensity();
+	}
 
-	DataPoint mzPeaks[] = getMzPeaks(noiseLevel, originalDataPoints,
-		waveletDataPoints);
+	double waveletIntensities[] = performCWT(intensities, waveletWindow,
+		scaleLevel);
 
-	return mzPeaks;
+	return getMzPeaks(noiseLevel, mzValues, intensities,
+		waveletIntensities);
     }
 
     /**
      * Perform the CWT over raw data points in the selected scale level
      * 
-     * @param dataPoints
+     * @param intensities
      */
-    private SimpleDataPoint[] performCWT(DataPoint[] dataPoints,
-	    double waveletWindow, int scaleLevel) {
-	int length = dataPoints.length;
-	SimpleDataPoint[] cwtDataPoints = new SimpleDataPoint[length];
-	double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
-	double[] W = new double[(int) NPOINTS];
-
-	double waveletIndex = WAVELET_ESL;
-	for (int j = 0; j < NPOINTS; j++) {
-	    // Pre calculate the values of the wavelet
-	    W[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
-	    waveletIndex += wstep;
-	}
+    private double[] performCWT(double intensities[], double waveletWindow,
+	    int scaleLevel) {
+	int length = intensities.length;
+	double cwtIntensities[] = new double[length];
 
 	/*
-	 * We only perform Translation of the wavelet in the selected scale
+	 * We only perform Translation of the wavelet in the selected scale.
+	 * kernel[k] is the wavelet value at offset k + a_esl from the center.
 	 */
-	int d = (int) NPOINTS / (WAVELET_ESR - WAVELET_ESL);
+	double kernel[] = getKernel(scaleLevel, waveletWindow);
 	int a_esl = scaleLevel * WAVELET_ESL;
 	int a_esr = scaleLevel * WAVELET_ESR;
 	double sqrtScaleLevel = Math.sqrt(scaleLevel);
@@ -112,24 +132,56 @@ public class WaveletMassDetector implements MassDetector {
 
 	    /* Perform convolution */
 	    double intensity = 0.0;
-	    for (int i = t1; i <= t2; i++) {
-		int ind = (int) (NPOINTS / 2)
-			- (((int) d * (i - dx) / scaleLevel) * (-1));
-		if (ind < 0)
-		    ind = 0;
-		if (ind >= NPOINTS)
-		    ind = (int) NPOINTS - 1;
-		intensity += dataPoints[i].getIntensity() * W[ind];
-	    }
+	    int k = t1 - dx - a_esl;
+	    for (int i = t1; i <= t2; i++, k++)
+		intensity += intensities[i] * kernel[k];
 	    intensity /= sqrtScaleLevel;
 	    // Eliminate the negative part of the wavelet map
 	    if (intensity < 0)
 		intensity = 0;
-	    cwtDataPoints[dx] = new SimpleDataPoint(dataPoints[dx].getMZ(),
-		    (double) intensity);
+	    cwtIntensities[dx] = intensity;
 	}
 
-	return cwtDataPoints;
+	return cwtIntensities;
+    }
+
+    /**
+     * Returns the wavelet values used by the convolution at each offset
+     * within the effective support of the scaled wavelet
+     */
+    private double[] getKernel(int scaleLevel, double waveletWindow) {
+
+	final String key = scaleLevel + "/" + waveletWindow;
+	double kernel[] = kernels.get(key);
+	if (kernel != null)
+	    return kernel;
+
+	double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
+	double[] W = new double[(int) NPOINTS];
+
+	double waveletIndex = WAVELET_ESL;
+	for (int j = 0; j < NPOINTS; j++) {
+	    // Pre calculate the values of the wavelet
+	    W[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
+	    waveletIndex += wstep;
+	}
+
+	// Sample the wavelet at the offsets used by the convolution
+	int d = (int) NPOINTS / (WAVELET_ESR - WAVELET_ESL);
+	int a_esl = scaleLevel * WAVELET_ESL;
+	int a_esr = scaleLevel * WAVELET_ESR;
+	kernel = new double[a_esr - a_esl + 1];
+	for (int offset = a_esl; offset <= a_esr; offset++) {
+	    int ind = (int) (NPOINTS / 2) - ((d * offset / scaleLevel) * (-1));
+	    if (ind < 0)
+		ind = 0;
+	    if (ind >= NPOINTS)
+		ind = (int) NPOINTS - 1;
+	    kernel[offset - a_esl] = W[ind];
+	}
+
+	kernels.putIfAbsent(key, kernel);
+	return kernel;
     }
 
     /**
@@ -155,21 +207,18 @@ public class WaveletMassDetector implements MassDetector {
     /**
      * This function searches for maximums from wavelet data points
      */
-    private DataPoint[] getMzPeaks(double noiseLevel,
-	    DataPoint[] originalDataPoints, DataPoint[] waveletDataPoints) {
+    private DataPoint[] getMzPeaks(double noiseLevel, double mzValues[],
+	    double intensities[], double waveletIntensities[]) {
 
-	TreeSet<DataPoint> mzPeaks = new TreeSet<DataPoint>(
-		new DataPointSorter(SortingProperty.MZ,
-			SortingDirection.Ascending));
+	ArrayList<DataPoint> mzPeaks = new ArrayList<DataPoint>();
+	boolean sorted = true;
 
-	Vector<DataPoint> rawDataPoints = new Vector<DataPoint>();
 	int peakMaxInd = 0;
-	int stopInd = waveletDataPoints.length - 1;
+	int stopInd = waveletIntensities.length - 1;
 
 	for (int ind = 0; ind <= stopInd; ind++) {
 
-	    while ((ind <= stopInd)
-		    && (waveletDataPoints[ind].getIntensity() == 0)) {
+	    while ((ind <= stopInd) && (waveletIntensities[ind] == 0)) {
 		ind++;
 	    }
 	    peakMaxInd = ind;
@@ -178,14 +227,12 @@ public class WaveletMassDetector implements MassDetector {
 	    }
 
 	    // While peak is on
-	    while ((ind <= stopInd)
-		    && (waveletDataPoints[ind].getIntensity() > 0)) {
+	    final int peakStartInd = ind;
+	    while ((ind <= stopInd) && (waveletIntensities[ind] > 0)) {
 		// Check if this is the maximum point of the peak
-		if (waveletDataPoints[ind].getIntensity() > waveletDataPoints[peakMaxInd]
-			.getIntensity()) {
+		if (waveletIntensities[ind] > waveletIntensities[peakMaxInd]) {
 		    peakMaxInd = ind;
 		}
-		rawDataPoints.add(originalDataPoints[ind]);
 		ind++;
 	    }
 
@@ -193,32 +240,37 @@ public class WaveletMassDetector implements MassDetector {
 		break;
 	    }
 
-	    rawDataPoints.add(originalDataPoints[ind]);
+	    if (intensities[peakMaxInd] > noiseLevel) {
 
-	    if (originalDataPoints[peakMaxInd].getIntensity() > noiseLevel) {
-		SimpleDataPoint peakDataPoint = new SimpleDataPoint(
-			originalDataPoints[peakMaxInd].getMZ(),
-			calcAproxIntensity(rawDataPoints));
+		// The raw data points of the peak include the first point
+		// after it
+		double aproxIntensity = 0;
+		for (int i = peakStartInd; i <= ind; i++) {
+		    if (intensities[i] > aproxIntensity)
+			aproxIntensity = intensities[i];
+		}
 
+		SimpleDataPoint peakDataPoint = new SimpleDataPoint(
+			mzValues[peakMaxInd], aproxIntensity);
+		if (!mzPeaks.isEmpty()
+			&& (peakSorter.compare(mzPeaks.get(mzPeaks.size() - 1),
+				peakDataPoint) >= 0))
+		    sorted = false;
 		mzPeaks.add(peakDataPoint);
 
 	    }
-	    rawDataPoints.clear();
 	}
 
-	return mzPeaks.toArray(new DataPoint[0]);
-
-    }
-
-    private double calcAproxIntensity(Vector<DataPoint> rawDataPoints) {
+	// The peaks are found in the order of m/z, unless the data points
+	// were not sorted
+	if (!sorted) {
+	    TreeSet<DataPoint> sortedPeaks = new TreeSet<DataPoint>(peakSorter);
+	    sortedPeaks.addAll(mzPeaks);
+	    return sortedPeaks.toArray(new DataPoint[0]);
+	}
 
-	double aproxIntensity = 0;
+	return mzPeaks.toArray(new DataPoint[0]);
 
-	for (DataPoint d : rawDataPoints) {
-	    if (d.getIntensity() > aproxIntensity)
-		aproxIntensity = d.getIntensity();
-	}
-	return aproxIntensity;
     }
 
     @Override
@@ -232,4 +284,6 @@ public class WaveletMassDetector implements MassDetector {
     }
 
 	public void finishMassValuesJob(String job) {}
+
+	public boolean isThreadSafe() { return true; }
 }
@@ -27,8 +27,8 @@ import net.sf.mzmine.datamodel.Feature.FeatureStatus;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.CompactFeature;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
-import net.sf.mzmine.datamodel.impl.SimpleFeature;
 import net.sf.mzmine.util.ScanUtils;
 
 import com.google.common.collect.Range;
@@ -201,7 +201,7 @@ class Gap {
 
 	    // Is intensity above the noise level?
 	    if (height >= noiseLevel) {
-    	    	SimpleFeature newPeak = new SimpleFeature(rawDataFile, mz, rt,
+    	    	CompactFeature newPeak = new CompactFeature(rawDataFile, mz, rt,
     		    height, area, scanNumbers, finalDataPoint,
     		    FeatureStatus.ESTIMATED, representativeScan, fragmentScan,
     		    finalRTRange, finalMZRange, finalIntensityRange);
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Resources shared by all running raw data imports. The number of files read
+ * at the same time from one disk is limited by the preferences, because
+ * concurrent reading of large files from a hard disk is slower than reading
+ * them one after another. Imports waiting for a disk are not started by the
+ * task controller, see GatedTask.
+ *
+ * The CPU intensive decoding of the spectra is done in a pool shared by all
+ * imports. The reading and decoding threads together use at most as many
+ * threads as set in the preferences: the pool gets the threads which are not
+ * reading, and when all of them are reading, the readers decode their scans
+ * themselves.
+ */
+class RawDataImportScheduler {
+
+    private static Logger logger = Logger
+	    .getLogger(RawDataImportScheduler.class.getName());
+
+    // Interval for checking whether a waiting import was canceled (ms)
+    private static final long WAIT_INTERVAL = 1000;
+
+    // Used when there are no preferences
+    private static final int DEFAULT_READERS_PER_DISK = 2;
+
+    // Idle decoding threads are stopped after this time (s)
+    private static final long DECODING_THREAD_TIMEOUT = 30;
+
+    // Number of files being read from each disk
+    private static final Map<Object, Integer> activeReaders = new HashMap<Object, Integer>();
+
+    private static ThreadPoolExecutor decodingPool;
+
+    /**
+     * Waits until the file can be read, with respect to the other files
+     * being read from the same disk. Only used by imports which were not
+     * started by the task controller, see tryAcquireReader().
+     *
+     * @return the disk of the file, to be passed to releaseReader() when the
+     *         file was read, or null if the task was canceled while waiting
+     */
+    static Object acquireReader(File file, AbstractTask task)
+	    throws InterruptedException {
+
+	final Object device = getDevice(file);
+
+	synchronized (activeReaders) {
+	    while (!task.isCanceled()) {
+		if (tryAcquire(device))
+		    return device;
+		activeReaders.wait(WAIT_INTERVAL);
+	    }
+	}
+
+	return null;
+
+    }
+
+    /**
+     * Takes a reader slot of the disk of the file if one is free, without
+     * waiting
+     *
+     * @return the disk of the file, to be passed to releaseReader() when the
+     *         file was read, or null if the disk is busy
+     */
+    static Object tryAcquireReader(File file) {
+	final Object device = getDevice(file);
+	synchronized (activeReaders) {
+	    return tryAcquire(device) ? device : null;
+	}
+    }
+
+    /**
+     * Lets the next file waiting for the disk be read
+     */
+    static void releaseReader(Object device) {
+	synchronized (activeReaders) {
+	    Integer readers = activeReaders.get(device);
+	    if ((readers == null) || (readers <= 1))
+		activeReaders.remove(device);
+	    else
+		activeReaders.put(device, readers - 1);
+	    activeReaders.notifyAll();
+	}
+    }
+
+    /**
+     * Returns the thread pool for decoding spectra, or null if all threads
+     * allowed by the preferences are reading. The number of threads follows
+     * the preferences and the number of files being read.
+     */
+    static synchronized ExecutorService getDecodingPool() {
+
+	int readers = 0;
+	synchronized (activeReaders) {
+	    for (Integer diskReaders : activeReaders.values())
+		readers += diskReaders;
+	}
+	final int numOfThreads = getNumOfThreads() - readers;
+	if (numOfThreads < 1)
+	    return null;
+
+	if (decodingPool == null) {
+	    decodingPool = new ThreadPoolExecutor(numOfThreads, numOfThreads,
+		    DECODING_THREAD_TIMEOUT, TimeUnit.SECONDS,
+		    new LinkedBlockingQueue<Runnable>(),
+		    new ThreadFactoryBuilder()
+			    .setNameFormat("Spectrum decoding thread %d")
+			    .setDaemon(true).build());
+	    decodingPool.allowCoreThreadTimeOut(true);
+	} else if (decodingPool.getMaximumPoolSize() != numOfThreads) {
+	    if (numOfThreads > decodingPool.getMaximumPoolSize()) {
+		decodingPool.setMaximumPoolSize(numOfThreads);
+		decodingPool.setCorePoolSize(numOfThreads);
+	    } else {
+		decodingPool.setCorePoolSize(numOfThreads);
+		decodingPool.setMaximumPoolSize(numOfThreads);
+	    }
+	}
+
+	return decodingPool;
+
+    }
+
+    /**
+     * Returns the number of threads set in the preferences
+     */
+    static int getNumOfThreads() {
+	// No preferences, e.g. when the import runs in a unit test
+	if (MZmineCore.getConfiguration() == null)
+	    return Runtime.getRuntime().availableProcessors();
+	NumOfThreadsParameter threadsParameter = MZmineCore.getConfiguration()
+		.getPreferences().getParameter(MZminePreferences.numOfThreads);
+	return Math.max(1, threadsParameter.getNumOfThreads());
+    }
+
+    /**
+     * Takes a reader slot of the disk, called with the lock of activeReaders
+     */
+    private static boolean tryAcquire(Object device) {
+	Integer readers = activeReaders.get(device);
+	if (readers == null)
+	    readers = 0;
+	if (readers >= getReadersPerDisk())
+	    return false;
+	activeReaders.put(device, readers + 1);
+	return true;
+    }
+
+    private static int getReadersPerDisk() {
+	if (MZmineCore.getConfiguration() == null)
+	    return DEFAULT_READERS_PER_DISK;
+	Integer readersPerDisk = MZmineCore.getConfiguration()
+		.getPreferences()
+		.getParameter(MZminePreferences.readersPerDisk).getValue();
+	if ((readersPerDisk == null) || (readersPerDisk < 1))
+	    return 1;
+	return readersPerDisk;
+    }
+
+    /**
+     * Identifies the disk (file system) of the file. If the file system
+     * cannot be determined, the root directory of the file is used.
+     */
+    private static Object getDevice(File file) {
+	try {
+	    return Files.getFileStore(file.toPath());
+	} catch (IOException e) {
+	    logger.fine("Could not determine the file system of " + file
+		    + ": " + e);
+	    return file.getAbsoluteFile().toPath().getRoot();
+	}
+    }
+
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.sf.mzmine.datamodel.RawDataFileWriter;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
+import net.sf.mzmine.util.ScanUtils;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Imports the scans of one raw data file in three stages, which run
+ * concurrently:
+ *
+ * 1. read: the import task parses the file and creates the scans, while
+ * holding one of the reader slots of the disk of the file (see
+ * RawDataImportScheduler). Import tasks implement GatedTask with
+ * acquireReader(), so they are started only when the disk is free.
+ *
+ * 2. decode: the spectra of the scans are decoded in the thread pool shared
+ * by all imports, or in the reading thread if all threads are reading
+ *
+ * 3. store: a separate thread adds the decoded scans to the raw data file, in
+ * the order in which they were read
+ *
+ * A limited number of scans may wait between the read and store stages, so
+ * the reading slows down when decoding or storing cannot keep up. If only one
+ * thread is allowed by the preferences, the scans are decoded and stored in
+ * the reading thread. The throughput of each stage can be shown in the task
+ * description.
+ *
+ * Usage: startReading(), then addScan() for each scan, finish() and finally
+ * close(), also when the import failed. Readers which have to update a scan
+ * after it was read, e.g. to add the numbers of its fragment scans, call
+ * decodeScan() when the scan is read and storeScan() when it is complete.
+ */
+public class ScanImportPipeline {
+
+    /**
+     * Decodes the spectrum of a scan created by the read stage, e.g. from
+     * Base64 text, and sets the data points of the scan.
+     */
+    public interface ScanDecoder {
+
+	/**
+	 * Called in a thread of the decoding pool. Must not modify the state
+	 * of the import task.
+	 */
+	void decode(@Nonnull SimpleScan scan) throws Exception;
+
+    }
+
+    /**
+     * A scan which is being decoded
+     */
+    public static final class PendingScan {
+
+	private final SimpleScan scan;
+	private final Future<SimpleScan> decodedScan;
+
+	private PendingScan(SimpleScan scan, Future<SimpleScan> decodedScan) {
+	    this.scan = scan;
+	    this.decodedScan = decodedScan;
+	}
+
+	/**
+	 * Returns the scan. Its data points may not be decoded yet.
+	 */
+	public @Nonnull SimpleScan getScan() {
+	    return scan;
+	}
+
+    }
+
+    /**
+     * Decoder for scans whose data points are set by the reader, which only
+     * detects the spectrum type
+     */
+    public static final ScanDecoder SPECTRUM_TYPE_DETECTOR = new ScanDecoder() {
+	public void decode(SimpleScan scan) {
+	    scan.setSpectrumType(ScanUtils.detectSpectrumType(scan
+		    .getDataPoints()));
+	}
+    };
+
+    // Maximum number of scans waiting to be decoded or stored
+    private static final int MAX_PENDING_SCANS = 256;
+
+    // Interval for checking whether the import was canceled (ms)
+    private static final long WAIT_INTERVAL = 100;
+
+    private final AbstractTask task;
+    private final File file;
+    private final RawDataFileWriter writer;
+
+    private final LinkedBlockingQueue<PendingScan> pendingScans = new LinkedBlockingQueue<PendingScan>(
+	    MAX_PENDING_SCANS);
+    private boolean serial;
+    private Thread storeThread;
+    private volatile boolean allScansAdded = false;
+    private volatile Throwable storeError;
+
+    // Reader slot of the disk, while the file is being read
+    private volatile Object device;
+    private volatile boolean waitingForDisk = false;
+
+    // Throughput of the stages
+    private volatile long startTime = 0, readEndTime = 0, storeEndTime = 0;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile int readScans = 0;
+    private final AtomicInteger decodedScans = new AtomicInteger();
+    private volatile int storedScans = 0;
+
+    public ScanImportPipeline(@Nonnull AbstractTask task, @Nonnull File file,
+	    @Nonnull RawDataFileWriter writer) {
+	this.task = task;
+	this.file = file;
+	this.writer = writer;
+    }
+
+    /**
+     * Takes a reader slot of the disk of the file if one is free, without
+     * waiting. Called by the task controller before the import task is
+     * started.
+     *
+     * @return true if the file may be read now
+     */
+    public boolean acquireReader() {
+	if (device == null)
+	    device = RawDataImportScheduler.tryAcquireReader(file);
+	return device != null;
+    }
+
+    /**
+     * Starts the store stage. If the import task was not started by the task
+     * controller, which acquires the reader slot first, waits until the file
+     * may be read.
+     *
+     * @return false if the task was canceled while waiting
+     */
+    public boolean startReading() throws InterruptedException {
+
+	if (device == null) {
+	    waitingForDisk = true;
+	    try {
+		device = RawDataImportScheduler.acquireReader(file, task);
+	    } finally {
+		waitingForDisk = false;
+	    }
+	    if (device == null)
+		return false;
+	}
+
+	startTime = System.nanoTime();
+
+	// On a single core, separate threads would only add overhead
+	serial = RawDataImportScheduler.getNumOfThreads() <= 1;
+	if (serial)
+	    return true;
+
+	storeThread = new Thread(TaskMetrics.propagate(new Runnable() {
+	    public void run() {
+		storeScans();
+	    }
+	}), "Storing scans of " + file.getName());
+	storeThread.setDaemon(true);
+	storeThread.start();
+	return true;
+
+    }
+
+    /**
+     * Opens the file for reading, counting the bytes read
+     */
+    public InputStream openInputStream() throws IOException {
+	return new BufferedInputStream(new FilterInputStream(
+		new FileInputStream(file)) {
+	    public int read() throws IOException {
+		final int b = super.read();
+		if (b >= 0)
+		    bytesRead.incrementAndGet();
+		return b;
+	    }
+
+	    public int read(byte buffer[], int offset, int length)
+		    throws IOException {
+		final int n = super.read(buffer, offset, length);
+		if (n > 0)
+		    bytesRead.addAndGet(n);
+		return n;
+	    }
+	}, 1 << 16);
+    }
+
+    /**
+     * Counts bytes read by a reader which does not use openInputStream()
+     */
+    public void addBytesRead(long bytes) {
+	bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * Adds a scan read from the file, see decodeScan() and storeScan()
+     */
+    public void addScan(@Nonnull SimpleScan scan,
+	    @Nullable ScanDecoder decoder) throws IOException,
+	    InterruptedException {
+	storeScan(decodeScan(scan, decoder));
+    }
+
+    /**
+     * Starts decoding a scan read from the file. If a decoder is given, the
+     * data points of the scan are set by the decoder in the decoding pool,
+     * otherwise the scan is stored as it is. Only fields of the scan which
+     * are not set by the decoder may be changed until the scan is passed to
+     * storeScan().
+     */
+    public @Nonnull PendingScan decodeScan(@Nonnull final SimpleScan scan,
+	    @Nullable final ScanDecoder decoder) {
+
+	readScans++;
+
+	if (decoder == null) {
+	    decodedScans.incrementAndGet();
+	    return new PendingScan(scan, Futures.immediateFuture(scan));
+	}
+
+	// All threads are reading, decode in this one
+	final ExecutorService decodingPool = serial ? null
+		: RawDataImportScheduler.getDecodingPool();
+	if (decodingPool == null) {
+	    Future<SimpleScan> decodedScan;
+	    try {
+		decoder.decode(scan);
+		decodedScans.incrementAndGet();
+		decodedScan = Futures.immediateFuture(scan);
+	    } catch (Exception e) {
+		decodedScan = Futures.immediateFailedFuture(e);
+	    }
+	    return new PendingScan(scan, decodedScan);
+	}
+
+	Future<SimpleScan> decodedScan = decodingPool.submit(TaskMetrics
+		.propagate(new Callable<SimpleScan>() {
+		    public SimpleScan call() throws Exception {
+			decoder.decode(scan);
+			decodedScans.incrementAndGet();
+			return scan;
+		    }
+		}));
+	return new PendingScan(scan, decodedScan);
+
+    }
+
+    /**
+     * Stores the scan in the raw data file when it is decoded, after the
+     * previously stored scans. The scan must not be modified by the caller
+     * afterwards. Waits if too many scans are waiting to be stored.
+     *
+     * @throws IOException
+     *             if decoding or storing of a previous scan failed
+     */
+    public void storeScan(@Nonnull PendingScan scan) throws IOException,
+	    InterruptedException {
+
+	checkStoreError();
+
+	if (serial) {
+	    try {
+		writer.addScan(scan.decodedScan.get());
+	    } catch (ExecutionException e) {
+		storeError = e.getCause();
+		checkStoreError();
+	    }
+	    storedScans++;
+	    return;
+	}
+
+	while (!pendingScans.offer(scan, WAIT_INTERVAL,
+		TimeUnit.MILLISECONDS)) {
+	    if (task.isCanceled()) {
+		scan.decodedScan.cancel(false);
+		return;
+	    }
+	    checkStoreError();
+	}
+
+    }
+
+    /**
+     * Releases the disk when the whole file was read, so another import can
+     * start reading before all scans are stored
+     */
+    public void finishReading() {
+	if (readEndTime == 0)
+	    readEndTime = System.nanoTime();
+	if (device != null) {
+	    RawDataImportScheduler.releaseReader(device);
+	    device = null;
+	}
+    }
+
+    /**
+     * Waits until all added scans are stored
+     *
+     * @throws IOException
+     *             if decoding or storing of a scan failed
+     */
+    public void finish() throws IOException, InterruptedException {
+	finishReading();
+	allScansAdded = true;
+	if (storeThread != null)
+	    storeThread.join();
+	if (storeEndTime == 0)
+	    storeEndTime = System.nanoTime();
+	checkStoreError();
+    }
+
+    /**
+     * Releases the disk and stops storing, if the import did not finish
+     */
+    public void close() {
+	finishReading();
+	allScansAdded = true;
+	if ((storeThread != null) && storeThread.isAlive()) {
+	    storeThread.interrupt();
+	    PendingScan scan;
+	    while ((scan = pendingScans.poll()) != null)
+		scan.decodedScan.cancel(false);
+	}
+    }
+
+    /**
+     * @return number of scans stored in the raw data file so far
+     */
+    public int getStoredScans() {
+	return storedScans;
+    }
+
+    /**
+     * Returns the throughput of the stages, to be appended to the task
+     * description, e.g. " (read 45.1 MB/s, decoded 910 scans/s, stored 905
+     * scans/s)"
+     */
+    public String getStageDescription() {
+
+	if (waitingForDisk)
+	    return " (waiting for other files on the same disk)";
+
+	final long start = startTime;
+	if ((start == 0) || (System.nanoTime() - start < 1e9))
+	    return "";
+
+	// The decode stage ends at the latest with the store stage
+	final double readSeconds = getSeconds(readEndTime);
+	final double storeSeconds = getSeconds(storeEndTime);
+
+	final long bytes = bytesRead.get();
+	StringBuilder description = new StringBuilder(" (read ");
+	if (bytes > 0)
+	    description.append(String.format("%.1f MB/s", bytes / 1e6
+		    / readSeconds));
+	else
+	    description.append(Math.round(readScans / readSeconds)
+		    + " scans/s");
+	description.append(", decoded "
+		+ Math.round(decodedScans.get() / storeSeconds) + " scans/s");
+	description.append(", stored "
+		+ Math.round(storedScans / storeSeconds) + " scans/s)");
+	return description.toString();
+
+    }
+
+    /**
+     * Returns the duration of a stage until the given end time, or until now
+     * if the stage did not end yet
+     */
+    private double getSeconds(long endTime) {
+	if (endTime == 0)
+	    endTime = System.nanoTime();
+	return Math.max(endTime - startTime, 1) / 1e9;
+    }
+
+    /**
+     * Store stage: adds the scans to the raw data file in the order of
+     * reading, as soon as they are decoded
+     */
+    private void storeScans() {
+	try {
+	    while (!task.isCanceled()) {
+		// Check the flag before polling, so an empty queue means
+		// that all scans were stored
+		final boolean lastScan = allScansAdded;
+		PendingScan scan = pendingScans.poll(WAIT_INTERVAL,
+			TimeUnit.MILLISECONDS);
+		if (scan == null) {
+		    if (lastScan)
+			return;
+		    continue;
+		}
+		writer.addScan(scan.decodedScan.get());
+		storedScans++;
+	    }
+	} catch (InterruptedException e) {
+	    // The import was closed
+	} catch (ExecutionException e) {
+	    storeError = e.getCause();
+	} catch (Throwable e) {
+	    storeError = e;
+	} finally {
+	    storeEndTime = System.nanoTime();
+	}
+    }
+
+    private void checkStoreError() throws IOException {
+	final Throwable error = storeError;
+	if (error == null)
+	    return;
+	if (error instanceof IOException)
+	    throw (IOException) error;
+	throw new IOException("Could not import scan from " + file + ": "
+		+ error, error);
+    }
+
+}
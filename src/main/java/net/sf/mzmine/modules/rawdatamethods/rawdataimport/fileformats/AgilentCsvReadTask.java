@@ -29,14 +29,15 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.GatedTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.ScanUtils;
 
 import com.google.common.collect.Range;
 
-public class AgilentCsvReadTask extends AbstractTask {
+public class AgilentCsvReadTask extends AbstractTask implements GatedTask {
 
     protected String dataSource;
     private File file;
@@ -45,6 +46,7 @@ public class AgilentCsvReadTask extends AbstractTask {
     private RawDataFile finalRawDataFile;
 
     private int totalScans, parsedScans;
+    private ScanImportPipeline pipeline;
 
     /**
      * Creates a new AgilentCSVReadTask
@@ -57,6 +59,11 @@ public class AgilentCsvReadTask extends AbstractTask {
 	this.project = project;
 	this.file = fileToOpen;
 	this.newMZmineFile = (RawDataFileImpl) newMZmineFile;
+	this.pipeline = new ScanImportPipeline(this, fileToOpen, newMZmineFile);
+    }
+
+    public boolean acquireResources() {
+	return pipeline.acquireReader();
     }
 
     /**
@@ -69,7 +76,11 @@ public class AgilentCsvReadTask extends AbstractTask {
 
 	try {
 
-	    scanner = new Scanner(this.file);
+	    // Wait for the imports of other files from the same disk
+	    if (!pipeline.startReading())
+		return;
+
+	    scanner = new Scanner(pipeline.openInputStream());
 
 	    this.dataSource = this.getMetaData(scanner, "file name");
 
@@ -111,14 +122,19 @@ public class AgilentCsvReadTask extends AbstractTask {
 		    dataPoints[j] = new SimpleDataPoint(scanner.nextDouble(),
 			    scanner.nextDouble());
 		}
-		newMZmineFile.addScan(new SimpleScan(null, parsedScans + 1,
+		pipeline.addScan(new SimpleScan(null, parsedScans + 1,
 			msLevel, retentionTime, 0.0, charge, null,
-			dataPoints, ScanUtils.detectSpectrumType(dataPoints),
-			PolarityType.UNKNOWN, "", null));
+			dataPoints, null, PolarityType.UNKNOWN, "", null),
+			ScanImportPipeline.SPECTRUM_TYPE_DETECTOR);
 
 		scanner.nextLine();
 	    }
 
+	    scanner.close();
+	    pipeline.finish();
+	    if (isCanceled())
+		return;
+
 	    finalRawDataFile = newMZmineFile.finishWriting();
 	    project.addFile(finalRawDataFile);
 
@@ -126,6 +142,8 @@ public class AgilentCsvReadTask extends AbstractTask {
 	    setErrorMessage(e.getMessage());
 	    this.setStatus(TaskStatus.ERROR);
 	    return;
+	} finally {
+	    pipeline.close();
 	}
 
 	this.setStatus(TaskStatus.FINISHED);
@@ -156,12 +174,13 @@ public class AgilentCsvReadTask extends AbstractTask {
      */
     @Override
     public double getFinishedPercentage() {
-	return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
+	return totalScans == 0 ? 0 : (double) pipeline.getStoredScans()
+		/ totalScans;
     }
 
     @Override
     public String getTaskDescription() {
-	return "Opening file " + file;
+	return "Opening file " + file + pipeline.getStageDescription();
     }
 
 }
@@ -37,20 +37,25 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline.PendingScan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline.ScanDecoder;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.GatedTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ScanUtils;
 
 import org.apache.axis.encoding.Base64;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * This class read 1.04 and 1.05 MZDATA files.
  */
-public class MzDataReadTask extends AbstractTask {
+public class MzDataReadTask extends AbstractTask implements GatedTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -74,13 +79,16 @@ public class MzDataReadTask extends AbstractTask {
     private double precursorMz;
     private int precursorCharge = 0;
     private DefaultHandler handler = new MzDataHandler();
+    private ScanImportPipeline pipeline;
 
     /*
      * The information of "m/z" & "int" is content in two arrays because the
-     * mzData standard manages this information in two different tags.
+     * mzData standard manages this information in two different tags. The
+     * arrays are kept in Base64 and decoded in parallel when the scan is
+     * complete.
      */
-    private double[] mzDataPoints;
-    private double[] intensityDataPoints;
+    private String mzBinary, mzEndian, mzPrecision;
+    private String intensityBinary, intensityEndian, intensityPrecision;
 
     /*
      * This variable hold the current scan or fragment, it is send to the stack
@@ -101,23 +109,29 @@ public class MzDataReadTask extends AbstractTask {
      * 
      * http://sourceforge.net/projects/psidev/
      */
-    private LinkedList<SimpleScan> parentStack;
+    private LinkedList<PendingScan> parentStack;
 
     public MzDataReadTask(MZmineProject project, File fileToOpen,
 	    RawDataFileWriter newMZmineFile) {
 	// 256 kilo-chars buffer
 	charBuffer = new StringBuilder(1 << 18);
-	parentStack = new LinkedList<SimpleScan>();
+	parentStack = new LinkedList<PendingScan>();
 	this.project = project;
 	this.file = fileToOpen;
 	this.newMZmineFile = newMZmineFile;
+	this.pipeline = new ScanImportPipeline(this, fileToOpen, newMZmineFile);
     }
 
     /**
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-	return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
+	return totalScans == 0 ? 0 : (double) pipeline.getStoredScans()
+		/ totalScans;
+    }
+
+    public boolean acquireResources() {
+	return pipeline.acquireReader();
     }
 
     /**
@@ -133,8 +147,23 @@ public class MzDataReadTask extends AbstractTask {
 
 	try {
 
+	    // Wait for the imports of other files from the same disk
+	    if (!pipeline.startReading())
+		return;
+
 	    SAXParser saxParser = factory.newSAXParser();
-	    saxParser.parse(file, handler);
+	    InputSource source = new InputSource(pipeline.openInputStream());
+	    source.setSystemId(file.toURI().toString());
+	    try {
+		saxParser.parse(source, handler);
+	    } finally {
+		source.getByteStream().close();
+	    }
+
+	    // Wait until all scans are decoded and stored
+	    pipeline.finish();
+	    if (isCanceled())
+		return;
 
 	    // Close file
 	    finalRawDataFile = newMZmineFile.finishWriting();
@@ -147,6 +176,8 @@ public class MzDataReadTask extends AbstractTask {
 		setErrorMessage(ExceptionUtils.exceptionToString(e));
 	    }
 	    return;
+	} finally {
+	    pipeline.close();
 	}
 
 	if (parsedScans == 0) {
@@ -162,7 +193,7 @@ public class MzDataReadTask extends AbstractTask {
     }
 
     public String getTaskDescription() {
-	return "Opening file " + file;
+	return "Opening file " + file + pipeline.getStageDescription();
     }
 
     private class MzDataHandler extends DefaultHandler {
@@ -308,31 +339,28 @@ public class MzDataReadTask extends AbstractTask {
 	    // <spectrum>
 	    if (qName.equalsIgnoreCase("spectrum")) {
 
-		DataPoint dataPoints[] = new DataPoint[peaksCount];
 		spectrumInstrumentFlag = false;
 
-		// Copy m/z and intensity data
-		for (int i = 0; i < dataPoints.length; i++) {
-		    dataPoints[i] = new SimpleDataPoint(
-			    (double) mzDataPoints[i],
-			    (double) intensityDataPoints[i]);
-		}
-
-		// Auto-detect whether this scan is centroided
-		MassSpectrumType spectrumType = ScanUtils
-			.detectSpectrumType(dataPoints);
-
 		buildingScan = new SimpleScan(null, scanNumber, msLevel,
 			retentionTime, precursorMz, precursorCharge, null,
-			dataPoints, spectrumType, polarity, "", null);
+			new DataPoint[0], null, polarity, "", null);
+
+		// Decode the m/z and intensity arrays in parallel, while we
+		// continue parsing
+		PendingScan pendingScan = pipeline.decodeScan(buildingScan,
+			new DataPointsDecoder(peaksCount, mzBinary, mzEndian,
+				mzPrecision, intensityBinary, intensityEndian,
+				intensityPrecision));
+		mzBinary = null;
+		intensityBinary = null;
 
 		/*
 		 * Update of fragmentScanNumbers of each Scan in the parentStack
 		 */
-		for (SimpleScan s : parentStack) {
+		for (PendingScan s : parentStack) {
 		    // if (s.getScanNumber() ==
 		    // buildingScan.getParentScanNumber()) {
-		    s.addFragmentScan(buildingScan.getScanNumber());
+		    s.getScan().addFragmentScan(buildingScan.getScanNumber());
 		    // }
 		}
 
@@ -342,18 +370,11 @@ public class MzDataReadTask extends AbstractTask {
 		 * 10 elements.
 		 */
 		if (parentStack.size() > 10) {
-		    SimpleScan scan = parentStack.removeLast();
-		    try {
-			newMZmineFile.addScan(scan);
-		    } catch (IOException e) {
-			setStatus(TaskStatus.ERROR);
-			setErrorMessage("IO error: " + e);
-			throw new SAXException("Parsing cancelled");
-		    }
-		    parsedScans++;
+		    PendingScan scan = parentStack.removeLast();
+		    storeScan(scan);
 		}
 
-		parentStack.addFirst(buildingScan);
+		parentStack.addFirst(pendingScan);
 		buildingScan = null;
 
 	    }
@@ -362,53 +383,18 @@ public class MzDataReadTask extends AbstractTask {
 	    if (qName.equalsIgnoreCase("mzArrayBinary")) {
 
 		mzArrayBinaryFlag = false;
-		mzDataPoints = new double[peaksCount];
-
-		byte[] peakBytes = Base64.decode(charBuffer.toString());
-
-		ByteBuffer currentMzBytes = ByteBuffer.wrap(peakBytes);
-
-		if (endian.equals("big")) {
-		    currentMzBytes = currentMzBytes.order(ByteOrder.BIG_ENDIAN);
-		} else {
-		    currentMzBytes = currentMzBytes
-			    .order(ByteOrder.LITTLE_ENDIAN);
-		}
-
-		for (int i = 0; i < mzDataPoints.length; i++) {
-		    if (precision == null || precision.equals("32"))
-			mzDataPoints[i] = (double) currentMzBytes.getFloat();
-		    else
-			mzDataPoints[i] = currentMzBytes.getDouble();
-		}
+		mzBinary = charBuffer.toString();
+		mzEndian = endian;
+		mzPrecision = precision;
 	    }
 
 	    // <intenArrayBinary>
 	    if (qName.equalsIgnoreCase("intenArrayBinary")) {
 
 		intenArrayBinaryFlag = false;
-		intensityDataPoints = new double[peaksCount];
-
-		byte[] peakBytes = Base64.decode(charBuffer.toString());
-
-		ByteBuffer currentIntensityBytes = ByteBuffer.wrap(peakBytes);
-
-		if (endian.equals("big")) {
-		    currentIntensityBytes = currentIntensityBytes
-			    .order(ByteOrder.BIG_ENDIAN);
-		} else {
-		    currentIntensityBytes = currentIntensityBytes
-			    .order(ByteOrder.LITTLE_ENDIAN);
-		}
-
-		for (int i = 0; i < intensityDataPoints.length; i++) {
-		    if (precision == null || precision.equals("32"))
-			intensityDataPoints[i] = (double) currentIntensityBytes
-				.getFloat();
-		    else
-			intensityDataPoints[i] = currentIntensityBytes
-				.getDouble();
-		}
+		intensityBinary = charBuffer.toString();
+		intensityEndian = endian;
+		intensityPrecision = precision;
 	    }
 	}
 
@@ -424,16 +410,96 @@ public class MzDataReadTask extends AbstractTask {
 
 	public void endDocument() throws SAXException {
 	    while (!parentStack.isEmpty()) {
-		SimpleScan scan = parentStack.removeLast();
-		try {
-		    newMZmineFile.addScan(scan);
-		} catch (IOException e) {
-		    setStatus(TaskStatus.ERROR);
-		    setErrorMessage("IO error: " + e);
-		    throw new SAXException("Parsing cancelled");
-		}
-		parsedScans++;
+		PendingScan scan = parentStack.removeLast();
+		storeScan(scan);
+	    }
+	}
+
+	private void storeScan(PendingScan scan) throws SAXException {
+	    try {
+		pipeline.storeScan(scan);
+	    } catch (IOException e) {
+		setStatus(TaskStatus.ERROR);
+		setErrorMessage("IO error: " + e);
+		throw new SAXException("Parsing cancelled");
+	    } catch (InterruptedException e) {
+		throw new SAXException("Parsing cancelled");
+	    }
+	    parsedScans++;
+	}
+
+    }
+
+    /**
+     * Decodes the m/z and intensity arrays of a spectrum
+     */
+    private static class DataPointsDecoder implements ScanDecoder {
+
+	private final int peaksCount;
+	private final String mzBinary, mzEndian, mzPrecision;
+	private final String intensityBinary, intensityEndian,
+		intensityPrecision;
+
+	DataPointsDecoder(int peaksCount, String mzBinary, String mzEndian,
+		String mzPrecision, String intensityBinary,
+		String intensityEndian, String intensityPrecision) {
+	    this.peaksCount = peaksCount;
+	    this.mzBinary = mzBinary;
+	    this.mzEndian = mzEndian;
+	    this.mzPrecision = mzPrecision;
+	    this.intensityBinary = intensityBinary;
+	    this.intensityEndian = intensityEndian;
+	    this.intensityPrecision = intensityPrecision;
+	}
+
+	public void decode(SimpleScan scan) {
+
+	    double mzDataPoints[] = decodeArray(mzBinary, mzEndian,
+		    mzPrecision);
+	    double intensityDataPoints[] = decodeArray(intensityBinary,
+		    intensityEndian, intensityPrecision);
+
+	    DataPoint dataPoints[] = new DataPoint[peaksCount];
+
+	    // Copy m/z and intensity data
+	    for (int i = 0; i < dataPoints.length; i++) {
+		dataPoints[i] = new SimpleDataPoint(mzDataPoints[i],
+			intensityDataPoints[i]);
 	    }
+
+	    // Auto-detect whether this scan is centroided
+	    MassSpectrumType spectrumType = ScanUtils
+		    .detectSpectrumType(dataPoints);
+
+	    scan.setDataPoints(dataPoints);
+	    scan.setSpectrumType(spectrumType);
+
+	}
+
+	private double[] decodeArray(String binary, String endian,
+		String precision) {
+
+	    double values[] = new double[peaksCount];
+
+	    byte[] peakBytes = Base64.decode(binary);
+
+	    ByteBuffer currentBytes = ByteBuffer.wrap(peakBytes);
+
+	    if (endian.equals("big")) {
+		currentBytes = currentBytes.order(ByteOrder.BIG_ENDIAN);
+	    } else {
+		currentBytes = currentBytes.order(ByteOrder.LITTLE_ENDIAN);
+	    }
+
+	    for (int i = 0; i < values.length; i++) {
+		if (precision == null || precision.equals("32"))
+		    values[i] = (double) currentBytes.getFloat();
+		else
+		    values[i] = currentBytes.getDouble();
+	    }
+
+	    return values;
+
 	}
 
     }
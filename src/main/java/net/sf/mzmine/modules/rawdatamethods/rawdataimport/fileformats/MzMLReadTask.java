@@ -36,7 +36,11 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline.PendingScan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline.ScanDecoder;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.GatedTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ScanUtils;
@@ -58,7 +62,7 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
  * (http://www.psidev.info/index.php?q=node/257) using the jmzml library
  * (http://code.google.com/p/jmzml/).
  */
-public class MzMLReadTask extends AbstractTask {
+public class MzMLReadTask extends AbstractTask implements GatedTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -67,6 +71,7 @@ public class MzMLReadTask extends AbstractTask {
     private RawDataFileWriter newMZmineFile;
     private RawDataFile finalRawDataFile;
     private int totalScans = 0, parsedScans;
+    private ScanImportPipeline pipeline;
 
     private int lastScanNumber = 0;
 
@@ -81,20 +86,26 @@ public class MzMLReadTask extends AbstractTask {
      * after one or more full scans.
      */
     private static final int PARENT_STACK_SIZE = 20;
-    private LinkedList<SimpleScan> parentStack = new LinkedList<SimpleScan>();
+    private LinkedList<PendingScan> parentStack = new LinkedList<PendingScan>();
 
     public MzMLReadTask(MZmineProject project, File fileToOpen,
 	    RawDataFileWriter newMZmineFile) {
 	this.project = project;
 	this.file = fileToOpen;
 	this.newMZmineFile = newMZmineFile;
+	this.pipeline = new ScanImportPipeline(this, fileToOpen, newMZmineFile);
     }
 
     /**
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-	return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
+	return totalScans == 0 ? 0 : (double) pipeline.getStoredScans()
+		/ totalScans;
+    }
+
+    public boolean acquireResources() {
+	return pipeline.acquireReader();
     }
 
     /**
@@ -105,22 +116,27 @@ public class MzMLReadTask extends AbstractTask {
 	setStatus(TaskStatus.PROCESSING);
 	logger.info("Started parsing file " + file);
 
-	MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(file);
+	try {
 
-	totalScans = unmarshaller
-		.getObjectCountForXpath("/run/spectrumList/spectrum");
+	    // Wait for the imports of other files from the same disk
+	    if (!pipeline.startReading())
+		return;
 
-	MzMLObjectIterator<Spectrum> spectrumIterator = unmarshaller
-		.unmarshalCollectionFromXpath("/run/spectrumList/spectrum",
-			Spectrum.class);
-	try {
+	    MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(file);
+
+	    totalScans = unmarshaller
+		    .getObjectCountForXpath("/run/spectrumList/spectrum");
+
+	    MzMLObjectIterator<Spectrum> spectrumIterator = unmarshaller
+		    .unmarshalCollectionFromXpath("/run/spectrumList/spectrum",
+			    Spectrum.class);
 
 	    while (spectrumIterator.hasNext()) {
 
 		if (isCanceled())
 		    return;
 
-		Spectrum spectrum = spectrumIterator.next();
+		final Spectrum spectrum = spectrumIterator.next();
 
 		String scanId = spectrum.getId();
 		int scanNumber = convertScanIdToScanNumber(scanId);
@@ -133,20 +149,30 @@ public class MzMLReadTask extends AbstractTask {
 		double precursorMz = extractPrecursorMz(spectrum);
 		int precursorCharge = extractPrecursorCharge(spectrum);
 		String scanDefinition = extractScanDefinition(spectrum);
-		DataPoint dataPoints[] = extractDataPoints(spectrum);
-
-		// Auto-detect whether this scan is centroided
-		MassSpectrumType spectrumType = ScanUtils
-			.detectSpectrumType(dataPoints);
 
 		SimpleScan scan = new SimpleScan(null, scanNumber, msLevel,
 			retentionTime, precursorMz, precursorCharge, null,
-			dataPoints, spectrumType, polarity, scanDefinition,
-			null);
-
-		for (SimpleScan s : parentStack) {
-		    if (s.getScanNumber() == parentScan) {
-			s.addFragmentScan(scanNumber);
+			new DataPoint[0], null, polarity, scanDefinition, null);
+
+		// The binary data arrays are decoded in parallel, while we
+		// continue reading
+		PendingScan pendingScan = pipeline.decodeScan(scan,
+			new ScanDecoder() {
+			    public void decode(SimpleScan decodedScan) {
+				DataPoint dataPoints[] = extractDataPoints(spectrum);
+
+				// Auto-detect whether this scan is centroided
+				MassSpectrumType spectrumType = ScanUtils
+					.detectSpectrumType(dataPoints);
+
+				decodedScan.setDataPoints(dataPoints);
+				decodedScan.setSpectrumType(spectrumType);
+			    }
+			});
+
+		for (PendingScan s : parentStack) {
+		    if (s.getScan().getScanNumber() == parentScan) {
+			s.getScan().addFragmentScan(scanNumber);
 		    }
 		}
 
@@ -155,22 +181,27 @@ public class MzMLReadTask extends AbstractTask {
 		 * to cover possible candidates is defined by limitSize.
 		 */
 		if (parentStack.size() > PARENT_STACK_SIZE) {
-		    SimpleScan firstScan = parentStack.removeLast();
-		    newMZmineFile.addScan(firstScan);
+		    PendingScan firstScan = parentStack.removeLast();
+		    pipeline.storeScan(firstScan);
 		}
 
-		parentStack.addFirst(scan);
+		parentStack.addFirst(pendingScan);
 
 		parsedScans++;
 
 	    }
 
 	    while (!parentStack.isEmpty()) {
-		SimpleScan scan = parentStack.removeLast();
-		newMZmineFile.addScan(scan);
+		PendingScan scan = parentStack.removeLast();
+		pipeline.storeScan(scan);
 
 	    }
 
+	    // Wait until all scans are decoded and stored
+	    pipeline.finish();
+	    if (isCanceled())
+		return;
+
 	    finalRawDataFile = newMZmineFile.finishWriting();
 	    project.addFile(finalRawDataFile);
 
@@ -180,6 +211,8 @@ public class MzMLReadTask extends AbstractTask {
 		    + ExceptionUtils.exceptionToString(e));
 	    e.printStackTrace();
 	    return;
+	} finally {
+	    pipeline.close();
 	}
 
 	if (parsedScans == 0) {
@@ -472,7 +505,7 @@ public class MzMLReadTask extends AbstractTask {
     }
 
     public String getTaskDescription() {
-	return "Opening file " + file;
+	return "Opening file " + file + pipeline.getStageDescription();
     }
 
 }
\ No newline at end of file
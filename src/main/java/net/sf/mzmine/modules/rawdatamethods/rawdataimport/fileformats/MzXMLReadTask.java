@@ -19,10 +19,10 @@
 
 package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.logging.Logger;
@@ -41,7 +41,11 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline.PendingScan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline.ScanDecoder;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.GatedTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.CompressionUtils;
 import net.sf.mzmine.util.ExceptionUtils;
@@ -49,6 +53,7 @@ import net.sf.mzmine.util.ScanUtils;
 
 import org.apache.axis.encoding.Base64;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
@@ -57,7 +62,7 @@ import com.google.common.base.Strings;
 /**
  * 
  */
-public class MzXMLReadTask extends AbstractTask {
+public class MzXMLReadTask extends AbstractTask implements GatedTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -71,6 +76,7 @@ public class MzXMLReadTask extends AbstractTask {
     private boolean compressFlag = false;
     private DefaultHandler handler = new MzXMLHandler();
     private String precision;
+    private ScanImportPipeline pipeline;
 
     // Retention time parser
     private DatatypeFactory dataTypeFactory;
@@ -88,7 +94,7 @@ public class MzXMLReadTask extends AbstractTask {
      * information is recover. The logic is FIFO at the moment of write into the
      * RawDataFile
      */
-    private LinkedList<SimpleScan> parentStack;
+    private LinkedList<PendingScan> parentStack;
 
     /*
      * This variable hold the present scan or fragment, it is send to the stack
@@ -96,21 +102,32 @@ public class MzXMLReadTask extends AbstractTask {
      */
     private SimpleScan buildingScan;
 
+    /*
+     * The present scan, once its peaks are being decoded
+     */
+    private PendingScan decodingScan;
+
     public MzXMLReadTask(MZmineProject project, File fileToOpen,
             RawDataFileWriter newMZmineFile) {
         // 256 kilo-chars buffer
         charBuffer = new StringBuilder(1 << 18);
-        parentStack = new LinkedList<SimpleScan>();
+        parentStack = new LinkedList<PendingScan>();
         this.project = project;
         this.file = fileToOpen;
         this.newMZmineFile = newMZmineFile;
+        this.pipeline = new ScanImportPipeline(this, fileToOpen, newMZmineFile);
     }
 
     /**
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-        return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
+        return totalScans == 0 ? 0 : (double) pipeline.getStoredScans()
+                / totalScans;
+    }
+
+    public boolean acquireResources() {
+        return pipeline.acquireReader();
     }
 
     /**
@@ -126,10 +143,25 @@ public class MzXMLReadTask extends AbstractTask {
 
         try {
 
+            // Wait for the imports of other files from the same disk
+            if (!pipeline.startReading())
+                return;
+
             dataTypeFactory = DatatypeFactory.newInstance();
 
             SAXParser saxParser = factory.newSAXParser();
-            saxParser.parse(file, handler);
+            InputSource source = new InputSource(pipeline.openInputStream());
+            source.setSystemId(file.toURI().toString());
+            try {
+                saxParser.parse(source, handler);
+            } finally {
+                source.getByteStream().close();
+            }
+
+            // Wait until all scans are stored
+            pipeline.finish();
+            if (isCanceled())
+                return;
 
             // Close file
             finalRawDataFile = newMZmineFile.finishWriting();
@@ -143,6 +175,8 @@ public class MzXMLReadTask extends AbstractTask {
                 setErrorMessage(ExceptionUtils.exceptionToString(e));
             }
             return;
+        } finally {
+            pipeline.close();
         }
 
         if (isCanceled())
@@ -161,7 +195,7 @@ public class MzXMLReadTask extends AbstractTask {
     }
 
     public String getTaskDescription() {
-        return "Opening file " + file;
+        return "Opening file " + file + pipeline.getStageDescription();
     }
 
     private class MzXMLHandler extends DefaultHandler {
@@ -184,7 +218,7 @@ public class MzXMLReadTask extends AbstractTask {
             if (qName.equalsIgnoreCase("scan")) {
 
                 if (buildingScan != null) {
-                    parentStack.addFirst(buildingScan);
+                    parentStack.addFirst(getPendingScan());
                     buildingScan = null;
                 }
 
@@ -233,9 +267,9 @@ public class MzXMLReadTask extends AbstractTask {
 
                 if (msLevel > 1) {
                     parentScan = parentTreeValue[msLevel - 1];
-                    for (SimpleScan p : parentStack) {
-                        if (p.getScanNumber() == parentScan) {
-                            p.addFragmentScan(scanNumber);
+                    for (PendingScan p : parentStack) {
+                        if (p.getScan().getScanNumber() == parentScan) {
+                            p.getScan().addFragmentScan(scanNumber);
                         }
                     }
                 }
@@ -247,6 +281,7 @@ public class MzXMLReadTask extends AbstractTask {
                 buildingScan = new SimpleScan(null, scanNumber, msLevel,
                         retentionTime, 0, 0, null, new DataPoint[0], null,
                         polarity, scanId, null);
+                decodingScan = null;
 
             }
 
@@ -297,16 +332,18 @@ public class MzXMLReadTask extends AbstractTask {
                  */
 
                 if (msLevelTree == 0) {
-                    parentStack.addFirst(buildingScan);
+                    parentStack.addFirst(getPendingScan());
                     buildingScan = null;
                     while (!parentStack.isEmpty()) {
-                        SimpleScan currentScan = parentStack.removeLast();
+                        PendingScan currentScan = parentStack.removeLast();
                         try {
-                            newMZmineFile.addScan(currentScan);
+                            pipeline.storeScan(currentScan);
                         } catch (IOException e) {
                             setStatus(TaskStatus.ERROR);
                             setErrorMessage("IO error: " + e);
                             throw new SAXException("Parsing cancelled");
+                        } catch (InterruptedException e) {
+                            throw new SAXException("Parsing cancelled");
                         }
                         parsedScans++;
                     }
@@ -335,59 +372,11 @@ public class MzXMLReadTask extends AbstractTask {
             // <peaks>
             if (qName.equalsIgnoreCase("peaks")) {
 
-                byte[] peakBytes = Base64.decode(charBuffer.toString());
-
-                if (compressFlag) {
-                    try {
-                        peakBytes = CompressionUtils.decompress(peakBytes);
-                    } catch (DataFormatException e) {
-                        setStatus(TaskStatus.ERROR);
-                        setErrorMessage("Corrupt compressed peak: "
-                                + e.toString());
-                        throw new SAXException("Parsing Cancelled");
-                    }
-                }
-
-                // make a data input stream
-                DataInputStream peakStream = new DataInputStream(
-                        new ByteArrayInputStream(peakBytes));
-
-                DataPoint dataPoints[] = new DataPoint[peaksCount];
-
-                try {
-                    for (int i = 0; i < dataPoints.length; i++) {
-
-                        // Always respect this order pairOrder="m/z-int"
-                        double massOverCharge;
-                        double intensity;
-                        if ("64".equals(precision)) {
-                            massOverCharge = peakStream.readDouble();
-                            intensity = peakStream.readDouble();
-                        } else {
-                            massOverCharge = (double) peakStream.readFloat();
-                            intensity = (double) peakStream.readFloat();
-                        }
-
-                        // Copy m/z and intensity data
-                        dataPoints[i] = new SimpleDataPoint(massOverCharge,
-                                intensity);
-
-                    }
-                } catch (IOException eof) {
-                    setStatus(TaskStatus.ERROR);
-                    setErrorMessage("Corrupt mzXML file");
-                    throw new SAXException("Parsing Cancelled");
-                }
-
-                // Auto-detect whether this scan is centroided
-                MassSpectrumType spectrumType = ScanUtils
-                        .detectSpectrumType(dataPoints);
-
-                // Set the centroided tag
-                buildingScan.setSpectrumType(spectrumType);
-
-                // Set the final data points to the scan
-                buildingScan.setDataPoints(dataPoints);
+                // Decode the peaks in the decoding threads, while we parse
+                // the following scans
+                decodingScan = pipeline.decodeScan(buildingScan,
+                        new PeaksDecoder(charBuffer.toString(), compressFlag,
+                                precision, peaksCount));
 
                 return;
             }
@@ -402,6 +391,84 @@ public class MzXMLReadTask extends AbstractTask {
                 throws SAXException {
             charBuffer.append(buf, offset, len);
         }
+
+        /**
+         * Returns the present scan, which is decoded when it has peaks
+         */
+        private PendingScan getPendingScan() {
+            if (decodingScan == null)
+                decodingScan = pipeline.decodeScan(buildingScan, null);
+            return decodingScan;
+        }
+    }
+
+    /**
+     * Decodes the Base64 encoded and optionally compressed peaks of a scan
+     */
+    private static class PeaksDecoder implements ScanDecoder {
+
+        private final String peaks;
+        private final boolean compressFlag;
+        private final String precision;
+        private final int peaksCount;
+
+        PeaksDecoder(String peaks, boolean compressFlag, String precision,
+                int peaksCount) {
+            this.peaks = peaks;
+            this.compressFlag = compressFlag;
+            this.precision = precision;
+            this.peaksCount = peaksCount;
+        }
+
+        public void decode(SimpleScan scan) throws IOException {
+
+            byte[] peakBytes = Base64.decode(peaks);
+
+            if (compressFlag) {
+                try {
+                    peakBytes = CompressionUtils.decompress(peakBytes);
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt compressed peak: "
+                            + e.toString());
+                }
+            }
+
+            // Always respect this order pairOrder="m/z-int", in network
+            // byte order
+            final boolean doublePrecision = "64".equals(precision);
+            final int valueSize = doublePrecision ? 8 : 4;
+            if (peakBytes.length < (long) peaksCount * 2 * valueSize)
+                throw new IOException("Corrupt mzXML file");
+
+            ByteBuffer peakBuffer = ByteBuffer.wrap(peakBytes).order(
+                    ByteOrder.BIG_ENDIAN);
+            double values[] = new double[peaksCount * 2];
+            if (doublePrecision) {
+                peakBuffer.asDoubleBuffer().get(values);
+            } else {
+                for (int i = 0; i < values.length; i++)
+                    values[i] = peakBuffer.getFloat();
+            }
+
+            // Copy m/z and intensity data
+            DataPoint dataPoints[] = new DataPoint[peaksCount];
+            for (int i = 0; i < dataPoints.length; i++) {
+                dataPoints[i] = new SimpleDataPoint(values[2 * i],
+                        values[2 * i + 1]);
+            }
+
+            // Auto-detect whether this scan is centroided
+            MassSpectrumType spectrumType = ScanUtils
+                    .detectSpectrumType(dataPoints);
+
+            // Set the centroided tag
+            scan.setSpectrumType(spectrumType);
+
+            // Set the final data points to the scan
+            scan.setDataPoints(dataPoints);
+
+        }
+
     }
 
 }
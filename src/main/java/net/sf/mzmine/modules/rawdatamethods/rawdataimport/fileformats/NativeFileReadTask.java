@@ -31,17 +31,17 @@ import java.util.regex.Pattern;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
-import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
 import net.sf.mzmine.modules.rawdatamethods.rawdataimport.RawDataFileType;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.GatedTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
-import net.sf.mzmine.util.ScanUtils;
 import net.sf.mzmine.util.TextUtils;
 
 import com.google.common.collect.Range;
@@ -51,7 +51,7 @@ import com.google.common.collect.Range;
  * data in a text+binary form into its standard output. This class then reads
  * the output of that process.
  */
-public class NativeFileReadTask extends AbstractTask {
+public class NativeFileReadTask extends AbstractTask implements GatedTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -62,6 +62,7 @@ public class NativeFileReadTask extends AbstractTask {
     private RawDataFile finalRawDataFile;
 
     private Process dumper = null;
+    private ScanImportPipeline pipeline;
 
     private int totalScans = 0, parsedScans = 0;
 
@@ -81,13 +82,19 @@ public class NativeFileReadTask extends AbstractTask {
 	this.file = fileToOpen;
 	this.fileType = fileType;
 	this.newMZmineFile = newMZmineFile;
+	this.pipeline = new ScanImportPipeline(this, fileToOpen, newMZmineFile);
     }
 
     /**
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-	return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
+	return totalScans == 0 ? 0 : (double) pipeline.getStoredScans()
+		/ totalScans;
+    }
+
+    public boolean acquireResources() {
+	return pipeline.acquireReader();
     }
 
     /**
@@ -127,6 +134,10 @@ public class NativeFileReadTask extends AbstractTask {
 
 	try {
 
+	    // Wait for the imports of other files from the same disk
+	    if (!pipeline.startReading())
+		return;
+
 	    // Create a separate process and execute RAWdump.exe
 	    dumper = Runtime.getRuntime().exec(cmdLine);
 
@@ -139,6 +150,7 @@ public class NativeFileReadTask extends AbstractTask {
 
 	    // Finish
 	    bufStream.close();
+	    pipeline.finish();
 
 	    if (isCanceled()) {
 		dumper.destroy();
@@ -172,6 +184,8 @@ public class NativeFileReadTask extends AbstractTask {
 	    }
 
 	    return;
+	} finally {
+	    pipeline.close();
 	}
 
 	logger.info("Finished parsing " + file + ", parsed " + parsedScans
@@ -181,14 +195,15 @@ public class NativeFileReadTask extends AbstractTask {
     }
 
     public String getTaskDescription() {
-	return "Opening file " + file;
+	return "Opening file " + file + pipeline.getStageDescription();
     }
 
     /**
      * This method reads the dump of the RAW data file produced by RAWdump.exe
      * utility (see RAWdump.cpp source for details).
      */
-    private void readRAWDump(InputStream dumpStream) throws IOException {
+    private void readRAWDump(InputStream dumpStream) throws IOException,
+	    InterruptedException {
 
 	String line;
 	byte byteBuffer[] = new byte[100000];
@@ -321,15 +336,13 @@ public class NativeFileReadTask extends AbstractTask {
 			    intensityValuesBuffer[i]);
 		}
 
-		// Auto-detect whether this scan is centroided
-		MassSpectrumType spectrumType = ScanUtils
-			.detectSpectrumType(dataPoints);
-
+		// The spectrum type is detected in parallel
 		SimpleScan newScan = new SimpleScan(null, scanNumber, msLevel,
 			retentionTime, precursorMZ,
-			precursorCharge, null, dataPoints, spectrumType,
+			precursorCharge, null, dataPoints, null,
 			polarity, scanId, mzRange);
-		newMZmineFile.addScan(newScan);
+		pipeline.addScan(newScan,
+			ScanImportPipeline.SPECTRUM_TYPE_DETECTOR);
 
 		parsedScans++;
 
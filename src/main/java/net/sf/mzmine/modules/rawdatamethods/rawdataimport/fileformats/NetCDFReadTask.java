@@ -31,15 +31,16 @@ import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.ScanImportPipeline.ScanDecoder;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.GatedTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ScanUtils;
 import ucar.ma2.Array;
-import ucar.ma2.Index;
 import ucar.ma2.IndexIterator;
 import ucar.nc2.Attribute;
 import ucar.nc2.NetcdfFile;
@@ -48,7 +49,7 @@ import ucar.nc2.Variable;
 /**
  * 
  */
-public class NetCDFReadTask extends AbstractTask {
+public class NetCDFReadTask extends AbstractTask implements GatedTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -64,9 +65,17 @@ public class NetCDFReadTask extends AbstractTask {
     private MZmineProject project;
     private RawDataFileWriter newMZmineFile;
     private RawDataFile finalRawDataFile;
+    private ScanImportPipeline pipeline;
 
     private Variable massValueVariable, intensityValueVariable;
 
+    // Mass and intensity values are read in chunks covering many scans,
+    // because reading them scan by scan is slow for large files
+    private static final int CHUNK_DATA_POINTS = 1 << 20;
+    private double chunkMassValues[] = new double[0],
+	    chunkIntensityValues[] = new double[0];
+    private int chunkStartPosition = 0;
+
     // Some software produces netcdf files with a scale factor such as 0.05
     private double massValueScaleFactor = 1;
     private double intensityValueScaleFactor = 1;
@@ -76,13 +85,19 @@ public class NetCDFReadTask extends AbstractTask {
 	this.project = project;
 	this.file = fileToOpen;
 	this.newMZmineFile = newMZmineFile;
+	this.pipeline = new ScanImportPipeline(this, fileToOpen, newMZmineFile);
     }
 
     /**
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-	return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
+	return totalScans == 0 ? 0 : (double) pipeline.getStoredScans()
+		/ totalScans;
+    }
+
+    public boolean acquireResources() {
+	return pipeline.acquireReader();
     }
 
     /**
@@ -96,25 +111,29 @@ public class NetCDFReadTask extends AbstractTask {
 
 	try {
 
+	    // Wait for the imports of other files from the same disk
+	    if (!pipeline.startReading())
+		return;
+
 	    // Open file
 	    this.startReading();
 
-	    // Parse scans
-	    Scan buildingScan;
-	    while ((buildingScan = this.readNextScan()) != null) {
+	    // Parse scans, they are decoded and stored in separate threads
+	    while (this.readNextScan()) {
 
 		// Check if cancel is requested
 		if (isCanceled()) {
 		    return;
 		}
-		// buildingFile.addScan(scan);
-		newMZmineFile.addScan(buildingScan);
 		parsedScans++;
 
 	    }
 
 	    // Close file
 	    this.finishReading();
+	    pipeline.finish();
+	    if (isCanceled())
+		return;
 	    finalRawDataFile = newMZmineFile.finishWriting();
 	    project.addFile(finalRawDataFile);
 
@@ -123,6 +142,8 @@ public class NetCDFReadTask extends AbstractTask {
 	    setErrorMessage(ExceptionUtils.exceptionToString(e));
 	    setStatus(TaskStatus.ERROR);
 	    return;
+	} finally {
+	    pipeline.close();
 	}
 
 	logger.info("Finished parsing " + file + ", parsed " + parsedScans
@@ -134,7 +155,7 @@ public class NetCDFReadTask extends AbstractTask {
     }
 
     public String getTaskDescription() {
-	return "Opening file " + file;
+	return "Opening file " + file + pipeline.getStageDescription();
     }
 
     public void startReading() throws IOException {
@@ -381,22 +402,22 @@ public class NetCDFReadTask extends AbstractTask {
     }
 
     /**
-     * Reads one scan from the file. Requires that general information has
-     * already been read.
+     * Reads one scan from the file and adds it to the import pipeline.
+     * Requires that general information has already been read.
+     * 
+     * @return false if all scans were read
      */
-    private Scan readNextScan() throws IOException {
+    private boolean readNextScan() throws IOException, InterruptedException {
 
 	// Get scan starting position and length
-	int[] scanStartPosition = new int[1];
-	int[] scanLength = new int[1];
 	Integer[] startAndLength = scansIndex.get(scanNum);
 
 	// End of file
 	if (startAndLength == null) {
-	    return null;
+	    return false;
 	}
-	scanStartPosition[0] = startAndLength[0];
-	scanLength[0] = startAndLength[1];
+	int scanStartPosition = startAndLength[0];
+	int scanLength = startAndLength[1];
 
 	// Get retention time of the scan
 	Double retentionTime = scansRetentionTimes.get(scanNum);
@@ -407,11 +428,13 @@ public class NetCDFReadTask extends AbstractTask {
 	}
 
 	// An empty scan needs special attention..
-	if (scanLength[0] == 0) {
+	if (scanLength == 0) {
 	    scanNum++;
-	    return new SimpleScan(null, scanNum, 1,
+	    pipeline.addScan(new SimpleScan(null, scanNum, 1,
 		    retentionTime.doubleValue(), 0, 0, null, new DataPoint[0],
-		    MassSpectrumType.CENTROIDED, PolarityType.UNKNOWN, "", null);
+		    MassSpectrumType.CENTROIDED, PolarityType.UNKNOWN, "", null),
+		    null);
+	    return true;
 	}
 
 	// Is there any way how to extract polarity from netcdf?
@@ -420,14 +443,55 @@ public class NetCDFReadTask extends AbstractTask {
 	// Is there any way how to extract scan definition from netcdf?
 	String scanDefinition = "";
 
-	// Read mass and intensity values
-	Array massValueArray;
-	Array intensityValueArray;
+	// Read mass and intensity values of this and the following scans,
+	// unless they were read with the previous scans
+	if ((scanStartPosition < chunkStartPosition)
+		|| (scanStartPosition + scanLength > chunkStartPosition
+			+ chunkMassValues.length)) {
+	    readChunk(scanStartPosition, scanLength);
+	}
+
+	scanNum++;
+
+	// The data points are created and the spectrum type detected in the
+	// decoding threads
+	SimpleScan buildingScan = new SimpleScan(null, scanNum, 1,
+		retentionTime.doubleValue(), 0, 0, null, new DataPoint[0],
+		null, polarity, scanDefinition, null);
+	pipeline.addScan(buildingScan, new DataPointsSlicer(chunkMassValues,
+		chunkIntensityValues, scanStartPosition - chunkStartPosition,
+		scanLength, massValueScaleFactor, intensityValueScaleFactor));
+
+	return true;
+
+    }
+
+    /**
+     * Reads the mass and intensity values of the scan starting at given
+     * position and of the following scans, up to CHUNK_DATA_POINTS values
+     */
+    private void readChunk(int scanStartPosition, int scanLength)
+	    throws IOException {
+
+	int chunkEnd = scanStartPosition + scanLength;
+	for (int i = scanNum + 1; i < totalScans; i++) {
+	    Integer[] startAndLength = scansIndex.get(i);
+	    int scanEnd = startAndLength[0] + startAndLength[1];
+	    // Scans must follow each other within the chunk
+	    if ((startAndLength[0] < scanStartPosition)
+		    || (scanEnd - scanStartPosition > CHUNK_DATA_POINTS))
+		break;
+	    chunkEnd = Math.max(chunkEnd, scanEnd);
+	}
+
+	int[] origin = { scanStartPosition };
+	int[] shape = { chunkEnd - scanStartPosition };
+
 	try {
-	    massValueArray = massValueVariable.read(scanStartPosition,
-		    scanLength);
-	    intensityValueArray = intensityValueVariable.read(
-		    scanStartPosition, scanLength);
+	    chunkMassValues = (double[]) massValueVariable.read(origin, shape)
+		    .get1DJavaArray(double.class);
+	    chunkIntensityValues = (double[]) intensityValueVariable.read(
+		    origin, shape).get1DJavaArray(double.class);
 	} catch (Exception e) {
 	    logger.log(
 		    Level.SEVERE,
@@ -436,37 +500,54 @@ public class NetCDFReadTask extends AbstractTask {
 	    throw (new IOException(
 		    "Could not read from variables mass_values and/or intensity_values."));
 	}
+	chunkStartPosition = scanStartPosition;
 
-	Index massValuesIndex = massValueArray.getIndex();
-	Index intensityValuesIndex = intensityValueArray.getIndex();
+	pipeline.addBytesRead((long) shape[0]
+		* (massValueVariable.getElementSize() + intensityValueVariable
+			.getElementSize()));
 
-	int arrayLength = massValueArray.getShape()[0];
-
-	DataPoint dataPoints[] = new DataPoint[arrayLength];
+    }
 
-	for (int j = 0; j < arrayLength; j++) {
-	    Index massIndex0 = massValuesIndex.set0(j);
-	    Index intensityIndex0 = intensityValuesIndex.set0(j);
+    /**
+     * Creates the data points of a scan from its part of the mass and
+     * intensity values read in one chunk
+     */
+    private static class DataPointsSlicer implements ScanDecoder {
+
+	private final double massValues[], intensityValues[];
+	private final int offset, length;
+	private final double massValueScaleFactor, intensityValueScaleFactor;
+
+	DataPointsSlicer(double massValues[], double intensityValues[],
+		int offset, int length, double massValueScaleFactor,
+		double intensityValueScaleFactor) {
+	    this.massValues = massValues;
+	    this.intensityValues = intensityValues;
+	    this.offset = offset;
+	    this.length = length;
+	    this.massValueScaleFactor = massValueScaleFactor;
+	    this.intensityValueScaleFactor = intensityValueScaleFactor;
+	}
 
-	    double mz = massValueArray.getDouble(massIndex0)
-		    * massValueScaleFactor;
-	    double intensity = intensityValueArray.getDouble(intensityIndex0)
-		    * intensityValueScaleFactor;
-	    dataPoints[j] = new SimpleDataPoint(mz, intensity);
+	public void decode(SimpleScan scan) {
 
-	}
+	    DataPoint dataPoints[] = new DataPoint[length];
 
-	scanNum++;
+	    for (int j = 0; j < length; j++) {
+		double mz = massValues[offset + j] * massValueScaleFactor;
+		double intensity = intensityValues[offset + j]
+			* intensityValueScaleFactor;
+		dataPoints[j] = new SimpleDataPoint(mz, intensity);
+	    }
 
-	// Auto-detect whether this scan is centroided
-	MassSpectrumType spectrumType = ScanUtils
-		.detectSpectrumType(dataPoints);
+	    // Auto-detect whether this scan is centroided
+	    MassSpectrumType spectrumType = ScanUtils
+		    .detectSpectrumType(dataPoints);
 
-	SimpleScan buildingScan = new SimpleScan(null, scanNum, 1,
-		retentionTime.doubleValue(), 0, 0, null, dataPoints,
-		spectrumType, polarity, scanDefinition, null);
+	    scan.setDataPoints(dataPoints);
+	    scan.setSpectrumType(spectrumType);
 
-	return buildingScan;
+	}
 
     }
 
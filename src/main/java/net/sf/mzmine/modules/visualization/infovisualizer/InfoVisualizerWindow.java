@@ -38,6 +38,7 @@ import javax.swing.ListSelectionModel;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.desktop.impl.WindowsMenu;
 import net.sf.mzmine.main.MZmineCore;
@@ -125,7 +126,7 @@ class InfoVisualizerWindow extends JFrame {
 	c.gridy = 1;
 	pnlGrid.add(new JLabel(
 		"<html>Created (yyyy/MM/dd HH:mm:ss): <font color=\"blue\">"
-			+ ((SimplePeakList) peakList).getDateCreated()
+			+ getDateCreated(peakList)
 			+ "</font></html>"), c);
 	c.gridx = 0;
 	c.gridy = 2;
@@ -189,4 +190,12 @@ class InfoVisualizerWindow extends JFrame {
 	}
 
     }
+
+    private static String getDateCreated(PeakList peakList) {
+	if (peakList instanceof SimplePeakList)
+	    return ((SimplePeakList) peakList).getDateCreated();
+	if (peakList instanceof ColumnarPeakList)
+	    return ((ColumnarPeakList) peakList).getDateCreated();
+	return null;
+    }
 }
@@ -19,6 +19,7 @@
 
 package net.sf.mzmine.modules.visualization.peaklisttable.table;
 
+import java.awt.Container;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -32,6 +33,7 @@ import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTable;
+import javax.swing.JViewport;
 import javax.swing.UIManager;
 import javax.swing.event.RowSorterEvent;
 import javax.swing.table.TableCellEditor;
@@ -71,6 +73,7 @@ public class PeakListTable extends JTable implements ComponentToolTipProvider {
     private PeakListTableColumnModel cm;
     private ComponentToolTipManager ttm;
     private DefaultCellEditor currentEditor = null;
+    private PeakShapeThumbnails thumbnails;
 
     public PeakListTable(PeakListTableWindow window, ParameterSet parameters,
 	    PeakList peakList) {
@@ -84,11 +87,16 @@ public class PeakListTable extends JTable implements ComponentToolTipProvider {
 	this.pkTableModel = new PeakListTableModel(peakList);
 	setModel(pkTableModel);
 
+	// Peak shapes are rendered in background, and again when the peak list
+	// changes
+	thumbnails = new PeakShapeThumbnails(this, peakList, parameters);
+	pkTableModel.addTableModelListener(thumbnails);
+
 	GroupableTableHeader header = new GroupableTableHeader();
 	setTableHeader(header);
 
 	cm = new PeakListTableColumnModel(header, pkTableModel, parameters,
-		peakList);
+		peakList, thumbnails);
 	cm.setColumnMargin(0);
 	setColumnModel(cm);
 
@@ -152,6 +160,24 @@ public class PeakListTable extends JTable implements ComponentToolTipProvider {
 	return peakList;
     }
 
+    /**
+     * Renders the peak shapes around the visible rows in advance when the
+     * table is scrolled
+     */
+    public void addNotify() {
+	super.addNotify();
+	Container parent = getParent();
+	if (parent instanceof JViewport)
+	    ((JViewport) parent).addChangeListener(thumbnails);
+    }
+
+    public void removeNotify() {
+	Container parent = getParent();
+	if (parent instanceof JViewport)
+	    ((JViewport) parent).removeChangeListener(thumbnails);
+	super.removeNotify();
+    }
+
     public TableCellEditor getCellEditor(int row, int column) {
 
 	CommonColumnType commonColumn = pkTableModel.getCommonColumn(column);
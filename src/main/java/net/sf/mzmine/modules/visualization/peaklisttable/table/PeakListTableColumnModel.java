@@ -74,7 +74,7 @@ public class PeakListTableColumnModel extends DefaultTableColumnModel implements
      */
     PeakListTableColumnModel(GroupableTableHeader header,
 	    PeakListTableModel tableModel, ParameterSet parameters,
-	    PeakList peakList) {
+	    PeakList peakList, PeakShapeThumbnails thumbnails) {
 
 	this.parameters = parameters;
 	this.peakList = peakList;
@@ -93,7 +93,7 @@ public class PeakListTableColumnModel extends DefaultTableColumnModel implements
 	mzRenderer = new FormattedCellRenderer(mzFormat);
 	rtRenderer = new FormattedCellRenderer(rtFormat);
 	intensityRenderer = new FormattedCellRenderer(intensityFormat);
-	peakShapeRenderer = new PeakShapeCellRenderer(peakList, parameters);
+	peakShapeRenderer = new PeakShapeCellRenderer(peakList, thumbnails);
 	identityRenderer = new CompoundIdentityCellRenderer();
 	peakStatusRenderer = new PeakStatusCellRenderer();
 	defaultRenderer = new DefaultTableCellRenderer();
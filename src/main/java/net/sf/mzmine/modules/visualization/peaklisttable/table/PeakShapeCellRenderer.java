@@ -21,30 +21,33 @@ package net.sf.mzmine.modules.visualization.peaklisttable.table;
 
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 
-import javax.swing.JPanel;
+import javax.swing.JComponent;
 import javax.swing.JTable;
-import javax.swing.OverlayLayout;
 import javax.swing.table.TableCellRenderer;
 
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
-import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.modules.visualization.peaklisttable.PeakListTableParameters;
-import net.sf.mzmine.modules.visualization.peaklisttable.PeakShapeNormalization;
-import net.sf.mzmine.parameters.ParameterSet;
-import net.sf.mzmine.util.components.CombinedXICComponent;
+import net.sf.mzmine.util.components.ComponentToolTipManager;
 import net.sf.mzmine.util.components.PeakXICComponent;
 
+/**
+ * Renderer of the peak shape columns. The shapes are drawn from the images of
+ * PeakShapeThumbnails, cells whose image is not rendered yet stay empty.
+ */
 class PeakShapeCellRenderer implements TableCellRenderer {
 
     private PeakList peakList;
-    private ParameterSet parameters;
+    private PeakShapeThumbnails thumbnails;
+    private ThumbnailComponent component = new ThumbnailComponent();
 
-    PeakShapeCellRenderer(PeakList peakList, ParameterSet parameters) {
+    PeakShapeCellRenderer(PeakList peakList, PeakShapeThumbnails thumbnails) {
 	this.peakList = peakList;
-	this.parameters = parameters;
+	this.thumbnails = thumbnails;
     }
 
     /**
@@ -54,9 +57,6 @@ class PeakShapeCellRenderer implements TableCellRenderer {
     public Component getTableCellRendererComponent(JTable table, Object value,
 	    boolean isSelected, boolean hasFocus, int row, int column) {
 
-	JPanel newPanel = new JPanel();
-	newPanel.setLayout(new OverlayLayout(newPanel));
-
 	Color bgColor;
 
 	if (isSelected)
@@ -64,60 +64,55 @@ class PeakShapeCellRenderer implements TableCellRenderer {
 	else
 	    bgColor = table.getBackground();
 
-	newPanel.setBackground(bgColor);
+	component.setBackground(bgColor);
+	component.image = null;
+	component.setBorder(null);
+	component.setToolTipText(null);
 
-	if (value instanceof Feature) {
+	if ((value instanceof Feature) || (value instanceof PeakListRow)) {
 
-	    Feature peak = (Feature) value;
-	    double maxHeight = 0;
-
-	    PeakShapeNormalization norm = parameters.getParameter(
-		    PeakListTableParameters.peakShapeNormalization).getValue();
-	    if (norm == null)
-		norm = PeakShapeNormalization.ROWMAX;
-	    switch (norm) {
-	    case GLOBALMAX:
-		maxHeight = peakList.getDataPointMaxIntensity();
-		break;
-	    case ROWMAX:
-		int rowNumber = peakList.getPeakRowNum(peak);
-		maxHeight = peakList.getRow(rowNumber)
-			.getDataPointMaxIntensity();
-		break;
-	    default:
-		maxHeight = peak.getRawDataPointsIntensityRange()
-			.upperEndpoint();
-		break;
-	    }
-
-	    PeakXICComponent xic = new PeakXICComponent(peak, maxHeight);
-
-	    newPanel.add(xic);
-
-	    newPanel.setToolTipText(xic.getToolTipText());
+	    PeakListRow peakListRow = peakList.getRow(table
+		    .convertRowIndexToModel(row));
+	    Rectangle cell = table.getCellRect(row, column, false);
+	    component.image = thumbnails.getImage(value, peakListRow,
+		    cell.width, cell.height);
+	    component.setBorder(PeakXICComponent.componentBorder);
 
 	}
 
+	if (value instanceof Feature) {
+	    component.setToolTipText(value.toString());
+	}
+
 	if (value instanceof PeakListRow) {
+	    int id = ((PeakListRow) value).getID();
+	    if (id >= 0)
+		component.setToolTipText(ComponentToolTipManager.CUSTOM + id);
+	}
 
-	    PeakListRow plRow = (PeakListRow) value;
+	return component;
 
-	    RawDataFile[] dataFiles = peakList.getRawDataFiles();
-	    Feature[] peaks = new Feature[dataFiles.length];
-	    for (int i = 0; i < dataFiles.length; i++) {
-		peaks[i] = plRow.getPeak(dataFiles[i]);
-	    }
+    }
 
-	    CombinedXICComponent xic = new CombinedXICComponent(peaks,
-		    plRow.getID());
+    /**
+     * Paints the background and the peak shape image
+     */
+    private static class ThumbnailComponent extends JComponent {
 
-	    newPanel.add(xic);
+	private static final long serialVersionUID = 1L;
 
-	    newPanel.setToolTipText(xic.getToolTipText());
+	private BufferedImage image;
 
+	ThumbnailComponent() {
+	    setOpaque(true);
 	}
 
-	return newPanel;
+	protected void paintComponent(Graphics g) {
+	    g.setColor(getBackground());
+	    g.fillRect(0, 0, getWidth(), getHeight());
+	    if (image != null)
+		g.drawImage(image, 0, 0, null);
+	}
 
     }
 
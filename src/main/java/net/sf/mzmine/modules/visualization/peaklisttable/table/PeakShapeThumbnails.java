@@ -0,0 +1,412 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.visualization.peaklisttable.table;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.modules.visualization.peaklisttable.PeakListTableParameters;
+import net.sf.mzmine.modules.visualization.peaklisttable.PeakShapeNormalization;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.util.components.CombinedXICComponent;
+import net.sf.mzmine.util.components.PeakXICComponent;
+
+/**
+ * Peak shape images for the peak shape columns of the peak list table. The
+ * images are rendered by a background thread into a cache of limited size, so
+ * painting a cell only copies an image. When the table is scrolled, the cells
+ * around the visible part are rendered in advance. The cache is cleared
+ * whenever the table model reports a change of the peak list.
+ *
+ * All methods except run() are called in the event dispatch thread.
+ */
+class PeakShapeThumbnails implements ChangeListener, TableModelListener,
+	Runnable {
+
+    private Logger logger = Logger.getLogger(this.getClass().getName());
+
+    // Maximum number of cached pixels (4 bytes each)
+    private static final long MAX_CACHED_PIXELS = 8 * 1024 * 1024;
+
+    // Maximum number of images waiting to be rendered
+    private static final int MAX_REQUESTS = 2000;
+
+    // Number of rows above and below the visible part rendered in advance
+    private static final int PREFETCH_ROWS = 20;
+
+    // The rendering thread stops after being idle for this time (ms)
+    private static final long IDLE_TIMEOUT = 5000;
+
+    private final JTable table;
+    private final PeakList peakList;
+    private final ParameterSet parameters;
+
+    // Rendered images in the order of access, for removing the eldest
+    private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<Key, BufferedImage>(
+	    16, 0.75f, true);
+    private long cachedPixels = 0;
+
+    // Images which were requested but not yet rendered
+    private final Set<Key> pendingKeys = new HashSet<Key>();
+
+    // Increased when the cache is cleared, to discard images still being
+    // rendered for the old contents
+    private int generation = 0;
+
+    // Newest requests first, so the visible cells are rendered before the
+    // prefetched ones
+    private final LinkedBlockingDeque<Request> requests = new LinkedBlockingDeque<Request>();
+    private Thread renderThread;
+
+    PeakShapeThumbnails(JTable table, PeakList peakList,
+	    ParameterSet parameters) {
+	this.table = table;
+	this.peakList = peakList;
+	this.parameters = parameters;
+    }
+
+    /**
+     * Returns the image of the peak shape (for a Feature value) or combined
+     * peak shapes (for a PeakListRow value) of given size, or null if it is
+     * not rendered yet. In that case, the image is rendered in background and
+     * the table repainted when it is ready.
+     */
+    BufferedImage getImage(Object value, PeakListRow row, int width,
+	    int height) {
+
+	if ((width <= 0) || (height <= 0))
+	    return null;
+
+	PeakShapeNormalization normalization = null;
+	if (value instanceof Feature) {
+	    normalization = parameters.getParameter(
+		    PeakListTableParameters.peakShapeNormalization).getValue();
+	    if (normalization == null)
+		normalization = PeakShapeNormalization.ROWMAX;
+	}
+
+	Key key = new Key(value, width, height, normalization);
+	BufferedImage image = images.get(key);
+	if ((image == null) && pendingKeys.add(key)) {
+	    requests.offerFirst(new Request(key, row, generation));
+
+	    // Forget the oldest requests, e.g. when scrolling fast over
+	    // many rows
+	    while (requests.size() > MAX_REQUESTS) {
+		Request dropped = requests.pollLast();
+		if (dropped != null)
+		    pendingKeys.remove(dropped.key);
+	    }
+
+	    startRenderThread();
+	}
+	return image;
+
+    }
+
+    /**
+     * Requests the images of the peak shape cells around the visible part of
+     * the table
+     */
+    void prefetch() {
+
+	Rectangle visible = table.getVisibleRect();
+	final int rowCount = table.getRowCount();
+	final int columnCount = table.getColumnCount();
+	if (visible.isEmpty() || (rowCount == 0) || (columnCount == 0))
+	    return;
+
+	int firstRow = table.rowAtPoint(new Point(visible.x, visible.y));
+	int lastRow = table.rowAtPoint(new Point(visible.x, visible.y
+		+ visible.height - 1));
+	if (firstRow < 0)
+	    firstRow = 0;
+	if (lastRow < 0)
+	    lastRow = rowCount - 1;
+	firstRow = Math.max(0, firstRow - PREFETCH_ROWS);
+	lastRow = Math.min(rowCount - 1, lastRow + PREFETCH_ROWS);
+
+	int firstColumn = table.columnAtPoint(new Point(visible.x, visible.y));
+	int lastColumn = table.columnAtPoint(new Point(visible.x
+		+ visible.width - 1, visible.y));
+	if (firstColumn < 0)
+	    firstColumn = 0;
+	if (lastColumn < 0)
+	    lastColumn = columnCount - 1;
+
+	for (int column = firstColumn; column <= lastColumn; column++) {
+
+	    Object identifier = table.getColumnModel().getColumn(column)
+		    .getIdentifier();
+	    if ((identifier != CommonColumnType.PEAKSHAPE)
+		    && (identifier != DataFileColumnType.PEAKSHAPE))
+		continue;
+
+	    for (int row = firstRow; row <= lastRow; row++) {
+		Object value = table.getValueAt(row, column);
+		if (!(value instanceof Feature)
+			&& !(value instanceof PeakListRow))
+		    continue;
+		PeakListRow peakListRow = peakList.getRow(table
+			.convertRowIndexToModel(row));
+		Rectangle cell = table.getCellRect(row, column, false);
+		getImage(value, peakListRow, cell.width, cell.height);
+	    }
+	}
+
+    }
+
+    /**
+     * Clears the cache and discards the waiting requests
+     */
+    void clear() {
+	generation++;
+	images.clear();
+	cachedPixels = 0;
+	pendingKeys.clear();
+	requests.clear();
+    }
+
+    /**
+     * The visible part of the table was scrolled or resized
+     */
+    public void stateChanged(ChangeEvent event) {
+	prefetch();
+    }
+
+    /**
+     * The peak list was edited
+     */
+    public void tableChanged(TableModelEvent event) {
+
+	// Some tasks notify the table from their own thread
+	if (!SwingUtilities.isEventDispatchThread()) {
+	    SwingUtilities.invokeLater(new Runnable() {
+		public void run() {
+		    clear();
+		}
+	    });
+	    return;
+	}
+
+	clear();
+    }
+
+    /**
+     * Renders the requested images until there are no requests for a while
+     */
+    public void run() {
+
+	while (true) {
+
+	    Request request;
+	    try {
+		request = requests.pollFirst(IDLE_TIMEOUT,
+			TimeUnit.MILLISECONDS);
+	    } catch (InterruptedException e) {
+		request = null;
+	    }
+
+	    if (request == null) {
+		synchronized (this) {
+		    if (requests.isEmpty()) {
+			renderThread = null;
+			return;
+		    }
+		}
+		continue;
+	    }
+
+	    final Request renderedRequest = request;
+	    final BufferedImage image = render(request);
+	    SwingUtilities.invokeLater(new Runnable() {
+		public void run() {
+		    imageRendered(renderedRequest, image);
+		}
+	    });
+
+	}
+
+    }
+
+    private synchronized void startRenderThread() {
+	if (renderThread != null)
+	    return;
+	renderThread = new Thread(this, "Peak shape rendering");
+	renderThread.setDaemon(true);
+	renderThread.setPriority(Thread.MIN_PRIORITY);
+	renderThread.start();
+    }
+
+    private BufferedImage render(Request request) {
+
+	final Key key = request.key;
+	BufferedImage image = new BufferedImage(key.width, key.height,
+		BufferedImage.TYPE_INT_ARGB);
+	Graphics2D g2 = image.createGraphics();
+	g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+		RenderingHints.VALUE_ANTIALIAS_ON);
+
+	try {
+
+	    if (key.value instanceof Feature) {
+
+		Feature peak = (Feature) key.value;
+		double maxHeight;
+		switch (key.normalization) {
+		case GLOBALMAX:
+		    maxHeight = peakList.getDataPointMaxIntensity();
+		    break;
+		case ROWMAX:
+		    maxHeight = request.row.getDataPointMaxIntensity();
+		    break;
+		default:
+		    maxHeight = peak.getRawDataPointsIntensityRange()
+			    .upperEndpoint();
+		    break;
+		}
+		PeakXICComponent.paintPeakShape(g2, peak, maxHeight,
+			key.width, key.height);
+
+	    } else {
+
+		PeakListRow row = (PeakListRow) key.value;
+		RawDataFile[] dataFiles = peakList.getRawDataFiles();
+		Feature[] peaks = new Feature[dataFiles.length];
+		for (int i = 0; i < dataFiles.length; i++) {
+		    peaks[i] = row.getPeak(dataFiles[i]);
+		}
+		CombinedXICComponent.paintPeakShapes(g2, peaks, key.width,
+			key.height);
+
+	    }
+
+	} catch (RuntimeException e) {
+	    // Keep the (empty) image, so we do not try again on every paint
+	    logger.log(Level.WARNING, "Could not render peak shape", e);
+	} finally {
+	    g2.dispose();
+	}
+
+	return image;
+
+    }
+
+    private void imageRendered(Request request, BufferedImage image) {
+
+	// The cache was cleared while rendering
+	if (request.generation != generation)
+	    return;
+
+	pendingKeys.remove(request.key);
+	images.put(request.key, image);
+	cachedPixels += request.key.getPixels();
+
+	// Remove the least recently used images
+	Iterator<Map.Entry<Key, BufferedImage>> iterator = images.entrySet()
+		.iterator();
+	while ((cachedPixels > MAX_CACHED_PIXELS) && iterator.hasNext()) {
+	    Key eldest = iterator.next().getKey();
+	    cachedPixels -= eldest.getPixels();
+	    iterator.remove();
+	}
+
+	table.repaint();
+
+    }
+
+    /**
+     * Cache key: the table cell value, the image size and the normalization
+     * of a single peak shape
+     */
+    private static class Key {
+
+	private final Object value;
+	private final int width, height;
+	private final PeakShapeNormalization normalization;
+
+	Key(Object value, int width, int height,
+		PeakShapeNormalization normalization) {
+	    this.value = value;
+	    this.width = width;
+	    this.height = height;
+	    this.normalization = normalization;
+	}
+
+	long getPixels() {
+	    return (long) width * height;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+	    if (!(object instanceof Key))
+		return false;
+	    Key other = (Key) object;
+	    return value.equals(other.value) && (width == other.width)
+		    && (height == other.height)
+		    && (normalization == other.normalization);
+	}
+
+	@Override
+	public int hashCode() {
+	    return ((value.hashCode() * 31 + width) * 31 + height) * 31
+		    + (normalization == null ? 0 : normalization.ordinal());
+	}
+
+    }
+
+    private static class Request {
+
+	private final Key key;
+	private final PeakListRow row;
+	private final int generation;
+
+	Request(Key key, PeakListRow row, int generation) {
+	    this.key = key;
+	    this.row = row;
+	    this.generation = generation;
+	}
+
+    }
+
+}
@@ -22,6 +22,7 @@ package net.sf.mzmine.modules.visualization.spectra;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
@@ -57,6 +58,7 @@ import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.chart.title.LegendTitle;
 import org.jfree.chart.title.TextTitle;
+import org.jfree.data.Range;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.ui.RectangleInsets;
 
@@ -378,6 +380,24 @@ public class SpectraPlot extends ChartPanel {
 	requestFocus();
     }
 
+    @Override
+    public void paintComponent(Graphics g) {
+
+	// Let the scan data sets select the data points to draw for the current
+	// zoom
+	Range mzRange = plot.getDomainAxis().getRange();
+	for (int i = 0; i < plot.getDatasetCount(); i++) {
+	    XYDataset dataSet = plot.getDataset(i);
+	    if (dataSet instanceof ScanDataSet) {
+		((ScanDataSet) dataSet).setVisibleRange(
+			mzRange.getLowerBound(), mzRange.getUpperBound(),
+			getWidth());
+	    }
+	}
+
+	super.paintComponent(g);
+    }
+
     public synchronized void removeAllDataSets() {
 	for (int i = 0; i < plot.getDatasetCount(); i++) {
 	    plot.setDataset(i, null);
@@ -19,18 +19,26 @@
 
 package net.sf.mzmine.modules.visualization.spectra.datasets;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.MinMaxDecimator;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
 
+import org.jfree.data.DomainOrder;
 import org.jfree.data.xy.AbstractXYDataset;
 import org.jfree.data.xy.IntervalXYDataset;
 
 import com.google.common.collect.Range;
 
 /**
- * Spectra visualizer data set for scan data points
+ * Spectra visualizer data set for scan data points. The items of the data set
+ * are the data points which should be drawn for the range and width set by
+ * setVisibleRange(), see MinMaxDecimator.
  */
 public class ScanDataSet extends AbstractXYDataset implements IntervalXYDataset {
 
@@ -46,6 +54,13 @@ public class ScanDataSet extends AbstractXYDataset implements IntervalXYDataset
      */
     private DataPoint dataPoints[];
 
+    // Level-of-detail index and the data points to plot
+    private MinMaxDecimator decimator;
+    private int visibleItems[];
+    private double visibleMin, visibleMax;
+    private int visibleWidth;
+    private boolean visibleItemsValid;
+
     public ScanDataSet(Scan scan) {
 	this("Scan #" + scan.getScanNumber(), scan);
     }
@@ -54,6 +69,27 @@ public class ScanDataSet extends AbstractXYDataset implements IntervalXYDataset
 	this.dataPoints = scan.getDataPoints();
 	this.scan = scan;
 	this.label = label;
+
+	// The level-of-detail index requires the data points in m/z order
+	for (int i = 1; i < dataPoints.length; i++) {
+	    if (dataPoints[i].getMZ() < dataPoints[i - 1].getMZ()) {
+		dataPoints = dataPoints.clone();
+		Arrays.sort(dataPoints, new DataPointSorter(SortingProperty.MZ,
+			SortingDirection.Ascending));
+		break;
+	    }
+	}
+
+	double mzValues[] = new double[dataPoints.length];
+	double intensityValues[] = new double[dataPoints.length];
+	decimator = new MinMaxDecimator(mzValues, intensityValues);
+	for (int i = 0; i < dataPoints.length; i++) {
+	    mzValues[i] = dataPoints[i].getMZ();
+	    intensityValues[i] = dataPoints[i].getIntensity();
+	    decimator.add();
+	}
+	visibleItems = decimator.getVisibleItems(0, 0, 0);
+	visibleItemsValid = true;
     }
 
     @Override
@@ -67,15 +103,41 @@ public class ScanDataSet extends AbstractXYDataset implements IntervalXYDataset
     }
 
     public int getItemCount(int series) {
-	return dataPoints.length;
+	if (!visibleItemsValid) {
+	    visibleItems = decimator.getVisibleItems(visibleMin, visibleMax,
+		    visibleWidth);
+	    visibleItemsValid = true;
+	}
+	return visibleItems.length;
     }
 
     public Number getX(int series, int item) {
-	return dataPoints[item].getMZ();
+	return dataPoints[visibleItems[item]].getMZ();
     }
 
     public Number getY(int series, int item) {
-	return dataPoints[item].getIntensity();
+	return dataPoints[visibleItems[item]].getIntensity();
+    }
+
+    @Override
+    public DomainOrder getDomainOrder() {
+	return DomainOrder.ASCENDING;
+    }
+
+    /**
+     * Sets the m/z range shown by the plot and the plot width in pixels. The
+     * data points to plot are selected again on the next call of
+     * getItemCount(). Until this method is called, all data points are
+     * plotted.
+     */
+    public void setVisibleRange(double mzMin, double mzMax, int width) {
+	if ((mzMin != visibleMin) || (mzMax != visibleMax)
+		|| (width != visibleWidth)) {
+	    visibleMin = mzMin;
+	    visibleMax = mzMax;
+	    visibleWidth = width;
+	    visibleItemsValid = false;
+	}
     }
 
     public Number getEndX(int series, int item) {
@@ -137,7 +199,7 @@ public class ScanDataSet extends AbstractXYDataset implements IntervalXYDataset
     public String getAnnotation(int item) {
 	if (annotation == null)
 	    return null;
-	DataPoint itemDataPoint = dataPoints[item];
+	DataPoint itemDataPoint = dataPoints[visibleItems[item]];
 	for (DataPoint key : annotation.keySet()) {
 	    if (Math.abs(key.getMZ() - itemDataPoint.getMZ()) < 0.001)
 		return annotation.get(key);
@@ -20,7 +20,6 @@
 package net.sf.mzmine.modules.visualization.tic;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,8 +33,10 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.MinMaxDecimator;
 import net.sf.mzmine.util.ScanUtils;
 
+import org.jfree.data.DomainOrder;
 import org.jfree.data.xy.AbstractXYZDataset;
 
 import com.google.common.collect.Range;
@@ -48,6 +49,12 @@ import com.google.common.primitives.Ints;
  * 
  * Added the possibility to switch to TIC plot type from a
  * "non-TICVisualizerWindow" context.
+ * 
+ * The items of the data set are the scans which should be drawn for the range
+ * and width set by setVisibleRange(). When zoomed out, only the lowest and
+ * highest scan per pixel are plotted, see MinMaxDecimator. Item indexes are
+ * only used for rendering; the cursor works on the indexes of all scans, see
+ * getIndex().
  */
 public class TICDataSet extends AbstractXYZDataset implements Task {
 
@@ -69,7 +76,7 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
 
     private final Scan scans[];
     private final int totalScans;
-    private int processedScans;
+    private volatile int processedScans;
 
     private final double[] basePeakValues;
     private final double[] intensityValues;
@@ -78,6 +85,18 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
     private double intensityMin;
     private double intensityMax;
 
+    // Level-of-detail index, filled while the values are calculated.
+    private final MinMaxDecimator decimator;
+
+    // Scans to plot (indexes into the value arrays), and the parameters they
+    // were selected for.
+    private int[] visibleItems;
+    private int visibleItemsSize;
+    private boolean visibleItemsValid;
+    private double visibleMin;
+    private double visibleMax;
+    private int visibleWidth;
+
     private TaskStatus status;
     private String errorMessage;
 
@@ -128,7 +147,12 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
         basePeakValues = new double[totalScans];
         intensityValues = new double[totalScans];
         rtValues = new double[totalScans];
+        decimator = new MinMaxDecimator(rtValues, intensityValues);
         processedScans = 0;
+        visibleItems = new int[0];
+        visibleItemsSize = 0;
+        visibleItemsValid = false;
+        visibleWidth = 0;
         intensityMin = 0.0;
         intensityMax = 0.0;
 
@@ -202,35 +226,111 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
     @Override
     public Number getZ(final int series, final int item) {
 
-        return basePeakValues[item];
+        return basePeakValues[visibleItems[item]];
     }
 
     @Override
     public int getItemCount(final int series) {
 
-        return processedScans;
+        updateVisibleItems();
+        return visibleItems.length;
     }
 
     @Override
     public Number getX(final int series, final int item) {
 
-        return rtValues[item];
+        return rtValues[visibleItems[item]];
     }
 
     @Override
     public Number getY(final int series, final int item) {
 
-        return intensityValues[item];
+        return intensityValues[visibleItems[item]];
+    }
+
+    @Override
+    public DomainOrder getDomainOrder() {
+
+        return DomainOrder.ASCENDING;
+    }
+
+    /**
+     * Sets the retention time range shown by the plot and the plot width in
+     * pixels. The scans to plot are selected again on the next call of
+     * getItemCount(). Until this method is called, all scans are plotted.
+     *
+     * @param xMin
+     *            minimum of range on x-axis.
+     * @param xMax
+     *            maximum of range on x-axis.
+     * @param width
+     *            width of the plot in pixels.
+     */
+    public void setVisibleRange(final double xMin, final double xMax,
+            final int width) {
+
+        if (xMin != visibleMin || xMax != visibleMax || width != visibleWidth) {
+
+            visibleMin = xMin;
+            visibleMax = xMax;
+            visibleWidth = width;
+            visibleItemsValid = false;
+        }
+    }
+
+    /**
+     * Returns the number of scans calculated so far.
+     */
+    public int getNumberOfScans() {
+
+        return processedScans;
+    }
+
+    /**
+     * Returns the retention time of the given scan, regardless of the items
+     * currently plotted.
+     *
+     * @param index
+     *            index of the scan in this data set.
+     */
+    public double getRetentionTime(final int index) {
+
+        return rtValues[index];
+    }
+
+    /**
+     * Returns the intensity of the given scan, regardless of the items
+     * currently plotted.
+     *
+     * @param index
+     *            index of the scan in this data set.
+     */
+    public double getIntensity(final int index) {
+
+        return intensityValues[index];
+    }
+
+    /**
+     * Returns the base peak m/z of the given scan, regardless of the items
+     * currently plotted.
+     *
+     * @param index
+     *            index of the scan in this data set.
+     */
+    public double getBasePeakMZ(final int index) {
+
+        return basePeakValues[index];
     }
 
     /**
-     * Returns index of data point which exactly matches given X and Y values
+     * Returns index of the scan which exactly matches given X and Y values,
+     * also if the scan is not plotted.
      *
      * @param retentionTime
      *            retention time.
      * @param intensity
      *            intensity.
-     * @return the nearest data point index.
+     * @return the index of the scan in this data set, or -1.
      */
     public int getIndex(final double retentionTime, final double intensity) {
 
@@ -247,9 +347,26 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
         return index;
     }
 
-    public int getScanNumber(final int item) {
+    /**
+     * Returns the index of the scan plotted as the given item.
+     *
+     * @param item
+     *            the index of the plotted item.
+     */
+    public int getScanIndex(final int item) {
 
-        return scans[item].getScanNumber();
+        return visibleItems[item];
+    }
+
+    /**
+     * Returns the scan number of the given scan.
+     *
+     * @param index
+     *            index of the scan in this data set.
+     */
+    public int getScanNumber(final int index) {
+
+        return scans[index].getScanNumber();
     }
 
     public RawDataFile getDataFile() {
@@ -266,16 +383,17 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
      */
     public boolean isLocalMaximum(final int item) {
 
+        final int index = visibleItems[item];
         final boolean isLocalMaximum;
-        if (item <= 0 || item >= processedScans - 1) {
+        if (index <= 0 || index >= processedScans - 1) {
 
             isLocalMaximum = false;
 
         } else {
 
-            final double intensity = intensityValues[item];
-            isLocalMaximum = intensityValues[item - 1] <= intensity
-                    && intensity >= intensityValues[item + 1];
+            final double intensity = intensityValues[index];
+            isLocalMaximum = intensityValues[index - 1] <= intensity
+                    && intensity >= intensityValues[index + 1];
         }
 
         return isLocalMaximum;
@@ -297,33 +415,29 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
     public int[] findLocalMaxima(final double xMin, final double xMax,
             final double yMin, final double yMax) {
 
-        // Save data set size.
-        final int currentSize = processedScans;
-        final double[] rtCopy;
+        // Search only the plotted items, they are sorted by RT.
+        final int length = visibleItems.length;
+        int startIndex = 0;
+        int endIndex = length;
+        while (startIndex < endIndex) {
 
-        // If the RT values array is not filled yet, create a smaller copy.
-        if (currentSize < rtValues.length) {
+            final int middle = (startIndex + endIndex) >>> 1;
+            if (rtValues[visibleItems[middle]] < xMin) {
 
-            rtCopy = new double[currentSize];
-            System.arraycopy(rtValues, 0, rtCopy, 0, currentSize);
+                startIndex = middle + 1;
 
-        } else {
-
-            rtCopy = rtValues;
-        }
-
-        int startIndex = Arrays.binarySearch(rtCopy, xMin);
-        if (startIndex < 0) {
+            } else {
 
-            startIndex = -startIndex - 1;
+                endIndex = middle;
+            }
         }
 
-        final int length = rtCopy.length;
-        final Collection<Integer> indices = new ArrayList<Integer>(length);
-        for (int index = startIndex; index < length && rtCopy[index] <= xMax; index++) {
+        final Collection<Integer> indices = new ArrayList<Integer>();
+        for (int index = startIndex; index < length
+                && rtValues[visibleItems[index]] <= xMax; index++) {
 
             // Check Y range..
-            final double intensity = intensityValues[index];
+            final double intensity = intensityValues[visibleItems[index]];
             if (yMin <= intensity && intensity <= yMax && isLocalMaximum(index)) {
 
                 indices.add(index);
@@ -390,6 +504,7 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
                 intensityMax = Math.max(intensity, intensityMax);
             }
 
+            decimator.add();
             processedScans++;
 
             // Refresh every REDRAW_INTERVAL ms.
@@ -404,6 +519,24 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
         }
     }
 
+    /**
+     * Selects the scans to plot, if new scans were calculated or the visible
+     * range changed since the last selection.
+     */
+    private void updateVisibleItems() {
+
+        final int size = decimator.getSize();
+        if (visibleItemsValid && size == visibleItemsSize) {
+
+            return;
+        }
+
+        visibleItems = decimator.getVisibleItems(visibleMin, visibleMax,
+                visibleWidth);
+        visibleItemsSize = size;
+        visibleItemsValid = true;
+    }
+
     /**
      * Notify data set listener (on the EDT).
      */
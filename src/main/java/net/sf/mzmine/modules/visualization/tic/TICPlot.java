@@ -23,6 +23,7 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.awt.Paint;
 import java.awt.Shape;
 import java.awt.Stroke;
@@ -65,6 +66,7 @@ import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.chart.title.LegendTitle;
 import org.jfree.chart.title.TextTitle;
+import org.jfree.data.Range;
 import org.jfree.data.general.DatasetUtilities;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.ui.RectangleInsets;
@@ -490,6 +492,26 @@ public class TICPlot extends ChartPanel implements MouseWheelListener {
 	}
     }
 
+    @Override
+    public void paintComponent(final Graphics g) {
+
+	// Let the TIC data sets select the scans to draw for the current zoom.
+	final Range domainRange = plot.getDomainAxis().getRange();
+	final int dataSetCount = plot.getDatasetCount();
+	for (int i = 0; i < dataSetCount; i++) {
+
+	    final XYDataset dataSet = plot.getDataset(i);
+	    if (dataSet instanceof TICDataSet) {
+
+		((TICDataSet) dataSet).setVisibleRange(
+			domainRange.getLowerBound(),
+			domainRange.getUpperBound(), getWidth());
+	    }
+	}
+
+	super.paintComponent(g);
+    }
+
     public void mouseWheelMoved(MouseWheelEvent event) {
 	int notches = event.getWheelRotation();
 	if (notches < 0) {
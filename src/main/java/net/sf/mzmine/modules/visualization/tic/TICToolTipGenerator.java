@@ -51,7 +51,8 @@ public class TICToolTipGenerator implements XYToolTipGenerator {
 
 	    final TICDataSet ticDataSet = (TICDataSet) dataSet;
 
-	    toolTip = "Scan #" + ticDataSet.getScanNumber(item)
+	    toolTip = "Scan #"
+		    + ticDataSet.getScanNumber(ticDataSet.getScanIndex(item))
 		    + "\nRetention time: " + rtFormat.format(rtValue)
 		    + "\nBase peak m/z: "
 		    + mzFormat.format(ticDataSet.getZValue(series, item))
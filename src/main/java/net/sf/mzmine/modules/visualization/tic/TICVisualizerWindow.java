@@ -401,7 +401,7 @@ public class TICVisualizerWindow extends JFrame implements ActionListener {
             if (index >= 0) {
                 double mz = 0;
                 if (plotType == TICPlotType.BASEPEAK) {
-                    mz = (double) dataSet.getZValue(0, index);
+                    mz = dataSet.getBasePeakMZ(index);
                 }
                 CursorPosition pos = new CursorPosition(selectedRT, mz,
                         selectedIT, dataSet.getDataFile(),
@@ -445,8 +445,8 @@ public class TICVisualizerWindow extends JFrame implements ActionListener {
                         pos.getIntensityValue());
                 if (index > 0) {
                     index--;
-                    pos.setRetentionTime((double) dataSet.getXValue(0, index));
-                    pos.setIntensityValue((double) dataSet.getYValue(0, index));
+                    pos.setRetentionTime(dataSet.getRetentionTime(index));
+                    pos.setIntensityValue(dataSet.getIntensity(index));
                     setCursorPosition(pos);
 
                 }
@@ -461,11 +461,9 @@ public class TICVisualizerWindow extends JFrame implements ActionListener {
                         pos.getIntensityValue());
                 if (index >= 0) {
                     index++;
-                    if (index < dataSet.getItemCount(0)) {
-                        pos.setRetentionTime((double) dataSet.getXValue(0,
-                                index));
-                        pos.setIntensityValue((double) dataSet.getYValue(0,
-                                index));
+                    if (index < dataSet.getNumberOfScans()) {
+                        pos.setRetentionTime(dataSet.getRetentionTime(index));
+                        pos.setIntensityValue(dataSet.getIntensity(index));
                         setCursorPosition(pos);
                     }
                 }
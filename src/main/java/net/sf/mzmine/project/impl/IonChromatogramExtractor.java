@@ -0,0 +1,462 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.IonChromatogram;
+import net.sf.mzmine.datamodel.impl.SimpleIonChromatogram;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Extracts the ion chromatograms of many m/z and retention time ranges
+ * (targets) in one pass over the scans of a raw data file. Each target covers
+ * a continuous run of scans, so the targets are indexed by their first scan
+ * and each scan is only matched against the targets covering it. Each of
+ * those targets is resolved by a binary search in the m/z values of the scan,
+ * which are stored in ascending order. Scans whose m/z values are not in order
+ * are searched linearly. Scans not covered by any target are not read at all.
+ * The covered scans are split into blocks which are processed in parallel by
+ * the calling thread and a thread pool shared by all extractions, each block
+ * filling its own part of the result arrays. Small extractions, such as the
+ * single target of the manual peak picker, run in the calling thread only.
+ */
+class IonChromatogramExtractor {
+
+    private static final int MIN_SCANS_PER_BLOCK = 32;
+
+    // Seconds after which the idle threads of the shared pool end
+    private static final long THREAD_TIMEOUT = 30;
+
+    private static ThreadPoolExecutor threadPool;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final RawDataFileImpl dataFile;
+    private final Range<Double> mzRanges[], rtRanges[];
+
+    // Scans of the MS level, ordered by retention time
+    private StorableScan scans[];
+    private int scanNumbers[];
+    private double retentionTimes[];
+
+    // Target t covers the scans from firstScan[t] to endScan[t] - 1
+    private int firstScan[], endScan[];
+    private int targetsByFirstScan[];
+
+    // Most intense data point of each target in each covered scan
+    private double resultMZ[][], resultIntensity[][];
+
+    IonChromatogramExtractor(RawDataFileImpl dataFile, int msLevel,
+	    Range<Double> mzRanges[], Range<Double> rtRanges[]) {
+
+	if (mzRanges.length != rtRanges.length)
+	    throw new IllegalArgumentException(
+		    "Each target needs both m/z and retention time range");
+
+	this.dataFile = dataFile;
+	this.mzRanges = mzRanges;
+	this.rtRanges = rtRanges;
+
+	prepareScans(msLevel);
+	prepareTargets();
+    }
+
+    /**
+     * Extracts the ion chromatograms, using up to the given number of threads
+     * 
+     * @throws IOException
+     *             if the data points of a scan cannot be read
+     */
+    IonChromatogram[] extract(int numOfThreads) throws IOException {
+
+	// Only the scans covered by some target are processed
+	int start = scans.length, end = 0;
+	for (int t = 0; t < mzRanges.length; t++) {
+	    if (endScan[t] > firstScan[t]) {
+		start = Math.min(start, firstScan[t]);
+		end = Math.max(end, endScan[t]);
+	    }
+	}
+	final int numOfScans = Math.max(0, end - start);
+	final int blockSize = Math.max(MIN_SCANS_PER_BLOCK,
+		(numOfScans + 4 * numOfThreads - 1) / (4 * numOfThreads));
+	final int numOfBlocks = (numOfScans + blockSize - 1) / blockSize;
+
+	if ((numOfThreads <= 1) || (numOfBlocks <= 1)) {
+	    if (numOfScans > 0)
+		processBlock(start, end);
+	} else {
+	    processInParallel(start, end, blockSize,
+		    Math.min(numOfThreads, numOfBlocks));
+	}
+
+	IonChromatogram result[] = new IonChromatogram[mzRanges.length];
+	for (int t = 0; t < mzRanges.length; t++) {
+	    result[t] = new SimpleIonChromatogram(mzRanges[t], rtRanges[t],
+		    Arrays.copyOfRange(scanNumbers, firstScan[t], endScan[t]),
+		    Arrays.copyOfRange(retentionTimes, firstScan[t],
+			    endScan[t]), resultMZ[t], resultIntensity[t]);
+	}
+	return result;
+
+    }
+
+    /**
+     * Processes the blocks of scans from start to end - 1 in the calling
+     * thread and numOfThreads - 1 threads of the shared pool
+     */
+    private void processInParallel(int start, final int end,
+	    final int blockSize, int numOfThreads) throws IOException {
+
+	final AtomicInteger nextBlock = new AtomicInteger(start);
+	Callable<Void> worker = TaskMetrics.propagate(new Callable<Void>() {
+	    public Void call() throws IOException {
+		processBlocks(nextBlock, end, blockSize);
+		return null;
+	    }
+	});
+
+	ThreadPoolExecutor pool = getThreadPool(numOfThreads - 1);
+	List<Future<Void>> helpers = new ArrayList<Future<Void>>();
+	for (int i = 1; i < numOfThreads; i++)
+	    helpers.add(pool.submit(worker));
+
+	try {
+	    processBlocks(nextBlock, end, blockSize);
+	} finally {
+	    // Stop the helpers after their current block
+	    nextBlock.set(end);
+	}
+
+	for (Future<Void> helper : helpers) {
+	    // Helpers still waiting in the queue have nothing left to do
+	    if (pool.remove((Runnable) helper))
+		continue;
+	    try {
+		helper.get();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new IOException(
+			"Interrupted while extracting ion chromatograms");
+	    } catch (ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof IOException)
+		    throw (IOException) cause;
+		if (cause instanceof RuntimeException)
+		    throw (RuntimeException) cause;
+		if (cause instanceof Error)
+		    throw (Error) cause;
+		throw new IllegalStateException(cause);
+	    }
+	}
+
+    }
+
+    /**
+     * Processes blocks of scans until the next block starts at end
+     */
+    private void processBlocks(AtomicInteger nextBlock, int end, int blockSize)
+	    throws IOException {
+	int blockStart;
+	while ((blockStart = nextBlock.getAndAdd(blockSize)) < end)
+	    processBlock(blockStart, Math.min(end, blockStart + blockSize));
+    }
+
+    /**
+     * Returns the thread pool shared by all extractions, resized to the given
+     * number of threads
+     */
+    private static synchronized ThreadPoolExecutor getThreadPool(
+	    int numOfThreads) {
+
+	if (threadPool == null) {
+	    threadPool = new ThreadPoolExecutor(numOfThreads, numOfThreads,
+		    THREAD_TIMEOUT, TimeUnit.SECONDS,
+		    new LinkedBlockingQueue<Runnable>(),
+		    new ThreadFactoryBuilder()
+			    .setNameFormat("Ion chromatogram thread %d")
+			    .setDaemon(true).build());
+	    threadPool.allowCoreThreadTimeOut(true);
+	} else if (threadPool.getMaximumPoolSize() != numOfThreads) {
+	    if (numOfThreads > threadPool.getMaximumPoolSize()) {
+		threadPool.setMaximumPoolSize(numOfThreads);
+		threadPool.setCorePoolSize(numOfThreads);
+	    } else {
+		threadPool.setCorePoolSize(numOfThreads);
+		threadPool.setMaximumPoolSize(numOfThreads);
+	    }
+	}
+
+	return threadPool;
+
+    }
+
+    private void prepareScans(int msLevel) {
+
+	final int numbers[] = dataFile.getScanNumbers(msLevel);
+	final int numOfScans = numbers.length;
+	final double rts[] = new double[numOfScans];
+	boolean ordered = true;
+	for (int i = 0; i < numOfScans; i++) {
+	    rts[i] = dataFile.getScan(numbers[i]).getRetentionTime();
+	    if ((i > 0) && (rts[i] < rts[i - 1]))
+		ordered = false;
+	}
+
+	// The scans are normally in the order of retention time already
+	Integer order[] = new Integer[numOfScans];
+	for (int i = 0; i < numOfScans; i++)
+	    order[i] = i;
+	if (!ordered) {
+	    logger.fine("Scans of " + dataFile
+		    + " are not ordered by retention time");
+	    Arrays.sort(order, new Comparator<Integer>() {
+		public int compare(Integer a, Integer b) {
+		    return Double.compare(rts[a], rts[b]);
+		}
+	    });
+	}
+
+	scans = new StorableScan[numOfScans];
+	scanNumbers = new int[numOfScans];
+	retentionTimes = new double[numOfScans];
+	for (int i = 0; i < numOfScans; i++) {
+	    scanNumbers[i] = numbers[order[i]];
+	    retentionTimes[i] = rts[order[i]];
+	    scans[i] = (StorableScan) dataFile.getScan(scanNumbers[i]);
+	}
+
+    }
+
+    private void prepareTargets() {
+
+	final int numOfTargets = mzRanges.length;
+	firstScan = new int[numOfTargets];
+	endScan = new int[numOfTargets];
+	resultMZ = new double[numOfTargets][];
+	resultIntensity = new double[numOfTargets][];
+
+	for (int t = 0; t < numOfTargets; t++) {
+	    firstScan[t] = findFirst(retentionTimes, rtRanges[t], false);
+	    endScan[t] = Math.max(firstScan[t],
+		    findFirst(retentionTimes, rtRanges[t], true));
+	    final int length = endScan[t] - firstScan[t];
+	    resultMZ[t] = new double[length];
+	    resultIntensity[t] = new double[length];
+	}
+
+	Integer order[] = new Integer[numOfTargets];
+	for (int t = 0; t < numOfTargets; t++)
+	    order[t] = t;
+	Arrays.sort(order, new Comparator<Integer>() {
+	    public int compare(Integer a, Integer b) {
+		return Integer.compare(firstScan[a], firstScan[b]);
+	    }
+	});
+	targetsByFirstScan = new int[numOfTargets];
+	for (int t = 0; t < numOfTargets; t++)
+	    targetsByFirstScan[t] = order[t];
+
+    }
+
+    /**
+     * Fills the results of all targets for the scans from blockStart to
+     * blockEnd - 1
+     */
+    private void processBlock(int blockStart, int blockEnd)
+	    throws IOException {
+
+	final int numOfTargets = targetsByFirstScan.length;
+
+	// Targets which started before this block and cover its first scan
+	int next = 0;
+	while ((next < numOfTargets)
+		&& (firstScan[targetsByFirstScan[next]] < blockStart))
+	    next++;
+	int active[] = new int[numOfTargets];
+	int numOfActive = 0;
+	for (int i = 0; i < next; i++) {
+	    final int t = targetsByFirstScan[i];
+	    if (endScan[t] > blockStart)
+		active[numOfActive++] = t;
+	}
+
+	byte bytes[] = new byte[0];
+	float mz[] = new float[0], intensity[] = new float[0];
+
+	for (int scan = blockStart; scan < blockEnd; scan++) {
+
+	    // Add the targets starting at this scan, drop the finished ones
+	    while ((next < numOfTargets)
+		    && (firstScan[targetsByFirstScan[next]] <= scan)) {
+		active[numOfActive++] = targetsByFirstScan[next];
+		next++;
+	    }
+	    int kept = 0;
+	    for (int i = 0; i < numOfActive; i++) {
+		if (endScan[active[i]] > scan)
+		    active[kept++] = active[i];
+	    }
+	    numOfActive = kept;
+
+	    if (numOfActive == 0)
+		continue;
+
+	    // Read the data points of the scan into primitive arrays
+	    final int storageID = scans[scan].getStorageID();
+	    final int numOfBytes = 8 * dataFile
+		    .getNumOfStoredDataPoints(storageID);
+	    if (bytes.length < numOfBytes) {
+		bytes = new byte[numOfBytes];
+		mz = new float[numOfBytes / 8];
+		intensity = new float[numOfBytes / 8];
+	    }
+	    final int numOfDataPoints = dataFile.readDataPointsBytes(
+		    storageID, bytes) / 8;
+	    FloatBuffer floatBuffer = ByteBuffer.wrap(bytes, 0,
+		    numOfDataPoints * 8).asFloatBuffer();
+	    boolean ordered = true;
+	    for (int i = 0; i < numOfDataPoints; i++) {
+		mz[i] = floatBuffer.get();
+		intensity[i] = floatBuffer.get();
+		if ((i > 0) && (mz[i] < mz[i - 1]))
+		    ordered = false;
+	    }
+	    if (!ordered) {
+		logger.fine("Data points of scan " + scanNumbers[scan]
+			+ " are not ordered by m/z");
+	    }
+
+	    // Find the most intense data point of each target
+	    for (int i = 0; i < numOfActive; i++) {
+		final int t = active[i];
+		final int position = scan - firstScan[t];
+		final Range<Double> mzRange = mzRanges[t];
+
+		int best = -1;
+		if (ordered) {
+		    int j = findFirst(mz, numOfDataPoints, mzRange);
+		    for (; j < numOfDataPoints; j++) {
+			if (isAbove(mz[j], mzRange))
+			    break;
+			if ((best < 0) || (intensity[j] > intensity[best]))
+			    best = j;
+		    }
+		} else {
+		    for (int j = 0; j < numOfDataPoints; j++) {
+			if (isBelow(mz[j], mzRange) || isAbove(mz[j], mzRange))
+			    continue;
+			if ((best < 0) || (intensity[j] > intensity[best]))
+			    best = j;
+		    }
+		}
+
+		if (best >= 0) {
+		    resultMZ[t][position] = mz[best];
+		    resultIntensity[t][position] = intensity[best];
+		} else {
+		    resultMZ[t][position] = getCenter(mzRange);
+		    resultIntensity[t][position] = 0;
+		}
+	    }
+
+	}
+
+    }
+
+    /**
+     * Returns the index of the first value which is not below the range (or
+     * which is above it, if above is true), in values sorted in ascending
+     * order
+     */
+    private static int findFirst(double values[], Range<Double> range,
+	    boolean above) {
+	int low = 0, high = values.length;
+	while (low < high) {
+	    final int middle = (low + high) >>> 1;
+	    final boolean passed = above ? isAbove(values[middle], range)
+		    : !isBelow(values[middle], range);
+	    if (passed)
+		high = middle;
+	    else
+		low = middle + 1;
+	}
+	return low;
+    }
+
+    /**
+     * Returns the index of the first of the given number of values which is
+     * not below the range, in values sorted in ascending order
+     */
+    private static int findFirst(float values[], int length,
+	    Range<Double> range) {
+	int low = 0, high = length;
+	while (low < high) {
+	    final int middle = (low + high) >>> 1;
+	    if (!isBelow(values[middle], range))
+		high = middle;
+	    else
+		low = middle + 1;
+	}
+	return low;
+    }
+
+    private static boolean isBelow(double value, Range<Double> range) {
+	if (!range.hasLowerBound())
+	    return false;
+	final double lower = range.lowerEndpoint();
+	return (value < lower)
+		|| ((value == lower) && (range.lowerBoundType() == BoundType.OPEN));
+    }
+
+    private static boolean isAbove(double value, Range<Double> range) {
+	if (!range.hasUpperBound())
+	    return false;
+	final double upper = range.upperEndpoint();
+	return (value > upper)
+		|| ((value == upper) && (range.upperBoundType() == BoundType.OPEN));
+    }
+
+    private static double getCenter(Range<Double> range) {
+	if (!range.hasLowerBound() || !range.hasUpperBound())
+	    return 0;
+	return (range.lowerEndpoint() + range.upperEndpoint()) / 2.0;
+    }
+
+}
@@ -32,7 +32,11 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MZmineProjectListener;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakListRow;
 import net.sf.mzmine.datamodel.impl.RemoteJob;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.desktop.impl.MainWindow;
 import net.sf.mzmine.desktop.impl.projecttree.PeakListTreeModel;
 import net.sf.mzmine.desktop.impl.projecttree.ProjectTree;
@@ -53,6 +57,16 @@ public class MZmineProjectImpl implements MZmineProject {
 
     private File projectFile;
 
+    // Set when files, peak lists or parameters are added or removed, cleared
+    // when the project is saved
+    private boolean modified = true;
+
+    // IDs of the raw data files and ZIP entry names of the peak lists in the
+    // project file, as of the last save or load. Unchanged objects are copied
+    // from the previous project file when the project is saved again.
+    private final Hashtable<RawDataFile, String> savedDataFileIDs = new Hashtable<RawDataFile, String>();
+    private final Hashtable<PeakList, String> savedPeakListEntries = new Hashtable<PeakList, String>();
+
     private Collection<MZmineProjectListener> listeners = Collections
             .synchronizedCollection(new LinkedList<MZmineProjectListener>());
 
@@ -103,11 +117,13 @@ public class MZmineProjectImpl implements MZmineProject {
 
         Hashtable<RawDataFile, Object> parameterValues = new Hashtable<RawDataFile, Object>();
         projectParametersAndValues.put(parameter, parameterValues);
+        modified = true;
 
     }
 
     public void removeParameter(UserParameter<?, ?> parameter) {
         projectParametersAndValues.remove(parameter);
+        modified = true;
     }
 
     public boolean hasParameter(UserParameter<?, ?> parameter) {
@@ -129,6 +145,7 @@ public class MZmineProjectImpl implements MZmineProject {
             parameterValues.remove(rawDataFile);
         else
             parameterValues.put(rawDataFile, value);
+        modified = true;
     }
 
     public Object getParameterValue(UserParameter<?, ?> parameter,
@@ -145,6 +162,8 @@ public class MZmineProjectImpl implements MZmineProject {
 
         assert newFile != null;
 
+        modified = true;
+
         Runnable swingCode = new Runnable() {
             public void run() {
                 rawDataTreeModel.addObject(newFile);
@@ -170,6 +189,9 @@ public class MZmineProjectImpl implements MZmineProject {
 
         assert file != null;
 
+        modified = true;
+        savedDataFileIDs.remove(file);
+
         Runnable swingCode = new Runnable() {
             public void run() {
                 rawDataTreeModel.removeObject(file);
@@ -235,6 +257,8 @@ public class MZmineProjectImpl implements MZmineProject {
 
         assert peakList != null;
 
+        modified = true;
+
         Runnable swingCode = new Runnable() {
             public void run() {
                 peakListTreeModel.addObject(peakList);
@@ -259,6 +283,9 @@ public class MZmineProjectImpl implements MZmineProject {
 
         assert peakList != null;
 
+        modified = true;
+        savedPeakListEntries.remove(peakList);
+
         Runnable swingCode = new Runnable() {
             public void run() {
                 peakListTreeModel.removeObject(peakList);
@@ -311,6 +338,19 @@ public class MZmineProjectImpl implements MZmineProject {
 
     @Override
     public void notifyObjectChanged(Object object, boolean structureChanged) {
+
+        // Make sure the changed object is saved with the project
+        if (object instanceof SimplePeakList)
+            ((SimplePeakList) object).setModified(true);
+        if (object instanceof SimplePeakListRow)
+            ((SimplePeakListRow) object).setModified(true);
+        if (object instanceof ColumnarPeakList)
+            ((ColumnarPeakList) object).setModified(true);
+        if (object instanceof ColumnarPeakListRow)
+            ((ColumnarPeakListRow) object).getPeakList().setModified(true);
+        if (object instanceof RawDataFileImpl)
+            ((RawDataFileImpl) object).setModified(true);
+
         peakListTreeModel.notifyObjectChanged(object, structureChanged);
         rawDataTreeModel.notifyObjectChanged(object, structureChanged);
     }
@@ -323,6 +363,52 @@ public class MZmineProjectImpl implements MZmineProject {
         return rawDataTreeModel;
     }
 
+    /**
+     * Returns true if raw data files, peak lists or project parameters were
+     * added, removed or changed since the project was last saved or loaded.
+     * Changes inside the raw data files and peak lists are tracked by the
+     * objects themselves.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Sets the modification flag of the project itself, which covers the user
+     * parameters. Raw data files and peak lists keep their own flags.
+     */
+    public void setModified(boolean modified) {
+        this.modified = modified;
+    }
+
+    /**
+     * Returns the ID of the given raw data file in the project file, or null
+     * if the file has not been saved yet
+     */
+    public String getSavedDataFileID(RawDataFile dataFile) {
+        return savedDataFileIDs.get(dataFile);
+    }
+
+    /**
+     * Returns the name of the ZIP entry holding the given peak list in the
+     * project file, or null if the peak list has not been saved yet
+     */
+    public String getSavedPeakListEntry(PeakList peakList) {
+        return savedPeakListEntries.get(peakList);
+    }
+
+    /**
+     * Records the contents of the project file after the project was saved
+     * or loaded.
+     */
+    public void setSavedEntries(Hashtable<RawDataFile, String> dataFileIDs,
+            Hashtable<PeakList, String> peakListEntries) {
+        savedDataFileIDs.clear();
+        savedDataFileIDs.putAll(dataFileIDs);
+        savedPeakListEntries.clear();
+        savedPeakListEntries.putAll(peakListEntries);
+    }
+
     @Override
     public void addProjectListener(MZmineProjectListener newListener) {
         listeners.add(newListener);
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,12 +39,16 @@ import javax.annotation.Nonnull;
 
 import com.veritomyx.PeakInvestigatorSaaS;
 import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.IonChromatogram;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.RemoteJob;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
 
 import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
@@ -59,6 +64,13 @@ import com.google.common.primitives.Ints;
  * the storage ID is just deleted from the two TreeMaps. When the project is
  * saved, the contents of the dataPointsFile are consolidated - only data points
  * referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * 
+ * When a project is opened from an uncompressed project file, the scan data
+ * saved in the project can be memory-mapped in place instead of being copied
+ * to a temporary file (see openDataPointsFile(File, long, long)). In that case,
+ * offsets below mappedLength point into the mapped region, and any data points
+ * stored afterwards are appended to a new temporary file, with offsets
+ * starting at mappedLength.
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
@@ -83,6 +95,16 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     private File dataPointsFileName;
     private RandomAccessFile dataPointsFile;
 
+    // Read-only memory-mapped scan data, split into segments because a single
+    // MappedByteBuffer cannot exceed 2 GB
+    private static final long MAPPED_SEGMENT_SIZE = 1L << 30;
+    private MappedByteBuffer mappedSegments[];
+    private long mappedLength = 0;
+
+    // Set whenever scans, mass lists or other saved properties change,
+    // cleared when the project is saved
+    private boolean modified = true;
+
     /**
      * Scans
      */
@@ -113,7 +135,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     /**
      * Returns the (already opened) data points file. Warning: may return null
-     * in case no scans have been added yet to this RawDataFileImpl instance
+     * in case no scans have been added yet to this RawDataFileImpl instance.
+     * If scan data is memory-mapped, this file only contains the data points
+     * stored after mapping; use readDataPointsBytes() to access all data.
      */
     public RandomAccessFile getDataPointsFile() {
 	return dataPointsFile;
@@ -148,6 +172,47 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     }
 
+    /**
+     * Maps the given region of an existing file (typically the uncompressed
+     * scan data entry of a project file) as read-only data points storage. The
+     * file is neither locked nor removed on exit, because it is owned by the
+     * user. The TreeMaps have to describe the mapping of storage IDs to data
+     * points, with offsets relative to the beginning of the region.
+     */
+    public synchronized void openDataPointsFile(File file, long offset,
+	    long length) throws IOException {
+
+	if ((this.dataPointsFile != null) || (this.mappedSegments != null)) {
+	    throw new IOException(
+		    "Cannot open another data points file, because one is already open");
+	}
+
+	final int numOfSegments = (int) ((length + MAPPED_SEGMENT_SIZE - 1) / MAPPED_SEGMENT_SIZE);
+	MappedByteBuffer segments[] = new MappedByteBuffer[numOfSegments];
+
+	RandomAccessFile mappedFile = new RandomAccessFile(file, "r");
+	try {
+	    FileChannel fileChannel = mappedFile.getChannel();
+	    for (int i = 0; i < numOfSegments; i++) {
+		long segmentStart = i * MAPPED_SEGMENT_SIZE;
+		long segmentLength = Math.min(MAPPED_SEGMENT_SIZE, length
+			- segmentStart);
+		segments[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY,
+			offset + segmentStart, segmentLength);
+	    }
+	} finally {
+	    // The mapping remains valid after the channel is closed
+	    mappedFile.close();
+	}
+
+	this.mappedSegments = segments;
+	this.mappedLength = length;
+
+	logger.finest("Mapped " + length + " bytes of scan data from " + file
+		+ " at offset " + offset);
+
+    }
+
     /**
      * @see net.sf.mzmine.datamodel.RawDataFile#getNumOfScans()
      */
@@ -218,6 +283,20 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     }
 
+    /**
+     * @see net.sf.mzmine.datamodel.RawDataFile#getIonChromatograms(int,
+     *      Range[], Range[])
+     */
+    public @Nonnull IonChromatogram[] getIonChromatograms(int msLevel,
+	    @Nonnull Range<Double> mzRanges[], @Nonnull Range<Double> rtRanges[])
+	    throws IOException {
+	NumOfThreadsParameter threadsParameter = MZmineCore.getConfiguration()
+		.getPreferences().getParameter(MZminePreferences.numOfThreads);
+	IonChromatogramExtractor extractor = new IonChromatogramExtractor(this,
+		msLevel, mzRanges, rtRanges);
+	return extractor.extract(threadsParameter.getNumOfThreads());
+    }
+
     /**
      * @see net.sf.mzmine.datamodel.RawDataFile#getMSLevels()
      */
@@ -320,7 +399,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 	    openDataPointsFile(newFile);
 	}
 
-	final long currentOffset = dataPointsFile.length();
+	// Data points stored after a region was mapped go to the temporary
+	// file, but their offsets continue after the mapped region
+	final long currentOffset = mappedLength + dataPointsFile.length();
 
 	final int currentID;
 	if (!dataPointsOffsets.isEmpty())
@@ -347,11 +428,12 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 	    floatBuffer.put((float) dp.getIntensity());
 	}
 
-	dataPointsFile.seek(currentOffset);
+	dataPointsFile.seek(currentOffset - mappedLength);
 	dataPointsFile.write(buffer.array(), 0, numOfBytes);
 
 	dataPointsOffsets.put(currentID, currentOffset);
 	dataPointsLengths.put(currentID, numOfDataPoints);
+	modified = true;
 
 	return currentID;
 
@@ -374,8 +456,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 	    buffer.clear();
 	}
 
-	dataPointsFile.seek(currentOffset);
-	dataPointsFile.read(buffer.array(), 0, numOfBytes);
+	readStoredBytes(currentOffset, buffer.array(), numOfBytes);
+	TaskMetrics.countScanRead(numOfBytes);
 
 	FloatBuffer floatBuffer = buffer.asFloatBuffer();
 
@@ -391,13 +473,73 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     }
 
+    /**
+     * Returns the number of data points stored under the given ID
+     */
+    public synchronized int getNumOfStoredDataPoints(int ID) {
+	final Integer numOfDataPoints = dataPointsLengths.get(ID);
+	if (numOfDataPoints == null) {
+	    throw new IllegalArgumentException("Unknown storage ID " + ID);
+	}
+	return numOfDataPoints;
+    }
+
+    /**
+     * Reads the raw bytes (pairs of m/z and intensity floats) stored under the
+     * given ID into the given array, which must be large enough to hold them.
+     * Returns the number of bytes read.
+     */
+    public synchronized int readDataPointsBytes(int ID, byte dst[])
+	    throws IOException {
+
+	final Long currentOffset = dataPointsOffsets.get(ID);
+	final Integer numOfDataPoints = dataPointsLengths.get(ID);
+
+	if ((currentOffset == null) || (numOfDataPoints == null)) {
+	    throw new IllegalArgumentException("Unknown storage ID " + ID);
+	}
+
+	final int numOfBytes = numOfDataPoints * 2 * 4;
+	readStoredBytes(currentOffset, dst, numOfBytes);
+	TaskMetrics.countScanRead(numOfBytes);
+	return numOfBytes;
+
+    }
+
+    private void readStoredBytes(long offset, byte dst[], int numOfBytes)
+	    throws IOException {
+
+	if (offset >= mappedLength) {
+	    dataPointsFile.seek(offset - mappedLength);
+	    dataPointsFile.readFully(dst, 0, numOfBytes);
+	    return;
+	}
+
+	int copied = 0;
+	while (copied < numOfBytes) {
+	    final long position = offset + copied;
+	    final int segment = (int) (position / MAPPED_SEGMENT_SIZE);
+	    final int segmentOffset = (int) (position % MAPPED_SEGMENT_SIZE);
+	    ByteBuffer segmentBuffer = mappedSegments[segment].duplicate();
+	    segmentBuffer.position(segmentOffset);
+	    final int chunk = Math.min(numOfBytes - copied,
+		    segmentBuffer.remaining());
+	    segmentBuffer.get(dst, copied, chunk);
+	    copied += chunk;
+	}
+
+    }
+
     public synchronized void removeStoredDataPoints(int ID) throws IOException {
 	dataPointsOffsets.remove(ID);
 	dataPointsLengths.remove(ID);
+	modified = true;
     }
 
     public synchronized void addScan(Scan newScan) throws IOException {
 
+	modified = true;
+
 	// When we are loading the project, scan data file is already prepare
 	// and we just need store the reference
 	if (newScan instanceof StorableScan) {
@@ -422,6 +564,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     {
     	RemoteJob job = new RemoteJob(name, raw, targetName, vtmx);
     	this.jobs_info.add(job);
+    	modified = true;
     	MZmineCore.getProjectManager().getCurrentProject().addJob(job);
     }
         
@@ -435,6 +578,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     		if (job.getName().equals(name))
     		{
     			jobs_info.remove(job);
+    			modified = true;
     			MZmineCore.getProjectManager().getCurrentProject().removeJob(job);
     			break;
     		}
@@ -550,6 +694,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     }
 
     public synchronized void close() {
+	// The mapped segments are released by the garbage collector
+	mappedSegments = null;
+	mappedLength = 0;
 	try {
 	    if(dataPointsFileName != null) {
     	    	dataPointsFile.close();
@@ -567,6 +714,19 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     public void setName(@Nonnull String name) {
 	this.dataFileName = name;
+	modified = true;
+    }
+
+    /**
+     * Returns true if this file was changed since the project was last saved
+     * or loaded
+     */
+    public boolean isModified() {
+	return modified;
+    }
+
+    public void setModified(boolean modified) {
+	this.modified = modified;
     }
 
     public String toString() {
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.taskcontrol;
+
+/**
+ * Task which needs a limited resource, such as a disk, before it can run. The
+ * task controller starts the task only when acquireResources() succeeds, so
+ * tasks waiting for the resource stay in the queue and do not occupy worker
+ * threads.
+ */
+public interface GatedTask extends Task {
+
+    /**
+     * Called by the task controller thread before the task is started. Must
+     * not block. The task releases the acquired resources when it finishes.
+     *
+     * @return true if the task may start now, false if it should stay in the
+     *         queue and be asked again later
+     */
+    public boolean acquireResources();
+
+}
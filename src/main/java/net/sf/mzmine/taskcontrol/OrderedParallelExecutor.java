@@ -0,0 +1,196 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.taskcontrol;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Applies a function to each item of an array on several threads, and passes
+ * the results to a consumer in the calling thread, one by one in the order of
+ * the items. Tasks use this to compute the results of independent items in
+ * parallel while storing them in the same order as serial processing would.
+ * Only a limited number of items is processed ahead of the consumer, so the
+ * results waiting to be consumed do not fill the memory.
+ *
+ * Processing stops when the task is canceled. An exception thrown by the
+ * function or the consumer stops processing and is thrown to the caller.
+ */
+public class OrderedParallelExecutor {
+
+    /**
+     * Function applied to each item
+     */
+    public interface ItemFunction<I, R> {
+
+	/**
+	 * Processes one item. May be called from several threads at the same
+	 * time.
+	 *
+	 * @param index
+	 *            index of the item in the processed array
+	 * @return result for this item, may be null
+	 */
+	@Nullable
+	R processItem(int index, @Nonnull I item) throws Exception;
+
+    }
+
+    /**
+     * Receives the results in the order of the items
+     */
+    public interface ResultConsumer<I, R> {
+
+	/**
+	 * Called in the thread which started the processing
+	 *
+	 * @param index
+	 *            index of the item in the processed array
+	 */
+	void consumeResult(int index, @Nonnull I item, @Nullable R result)
+		throws Exception;
+
+    }
+
+    // Number of items per thread whose results may wait for the results of
+    // the preceding items to be consumed
+    private static final int PENDING_ITEMS_PER_THREAD = 16;
+
+    private final AbstractTask task;
+
+    /**
+     * @param task
+     *            task using this executor, checked for cancellation
+     */
+    public OrderedParallelExecutor(@Nonnull AbstractTask task) {
+	this.task = task;
+    }
+
+    /**
+     * @return number of threads set in the preferences
+     */
+    public static int getNumberOfThreads() {
+	NumOfThreadsParameter threadsParameter = MZmineCore.getConfiguration()
+		.getPreferences().getParameter(MZminePreferences.numOfThreads);
+	return threadsParameter.getNumOfThreads();
+    }
+
+    /**
+     * Processes the items with the number of threads set in the preferences
+     *
+     * @return false if the task was canceled
+     */
+    public <I, R> boolean process(@Nonnull I items[],
+	    @Nonnull ItemFunction<I, R> function,
+	    @Nonnull ResultConsumer<I, R> consumer) throws Exception {
+	return process(items, function, consumer, getNumberOfThreads());
+    }
+
+    /**
+     * Processes the items with the given number of threads. With one thread,
+     * the items are processed in the calling thread.
+     *
+     * @return false if the task was canceled
+     */
+    public <I, R> boolean process(@Nonnull final I items[],
+	    @Nonnull final ItemFunction<I, R> function,
+	    @Nonnull ResultConsumer<I, R> consumer, int numOfThreads)
+	    throws Exception {
+
+	numOfThreads = Math.min(numOfThreads, items.length);
+
+	if (numOfThreads <= 1) {
+	    for (int i = 0; i < items.length; i++) {
+		if (task.isCanceled())
+		    return false;
+		final R result = function.processItem(i, items[i]);
+		if (task.isCanceled())
+		    return false;
+		consumer.consumeResult(i, items[i], result);
+	    }
+	    return !task.isCanceled();
+	}
+
+	final int maxPendingItems = numOfThreads * PENDING_ITEMS_PER_THREAD;
+	final ArrayDeque<Future<R>> pendingItems = new ArrayDeque<Future<R>>();
+
+	ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+	try {
+	    int submittedItems = 0;
+	    for (int i = 0; i < items.length; i++) {
+
+		if (task.isCanceled())
+		    return false;
+
+		while ((submittedItems < items.length)
+			&& (pendingItems.size() < maxPendingItems)) {
+		    final int index = submittedItems++;
+		    pendingItems.add(executor.submit(TaskMetrics
+			    .propagate(new Callable<R>() {
+				public R call() throws Exception {
+				    return function.processItem(index,
+					    items[index]);
+				}
+			    })));
+		}
+
+		final R result = getResult(pendingItems.poll());
+		if (task.isCanceled())
+		    return false;
+		consumer.consumeResult(i, items[i], result);
+
+	    }
+	} finally {
+	    executor.shutdownNow();
+	}
+
+	return !task.isCanceled();
+
+    }
+
+    /**
+     * Waits for the result of the given future, and throws the exception
+     * thrown by its computation as it is
+     */
+    static <R> R getResult(@Nonnull Future<R> future) throws Exception {
+	try {
+	    return future.get();
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof Exception)
+		throw (Exception) cause;
+	    if (cause instanceof Error)
+		throw (Error) cause;
+	    throw e;
+	}
+    }
+
+}
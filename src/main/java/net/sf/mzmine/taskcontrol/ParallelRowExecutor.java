@@ -0,0 +1,194 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.taskcontrol;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+
+/**
+ * Runs a function on each row of a peak list on several threads, for tasks
+ * which process the rows independently of each other. The rows are split into
+ * contiguous partitions, which are processed concurrently, and the results are
+ * returned in the original order of the rows, so the outcome does not depend
+ * on the number of threads. Row functions must therefore not depend on shared
+ * state, such as a counter of row IDs: new IDs should be derived from the row
+ * or from its index.
+ *
+ * The number of threads is taken from the preferences. The partitions are run
+ * by an OrderedParallelExecutor, which stops processing when the task is
+ * canceled.
+ */
+public class ParallelRowExecutor {
+
+    /**
+     * Function applied to each row
+     */
+    public interface RowFunction<T> {
+
+	/**
+	 * Processes one row. May be called from several threads at the same
+	 * time.
+	 *
+	 * @param index
+	 *            index of the row in the processed array
+	 * @param row
+	 *            the row
+	 * @return result for this row, may be null
+	 */
+	@Nullable
+	T processRow(int index, @Nonnull PeakListRow row) throws Exception;
+
+    }
+
+    // Number of partitions per thread, so that threads which finish early
+    // can take over some of the remaining rows
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    private final AbstractTask task;
+    private final OrderedParallelExecutor partitionExecutor;
+    private final AtomicInteger processedRows = new AtomicInteger();
+    private volatile int totalRows;
+
+    /**
+     * @param task
+     *            task using this executor, checked for cancellation
+     */
+    public ParallelRowExecutor(@Nonnull AbstractTask task) {
+	this.task = task;
+	this.partitionExecutor = new OrderedParallelExecutor(task);
+    }
+
+    /**
+     * Applies the function to each row.
+     *
+     * @return results of the rows, in the order of the rows, or null if the
+     *         task was canceled
+     * @throws Exception
+     *             the first exception thrown by the function, in the order of
+     *             the rows
+     */
+    public @Nullable <T> List<T> processRows(@Nonnull final PeakListRow rows[],
+	    @Nonnull final RowFunction<T> function) throws Exception {
+
+	totalRows = rows.length;
+	processedRows.set(0);
+
+	final int numOfThreads = OrderedParallelExecutor.getNumberOfThreads();
+
+	@SuppressWarnings("unchecked")
+	final T results[] = (T[]) new Object[rows.length];
+
+	final int numOfPartitions = Math.min(rows.length, numOfThreads
+		* PARTITIONS_PER_THREAD);
+	Integer partitions[] = new Integer[numOfPartitions];
+	for (int p = 0; p < numOfPartitions; p++)
+	    partitions[p] = p;
+
+	boolean finished = partitionExecutor.process(partitions,
+		new OrderedParallelExecutor.ItemFunction<Integer, Void>() {
+		    public Void processItem(int p, Integer partition)
+			    throws Exception {
+			final int start = (int) ((long) rows.length * p
+				/ numOfPartitions);
+			final int end = (int) ((long) rows.length
+				* (p + 1) / numOfPartitions);
+			processPartition(rows, function, results, start, end);
+			return null;
+		    }
+		}, new OrderedParallelExecutor.ResultConsumer<Integer, Void>() {
+		    public void consumeResult(int p, Integer partition,
+			    Void result) {
+			// Results are stored by the partitions
+		    }
+		}, numOfThreads);
+
+	if (!finished)
+	    return null;
+
+	return Arrays.asList(results);
+
+    }
+
+    /**
+     * Applies the function to each row and adds the resulting rows to the
+     * given peak list, in the order of the original rows. Rows for which the
+     * function returns null are left out.
+     *
+     * @return false if the task was canceled
+     */
+    public boolean processRows(@Nonnull PeakListRow rows[],
+	    @Nonnull RowFunction<PeakListRow> function,
+	    @Nonnull PeakList newPeakList) throws Exception {
+
+	List<PeakListRow> newRows = processRows(rows, function);
+	if (newRows == null)
+	    return false;
+
+	for (PeakListRow newRow : newRows) {
+	    if (newRow != null)
+		newPeakList.addRow(newRow);
+	}
+
+	return true;
+
+    }
+
+    /**
+     * @return number of rows processed so far
+     */
+    public int getProcessedRows() {
+	return processedRows.get();
+    }
+
+    /**
+     * @return number of rows to process
+     */
+    public int getTotalRows() {
+	return totalRows;
+    }
+
+    /**
+     * @return fraction of the rows processed so far
+     */
+    public double getFinishedPercentage() {
+	final int total = totalRows;
+	return total == 0 ? 0.0 : (double) processedRows.get() / total;
+    }
+
+    private <T> void processPartition(PeakListRow rows[],
+	    RowFunction<T> function, T results[], int start, int end)
+	    throws Exception {
+	for (int i = start; i < end; i++) {
+	    if (task.isCanceled())
+		return;
+	    results[i] = function.processRow(i, rows[i]);
+	    processedRows.incrementAndGet();
+	    TaskMetrics.countProcessedRows(1);
+	}
+    }
+
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.taskcontrol;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Resource usage of the tasks run by the task controller, aggregated by task
+ * class, which identifies the module that created the tasks. For each task,
+ * the wall clock time, the CPU time and the memory allocated by the thread
+ * running the task are measured. In addition, tasks count the scans and bytes
+ * they read from the raw data storage and the peak list rows they process;
+ * these counts include work the task hands to other threads through
+ * propagate(), but the CPU time and allocations of such threads are not
+ * measured.
+ *
+ * At the end of a batch started from the command line, the metrics can be
+ * written as a CSV report. During the batch, they can be watched through JMX
+ * if the system property mzmine.jmx is set to true.
+ */
+public class TaskMetrics implements TaskMetricsMXBean {
+
+    /**
+     * System property which enables the JMX interface
+     */
+    public static final String JMX_PROPERTY = "mzmine.jmx";
+
+    private static final String OBJECT_NAME = "net.sf.mzmine:type=TaskMetrics";
+
+    // Counters of the task running in the current thread. They are not
+    // inherited by new threads, because pooled threads outlive the task which
+    // started them; work for other threads is wrapped by propagate().
+    private static final ThreadLocal<Counters> currentCounters = new ThreadLocal<Counters>();
+
+    private final ThreadMXBean threadBean = ManagementFactory
+	    .getThreadMXBean();
+    private final Map<String, ModuleMetrics> modules = new TreeMap<String, ModuleMetrics>();
+    private final AtomicInteger runningTasks = new AtomicInteger();
+
+    /**
+     * Counts one scan or mass list read from the raw data storage by the
+     * current task
+     *
+     * @param bytes
+     *            number of bytes read
+     */
+    public static void countScanRead(long bytes) {
+	Counters counters = currentCounters.get();
+	if (counters == null)
+	    return;
+	counters.scansRead.incrementAndGet();
+	counters.bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * Counts peak list rows processed by the current task
+     */
+    public static void countProcessedRows(int rows) {
+	Counters counters = currentCounters.get();
+	if (counters == null)
+	    return;
+	counters.rowsProcessed.addAndGet(rows);
+    }
+
+    /**
+     * Wraps the given work so that the scans and rows it counts are added to
+     * the task running in the current thread, whichever thread runs the
+     * work
+     */
+    public static @Nonnull <V> Callable<V> propagate(
+	    @Nonnull final Callable<V> callable) {
+	final Counters counters = currentCounters.get();
+	if (counters == null)
+	    return callable;
+	return new Callable<V>() {
+	    public V call() throws Exception {
+		final Counters previous = currentCounters.get();
+		currentCounters.set(counters);
+		try {
+		    return callable.call();
+		} finally {
+		    restoreCounters(previous);
+		}
+	    }
+	};
+    }
+
+    /**
+     * Wraps the given work like propagate(Callable)
+     */
+    public static @Nonnull Runnable propagate(@Nonnull final Runnable runnable) {
+	final Counters counters = currentCounters.get();
+	if (counters == null)
+	    return runnable;
+	return new Runnable() {
+	    public void run() {
+		final Counters previous = currentCounters.get();
+		currentCounters.set(counters);
+		try {
+		    runnable.run();
+		} finally {
+		    restoreCounters(previous);
+		}
+	    }
+	};
+    }
+
+    private static void restoreCounters(Counters previous) {
+	if (previous == null)
+	    currentCounters.remove();
+	else
+	    currentCounters.set(previous);
+    }
+
+    /**
+     * Starts measuring the given task, which is about to run in the current
+     * thread
+     */
+    public @Nonnull Measurement startTask(@Nonnull Task task) {
+	Measurement measurement = new Measurement(task);
+	currentCounters.set(measurement.counters);
+	runningTasks.incrementAndGet();
+	measurement.startWallTime = System.nanoTime();
+	measurement.startCpuTime = getCurrentThreadCpuTime();
+	measurement.startAllocatedBytes = getCurrentThreadAllocatedBytes();
+	return measurement;
+    }
+
+    /**
+     * Finishes the measurement of a task, in the thread which started it,
+     * and adds its metrics to its module
+     */
+    public void finishTask(@Nonnull Measurement measurement) {
+
+	final long wallTime = System.nanoTime() - measurement.startWallTime;
+	final long cpuTime = getCurrentThreadCpuTime();
+	final long allocatedBytes = getCurrentThreadAllocatedBytes();
+	currentCounters.remove();
+	runningTasks.decrementAndGet();
+
+	final TaskStatus status = measurement.task.getStatus();
+	final boolean failed = (status != TaskStatus.FINISHED)
+		&& (status != TaskStatus.CANCELED);
+	final String module = measurement.task.getClass().getName();
+
+	synchronized (modules) {
+	    ModuleMetrics metrics = modules.get(module);
+	    if (metrics == null) {
+		metrics = new ModuleMetrics(module);
+		modules.put(module, metrics);
+	    }
+	    metrics.tasks++;
+	    if (failed)
+		metrics.failedTasks++;
+	    metrics.wallTime += wallTime;
+	    if ((cpuTime >= 0) && (measurement.startCpuTime >= 0))
+		metrics.cpuTime += cpuTime - measurement.startCpuTime;
+	    if ((allocatedBytes >= 0)
+		    && (measurement.startAllocatedBytes >= 0))
+		metrics.allocatedBytes += allocatedBytes
+			- measurement.startAllocatedBytes;
+	    metrics.scansRead += measurement.counters.scansRead.get();
+	    metrics.bytesRead += measurement.counters.bytesRead.get();
+	    metrics.rowsProcessed += measurement.counters.rowsProcessed.get();
+	}
+
+    }
+
+    public int getRunningTasks() {
+	return runningTasks.get();
+    }
+
+    /**
+     * @return copy of the metrics of all modules, sorted by module
+     */
+    public List<ModuleMetrics> getModuleMetrics() {
+	synchronized (modules) {
+	    List<ModuleMetrics> copy = new ArrayList<ModuleMetrics>(
+		    modules.size());
+	    for (ModuleMetrics metrics : modules.values())
+		copy.add(new ModuleMetrics(metrics));
+	    return copy;
+	}
+    }
+
+    /**
+     * Registers the metrics as an MXBean with the platform MBean server
+     */
+    public void registerMBean() throws JMException {
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	ObjectName name = new ObjectName(OBJECT_NAME);
+	if (!server.isRegistered(name))
+	    server.registerMBean(this, name);
+    }
+
+    /**
+     * Writes the metrics of all modules to the given file, as comma separated
+     * values with one line per module. Times are in milliseconds.
+     */
+    public void writeReport(@Nonnull File file) throws IOException {
+	Writer writer = new FileWriter(file);
+	try {
+	    writer.write("module,tasks,failed_tasks,wall_time_ms,cpu_time_ms,"
+		    + "allocated_bytes,scans_read,bytes_read,rows_processed\n");
+	    for (ModuleMetrics metrics : getModuleMetrics()) {
+		writer.write(metrics.getModule() + "," + metrics.getTasks()
+			+ "," + metrics.getFailedTasks() + ","
+			+ metrics.getWallTime() + "," + metrics.getCpuTime()
+			+ "," + metrics.getAllocatedBytes() + ","
+			+ metrics.getScansRead() + ","
+			+ metrics.getBytesRead() + ","
+			+ metrics.getRowsProcessed() + "\n");
+	    }
+	} finally {
+	    writer.close();
+	}
+    }
+
+    private long getCurrentThreadCpuTime() {
+	if ((!threadBean.isCurrentThreadCpuTimeSupported())
+		|| (!threadBean.isThreadCpuTimeEnabled()))
+	    return -1;
+	return threadBean.getCurrentThreadCpuTime();
+    }
+
+    private long getCurrentThreadAllocatedBytes() {
+	if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+	    return -1;
+	com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+	if ((!sunThreadBean.isThreadAllocatedMemorySupported())
+		|| (!sunThreadBean.isThreadAllocatedMemoryEnabled()))
+	    return -1;
+	return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread()
+		.getId());
+    }
+
+    private static class Counters {
+	final AtomicLong scansRead = new AtomicLong();
+	final AtomicLong bytesRead = new AtomicLong();
+	final AtomicLong rowsProcessed = new AtomicLong();
+    }
+
+    /**
+     * Measurement of one running task
+     */
+    public static class Measurement {
+
+	private final Task task;
+	private final Counters counters = new Counters();
+	private long startWallTime, startCpuTime, startAllocatedBytes;
+
+	private Measurement(Task task) {
+	    this.task = task;
+	}
+
+    }
+
+    /**
+     * Metrics of all finished tasks of one module
+     */
+    public static class ModuleMetrics {
+
+	private final String module;
+	private int tasks, failedTasks;
+	private long wallTime, cpuTime, allocatedBytes;
+	private long scansRead, bytesRead, rowsProcessed;
+
+	private ModuleMetrics(String module) {
+	    this.module = module;
+	}
+
+	private ModuleMetrics(ModuleMetrics metrics) {
+	    this.module = metrics.module;
+	    this.tasks = metrics.tasks;
+	    this.failedTasks = metrics.failedTasks;
+	    this.wallTime = metrics.wallTime;
+	    this.cpuTime = metrics.cpuTime;
+	    this.allocatedBytes = metrics.allocatedBytes;
+	    this.scansRead = metrics.scansRead;
+	    this.bytesRead = metrics.bytesRead;
+	    this.rowsProcessed = metrics.rowsProcessed;
+	}
+
+	/**
+	 * @return class name of the tasks of the module
+	 */
+	public String getModule() {
+	    return module;
+	}
+
+	public int getTasks() {
+	    return tasks;
+	}
+
+	/**
+	 * @return number of tasks which neither finished nor were canceled
+	 */
+	public int getFailedTasks() {
+	    return failedTasks;
+	}
+
+	/**
+	 * @return total wall clock time of the tasks in milliseconds
+	 */
+	public long getWallTime() {
+	    return wallTime / 1000000;
+	}
+
+	/**
+	 * @return total CPU time of the task threads in milliseconds
+	 */
+	public long getCpuTime() {
+	    return cpuTime / 1000000;
+	}
+
+	public long getAllocatedBytes() {
+	    return allocatedBytes;
+	}
+
+	public long getScansRead() {
+	    return scansRead;
+	}
+
+	public long getBytesRead() {
+	    return bytesRead;
+	}
+
+	public long getRowsProcessed() {
+	    return rowsProcessed;
+	}
+
+    }
+
+}
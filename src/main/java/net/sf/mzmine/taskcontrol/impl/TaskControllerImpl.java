@@ -25,15 +25,20 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+
 import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
 import net.sf.mzmine.main.GoogleAnalyticsTracker;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.GatedTask;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskControlListener;
 import net.sf.mzmine.taskcontrol.TaskController;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 
@@ -62,6 +67,8 @@ public class TaskControllerImpl implements TaskController, Runnable {
      */
     private Vector<WorkerThread> runningThreads;
 
+    private final TaskMetrics taskMetrics = new TaskMetrics();
+
     /**
      * Initialize the task controller
      */
@@ -77,12 +84,24 @@ public class TaskControllerImpl implements TaskController, Runnable {
 	taskControllerThread.setPriority(Thread.MIN_PRIORITY);
 	taskControllerThread.start();
 
+	if (Boolean.getBoolean(TaskMetrics.JMX_PROPERTY)) {
+	    try {
+		taskMetrics.registerMBean();
+	    } catch (JMException e) {
+		logger.log(Level.WARNING, "Could not register task metrics", e);
+	    }
+	}
+
     }
 
     public TaskQueue getTaskQueue() {
 	return taskQueue;
     }
 
+    public TaskMetrics getTaskMetrics() {
+	return taskMetrics;
+    }
+
     public void addTask(Task task) {
 	addTasks(new Task[] { task }, TaskPriority.NORMAL);
     }
@@ -179,11 +198,7 @@ public class TaskControllerImpl implements TaskController, Runnable {
 	    NumOfThreadsParameter parameter = MZmineCore.getConfiguration()
 		    .getPreferences()
 		    .getParameter(MZminePreferences.numOfThreads);
-	    int maxRunningThreads;
-	    if (parameter.isAutomatic() || (parameter.getValue() == null))
-		maxRunningThreads = Runtime.getRuntime().availableProcessors();
-	    else
-		maxRunningThreads = parameter.getValue();
+	    int maxRunningThreads = parameter.getNumOfThreads();
 
 	    // Check all tasks in the queue
 	    for (WrappedTask task : queueSnapshot) {
@@ -197,7 +212,14 @@ public class TaskControllerImpl implements TaskController, Runnable {
 		// have less then maximum # of threads running
 		if ((task.getPriority() == TaskPriority.HIGH)
 			|| (runningThreads.size() < maxRunningThreads)) {
-		    WorkerThread newThread = new WorkerThread(task);
+
+		    // Tasks waiting for a resource stay in the queue
+		    Task actualTask = task.getActualTask();
+		    if ((actualTask instanceof GatedTask)
+			    && (!((GatedTask) actualTask).acquireResources()))
+			continue;
+
+		    WorkerThread newThread = new WorkerThread(task, taskMetrics);
 
 		    if (task.getPriority() == TaskPriority.NORMAL) {
 			runningThreads.add(newThread);
@@ -24,6 +24,7 @@ import java.util.logging.Logger;
 
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 
@@ -36,11 +37,13 @@ class WorkerThread extends Thread {
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
     private WrappedTask wrappedTask;
+    private TaskMetrics taskMetrics;
     private boolean finished = false;
 
-    WorkerThread(WrappedTask wrappedTask) {
+    WorkerThread(WrappedTask wrappedTask, TaskMetrics taskMetrics) {
 	super("Thread executing task " + wrappedTask);
 	this.wrappedTask = wrappedTask;
+	this.taskMetrics = taskMetrics;
 	wrappedTask.assignTo(this);
     }
 
@@ -50,6 +53,8 @@ class WorkerThread extends Thread {
     public void run() {
 
 	Task actualTask = wrappedTask.getActualTask();
+	TaskMetrics.Measurement measurement = taskMetrics
+		.startTask(actualTask);
 
 	try {
 
@@ -111,6 +116,8 @@ class WorkerThread extends Thread {
 
 	}
 
+	taskMetrics.finishTask(measurement);
+
 	/*
 	 * Mark this thread as finished
 	 */
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.Arrays;
+
+/**
+ * Level-of-detail index for plotting long series of points ordered by x, such
+ * as chromatograms or profile spectra. For buckets of 2, 4, 8, ... consecutive
+ * points, the index keeps the positions of the lowest and the highest point of
+ * each bucket. Points can be added one by one while the series is being
+ * calculated.
+ *
+ * When a plot is zoomed out, getVisibleItems() picks the level which gives
+ * about one bucket per screen pixel and returns the extremes of each bucket.
+ * The plot thus draws at most a few points per pixel, while the peaks keep
+ * their full height. When zoomed in far enough, the raw points of the visible
+ * range are returned.
+ */
+public class MinMaxDecimator {
+
+    private final double xValues[], yValues[];
+
+    // Positions of the lowest and highest point of each bucket, per level
+    private final int minItems[][], maxItems[][];
+
+    // Number of points added so far
+    private volatile int size;
+
+    /**
+     * Creates an empty index for the given series. The arrays are not copied,
+     * points are added to the index by calling add().
+     */
+    public MinMaxDecimator(double xValues[], double yValues[]) {
+
+	this.xValues = xValues;
+	this.yValues = yValues;
+
+	final int capacity = xValues.length;
+	int numOfLevels = 0;
+	while ((capacity >> (numOfLevels + 1)) > 0)
+	    numOfLevels++;
+
+	minItems = new int[numOfLevels][];
+	maxItems = new int[numOfLevels][];
+	for (int level = 0; level < numOfLevels; level++) {
+	    final int bucketSize = 2 << level;
+	    final int numOfBuckets = (capacity + bucketSize - 1) / bucketSize;
+	    minItems[level] = new int[numOfBuckets];
+	    maxItems[level] = new int[numOfBuckets];
+	}
+
+    }
+
+    /**
+     * Adds the next point of the series to the index. The x and y values of
+     * the point must already be stored in the arrays.
+     */
+    public void add() {
+
+	final int item = size;
+	final double y = yValues[item];
+
+	for (int level = 0; level < minItems.length; level++) {
+
+	    final int bucket = item >> (level + 1);
+
+	    // First point of the bucket
+	    if ((item & ((2 << level) - 1)) == 0) {
+		minItems[level][bucket] = item;
+		maxItems[level][bucket] = item;
+		continue;
+	    }
+
+	    boolean updated = false;
+	    if (y < yValues[minItems[level][bucket]]) {
+		minItems[level][bucket] = item;
+		updated = true;
+	    }
+	    if (y > yValues[maxItems[level][bucket]]) {
+		maxItems[level][bucket] = item;
+		updated = true;
+	    }
+
+	    // If the point is not an extreme of this bucket, it cannot be an
+	    // extreme of the larger buckets either
+	    if (!updated)
+		break;
+	}
+
+	size = item + 1;
+
+    }
+
+    /**
+     * Returns the number of points added to the index
+     */
+    public int getSize() {
+	return size;
+    }
+
+    /**
+     * Returns the positions of the points which should be drawn for the given
+     * x range on a plot of given width (in pixels), in ascending order. At
+     * most 4 points per pixel are returned. The points just outside of the
+     * range and the first and last point of the series are always included,
+     * so the lines continue to the plot edges and the data bounds of the
+     * returned points are the same as those of the whole series.
+     *
+     * If the width is not positive, all points are returned.
+     */
+    public int[] getVisibleItems(double xMin, double xMax, int width) {
+
+	final int count = size;
+	if ((count == 0) || (width <= 0))
+	    return createRange(0, count - 1);
+
+	int first = findFirstItem(xMin, count) - 1;
+	int last = findFirstItem(Math.nextUp(xMax), count);
+	first = Math.max(first, 0);
+	last = Math.min(last, count - 1);
+	final int visible = last - first + 1;
+
+	// Choose the highest level which still gives one bucket per pixel
+	int level = 0;
+	while ((level < minItems.length) && ((visible >> (level + 1)) >= width))
+	    level++;
+
+	if (level == 0) {
+	    int items[] = createRange(first, last);
+	    if (first > 0)
+		items = prepend(0, items);
+	    if (last < count - 1)
+		items = append(items, count - 1);
+	    return items;
+	}
+
+	final int bucketMinItems[] = minItems[level - 1];
+	final int bucketMaxItems[] = maxItems[level - 1];
+	final int firstBucket = first >> level;
+	final int lastBucket = last >> level;
+
+	final int items[] = new int[(lastBucket - firstBucket + 1) * 2 + 4];
+	int numOfItems = 0;
+	items[numOfItems++] = 0;
+	if (first > 0)
+	    items[numOfItems++] = first;
+
+	for (int bucket = firstBucket; bucket <= lastBucket; bucket++) {
+	    int lower = bucketMinItems[bucket];
+	    int upper = bucketMaxItems[bucket];
+	    if (lower > upper) {
+		int swap = lower;
+		lower = upper;
+		upper = swap;
+	    }
+
+	    // Skip the parts of the edge buckets outside of the range. The
+	    // last bucket may also be updated concurrently by add().
+	    if ((lower > items[numOfItems - 1]) && (lower <= last))
+		items[numOfItems++] = lower;
+	    if ((upper > items[numOfItems - 1]) && (upper <= last))
+		items[numOfItems++] = upper;
+	}
+
+	if (items[numOfItems - 1] < last)
+	    items[numOfItems++] = last;
+	if (items[numOfItems - 1] < count - 1)
+	    items[numOfItems++] = count - 1;
+
+	return Arrays.copyOf(items, numOfItems);
+
+    }
+
+    /**
+     * Returns the position of the first point with x value not lower than
+     * given value, or count if there is no such point
+     */
+    private int findFirstItem(double x, int count) {
+	int low = 0, high = count;
+	while (low < high) {
+	    final int middle = (low + high) >>> 1;
+	    if (xValues[middle] < x)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+
+    private static int[] createRange(int first, int last) {
+	final int items[] = new int[Math.max(last - first + 1, 0)];
+	for (int i = 0; i < items.length; i++)
+	    items[i] = first + i;
+	return items;
+    }
+
+    private static int[] prepend(int item, int items[]) {
+	final int result[] = new int[items.length + 1];
+	result[0] = item;
+	System.arraycopy(items, 0, result, 1, items.length);
+	return result;
+    }
+
+    private static int[] append(int items[], int item) {
+	final int result[] = Arrays.copyOf(items, items.length + 1);
+	result[items.length] = item;
+	return result;
+    }
+
+}
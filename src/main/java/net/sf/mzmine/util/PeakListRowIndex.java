@@ -0,0 +1,167 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.sf.mzmine.datamodel.PeakListRow;
+
+import com.google.common.collect.Range;
+
+/**
+ * Index of peak list rows by average m/z and average retention time. Rows are
+ * identified by their position in the array the index was created from, and
+ * all queries return the positions of the matching rows in ascending order, so
+ * the rows are visited in the same order as when iterating over that array.
+ * The index is immutable and may be queried from several threads.
+ */
+public class PeakListRowIndex {
+
+    /**
+     * Widening of m/z ranges which are computed from the tolerance of another
+     * value before they are looked up, so that rounding errors do not exclude
+     * any row. The rows found are checked with the exact tolerance afterwards.
+     */
+    public static final double ROUNDING_MARGIN = 1e-6;
+
+    private final PeakListRow rows[];
+    private final double mzValues[], rtValues[];
+
+    // Positions of the rows ordered by m/z and by retention time, with the
+    // corresponding values for binary search
+    private final int positionsByMZ[], positionsByRT[];
+    private final double sortedMZValues[], sortedRTValues[];
+
+    public PeakListRowIndex(PeakListRow rows[]) {
+
+	this.rows = rows.clone();
+
+	mzValues = new double[rows.length];
+	rtValues = new double[rows.length];
+	for (int i = 0; i < rows.length; i++) {
+	    mzValues[i] = rows[i].getAverageMZ();
+	    rtValues[i] = rows[i].getAverageRT();
+	}
+
+	positionsByMZ = sortPositions(mzValues);
+	positionsByRT = sortPositions(rtValues);
+
+	sortedMZValues = new double[rows.length];
+	sortedRTValues = new double[rows.length];
+	for (int i = 0; i < rows.length; i++) {
+	    sortedMZValues[i] = mzValues[positionsByMZ[i]];
+	    sortedRTValues[i] = rtValues[positionsByRT[i]];
+	}
+
+    }
+
+    public int getNumberOfRows() {
+	return rows.length;
+    }
+
+    public PeakListRow getRow(int position) {
+	return rows[position];
+    }
+
+    public double getMZ(int position) {
+	return mzValues[position];
+    }
+
+    public double getRT(int position) {
+	return rtValues[position];
+    }
+
+    /**
+     * Returns the positions of the rows with average retention time within the
+     * given range
+     */
+    public int[] getRowsInsideRTRange(Range<Double> rtRange) {
+	return getRowsInside(positionsByRT, sortedRTValues, rtRange, null,
+		null);
+    }
+
+    /**
+     * Returns the positions of the rows with average m/z and average retention
+     * time within the given ranges
+     */
+    public int[] getRowsInside(Range<Double> mzRange, Range<Double> rtRange) {
+	return getRowsInside(positionsByMZ, sortedMZValues, mzRange, rtValues,
+		rtRange);
+    }
+
+    /**
+     * Returns the positions of the rows with values within the range, looked
+     * up by binary search in the sorted values, and optionally filtered by a
+     * second range
+     */
+    private static int[] getRowsInside(int positions[], double sortedValues[],
+	    Range<Double> range, double filterValues[],
+	    Range<Double> filterRange) {
+
+	int start = 0;
+	if (range.hasLowerBound()) {
+	    start = Arrays.binarySearch(sortedValues, range.lowerEndpoint());
+	    if (start < 0)
+		start = -start - 1;
+	    while ((start > 0) && (range.contains(sortedValues[start - 1])))
+		start--;
+	}
+
+	int result[] = new int[16];
+	int size = 0;
+	for (int i = start; i < sortedValues.length; i++) {
+	    if (!range.contains(sortedValues[i])) {
+		if (range.hasUpperBound()
+			&& (sortedValues[i] >= range.upperEndpoint()))
+		    break;
+		continue;
+	    }
+	    final int position = positions[i];
+	    if ((filterRange != null)
+		    && (!filterRange.contains(filterValues[position])))
+		continue;
+	    if (size == result.length)
+		result = Arrays.copyOf(result, size * 2);
+	    result[size++] = position;
+	}
+
+	result = Arrays.copyOf(result, size);
+	Arrays.sort(result);
+	return result;
+
+    }
+
+    private static int[] sortPositions(final double values[]) {
+	Integer order[] = new Integer[values.length];
+	for (int i = 0; i < values.length; i++)
+	    order[i] = i;
+	Arrays.sort(order, new Comparator<Integer>() {
+	    public int compare(Integer a, Integer b) {
+		return Double.compare(values[a], values[b]);
+	    }
+	});
+	int positions[] = new int[values.length];
+	for (int i = 0; i < values.length; i++)
+	    positions[i] = order[i];
+	return positions;
+    }
+
+}
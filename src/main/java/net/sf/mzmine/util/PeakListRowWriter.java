@@ -0,0 +1,256 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskMetrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Writes the rows of a peak list to a text file. The rows are formatted in
+ * chunks by several threads, each with its own RowFormatter and StringBuilder,
+ * and the chunks are written in the order of the rows. The output is buffered,
+ * and compressed by gzip if the file name ends with ".gz".
+ */
+public class PeakListRowWriter implements Closeable {
+
+    /**
+     * Formats the rows in one formatting thread
+     */
+    public interface RowFormatter {
+
+	/**
+	 * Appends the text of the row, including the line separator, or
+	 * nothing if the row should not be exported
+	 */
+	void formatRow(@Nonnull PeakListRow row, @Nonnull StringBuilder text);
+
+    }
+
+    /**
+     * Creates the formatter of each formatting thread. Formatters must not
+     * share objects which are not thread safe, such as NumberFormats.
+     */
+    public interface RowFormatterFactory {
+
+	@Nonnull
+	RowFormatter createFormatter();
+
+    }
+
+    // Number of rows formatted together by one thread
+    private static final int CHUNK_ROWS = 256;
+
+    // Number of chunks formatted ahead of writing, per thread
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    private final AbstractTask task;
+    private final Writer writer;
+    private final int numOfThreads;
+
+    private volatile int writtenRows = 0;
+
+    /**
+     * Opens the file for writing, using as many formatting threads as set in
+     * the preferences
+     */
+    public PeakListRowWriter(@Nonnull AbstractTask task, @Nonnull File file)
+	    throws IOException {
+	this(task, file, getDefaultNumOfThreads());
+    }
+
+    public PeakListRowWriter(@Nonnull AbstractTask task, @Nonnull File file,
+	    int numOfThreads) throws IOException {
+
+	this.task = task;
+	this.numOfThreads = Math.max(1, numOfThreads);
+
+	OutputStream out = new FileOutputStream(file);
+	if (file.getName().toLowerCase().endsWith(".gz")) {
+	    try {
+		out = new GZIPOutputStream(out, OUTPUT_BUFFER_SIZE);
+	    } catch (IOException e) {
+		out.close();
+		throw e;
+	    }
+	}
+	writer = new BufferedWriter(new OutputStreamWriter(out),
+		OUTPUT_BUFFER_SIZE);
+
+    }
+
+    /**
+     * Writes text which does not belong to the rows, e.g. the headers
+     */
+    public void write(@Nonnull String text) throws IOException {
+	writer.write(text);
+    }
+
+    /**
+     * Formats and writes the rows in their order
+     * 
+     * @return false if the task was canceled
+     */
+    public boolean writeRows(@Nonnull final PeakListRow rows[],
+	    @Nonnull final RowFormatterFactory formatterFactory)
+	    throws IOException {
+
+	// On a single core, separate threads would only add overhead
+	if (numOfThreads == 1) {
+	    RowFormatter formatter = formatterFactory.createFormatter();
+	    StringBuilder text = new StringBuilder();
+	    for (int start = 0; start < rows.length; start += CHUNK_ROWS) {
+		if (task.isCanceled())
+		    return false;
+		final int end = Math.min(rows.length, start + CHUNK_ROWS);
+		text.setLength(0);
+		for (int i = start; i < end; i++)
+		    formatter.formatRow(rows[i], text);
+		writer.append(text);
+		writtenRows = end;
+	    }
+	    return true;
+	}
+
+	// Each formatting thread keeps its formatter and buffer
+	final ThreadLocal<RowFormatter> formatters = new ThreadLocal<RowFormatter>() {
+	    protected RowFormatter initialValue() {
+		return formatterFactory.createFormatter();
+	    }
+	};
+	final ThreadLocal<StringBuilder> texts = new ThreadLocal<StringBuilder>() {
+	    protected StringBuilder initialValue() {
+		return new StringBuilder();
+	    }
+	};
+
+	ExecutorService formattingThreads = Executors.newFixedThreadPool(
+		numOfThreads, new ThreadFactoryBuilder()
+			.setNameFormat("Peak list formatting thread %d")
+			.setDaemon(true).build());
+
+	try {
+
+	    LinkedList<Future<String>> chunks = new LinkedList<Future<String>>();
+	    int nextRow = 0;
+
+	    while ((nextRow < rows.length) || (!chunks.isEmpty())) {
+
+		if (task.isCanceled())
+		    return false;
+
+		// Keep the formatting threads busy
+		while ((nextRow < rows.length)
+			&& (chunks.size() < numOfThreads * CHUNKS_PER_THREAD)) {
+		    final int start = nextRow;
+		    final int end = Math.min(rows.length, start + CHUNK_ROWS);
+		    chunks.add(formattingThreads.submit(TaskMetrics
+			    .propagate(new Callable<String>() {
+				public String call() {
+				    RowFormatter formatter = formatters.get();
+				    StringBuilder text = texts.get();
+				    text.setLength(0);
+				    for (int i = start; i < end; i++)
+					formatter.formatRow(rows[i], text);
+				    return text.toString();
+				}
+			    })));
+		    nextRow = end;
+		}
+
+		// Write the first chunk
+		writer.write(getChunk(chunks.removeFirst()));
+		writtenRows = Math.min(rows.length, writtenRows + CHUNK_ROWS);
+
+	    }
+
+	} finally {
+	    formattingThreads.shutdownNow();
+	}
+
+	return true;
+
+    }
+
+    /**
+     * @return number of rows written so far by writeRows()
+     */
+    public int getWrittenRows() {
+	return writtenRows;
+    }
+
+    /**
+     * Flushes the buffer and closes the file
+     */
+    public void close() throws IOException {
+	writer.close();
+    }
+
+    private String getChunk(Future<String> chunk) throws IOException {
+	try {
+	    return chunk.get();
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException("Export interrupted");
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof RuntimeException)
+		throw (RuntimeException) cause;
+	    if (cause instanceof Error)
+		throw (Error) cause;
+	    throw new IOException(cause);
+	}
+    }
+
+    private static int getDefaultNumOfThreads() {
+	// No preferences, e.g. in a unit test
+	if (MZmineCore.getConfiguration() == null)
+	    return Runtime.getRuntime().availableProcessors();
+	NumOfThreadsParameter threadsParameter = MZmineCore.getConfiguration()
+		.getPreferences().getParameter(MZminePreferences.numOfThreads);
+	return threadsParameter.getNumOfThreads();
+    }
+
+}
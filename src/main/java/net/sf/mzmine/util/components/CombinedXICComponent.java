@@ -65,26 +65,38 @@ public class CombinedXICComponent extends JComponent {
 	if (id >= 0)
 	    setToolTipText(ComponentToolTipManager.CUSTOM + id);
 
-	double maxIntensity = 0;
 	this.peaks = peaks;
 
 	// find data boundaries
+	this.rtRange = getRTRange(peaks);
+	this.maxIntensity = getMaxIntensity(peaks);
+
+	this.setBorder(componentBorder);
+
+    }
+
+    private static Range<Double> getRTRange(Feature[] peaks) {
+	Range<Double> rtRange = null;
 	for (Feature peak : peaks) {
 	    if (peak == null)
 		continue;
-
-	    maxIntensity = Math.max(maxIntensity, peak
-		    .getRawDataPointsIntensityRange().upperEndpoint());
 	    if (rtRange == null)
 		rtRange = peak.getDataFile().getDataRTRange(1);
 	    else
 		rtRange = rtRange.span(peak.getDataFile().getDataRTRange(1));
 	}
+	return rtRange;
+    }
 
-	this.maxIntensity = maxIntensity;
-
-	this.setBorder(componentBorder);
-
+    private static double getMaxIntensity(Feature[] peaks) {
+	double maxIntensity = 0;
+	for (Feature peak : peaks) {
+	    if (peak == null)
+		continue;
+	    maxIntensity = Math.max(maxIntensity, peak
+		    .getRawDataPointsIntensityRange().upperEndpoint());
+	}
+	return maxIntensity;
     }
 
     public void paint(Graphics g) {
@@ -101,6 +113,29 @@ public class CombinedXICComponent extends JComponent {
 	// get canvas size
 	Dimension size = getSize();
 
+	paintPeakShapes(g2, peaks, rtRange, maxIntensity, size.width,
+		size.height);
+
+    }
+
+    /**
+     * Paints the shapes of the given peaks (null entries are skipped) over
+     * the RT range of their data files, scaled to the highest peak. This can
+     * also be used to render the shapes into an image outside of the event
+     * dispatch thread.
+     */
+    public static void paintPeakShapes(Graphics2D g2, Feature[] peaks,
+	    int width, int height) {
+	Range<Double> rtRange = getRTRange(peaks);
+	if (rtRange == null)
+	    return;
+	paintPeakShapes(g2, peaks, rtRange, getMaxIntensity(peaks), width,
+		height);
+    }
+
+    private static void paintPeakShapes(Graphics2D g2, Feature[] peaks,
+	    Range<Double> rtRange, double maxIntensity, int width, int height) {
+
 	int colorIndex = 0;
 
 	for (Feature peak : peaks) {
@@ -138,20 +173,20 @@ public class CombinedXICComponent extends JComponent {
 		xValues[i + 1] = (int) Math.floor((retentionTime - rtRange
 			.lowerEndpoint())
 			/ (rtRange.upperEndpoint() - rtRange.lowerEndpoint())
-			* (size.width - 1));
-		yValues[i + 1] = size.height
+			* (width - 1));
+		yValues[i + 1] = height
 			- (int) Math.floor(dataPointIntensity / maxIntensity
-				* (size.height - 1));
+				* (height - 1));
 
 	    }
 
 	    // add first point
 	    xValues[0] = xValues[1];
-	    yValues[0] = size.height - 1;
+	    yValues[0] = height - 1;
 
 	    // add terminal point
 	    xValues[xValues.length - 1] = xValues[xValues.length - 2];
-	    yValues[yValues.length - 1] = size.height - 1;
+	    yValues[yValues.length - 1] = height - 1;
 
 	    // draw the peak shape
 	    g2.drawPolyline(xValues, yValues, xValues.length);
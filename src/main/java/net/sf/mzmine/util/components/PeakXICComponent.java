@@ -93,6 +93,24 @@ public class PeakXICComponent extends JComponent {
 	// get canvas size
 	Dimension size = getSize();
 
+	paintPeakShape(g2, peak, rtRange, maxIntensity, size.width, size.height);
+
+    }
+
+    /**
+     * Paints the shape of the given peak over the whole RT range of its data
+     * file, with maxIntensity at the top edge. This can also be used to render
+     * the shape into an image outside of the event dispatch thread.
+     */
+    public static void paintPeakShape(Graphics2D g2, Feature peak,
+	    double maxIntensity, int width, int height) {
+	paintPeakShape(g2, peak, peak.getDataFile().getDataRTRange(1),
+		maxIntensity, width, height);
+    }
+
+    private static void paintPeakShape(Graphics2D g2, Feature peak,
+	    Range<Double> rtRange, double maxIntensity, int width, int height) {
+
 	// get scan numbers, one data point per each scan
 	RawDataFile dataFile = peak.getDataFile();
 	int scanNumbers[] = peak.getScanNumbers();
@@ -123,22 +141,22 @@ public class PeakXICComponent extends JComponent {
 	    final double rtLen = rtRange.upperEndpoint()
 		    - rtRange.lowerEndpoint();
 	    xValues[i] = (int) Math.floor((retentionTime - rtRange
-		    .lowerEndpoint()) / rtLen * (size.width - 1));
-	    yValues[i] = size.height
+		    .lowerEndpoint()) / rtLen * (width - 1));
+	    yValues[i] = height
 		    - (int) Math.floor(dataPointIntensity / maxIntensity
-			    * (size.height - 1));
+			    * (height - 1));
 
 	}
 
 	// create a path for a peak polygon
 	GeneralPath path = new GeneralPath(GeneralPath.WIND_EVEN_ODD);
-	path.moveTo(xValues[0], size.height - 1);
+	path.moveTo(xValues[0], height - 1);
 
 	// add data points to the path
 	for (int i = 0; i < (xValues.length - 1); i++) {
 	    path.lineTo(xValues[i + 1], yValues[i + 1]);
 	}
-	path.lineTo(xValues[xValues.length - 1], size.height - 1);
+	path.lineTo(xValues[xValues.length - 1], height - 1);
 
 	// close the path to form a polygon
 	path.closePath();
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Tests the storage of the scan numbers and data points of compact peaks
+ */
+public class CompactFeatureTest {
+
+    private RawDataFile dataFile;
+
+    @Before
+    public void createDataFile() throws Exception {
+	dataFile = new RawDataFileImpl("file");
+    }
+
+    /**
+     * Scans with and without a data point, including scans more than 65535
+     * apart, whose offsets do not fit in 16 bits
+     */
+    @Test
+    public void testDataPoints() {
+	check(new int[] { 5, 6, 7, 8, 9 }, new boolean[] { true, true, true,
+		true, true });
+	check(new int[] { 5, 6, 7, 8, 9 }, new boolean[] { false, true, false,
+		true, false });
+	check(new int[] { 1, 65536, 65537, 100000 }, new boolean[] { true,
+		true, false, true });
+	check(new int[] { 1, 65536, 65537, 100000 }, new boolean[] { true,
+		true, true, true });
+	check(new int[] { 3, 65538 }, new boolean[] { true, true });
+    }
+
+    /**
+     * The constructors refuse scan numbers which are not in ascending order,
+     * and the copy constructor sorts them
+     */
+    @Test
+    public void testScanOrder() {
+	try {
+	    createPeak(new int[] { 5, 7, 6 }, new boolean[] { true, true, true });
+	    Assert.fail("Created a peak with unordered scans");
+	} catch (IllegalArgumentException e) {
+	    // Expected
+	}
+	try {
+	    new CompactFeature(dataFile, 100, 1, 1, 1, new int[] { 5, 5 },
+		    new float[] { 100, 100 }, new float[] { 1, 1 },
+		    FeatureStatus.DETECTED, 5, -1, 1, 1);
+	    Assert.fail("Created a peak with a repeated scan");
+	} catch (IllegalArgumentException e) {
+	    // Expected
+	}
+
+	// A peak which reports its scans out of order
+	final int scanNumbers[] = { 9, 5, 7 };
+	Feature unordered = new SimpleFeature(dataFile, 100, 1, 1, 1,
+		new int[] { 5, 7, 9 }, new DataPoint[] { createDataPoint(5),
+			createDataPoint(7), createDataPoint(9) },
+		FeatureStatus.DETECTED, 5, -1, Range.singleton(1.0),
+		Range.closed(100.0, 101.0), Range.closed(1.0, 10.0)) {
+	    @Override
+	    public int[] getScanNumbers() {
+		return scanNumbers;
+	    }
+	};
+	CompactFeature peak = new CompactFeature(unordered);
+	Assert.assertArrayEquals(new int[] { 5, 7, 9 }, peak.getScanNumbers());
+	Assert.assertArrayEquals(new int[] { 9, 5, 7 }, scanNumbers);
+	for (int scanNumber : scanNumbers)
+	    checkDataPoint(scanNumber, peak.getDataPoint(scanNumber));
+    }
+
+    private void check(int scanNumbers[], boolean hasDataPoint[]) {
+
+	CompactFeature peak = createPeak(scanNumbers, hasDataPoint);
+	Assert.assertArrayEquals(scanNumbers, peak.getScanNumbers());
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    DataPoint dataPoint = peak.getDataPoint(scanNumbers[i]);
+	    if (hasDataPoint[i])
+		checkDataPoint(scanNumbers[i], dataPoint);
+	    else
+		Assert.assertNull(dataPoint);
+	}
+	for (int scanNumber : new int[] { -1, 0, 2, 4, 10, 65535, 65539,
+		99999, 100001, 165537, Integer.MAX_VALUE, Integer.MIN_VALUE })
+	    Assert.assertNull(peak.getDataPoint(scanNumber));
+
+	// The same peak as stored in a project
+	float mzValues[] = new float[scanNumbers.length];
+	float intensityValues[] = new float[scanNumbers.length];
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    if (hasDataPoint[i]) {
+		DataPoint dataPoint = createDataPoint(scanNumbers[i]);
+		mzValues[i] = (float) dataPoint.getMZ();
+		intensityValues[i] = (float) dataPoint.getIntensity();
+	    }
+	}
+	CompactFeature loadedPeak = new CompactFeature(dataFile, 100, 1, 1, 1,
+		scanNumbers.clone(), mzValues, intensityValues,
+		FeatureStatus.DETECTED, scanNumbers[0], -1, 1, 1);
+	Assert.assertArrayEquals(scanNumbers, loadedPeak.getScanNumbers());
+	for (int scanNumber : scanNumbers) {
+	    Assert.assertEquals(peak.getDataPoint(scanNumber),
+		    loadedPeak.getDataPoint(scanNumber));
+	}
+
+    }
+
+    private CompactFeature createPeak(int scanNumbers[],
+	    boolean hasDataPoint[]) {
+	DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    if (hasDataPoint[i])
+		dataPoints[i] = createDataPoint(scanNumbers[i]);
+	}
+	return new CompactFeature(dataFile, 100, 1, 1, 1, scanNumbers,
+		dataPoints, FeatureStatus.DETECTED, scanNumbers[0], -1,
+		Range.singleton(1.0), Range.closed(100.0, 101.0),
+		Range.closed(1.0, 10.0));
+    }
+
+    private static DataPoint createDataPoint(int scanNumber) {
+	return new SimpleDataPoint(100 + scanNumber * 0.0001f,
+		scanNumber % 1000 + 0.5f);
+    }
+
+    private static void checkDataPoint(int scanNumber, DataPoint dataPoint) {
+	DataPoint expected = createDataPoint(scanNumber);
+	Assert.assertNotNull("Data point of scan " + scanNumber, dataPoint);
+	Assert.assertEquals((float) expected.getMZ(), dataPoint.getMZ(), 0);
+	Assert.assertEquals(expected.getIntensity(), dataPoint.getIntensity(),
+		0);
+    }
+
+}
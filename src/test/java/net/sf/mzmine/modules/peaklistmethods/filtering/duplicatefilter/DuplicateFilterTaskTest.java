@@ -0,0 +1,273 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.filtering.duplicatefilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListRowSorter;
+import net.sf.mzmine.util.PeakUtils;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Compares the rows kept by the duplicate filter, which only compares rows in
+ * neighboring grid cells, with a comparison of all pairs of rows
+ */
+public class DuplicateFilterTaskTest {
+
+    private RawDataFile dataFile;
+    private Random random;
+    private int nextID;
+
+    @Before
+    public void createDataFile() throws Exception {
+	dataFile = new RawDataFileImpl("file");
+	random = new Random(1);
+	nextID = 1;
+    }
+
+    /**
+     * Rows on a coarse grid of values, so many differences are exactly equal
+     * to the tolerance, with absolute, ppm and relative RT tolerances
+     */
+    @Test
+    public void testTolerances() throws Exception {
+	MZTolerance mzTolerances[] = { new MZTolerance(0.01, 0),
+		new MZTolerance(0, 50), new MZTolerance(0.005, 20),
+		new MZTolerance(0, 0) };
+	RTTolerance rtTolerances[] = { new RTTolerance(true, 0.1),
+		new RTTolerance(false, 0.02), new RTTolerance(true, 0) };
+	for (boolean requireSameId : new boolean[] { false, true }) {
+	    List<PeakListRow> rows = new ArrayList<PeakListRow>();
+	    for (int i = 0; i < 1000; i++) {
+		rows.add(createRow(100 + random.nextInt(500) * 0.005,
+			1 + random.nextInt(100) * 0.05));
+	    }
+	    for (MZTolerance mzTolerance : mzTolerances) {
+		for (RTTolerance rtTolerance : rtTolerances) {
+		    check(rows, mzTolerance, rtTolerance, requireSameId);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Rows on the boundaries of the grid cells and next to them
+     */
+    @Test
+    public void testCellBoundaries() throws Exception {
+	MZTolerance mzTolerance = new MZTolerance(0.01, 0);
+	RTTolerance rtTolerance = new RTTolerance(true, 0.1);
+	final double mzCellSize = DuplicateFilterTask.RowGrid.getCellSize(0.01);
+	final double rtCellSize = DuplicateFilterTask.RowGrid.getCellSize(0.1);
+	List<PeakListRow> rows = new ArrayList<PeakListRow>();
+	for (int mzCell = 10000; mzCell < 10010; mzCell++) {
+	    for (int rtCell = 10; rtCell < 20; rtCell++) {
+		final double mz = mzCell * mzCellSize;
+		final double rt = rtCell * rtCellSize;
+		rows.add(createRow(mz, rt));
+		rows.add(createRow(Math.nextAfter(mz, 0), rt));
+		rows.add(createRow(mz, Math.nextAfter(rt, 0)));
+		rows.add(createRow(Math.nextUp(mz), Math.nextUp(rt)));
+		rows.add(createRow(mz + 0.01, rt + 0.1));
+		rows.add(createRow(mz - 0.01, rt - 0.1));
+	    }
+	}
+	check(rows, mzTolerance, rtTolerance, false);
+
+	// Rows spaced by exactly the tolerance, so duplicates lie on the
+	// boundaries of the tolerance ranges
+	rows.clear();
+	for (int i = 0; i < 500; i++)
+	    rows.add(createRow(100 + i * 0.01, 1 + (i % 7) * 0.1));
+	check(rows, mzTolerance, rtTolerance, false);
+    }
+
+    /**
+     * Rows in distant cells whose keys in the hash map are the same
+     */
+    @Test
+    public void testKeyCollisions() throws Exception {
+
+	MZTolerance mzTolerance = new MZTolerance(0.000001, 0);
+	RTTolerance rtTolerance = new RTTolerance(true, 0.1);
+	final double mzCellSize = DuplicateFilterTask.RowGrid
+		.getCellSize(0.000001);
+	final double rtCellSize = DuplicateFilterTask.RowGrid.getCellSize(0.1);
+
+	// Find a cell above m/z 100 whose key collides with a cell in the RT
+	// cell 0
+	final long firstMZCell = (long) (100 / mzCellSize);
+	long mzCell1 = -1, mzCell2 = -1, rtCell2 = 0;
+	while (mzCell1 < 0) {
+	    rtCell2++;
+	    for (long mzCell = firstMZCell; mzCell < firstMZCell + 1000; mzCell++) {
+		final long key = DuplicateFilterTask.RowGrid.getKey(mzCell,
+			rtCell2);
+		if (key % 31 == 0) {
+		    mzCell1 = key / 31;
+		    mzCell2 = mzCell;
+		    break;
+		}
+	    }
+	}
+	Assert.assertEquals(DuplicateFilterTask.RowGrid.getKey(mzCell1, 0),
+		DuplicateFilterTask.RowGrid.getKey(mzCell2, rtCell2));
+	Assert.assertTrue(Math.abs(mzCell1 - mzCell2) > 1);
+
+	// Rows in and around both cells
+	List<PeakListRow> rows = new ArrayList<PeakListRow>();
+	for (int i = 0; i < 200; i++) {
+	    final long mzCell = i % 2 == 0 ? mzCell1 : mzCell2;
+	    final long rtCell = i % 2 == 0 ? 0 : rtCell2;
+	    final double mz = (mzCell - 1 + random.nextDouble() * 3)
+		    * mzCellSize;
+	    final double rt = (rtCell + random.nextDouble()) * rtCellSize;
+	    rows.add(createRow(mz, rt));
+	}
+	check(rows, mzTolerance, rtTolerance, false);
+
+    }
+
+    /**
+     * Filters a peak list with the given rows and compares the kept rows with
+     * the rows kept by comparing all pairs of rows
+     */
+    private void check(List<PeakListRow> rows, MZTolerance mzTolerance,
+	    RTTolerance rtTolerance, boolean requireSameId) throws Exception {
+
+	SimplePeakList peakList = new SimplePeakList("peaks", dataFile);
+	for (PeakListRow row : rows)
+	    peakList.addRow(row);
+
+	ParameterSet parameters = new DuplicateFilterParameters();
+	parameters.getParameter(DuplicateFilterParameters.suffix).setValue(
+		"filtered");
+	parameters.getParameter(DuplicateFilterParameters.mzDifferenceMax)
+		.setValue(mzTolerance);
+	parameters.getParameter(DuplicateFilterParameters.rtDifferenceMax)
+		.setValue(rtTolerance);
+	parameters.getParameter(
+		DuplicateFilterParameters.requireSameIdentification).setValue(
+		requireSameId);
+	parameters.getParameter(DuplicateFilterParameters.autoRemove).setValue(
+		false);
+
+	MZmineProjectImpl project = new MZmineProjectImpl();
+	DuplicateFilterTask task = new DuplicateFilterTask(project, peakList,
+		parameters);
+	task.run();
+	Assert.assertEquals(task.getErrorMessage(), TaskStatus.FINISHED,
+		task.getStatus());
+	PeakList filtered = project.getPeakLists()[0];
+
+	List<Integer> expected = filterAllPairs(peakList.getRows(),
+		mzTolerance, rtTolerance, requireSameId);
+	List<Integer> kept = new ArrayList<Integer>();
+	for (PeakListRow row : filtered.getRows())
+	    kept.add(row.getID());
+
+	Assert.assertEquals(mzTolerance + ", " + rtTolerance, expected, kept);
+	Assert.assertTrue(kept.size() < rows.size());
+
+    }
+
+    /**
+     * Returns the IDs of the rows kept when each row is compared with all
+     * rows of smaller area
+     */
+    private static List<Integer> filterAllPairs(PeakListRow rows[],
+	    MZTolerance mzTolerance, RTTolerance rtTolerance,
+	    boolean requireSameId) {
+
+	Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Area,
+		SortingDirection.Descending));
+	for (int i = 0; i < rows.length; i++) {
+	    if (rows[i] == null)
+		continue;
+	    for (int j = i + 1; j < rows.length; j++) {
+		if (rows[j] == null)
+		    continue;
+		final boolean sameID = !requireSameId
+			|| PeakUtils.compareIdentities(rows[i], rows[j]);
+		final boolean sameMZ = mzTolerance.getToleranceRange(
+			rows[i].getAverageMZ()).contains(rows[j].getAverageMZ());
+		final boolean sameRT = rtTolerance.getToleranceRange(
+			rows[i].getAverageRT()).contains(rows[j].getAverageRT());
+		if (sameID && sameMZ && sameRT)
+		    rows[j] = null;
+	    }
+	}
+
+	List<Integer> kept = new ArrayList<Integer>();
+	for (PeakListRow row : rows) {
+	    if (row != null)
+		kept.add(row.getID());
+	}
+	return kept;
+
+    }
+
+    /**
+     * Creates a row with a random area and, for some rows, one of a few
+     * identities
+     */
+    private PeakListRow createRow(double mz, double rt) {
+	final double area = random.nextDouble() * 1000;
+	SimplePeakListRow row = new SimplePeakListRow(nextID++);
+	row.addPeak(dataFile, new SimpleFeature(dataFile, mz, rt, area, area,
+		new int[] { 1 },
+		new DataPoint[] { new SimpleDataPoint(mz, area) },
+		FeatureStatus.DETECTED, 1, -1, Range.singleton(rt),
+		Range.singleton(mz), Range.singleton(area)));
+	if (random.nextInt(3) == 0) {
+	    row.addPeakIdentity(
+		    new SimplePeakIdentity("Compound " + random.nextInt(3)),
+		    true);
+	}
+	return row;
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
+
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ScanUtils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Tests the SQL export against an in-memory H2 database
+ */
+public class SQLExportTaskTest {
+
+    private static final String connectionString = "jdbc:h2:mem:sqlexport;DB_CLOSE_DELAY=-1";
+
+    private Connection connection;
+
+    @Before
+    public void createTable() throws Exception {
+	connection = DriverManager.getConnection(connectionString);
+	Statement statement = connection.createStatement();
+	statement.execute("CREATE TABLE peaks (id INT, mz DOUBLE, file VARCHAR(100), "
+		+ "height DOUBLE, label VARCHAR(100), isotopes BLOB)");
+	statement.close();
+    }
+
+    @After
+    public void dropTable() throws Exception {
+	Statement statement = connection.createStatement();
+	statement.execute("DROP TABLE peaks");
+	statement.close();
+	connection.close();
+    }
+
+    /**
+     * Test the export of one table row per peak, in several batches
+     */
+    @Test
+    public void testBatchExport() throws Exception {
+
+	RawDataFile dataFiles[] = { new RawDataFileImpl("file1"),
+		new RawDataFileImpl("file2"), new RawDataFileImpl("file3") };
+	SimplePeakList peakList = new SimplePeakList("peaks", dataFiles);
+	DataPoint isotopes[] = { new SimpleDataPoint(100, 50),
+		new SimpleDataPoint(101, 20) };
+
+	final int numOfRows = 250;
+	for (int id = 1; id <= numOfRows; id++) {
+	    SimplePeakListRow row = new SimplePeakListRow(id);
+	    for (int f = 0; f < dataFiles.length; f++) {
+		SimpleFeature peak = createPeak(dataFiles[f], 100 + id, id * f);
+		if (id == 1)
+		    peak.setIsotopePattern(new SimpleIsotopePattern(isotopes,
+			    IsotopePatternStatus.DETECTED, ""));
+		row.addPeak(dataFiles[f], peak);
+	    }
+	    peakList.addRow(row);
+	}
+
+	SQLColumnSettings columns = new SQLColumnSettings();
+	addColumn(columns, "id", SQLExportDataType.ID, null);
+	addColumn(columns, "mz", SQLExportDataType.MZ, null);
+	addColumn(columns, "file", SQLExportDataType.RAWFILE, null);
+	addColumn(columns, "height", SQLExportDataType.PEAKHEIGHT, null);
+	addColumn(columns, "label", SQLExportDataType.CONSTANT, "a\tb");
+	addColumn(columns, "isotopes", SQLExportDataType.ISOTOPEPATTERN,
+		null);
+
+	SQLExportTask task = new SQLExportTask(peakList, connectionString,
+		"peaks", columns, false, 64);
+	task.run();
+	Assert.assertEquals(task.getErrorMessage(), TaskStatus.FINISHED,
+		task.getStatus());
+
+	Statement statement = connection.createStatement();
+	ResultSet result = statement
+		.executeQuery("SELECT COUNT(*), SUM(height) FROM peaks");
+	result.next();
+	Assert.assertEquals(numOfRows * dataFiles.length, result.getInt(1));
+	Assert.assertEquals(3 * numOfRows * (numOfRows + 1) / 2,
+		result.getDouble(2), 0);
+
+	result = statement
+		.executeQuery("SELECT mz, label, isotopes FROM peaks WHERE id = 1 AND file = 'file3'");
+	Assert.assertTrue(result.next());
+	Assert.assertEquals(101, result.getDouble(1), 0);
+	Assert.assertEquals("a\tb", result.getString(2));
+	Blob blob = result.getBlob(3);
+	DataPoint exportedIsotopes[] = ScanUtils.decodeDataPointsFromBytes(blob
+		.getBytes(1, (int) blob.length()));
+	Assert.assertEquals(isotopes.length, exportedIsotopes.length);
+	Assert.assertEquals(101, exportedIsotopes[1].getMZ(), 0);
+
+	result = statement
+		.executeQuery("SELECT COUNT(*) FROM peaks WHERE isotopes IS NULL");
+	result.next();
+	Assert.assertEquals((numOfRows - 1) * dataFiles.length,
+		result.getInt(1));
+	statement.close();
+
+    }
+
+    /**
+     * Test the export of an empty peak list
+     */
+    @Test
+    public void testEmptyExport() throws Exception {
+
+	SimplePeakList peakList = new SimplePeakList("empty",
+		new RawDataFileImpl("file1"));
+
+	SQLColumnSettings columns = new SQLColumnSettings();
+	addColumn(columns, "id", SQLExportDataType.ID, null);
+	addColumn(columns, "file", SQLExportDataType.RAWFILE, null);
+
+	SQLExportTask task = new SQLExportTask(peakList, connectionString,
+		"peaks", columns, true, 1000);
+	task.run();
+	Assert.assertEquals(task.getErrorMessage(), TaskStatus.FINISHED,
+		task.getStatus());
+
+	Statement statement = connection.createStatement();
+	ResultSet result = statement.executeQuery("SELECT id, file FROM peaks");
+	Assert.assertTrue(result.next());
+	Assert.assertNull(result.getObject(1));
+	Assert.assertEquals("file1", result.getString(2));
+	Assert.assertFalse(result.next());
+	statement.close();
+
+    }
+
+    /**
+     * Test the escaping of values for the PostgreSQL COPY command
+     */
+    @Test
+    public void testCopyValues() {
+	StringBuilder data = new StringBuilder();
+	SQLExportTask.appendCopyValue(data, "a\\b\tc\nd\re");
+	data.append('|');
+	SQLExportTask.appendCopyValue(data, null);
+	data.append('|');
+	SQLExportTask.appendCopyValue(data, 1.5);
+	Assert.assertEquals("a\\\\b\\tc\\nd\\re|\\N|1.5", data.toString());
+    }
+
+    private static SimpleFeature createPeak(RawDataFile dataFile, double mz,
+	    double height) {
+	DataPoint dataPoints[] = { new SimpleDataPoint(mz, height) };
+	return new SimpleFeature(dataFile, mz, 1, height, height,
+		new int[] { 1 }, dataPoints, FeatureStatus.DETECTED, 1, -1,
+		Range.singleton(1.0), Range.singleton(mz),
+		Range.singleton(height));
+    }
+
+    private static void addColumn(SQLColumnSettings columns, String name,
+	    SQLExportDataType dataType, String value) {
+	columns.addNewRow();
+	int row = columns.getRowCount() - 1;
+	columns.setValueAt(name, row, 0);
+	columns.setValueAt(dataType, row, 1);
+	if (value != null)
+	    columns.setValueAt(value, row, 2);
+    }
+
+}
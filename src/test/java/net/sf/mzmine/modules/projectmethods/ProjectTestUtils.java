@@ -0,0 +1,187 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.desktop.impl.HeadLessDesktop;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.main.impl.MZmineConfigurationImpl;
+import net.sf.mzmine.modules.MZmineModule;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoadModule;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoaderParameters;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectOpeningTask;
+import net.sf.mzmine.modules.projectmethods.projectsave.ProjectSavingTask;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.ProjectManagerImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+import org.junit.Assert;
+
+import com.google.common.collect.Range;
+
+/**
+ * Sets up the MZmine core without a GUI, and creates, saves and opens small
+ * projects for the tests of project saving and loading
+ */
+public class ProjectTestUtils {
+
+    private static boolean initialized = false;
+
+    /**
+     * Sets up the configuration, a headless desktop and the project manager
+     * with an empty project. MZmineCore is set up by its main method only, so
+     * its fields are set directly. Of the modules, only the project loading
+     * module is initialized, as the project manager keeps the last project
+     * file in its parameters.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void initializeCore() throws Exception {
+
+	if (initialized)
+	    return;
+
+	MZmineConfigurationImpl configuration = new MZmineConfigurationImpl();
+	setCoreField("configuration", configuration);
+	Field modulesField = MZmineCore.class
+		.getDeclaredField("initializedModules");
+	modulesField.setAccessible(true);
+	((Map<Class<?>, MZmineModule>) modulesField.get(null)).put(
+		ProjectLoadModule.class, new ProjectLoadModule());
+	configuration.setModuleParameters(ProjectLoadModule.class,
+		new ProjectLoaderParameters());
+	setCoreField("desktop", new HeadLessDesktop());
+	ProjectManagerImpl projectManager = new ProjectManagerImpl();
+	projectManager.initModule();
+	setCoreField("projectManager", projectManager);
+
+	initialized = true;
+
+    }
+
+    /**
+     * Creates a raw data file with MS1 scans 1 to numOfScans, each with data
+     * points at m/z 100, 101, 102, ...
+     */
+    public static RawDataFileImpl createRawDataFile(String name,
+	    int numOfScans, int dataPointsPerScan) throws IOException {
+
+	RawDataFileImpl dataFile = new RawDataFileImpl(name);
+	for (int scanNumber = 1; scanNumber <= numOfScans; scanNumber++) {
+	    DataPoint dataPoints[] = new DataPoint[dataPointsPerScan];
+	    for (int i = 0; i < dataPointsPerScan; i++)
+		dataPoints[i] = new SimpleDataPoint(100 + i, scanNumber * 10
+			+ i);
+	    dataFile.addScan(new SimpleScan(dataFile, scanNumber, 1,
+		    scanNumber * 0.1, 0, 0, null, dataPoints,
+		    MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+		    Range.closed(100.0, 100.0 + dataPointsPerScan)));
+	}
+	dataFile.finishWriting();
+	return dataFile;
+
+    }
+
+    /**
+     * Creates a peak list with one row per m/z value of the raw data file.
+     * The peak of row i spans the scans i + 1 to i + 5.
+     */
+    public static SimplePeakList createPeakList(String name,
+	    RawDataFile dataFile, int numOfRows) {
+
+	SimplePeakList peakList = new SimplePeakList(name, dataFile);
+	for (int i = 0; i < numOfRows; i++) {
+	    final double mz = 100 + i;
+	    int scanNumbers[] = new int[5];
+	    DataPoint dataPoints[] = new DataPoint[5];
+	    for (int j = 0; j < 5; j++) {
+		scanNumbers[j] = i + j + 1;
+		dataPoints[j] = new SimpleDataPoint(mz, scanNumbers[j] * 10
+			+ i);
+	    }
+	    SimplePeakListRow row = new SimplePeakListRow(i + 1);
+	    row.addPeak(dataFile, new SimpleFeature(dataFile, mz,
+		    scanNumbers[2] * 0.1, dataPoints[4].getIntensity(),
+		    dataPoints[4].getIntensity() * 3, scanNumbers, dataPoints,
+		    FeatureStatus.DETECTED, scanNumbers[4], -1, Range.closed(
+			    scanNumbers[0] * 0.1, scanNumbers[4] * 0.1), Range
+			    .singleton(mz), Range.closed(
+			    dataPoints[0].getIntensity(),
+			    dataPoints[4].getIntensity())));
+	    peakList.addRow(row);
+	}
+	return peakList;
+
+    }
+
+    /**
+     * Saves the project to the given file
+     */
+    public static void saveProject(MZmineProjectImpl project, File file) {
+	ProjectLoaderParameters parameters = new ProjectLoaderParameters();
+	parameters.getParameter(ProjectLoaderParameters.projectFile).setValue(
+		file);
+	ProjectSavingTask task = new ProjectSavingTask(project, parameters);
+	task.run();
+	Assert.assertEquals(task.getErrorMessage(), TaskStatus.FINISHED,
+		task.getStatus());
+    }
+
+    /**
+     * Opens the given project file as the current project. The previous
+     * current project is closed first, so opening does not ask to replace
+     * its raw data files.
+     */
+    public static MZmineProjectImpl openProject(File file) {
+	MZmineCore.getProjectManager().setCurrentProject(
+		new MZmineProjectImpl());
+	ProjectLoaderParameters parameters = new ProjectLoaderParameters();
+	parameters.getParameter(ProjectLoaderParameters.projectFile).setValue(
+		file);
+	ProjectOpeningTask task = new ProjectOpeningTask(parameters);
+	task.run();
+	Assert.assertEquals(task.getErrorMessage(), TaskStatus.FINISHED,
+		task.getStatus());
+	return (MZmineProjectImpl) MZmineCore.getProjectManager()
+		.getCurrentProject();
+    }
+
+    private static void setCoreField(String name, Object value)
+	    throws ReflectiveOperationException {
+	Field field = MZmineCore.class.getDeclaredField(name);
+	field.setAccessible(true);
+	field.set(null, value);
+    }
+
+}
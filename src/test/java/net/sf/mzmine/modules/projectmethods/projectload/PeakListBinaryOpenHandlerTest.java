@@ -0,0 +1,341 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Hashtable;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import net.sf.mzmine.datamodel.PeakIdentity;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
+import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.ProjectTestUtils;
+import net.sf.mzmine.modules.projectmethods.projectsave.PeakListBinarySaveHandler;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Saves peak lists in the binary format and loads them again
+ */
+public class PeakListBinaryOpenHandlerTest {
+
+    private RawDataFile dataFile1, dataFile2;
+    private Hashtable<RawDataFile, String> savedFileIDs;
+    private Hashtable<String, RawDataFile> loadedFileIDs;
+
+    @Before
+    public void createDataFiles() throws Exception {
+	ProjectTestUtils.initializeCore();
+	dataFile1 = ProjectTestUtils.createRawDataFile("file1", 40, 20);
+	dataFile2 = ProjectTestUtils.createRawDataFile("file2", 40, 20);
+	savedFileIDs = new Hashtable<RawDataFile, String>();
+	savedFileIDs.put(dataFile1, "1");
+	savedFileIDs.put(dataFile2, "2");
+	loadedFileIDs = new Hashtable<String, RawDataFile>();
+	loadedFileIDs.put("1", dataFile1);
+	loadedFileIDs.put("2", dataFile2);
+    }
+
+    @Test
+    public void testSimplePeakList() throws Exception {
+	PeakList peakList = createPeakList(new SimplePeakList("peaks",
+		new RawDataFile[] { dataFile1, dataFile2 }));
+	PeakList loaded = load(save(peakList));
+	Assert.assertTrue(loaded instanceof SimplePeakList);
+	checkPeakList(peakList, loaded);
+    }
+
+    @Test
+    public void testColumnarPeakList() throws Exception {
+	PeakList peakList = createPeakList(new ColumnarPeakList("aligned",
+		new RawDataFile[] { dataFile1, dataFile2 }));
+	PeakList loaded = load(save(peakList));
+	Assert.assertTrue(loaded instanceof ColumnarPeakList);
+	checkPeakList(peakList, loaded);
+    }
+
+    /**
+     * The rows are read again in blocks, as when released data points are
+     * loaded again
+     */
+    @Test
+    public void testRows() throws Exception {
+	PeakList peakList = createPeakList(new SimplePeakList("peaks",
+		new RawDataFile[] { dataFile1, dataFile2 }));
+	byte data[] = save(peakList);
+
+	PeakListBinaryOpenHandler handler = new PeakListBinaryOpenHandler(
+		loadedFileIDs);
+	PeakList header = handler.readPeakListHeader(new ByteArrayInputStream(
+		data));
+	Assert.assertEquals(peakList.getName(), header.getName());
+	Assert.assertEquals(0, header.getNumberOfRows());
+	Assert.assertEquals(peakList.getNumberOfRows(),
+		handler.getNumberOfRows());
+
+	SimplePeakList loaded = new SimplePeakList("peaks", new RawDataFile[] {
+		dataFile1, dataFile2 });
+	for (PeakListRow row : handler
+		.readPeakListRows(new ByteArrayInputStream(data)))
+	    loaded.addRow(row);
+	checkPeakList(peakList, loaded);
+    }
+
+    /**
+     * Isotope pattern statuses added in a newer version are loaded as
+     * detected
+     */
+    @Test
+    public void testUnknownIsotopePatternStatus() throws Exception {
+	PeakList peakList = createPeakList(new SimplePeakList("peaks",
+		new RawDataFile[] { dataFile1, dataFile2 }));
+	byte data[] = replace(save(peakList), "PREDICTED", "PREDICTEZ");
+	PeakList loaded = load(data);
+	for (PeakListRow row : loaded.getRows()) {
+	    for (Feature peak : row.getPeaks()) {
+		IsotopePattern pattern = peak.getIsotopePattern();
+		if (pattern != null)
+		    Assert.assertEquals(IsotopePatternStatus.DETECTED,
+			    pattern.getStatus());
+	    }
+	}
+    }
+
+    /**
+     * Peaks in scans which are not in the raw data file cannot be loaded
+     */
+    @Test(expected = IOException.class)
+    public void testMissingScan() throws Exception {
+	PeakList peakList = createPeakList(new SimplePeakList("peaks",
+		new RawDataFile[] { dataFile1, dataFile2 }));
+	byte data[] = save(peakList);
+	loadedFileIDs.put("2", ProjectTestUtils.createRawDataFile("file2", 10,
+		20));
+	load(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedData() throws Exception {
+	PeakList peakList = createPeakList(new SimplePeakList("peaks",
+		new RawDataFile[] { dataFile1, dataFile2 }));
+	byte data[] = save(peakList);
+	byte truncated[] = new byte[data.length / 2];
+	System.arraycopy(data, 0, truncated, 0, truncated.length);
+	load(truncated);
+    }
+
+    /**
+     * Adds rows with peaks in one or both raw data files, some of them with
+     * scans without a data point, isotope patterns and identities
+     */
+    private PeakList createPeakList(PeakList peakList) {
+	for (int i = 0; i < 30; i++) {
+	    SimplePeakListRow row = new SimplePeakListRow(i + 1);
+	    row.addPeak(dataFile1, createPeak(dataFile1, i, i % 3 == 0));
+	    if (i % 2 == 0)
+		row.addPeak(dataFile2, createPeak(dataFile2, i, false));
+	    if (i % 4 == 0)
+		row.setComment("Row " + i);
+	    if (i % 5 == 0) {
+		row.addPeakIdentity(new SimplePeakIdentity("Compound " + i,
+			"C" + i + "H" + (2 * i), "test", String.valueOf(i),
+			null), false);
+		row.addPeakIdentity(new SimplePeakIdentity("Other " + i),
+			true);
+	    }
+	    peakList.addRow(row);
+	}
+	return peakList;
+    }
+
+    private static Feature createPeak(RawDataFile dataFile, int i,
+	    boolean withGap) {
+	final double mz = 100 + i + 0.123456;
+	int scanNumbers[] = new int[7];
+	DataPoint dataPoints[] = new DataPoint[7];
+	for (int j = 0; j < 7; j++) {
+	    scanNumbers[j] = i + j + 1;
+	    if (!withGap || (j != 3))
+		dataPoints[j] = new SimpleDataPoint(mz + j * 0.0001,
+			scanNumbers[j] * 10 + i + 0.5);
+	}
+	SimpleFeature peak = new SimpleFeature(dataFile, mz,
+		scanNumbers[3] * 0.1, 1000 + i, 5000 + i, scanNumbers,
+		dataPoints, FeatureStatus.values()[i
+			% FeatureStatus.values().length], scanNumbers[3], -1,
+		Range.closed(scanNumbers[0] * 0.1, scanNumbers[6] * 0.1),
+		Range.closed(mz, mz + 0.0006), Range.closed(
+			dataPoints[0].getIntensity(),
+			dataPoints[6].getIntensity()));
+	peak.setCharge(i % 3);
+	if (i % 2 == 1) {
+	    peak.setIsotopePattern(new SimpleIsotopePattern(new DataPoint[] {
+		    new SimpleDataPoint(mz, 100),
+		    new SimpleDataPoint(mz + 1.003, 20) },
+		    i % 4 == 1 ? IsotopePatternStatus.PREDICTED
+			    : IsotopePatternStatus.DETECTED, "Pattern " + i));
+	}
+	return peak;
+    }
+
+    private byte[] save(PeakList peakList) throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	new PeakListBinarySaveHandler(out, savedFileIDs).savePeakList(peakList);
+	return out.toByteArray();
+    }
+
+    private PeakList load(byte data[]) throws IOException {
+	return new PeakListBinaryOpenHandler(loadedFileIDs)
+		.readPeakList(new ByteArrayInputStream(data));
+    }
+
+    private static byte[] replace(byte data[], String text, String newText) {
+	final Charset utf8 = Charset.forName("UTF-8");
+	byte pattern[] = text.getBytes(utf8), replacement[] = newText
+		.getBytes(utf8);
+	int replaced = 0;
+	for (int i = 0; i + pattern.length <= data.length; i++) {
+	    boolean match = true;
+	    for (int j = 0; match && j < pattern.length; j++)
+		match = data[i + j] == pattern[j];
+	    if (match) {
+		System.arraycopy(replacement, 0, data, i, replacement.length);
+		replaced++;
+	    }
+	}
+	Assert.assertTrue(replaced > 0);
+	return data;
+    }
+
+    private static void checkPeakList(PeakList expected, PeakList loaded) {
+	Assert.assertEquals(expected.getName(), loaded.getName());
+	Assert.assertArrayEquals(expected.getRawDataFiles(),
+		loaded.getRawDataFiles());
+	Assert.assertEquals(expected.getNumberOfRows(),
+		loaded.getNumberOfRows());
+	for (int i = 0; i < expected.getNumberOfRows(); i++) {
+	    PeakListRow row = expected.getRow(i);
+	    PeakListRow loadedRow = loaded.getRow(i);
+	    Assert.assertEquals(row.getID(), loadedRow.getID());
+	    Assert.assertEquals(row.getComment(), loadedRow.getComment());
+	    Assert.assertEquals(row.getAverageMZ(), loadedRow.getAverageMZ(),
+		    1e-9);
+	    Assert.assertEquals(row.getAverageRT(), loadedRow.getAverageRT(),
+		    1e-9);
+	    checkIdentities(row, loadedRow);
+	    Assert.assertEquals(
+		    new HashSet<RawDataFile>(Arrays.asList(row
+			    .getRawDataFiles())),
+		    new HashSet<RawDataFile>(Arrays.asList(loadedRow
+			    .getRawDataFiles())));
+	    for (RawDataFile dataFile : row.getRawDataFiles())
+		checkPeak(row.getPeak(dataFile), loadedRow.getPeak(dataFile));
+	}
+    }
+
+    private static void checkIdentities(PeakListRow row, PeakListRow loadedRow) {
+	PeakIdentity identities[] = row.getPeakIdentities();
+	PeakIdentity loadedIdentities[] = loadedRow.getPeakIdentities();
+	Assert.assertEquals(identities.length, loadedIdentities.length);
+	for (int i = 0; i < identities.length; i++) {
+	    Assert.assertEquals(identities[i].getAllProperties(),
+		    loadedIdentities[i].getAllProperties());
+	}
+	if (row.getPreferredPeakIdentity() == null)
+	    Assert.assertNull(loadedRow.getPreferredPeakIdentity());
+	else
+	    Assert.assertEquals(row.getPreferredPeakIdentity().getName(),
+		    loadedRow.getPreferredPeakIdentity().getName());
+    }
+
+    private static void checkPeak(Feature peak, Feature loadedPeak) {
+	Assert.assertEquals(peak.getMZ(), loadedPeak.getMZ(), 0);
+	Assert.assertEquals(peak.getRT(), loadedPeak.getRT(), 0);
+	Assert.assertEquals(peak.getHeight(), loadedPeak.getHeight(), 0);
+	Assert.assertEquals(peak.getArea(), loadedPeak.getArea(), 0);
+	Assert.assertEquals(peak.getFeatureStatus(),
+		loadedPeak.getFeatureStatus());
+	Assert.assertEquals(peak.getCharge(), loadedPeak.getCharge());
+	Assert.assertEquals(peak.getRepresentativeScanNumber(),
+		loadedPeak.getRepresentativeScanNumber());
+	Assert.assertArrayEquals(peak.getScanNumbers(),
+		loadedPeak.getScanNumbers());
+
+	// The data points are stored in single precision
+	for (int scanNumber : peak.getScanNumbers()) {
+	    DataPoint dataPoint = peak.getDataPoint(scanNumber);
+	    DataPoint loadedDataPoint = loadedPeak.getDataPoint(scanNumber);
+	    if (dataPoint == null) {
+		Assert.assertNull(loadedDataPoint);
+		continue;
+	    }
+	    Assert.assertEquals(dataPoint.getMZ(), loadedDataPoint.getMZ(),
+		    1e-4);
+	    Assert.assertEquals(dataPoint.getIntensity(),
+		    loadedDataPoint.getIntensity(), 1e-3);
+	}
+
+	// The RT range is read from the scans of the raw data file
+	Range<Double> rtRange = loadedPeak.getRawDataPointsRTRange();
+	int scanNumbers[] = peak.getScanNumbers();
+	Assert.assertEquals(scanNumbers[0] * 0.1, rtRange.lowerEndpoint(),
+		1e-9);
+	Assert.assertEquals(scanNumbers[scanNumbers.length - 1] * 0.1,
+		rtRange.upperEndpoint(), 1e-9);
+	Assert.assertEquals(peak.getRawDataPointsMZRange().lowerEndpoint(),
+		loadedPeak.getRawDataPointsMZRange().lowerEndpoint(), 1e-4);
+	Assert.assertEquals(peak.getRawDataPointsMZRange().upperEndpoint(),
+		loadedPeak.getRawDataPointsMZRange().upperEndpoint(), 1e-4);
+
+	IsotopePattern pattern = peak.getIsotopePattern();
+	IsotopePattern loadedPattern = loadedPeak.getIsotopePattern();
+	if (pattern == null) {
+	    Assert.assertNull(loadedPattern);
+	} else {
+	    Assert.assertEquals(pattern.getStatus(), loadedPattern.getStatus());
+	    Assert.assertEquals(pattern.getDescription(),
+		    loadedPattern.getDescription());
+	    Assert.assertEquals(pattern.getNumberOfDataPoints(),
+		    loadedPattern.getNumberOfDataPoints());
+	}
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import java.io.File;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.ProjectTestUtils;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the release of peak data points when memory runs low
+ */
+public class ProjectPeakListLoaderTest {
+
+    private File projectFile;
+
+    @Before
+    public void createProject() throws Exception {
+
+	ProjectTestUtils.initializeCore();
+
+	MZmineProjectImpl project = new MZmineProjectImpl();
+	RawDataFile dataFile = ProjectTestUtils.createRawDataFile("file", 40,
+		20);
+	project.addFile(dataFile);
+	project.addPeakList(ProjectTestUtils.createPeakList("source", dataFile,
+		20));
+	project.addPeakList(ProjectTestUtils.createPeakList("other", dataFile,
+		10));
+
+	projectFile = File.createTempFile("loadertest", ".mzmine");
+	ProjectTestUtils.saveProject(project, projectFile);
+
+    }
+
+    @After
+    public void deleteProject() {
+	projectFile.delete();
+    }
+
+    /**
+     * A peak list removed from the project must not release the peaks it
+     * shares with a derived peak list, as its entry in the project file is
+     * gone after the next save
+     */
+    @Test
+    public void testRemovedPeakList() throws Exception {
+
+	MZmineProjectImpl project = ProjectTestUtils.openProject(projectFile);
+	PeakList source = getPeakList(project, "source");
+	PeakList other = getPeakList(project, "other");
+	PeakList derived = createDerivedPeakList(source);
+	project.addPeakList(derived);
+
+	ProjectTestUtils.saveProject(project, projectFile);
+	project.removePeakList(source);
+	ProjectTestUtils.saveProject(project, projectFile);
+
+	// Only the other peak list can read its data points again
+	Assert.assertEquals(1, ProjectPeakListLoader.unloadPeakLists(0));
+
+	checkDataPoints(derived);
+	checkDataPoints(other);
+
+    }
+
+    /**
+     * Peaks shared with a peak list which was not loaded from the project
+     * file keep their data points
+     */
+    @Test
+    public void testSharedPeaks() throws Exception {
+
+	MZmineProjectImpl project = ProjectTestUtils.openProject(projectFile);
+	PeakList source = getPeakList(project, "source");
+	PeakList derived = createDerivedPeakList(source);
+	project.addPeakList(derived);
+	ProjectTestUtils.saveProject(project, projectFile);
+
+	// Both loaded peak lists are released, but the source peak list keeps
+	// the data points of the peaks shared with the derived peak list
+	Assert.assertEquals(2, ProjectPeakListLoader.unloadPeakLists(0));
+
+	// The peaks of the derived peak list do not need the project file
+	Assert.assertTrue(projectFile.delete());
+	checkDataPoints(derived);
+
+    }
+
+    private static PeakList getPeakList(MZmineProjectImpl project,
+	    String name) {
+	for (PeakList peakList : project.getPeakLists()) {
+	    if (peakList.getName().equals(name))
+		return peakList;
+	}
+	throw new AssertionError("Peak list " + name + " not found");
+    }
+
+    /**
+     * Creates a peak list sharing the peaks of the given peak list, as the
+     * filtering methods do
+     */
+    private static PeakList createDerivedPeakList(PeakList peakList) {
+	RawDataFile dataFile = peakList.getRawDataFile(0);
+	SimplePeakList derived = new SimplePeakList(peakList.getName()
+		+ " filtered", dataFile);
+	for (PeakListRow row : peakList.getRows()) {
+	    SimplePeakListRow newRow = new SimplePeakListRow(row.getID());
+	    newRow.addPeak(dataFile, row.getPeak(dataFile));
+	    derived.addRow(newRow);
+	}
+	return derived;
+    }
+
+    /**
+     * Checks the data points of the peaks created by
+     * ProjectTestUtils.createPeakList()
+     */
+    private static void checkDataPoints(PeakList peakList) {
+	RawDataFile dataFile = peakList.getRawDataFile(0);
+	for (PeakListRow row : peakList.getRows()) {
+	    final int i = row.getID() - 1;
+	    Feature peak = row.getPeak(dataFile);
+	    Assert.assertArrayEquals(new int[] { i + 1, i + 2, i + 3, i + 4,
+		    i + 5 }, peak.getScanNumbers());
+	    for (int scanNumber : peak.getScanNumbers()) {
+		DataPoint dataPoint = peak.getDataPoint(scanNumber);
+		Assert.assertEquals(100 + i, dataPoint.getMZ(), 1e-9);
+		Assert.assertEquals(scanNumber * 10 + i,
+			dataPoint.getIntensity(), 1e-3);
+	    }
+	}
+    }
+
+}
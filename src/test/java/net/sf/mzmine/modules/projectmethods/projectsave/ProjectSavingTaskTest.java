@@ -0,0 +1,174 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.File;
+
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.ProjectTestUtils;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that saving a project again keeps the changes made to the peaks and
+ * identities of its peak lists
+ */
+public class ProjectSavingTaskTest {
+
+    private File projectFile;
+
+    @Before
+    public void createProject() throws Exception {
+
+	ProjectTestUtils.initializeCore();
+
+	MZmineProjectImpl project = new MZmineProjectImpl();
+	RawDataFile dataFile = ProjectTestUtils.createRawDataFile("file", 40,
+		20);
+	project.addFile(dataFile);
+	SimplePeakList peakList = ProjectTestUtils.createPeakList("peaks",
+		dataFile, 20);
+	for (PeakListRow row : peakList.getRows()) {
+	    row.addPeakIdentity(new SimplePeakIdentity("Compound "
+		    + row.getID()), true);
+	}
+	project.addPeakList(peakList);
+	project.addPeakList(ProjectTestUtils.createPeakList("other", dataFile,
+		10));
+
+	projectFile = File.createTempFile("savingtest", ".mzmine");
+	ProjectTestUtils.saveProject(project, projectFile);
+
+    }
+
+    @After
+    public void deleteProject() {
+	projectFile.delete();
+    }
+
+    /**
+     * Changes of the values of a loaded peak are saved
+     */
+    @Test
+    public void testPeakChange() throws Exception {
+
+	MZmineProjectImpl project = ProjectTestUtils.openProject(projectFile);
+	Feature peak = getRow(project, "peaks", 3).getPeak(
+		project.getDataFiles()[0]);
+	peak.setCharge(2);
+	ProjectTestUtils.saveProject(project, projectFile);
+
+	project = ProjectTestUtils.openProject(projectFile);
+	peak = getRow(project, "peaks", 3).getPeak(project.getDataFiles()[0]);
+	Assert.assertEquals(2, peak.getCharge());
+	Assert.assertEquals(102, peak.getMZ(), 1e-9);
+
+    }
+
+    /**
+     * Changes of the properties of a loaded identity are saved
+     */
+    @Test
+    public void testIdentityChange() throws Exception {
+
+	MZmineProjectImpl project = ProjectTestUtils.openProject(projectFile);
+	SimplePeakIdentity identity = (SimplePeakIdentity) getRow(project,
+		"peaks", 5).getPreferredPeakIdentity();
+	identity.setPropertyValue(SimplePeakIdentity.PROPERTY_FORMULA,
+		"C6H12O6");
+	ProjectTestUtils.saveProject(project, projectFile);
+
+	project = ProjectTestUtils.openProject(projectFile);
+	Assert.assertEquals("C6H12O6", getRow(project, "peaks", 5)
+		.getPreferredPeakIdentity().getPropertyValue(
+			SimplePeakIdentity.PROPERTY_FORMULA));
+	Assert.assertEquals("Compound 5", getRow(project, "peaks", 5)
+		.getPreferredPeakIdentity().getName());
+
+    }
+
+    /**
+     * A change of a peak shared by two peak lists is saved in both, whichever
+     * is saved first
+     */
+    @Test
+    public void testSharedPeakChange() throws Exception {
+
+	MZmineProjectImpl project = ProjectTestUtils.openProject(projectFile);
+	RawDataFile dataFile = project.getDataFiles()[0];
+	PeakList peakList = getPeakList(project, "peaks");
+	SimplePeakList derived = new SimplePeakList("peaks filtered",
+		dataFile);
+	for (PeakListRow row : peakList.getRows()) {
+	    SimplePeakListRow newRow = new SimplePeakListRow(row.getID());
+	    newRow.addPeak(dataFile, row.getPeak(dataFile));
+	    newRow.addPeakIdentity(row.getPreferredPeakIdentity(), true);
+	    derived.addRow(newRow);
+	}
+	project.addPeakList(derived);
+	ProjectTestUtils.saveProject(project, projectFile);
+
+	getRow(project, "peaks", 7).getPeak(dataFile).setCharge(3);
+	((SimplePeakIdentity) getRow(project, "peaks filtered", 8)
+		.getPreferredPeakIdentity()).setPropertyValue(
+		SimplePeakIdentity.PROPERTY_ID, "42");
+	ProjectTestUtils.saveProject(project, projectFile);
+
+	project = ProjectTestUtils.openProject(projectFile);
+	dataFile = project.getDataFiles()[0];
+	for (String name : new String[] { "peaks", "peaks filtered" }) {
+	    Assert.assertEquals(name, 3, getRow(project, name, 7)
+		    .getPeak(dataFile).getCharge());
+	    Assert.assertEquals(name, "42", getRow(project, name, 8)
+		    .getPreferredPeakIdentity().getPropertyValue(
+			    SimplePeakIdentity.PROPERTY_ID));
+	}
+
+    }
+
+    private static PeakList getPeakList(MZmineProjectImpl project,
+	    String name) {
+	for (PeakList peakList : project.getPeakLists()) {
+	    if (peakList.getName().equals(name))
+		return peakList;
+	}
+	throw new AssertionError("Peak list " + name + " not found");
+    }
+
+    private static PeakListRow getRow(MZmineProjectImpl project,
+	    String peakListName, int rowID) {
+	for (PeakListRow row : getPeakList(project, peakListName).getRows()) {
+	    if (row.getID() == rowID)
+		return row;
+	}
+	throw new AssertionError("Row " + rowID + " not found");
+    }
+
+}
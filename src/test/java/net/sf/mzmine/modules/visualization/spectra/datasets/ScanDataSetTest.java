@@ -0,0 +1,122 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.visualization.spectra.datasets;
+
+import java.util.Random;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+import org.jfree.data.DomainOrder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Tests the data points plotted for a profile spectrum at different zoom
+ * levels
+ */
+public class ScanDataSetTest {
+
+    private Scan scan;
+
+    /**
+     * Creates a profile scan whose data points are stored in reverse order of
+     * m/z, with a single high data point at m/z 500
+     */
+    @Before
+    public void createScan() throws Exception {
+	Random random = new Random(1);
+	DataPoint dataPoints[] = new DataPoint[100000];
+	for (int i = 0; i < dataPoints.length; i++) {
+	    final double mz = 100 + i * 0.008;
+	    final double intensity = (i == 50000) ? 1e6
+		    : random.nextDouble() * 1000;
+	    dataPoints[dataPoints.length - 1 - i] = new SimpleDataPoint(mz,
+		    intensity);
+	}
+	scan = new SimpleScan(new RawDataFileImpl("file"), 1, 1, 1, 0, 0,
+		null, dataPoints, MassSpectrumType.PROFILE,
+		PolarityType.POSITIVE, "", Range.closed(100.0, 900.0));
+    }
+
+    /**
+     * Until the visible range is set, all data points are plotted in order of
+     * m/z
+     */
+    @Test
+    public void testAllDataPoints() {
+	ScanDataSet dataSet = new ScanDataSet(scan);
+	Assert.assertEquals(DomainOrder.ASCENDING, dataSet.getDomainOrder());
+	Assert.assertEquals(100000, dataSet.getItemCount(0));
+	for (int item = 1; item < 100000; item++) {
+	    Assert.assertTrue(dataSet.getXValue(0, item) > dataSet.getXValue(0,
+		    item - 1));
+	}
+	Assert.assertEquals(1e6,
+		dataSet.getHighestIntensity(Range.closed(499.0, 501.0)), 0);
+    }
+
+    /**
+     * Zoomed out, a few data points per pixel are plotted, including the
+     * highest one. Zoomed in, all data points of the visible range are
+     * plotted.
+     */
+    @Test
+    public void testVisibleRange() {
+	ScanDataSet dataSet = new ScanDataSet(scan);
+
+	dataSet.setVisibleRange(100, 900, 1000);
+	final int itemCount = dataSet.getItemCount(0);
+	Assert.assertTrue(itemCount + " items", itemCount <= 4006);
+	boolean highestPlotted = false;
+	for (int item = 0; item < itemCount; item++) {
+	    if (dataSet.getYValue(0, item) == 1e6)
+		highestPlotted = true;
+	}
+	Assert.assertTrue(highestPlotted);
+	Assert.assertEquals(100, dataSet.getXValue(0, 0), 1e-9);
+	Assert.assertEquals(100 + 99999 * 0.008,
+		dataSet.getXValue(0, itemCount - 1), 1e-9);
+
+	// The data points between m/z 499.5 and 500.5, the data points just
+	// outside of the range, and the first and last data point
+	int inRange = 0;
+	for (DataPoint dataPoint : scan.getDataPoints()) {
+	    if ((dataPoint.getMZ() >= 499.5) && (dataPoint.getMZ() <= 500.5))
+		inRange++;
+	}
+	dataSet.setVisibleRange(499.5, 500.5, 1000);
+	Assert.assertEquals(inRange + 4, dataSet.getItemCount(0));
+	for (int item = 2; item < inRange + 2; item++) {
+	    final double mz = dataSet.getXValue(0, item);
+	    Assert.assertTrue(mz + " out of range", (mz >= 499.5)
+		    && (mz <= 500.5));
+	}
+    }
+
+}
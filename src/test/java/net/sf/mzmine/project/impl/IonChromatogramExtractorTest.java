@@ -0,0 +1,154 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.util.Random;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.IonChromatogram;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Compares the ion chromatograms extracted in one pass over the scans with the
+ * most intense data points found by reading each scan
+ */
+public class IonChromatogramExtractorTest {
+
+    private RawDataFileImpl dataFile;
+    private Random random;
+
+    /**
+     * Creates a raw data file whose scans have random data points, and whose
+     * every tenth scan has its data points in reverse order of m/z
+     */
+    @Before
+    public void createDataFile() throws Exception {
+	random = new Random(1);
+	dataFile = new RawDataFileImpl("file");
+	for (int scanNumber = 1; scanNumber <= 1000; scanNumber++) {
+	    DataPoint dataPoints[] = new DataPoint[50];
+	    double mz = 100;
+	    for (int i = 0; i < dataPoints.length; i++) {
+		mz += 0.5 + random.nextInt(20) * 0.25;
+		final int position = scanNumber % 10 == 0 ? dataPoints.length
+			- 1 - i : i;
+		dataPoints[position] = new SimpleDataPoint(mz,
+			random.nextInt(1000));
+	    }
+	    dataFile.addScan(new SimpleScan(dataFile, scanNumber, 1,
+		    scanNumber * 0.1, 0, 0, null, dataPoints,
+		    MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+		    Range.closed(100.0, mz)));
+	}
+	dataFile.finishWriting();
+    }
+
+    @After
+    public void closeDataFile() {
+	dataFile.close();
+    }
+
+    @Test
+    public void testManyTargets() throws Exception {
+	check(2000, 1);
+	check(2000, 4);
+    }
+
+    /**
+     * A single target covering a few scans is extracted in the calling
+     * thread only
+     */
+    @Test
+    public void testSmallRequest() throws Exception {
+	check(1, 4);
+    }
+
+    /**
+     * The extraction fails when the data points cannot be read
+     */
+    @Test
+    public void testReadError() throws Exception {
+	@SuppressWarnings("unchecked")
+	Range<Double> mzRanges[] = new Range[] { Range.closed(100.0, 200.0) };
+	@SuppressWarnings("unchecked")
+	Range<Double> rtRanges[] = new Range[] { Range.closed(10.0, 90.0) };
+	IonChromatogramExtractor extractor = new IonChromatogramExtractor(
+		dataFile, 1, mzRanges, rtRanges);
+	dataFile.close();
+	try {
+	    extractor.extract(4);
+	    Assert.fail("Extracted ion chromatograms of a closed file");
+	} catch (IOException e) {
+	    // Expected
+	}
+    }
+
+    private void check(int numOfTargets, int numOfThreads) throws Exception {
+
+	@SuppressWarnings("unchecked")
+	Range<Double> mzRanges[] = new Range[numOfTargets];
+	@SuppressWarnings("unchecked")
+	Range<Double> rtRanges[] = new Range[numOfTargets];
+	for (int t = 0; t < numOfTargets; t++) {
+	    final double mz = 100 + random.nextDouble() * 200;
+	    final double rt = random.nextDouble() * 100;
+	    mzRanges[t] = Range.closed(mz, mz + random.nextDouble() * 2);
+	    rtRanges[t] = Range.closed(rt, rt + random.nextDouble() * 5);
+	}
+
+	IonChromatogram xics[] = new IonChromatogramExtractor(dataFile, 1,
+		mzRanges, rtRanges).extract(numOfThreads);
+
+	Assert.assertEquals(numOfTargets, xics.length);
+	for (int t = 0; t < numOfTargets; t++) {
+	    final int scanNumbers[] = dataFile.getScanNumbers(1, rtRanges[t]);
+	    Assert.assertArrayEquals(scanNumbers, xics[t].getScanNumbers());
+	    for (int i = 0; i < scanNumbers.length; i++) {
+		Scan scan = dataFile.getScan(scanNumbers[i]);
+		DataPoint best = null;
+		for (DataPoint dataPoint : scan.getDataPoints()) {
+		    if (mzRanges[t].contains(dataPoint.getMZ())
+			    && ((best == null) || (dataPoint.getIntensity() > best
+				    .getIntensity())))
+			best = dataPoint;
+		}
+		final double mz = best != null ? best.getMZ() : (mzRanges[t]
+			.lowerEndpoint() + mzRanges[t].upperEndpoint()) / 2;
+		final double intensity = best != null ? best.getIntensity() : 0;
+		Assert.assertEquals(mz, xics[t].getMZValues()[i], 1e-9);
+		Assert.assertEquals(intensity, xics[t].getIntensities()[i], 0);
+	    }
+	}
+
+    }
+
+}
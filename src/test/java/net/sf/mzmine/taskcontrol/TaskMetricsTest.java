@@ -0,0 +1,112 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.taskcontrol;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the scans read by a shared thread pool are counted for the task
+ * which submitted the work
+ */
+public class TaskMetricsTest {
+
+    /**
+     * The pool thread is started by the first task, while the second task
+     * submits work to it
+     */
+    @Test
+    public void testSharedPool() throws Exception {
+
+	final TaskMetrics metrics = new TaskMetrics();
+	final ExecutorService pool = Executors.newSingleThreadExecutor();
+	try {
+	    TaskMetrics.Measurement first = metrics.startTask(new FirstTask());
+	    readScan(pool, 10, true).get();
+
+	    Thread secondThread = new Thread(new Runnable() {
+		public void run() {
+		    TaskMetrics.Measurement second = metrics
+			    .startTask(new SecondTask());
+		    try {
+			readScan(pool, 20, true).get();
+			// Work which is not wrapped is not counted
+			readScan(pool, 40, false).get();
+		    } catch (Exception e) {
+			throw new RuntimeException(e);
+		    } finally {
+			metrics.finishTask(second);
+		    }
+		}
+	    });
+	    secondThread.start();
+	    secondThread.join();
+
+	    metrics.finishTask(first);
+	} finally {
+	    pool.shutdownNow();
+	}
+
+	Assert.assertEquals(2, metrics.getModuleMetrics().size());
+	for (TaskMetrics.ModuleMetrics moduleMetrics : metrics
+		.getModuleMetrics()) {
+	    final long bytes = moduleMetrics.getModule().equals(
+		    FirstTask.class.getName()) ? 10 : 20;
+	    Assert.assertEquals(moduleMetrics.getModule(), 1,
+		    moduleMetrics.getScansRead());
+	    Assert.assertEquals(moduleMetrics.getModule(), bytes,
+		    moduleMetrics.getBytesRead());
+	}
+
+    }
+
+    private static Future<Void> readScan(ExecutorService pool,
+	    final long bytes, boolean propagate) {
+	Callable<Void> read = new Callable<Void>() {
+	    public Void call() {
+		TaskMetrics.countScanRead(bytes);
+		return null;
+	    }
+	};
+	return pool.submit(propagate ? TaskMetrics.propagate(read) : read);
+    }
+
+    private static class FirstTask extends AbstractTask {
+	public String getTaskDescription() {
+	    return "First task";
+	}
+
+	public double getFinishedPercentage() {
+	    return 0;
+	}
+
+	public void run() {
+	}
+    }
+
+    private static class SecondTask extends FirstTask {
+    }
+
+}
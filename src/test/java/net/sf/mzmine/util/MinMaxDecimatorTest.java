@@ -0,0 +1,227 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the points selected by the level-of-detail index against the raw
+ * points of the series
+ */
+public class MinMaxDecimatorTest {
+
+    private Random random;
+
+    @Before
+    public void createRandom() {
+	random = new Random(1);
+    }
+
+    /**
+     * Zoomed out, a few points per pixel are returned, which include the
+     * lowest and highest point of the visible range
+     */
+    @Test
+    public void testZoomedOut() {
+	final int count = 100000;
+	double xValues[] = new double[count];
+	double yValues[] = new double[count];
+	MinMaxDecimator decimator = new MinMaxDecimator(xValues, yValues);
+	fill(decimator, xValues, yValues, count);
+
+	for (int width : new int[] { 1, 7, 100, 1000, 1920 }) {
+	    check(decimator, xValues, yValues, count, xValues[0],
+		    xValues[count - 1], width);
+	    check(decimator, xValues, yValues, count, -1000, 1000000, width);
+	    check(decimator, xValues, yValues, count, 1234.5, 45678.9, width);
+	    check(decimator, xValues, yValues, count, 90000, 99999, width);
+	}
+    }
+
+    /**
+     * Zoomed in, the raw points of the visible range are returned, with the
+     * points just outside of it and the first and last point of the series
+     */
+    @Test
+    public void testZoomedIn() {
+	final int count = 10000;
+	double xValues[] = new double[count];
+	double yValues[] = new double[count];
+	MinMaxDecimator decimator = new MinMaxDecimator(xValues, yValues);
+	fill(decimator, xValues, yValues, count);
+
+	int items[] = decimator.getVisibleItems(5000.5, 5100.5, 1000);
+	int expected[] = new int[104];
+	expected[0] = 0;
+	for (int i = 1; i < 103; i++)
+	    expected[i] = 4999 + i;
+	expected[103] = count - 1;
+	Assert.assertArrayEquals(expected, items);
+
+	// A range exactly at the points of the series
+	items = decimator.getVisibleItems(0, 99, 1000);
+	expected = new int[102];
+	for (int i = 0; i < 101; i++)
+	    expected[i] = i;
+	expected[101] = count - 1;
+	Assert.assertArrayEquals(expected, items);
+
+	// A range between two points
+	items = decimator.getVisibleItems(20.2, 20.8, 1000);
+	Assert.assertArrayEquals(new int[] { 0, 20, 21, count - 1 }, items);
+    }
+
+    /**
+     * Without a plot width, or without points, all points are returned
+     */
+    @Test
+    public void testAllItems() {
+	double xValues[] = new double[1000];
+	double yValues[] = new double[1000];
+	MinMaxDecimator decimator = new MinMaxDecimator(xValues, yValues);
+	Assert.assertEquals(0, decimator.getVisibleItems(0, 1000, 100).length);
+	Assert.assertEquals(0, decimator.getVisibleItems(0, 1000, 0).length);
+
+	fill(decimator, xValues, yValues, 1000);
+	int items[] = decimator.getVisibleItems(0, 1000, 0);
+	Assert.assertEquals(1000, items.length);
+	for (int i = 0; i < items.length; i++)
+	    Assert.assertEquals(i, items[i]);
+    }
+
+    /**
+     * Narrow peaks on a flat baseline keep their full height, as long as
+     * there are more pixels than peaks
+     */
+    @Test
+    public void testPeaks() {
+	final int count = 200000;
+	double xValues[] = new double[count];
+	double yValues[] = new double[count];
+	MinMaxDecimator decimator = new MinMaxDecimator(xValues, yValues);
+	for (int i = 0; i < count; i++) {
+	    xValues[i] = i * 0.01;
+	    yValues[i] = (i % 9973 == 5000) ? 1000 + i : 10;
+	    decimator.add();
+	}
+
+	for (int width : new int[] { 50, 300, 1500 }) {
+	    int items[] = decimator.getVisibleItems(0, count * 0.01, width);
+	    for (int peak = 5000; peak < count; peak += 9973) {
+		Assert.assertTrue("Peak at " + peak + ", width " + width,
+			Arrays.binarySearch(items, peak) >= 0);
+	    }
+	}
+    }
+
+    /**
+     * The points returned while the series is being filled only refer to the
+     * points added so far
+     */
+    @Test
+    public void testIncremental() {
+	final int count = 50000;
+	double xValues[] = new double[count];
+	double yValues[] = new double[count];
+	MinMaxDecimator decimator = new MinMaxDecimator(xValues, yValues);
+	int size = 0;
+	for (int step : new int[] { 1, 2, 5, 100, 1023, 4097, 12000, 32772 }) {
+	    fill(decimator, xValues, yValues, step);
+	    size += step;
+	    Assert.assertEquals(size, decimator.getSize());
+	    check(decimator, xValues, yValues, size, 0, count, 500);
+	    check(decimator, xValues, yValues, size, size * 0.25, size * 0.5,
+		    500);
+	}
+	Assert.assertEquals(count, size);
+    }
+
+    /**
+     * Adds the given number of points at consecutive integer x values, with
+     * random y values
+     */
+    private void fill(MinMaxDecimator decimator, double xValues[],
+	    double yValues[], int numOfPoints) {
+	for (int i = 0; i < numOfPoints; i++) {
+	    final int item = decimator.getSize();
+	    xValues[item] = item;
+	    yValues[item] = random.nextDouble() * 1000;
+	    decimator.add();
+	}
+    }
+
+    private static void check(MinMaxDecimator decimator, double xValues[],
+	    double yValues[], int count, double xMin, double xMax, int width) {
+
+	final String message = "Range " + xMin + " - " + xMax + ", width "
+		+ width + ", " + count + " points";
+	final int items[] = decimator.getVisibleItems(xMin, xMax, width);
+
+	// Ascending positions, starting and ending with the first and last
+	// point of the series
+	Assert.assertEquals(message, 0, items[0]);
+	Assert.assertEquals(message, count - 1, items[items.length - 1]);
+	for (int i = 1; i < items.length; i++)
+	    Assert.assertTrue(message, items[i] > items[i - 1]);
+
+	// At most 4 points per pixel
+	Assert.assertTrue(message + ": " + items.length + " points",
+		items.length <= width * 4 + 6);
+
+	// The points just outside of the range are included
+	int first = 0;
+	while ((first < count) && (xValues[first] < xMin))
+	    first++;
+	int last = count - 1;
+	while ((last >= 0) && (xValues[last] > xMax))
+	    last--;
+	if (first > 0)
+	    Assert.assertTrue(message,
+		    Arrays.binarySearch(items, first - 1) >= 0);
+	if (last < count - 1)
+	    Assert.assertTrue(message,
+		    Arrays.binarySearch(items, last + 1) >= 0);
+
+	// The lowest and highest point of the range are included
+	if (first > last)
+	    return;
+	double rawMin = Double.MAX_VALUE, rawMax = -Double.MAX_VALUE;
+	for (int i = first; i <= last; i++) {
+	    rawMin = Math.min(rawMin, yValues[i]);
+	    rawMax = Math.max(rawMax, yValues[i]);
+	}
+	double plottedMin = Double.MAX_VALUE, plottedMax = -Double.MAX_VALUE;
+	for (int item : items) {
+	    if ((item >= first) && (item <= last)) {
+		plottedMin = Math.min(plottedMin, yValues[item]);
+		plottedMax = Math.max(plottedMax, yValues[item]);
+	    }
+	}
+	Assert.assertEquals(message, rawMin, plottedMin, 0);
+	Assert.assertEquals(message, rawMax, plottedMax, 0);
+
+    }
+
+}
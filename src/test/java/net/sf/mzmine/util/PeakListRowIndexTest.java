@@ -0,0 +1,176 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Compares the lookups of PeakListRowIndex with a scan over all rows
+ */
+public class PeakListRowIndexTest {
+
+    private PeakListRow rows[];
+    private PeakListRowIndex index;
+    private Random random;
+
+    /**
+     * Creates rows whose m/z and retention time values lie on a coarse grid,
+     * so many rows share their values and many ranges end exactly at a value
+     */
+    @Before
+    public void createRows() throws Exception {
+	random = new Random(1);
+	RawDataFile dataFile = new RawDataFileImpl("file");
+	rows = new PeakListRow[2000];
+	for (int i = 0; i < rows.length; i++) {
+	    final double mz = 100 + random.nextInt(5000) * 0.01;
+	    final double rt = random.nextInt(300) * 0.1;
+	    SimplePeakListRow row = new SimplePeakListRow(i + 1);
+	    row.addPeak(dataFile, new SimpleFeature(dataFile, mz, rt, 100,
+		    100, new int[] { 1 },
+		    new DataPoint[] { new SimpleDataPoint(mz, 100) },
+		    FeatureStatus.DETECTED, 1, -1, Range.singleton(rt),
+		    Range.singleton(mz), Range.singleton(100.0)));
+	    rows[i] = row;
+	}
+	index = new PeakListRowIndex(rows);
+    }
+
+    @Test
+    public void testRowValues() {
+	Assert.assertEquals(rows.length, index.getNumberOfRows());
+	for (int i = 0; i < rows.length; i++) {
+	    Assert.assertSame(rows[i], index.getRow(i));
+	    Assert.assertEquals(rows[i].getAverageMZ(), index.getMZ(i), 0);
+	    Assert.assertEquals(rows[i].getAverageRT(), index.getRT(i), 0);
+	}
+    }
+
+    /**
+     * Looks up the tolerance ranges around the values of the rows, whose
+     * endpoints often coincide with the values of other rows
+     */
+    @Test
+    public void testToleranceRanges() {
+	MZTolerance mzTolerances[] = { new MZTolerance(0.01, 0),
+		new MZTolerance(0, 100), new MZTolerance(0.005, 20),
+		new MZTolerance(0, 0) };
+	RTTolerance rtTolerances[] = { new RTTolerance(true, 0.1),
+		new RTTolerance(false, 0.05), new RTTolerance(true, 0) };
+	for (int i = 0; i < rows.length; i += 7) {
+	    for (MZTolerance mzTolerance : mzTolerances) {
+		for (RTTolerance rtTolerance : rtTolerances) {
+		    check(mzTolerance.getToleranceRange(index.getMZ(i)),
+			    rtTolerance.getToleranceRange(index.getRT(i)));
+		}
+	    }
+	}
+    }
+
+    /**
+     * Looks up closed, open, half-bounded and empty ranges ending at values
+     * of the rows, and at values between them
+     */
+    @Test
+    public void testRangeEndpoints() {
+	for (int i = 0; i < 500; i++) {
+	    final double mz1 = index.getMZ(random.nextInt(rows.length));
+	    final double mz2 = mz1 + random.nextInt(100) * 0.01;
+	    final double rt1 = index.getRT(random.nextInt(rows.length));
+	    final double rt2 = rt1 + random.nextInt(20) * 0.1;
+	    for (Range<Double> mzRange : createRanges(mz1, mz2)) {
+		check(mzRange, Range.closed(rt1, rt2));
+		check(mzRange, Range.<Double> all());
+	    }
+	    for (Range<Double> rtRange : createRanges(rt1, rt2))
+		check(Range.closed(mz1, mz2), rtRange);
+	    check(Range.closed(mz1 + 0.005, mz2 + 0.005),
+		    Range.closed(rt1 + 0.05, rt2 + 0.05));
+	}
+	check(Range.closed(0.0, 1000.0), Range.<Double> all());
+	check(Range.closed(10.0, 20.0), Range.<Double> all());
+    }
+
+    private static List<Range<Double>> createRanges(double lower,
+	    double upper) {
+	List<Range<Double>> ranges = new ArrayList<Range<Double>>();
+	ranges.add(Range.closed(lower, upper));
+	ranges.add(Range.closedOpen(lower, upper));
+	ranges.add(Range.openClosed(lower, upper));
+	if (lower < upper)
+	    ranges.add(Range.open(lower, upper));
+	ranges.add(Range.singleton(lower));
+	ranges.add(Range.closedOpen(lower, lower));
+	ranges.add(Range.atLeast(lower));
+	ranges.add(Range.greaterThan(lower));
+	ranges.add(Range.atMost(upper));
+	ranges.add(Range.lessThan(upper));
+	return ranges;
+    }
+
+    /**
+     * Checks both lookups of the index against a scan over all rows
+     */
+    private void check(Range<Double> mzRange, Range<Double> rtRange) {
+
+	List<Integer> expected = new ArrayList<Integer>();
+	List<Integer> expectedByRT = new ArrayList<Integer>();
+	for (int i = 0; i < rows.length; i++) {
+	    if (!rtRange.contains(rows[i].getAverageRT()))
+		continue;
+	    expectedByRT.add(i);
+	    if (mzRange.contains(rows[i].getAverageMZ()))
+		expected.add(i);
+	}
+
+	Assert.assertEquals("Rows inside " + mzRange + ", " + rtRange,
+		expected, toList(index.getRowsInside(mzRange, rtRange)));
+	Assert.assertEquals("Rows inside " + rtRange, expectedByRT,
+		toList(index.getRowsInsideRTRange(rtRange)));
+
+    }
+
+    private static List<Integer> toList(int positions[]) {
+	List<Integer> list = new ArrayList<Integer>(positions.length);
+	for (int position : positions)
+	    list.add(position);
+	return list;
+    }
+
+}